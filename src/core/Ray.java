@@ -13,6 +13,12 @@ public class Ray
     private double time;
     private Medium medium;
 
+    // Per-ray part of the watertight ray-triangle test: the axis permutation that makes z the
+    // dominant direction component, and the shear that aligns the permuted direction with +z.
+    private boolean hasIntersectionData = false;
+    private int kx, ky, kz;
+    private double shearX, shearY, shearZ;
+
     public Ray()
     {
         this(new Point3(), new Direction3(), Double.MAX_VALUE, 0, null);
@@ -45,6 +51,13 @@ public class Ray
         this.tMax = other.tMax;
         this.time = other.time;
         this.medium = other.medium;
+        this.hasIntersectionData = other.hasIntersectionData;
+        this.kx = other.kx;
+        this.ky = other.ky;
+        this.kz = other.kz;
+        this.shearX = other.shearX;
+        this.shearY = other.shearY;
+        this.shearZ = other.shearZ;
     }
     
     public Point3 getOrigin()
@@ -65,6 +78,64 @@ public class Ray
     public void setDirection(Direction3 direction)
     {
         this.direction = direction;
+        hasIntersectionData = false;
+    }
+
+    /**
+     * Compute the data returned by {@link #getKx()} through {@link #getShearZ()} if that has not
+     * been done since the direction was last set. Aggregates call this once per ray so that
+     * every triangle test can reuse it.
+     */
+    public void precomputeIntersectionData()
+    {
+        if (hasIntersectionData)
+        {
+            return;
+        }
+        double dx = direction.x();
+        double dy = direction.y();
+        double dz = direction.z();
+        double absX = Math.abs(dx);
+        double absY = Math.abs(dy);
+        double absZ = Math.abs(dz);
+        kz = absX > absY ? (absX > absZ ? 0 : 2) : (absY > absZ ? 1 : 2);
+        kx = (kz + 1) % 3;
+        ky = (kx + 1) % 3;
+        double permutedZ = direction.get(kz);
+        shearX = -direction.get(kx) / permutedZ;
+        shearY = -direction.get(ky) / permutedZ;
+        shearZ = 1.0 / permutedZ;
+        hasIntersectionData = true;
+    }
+
+    public int getKx()
+    {
+        return kx;
+    }
+
+    public int getKy()
+    {
+        return ky;
+    }
+
+    public int getKz()
+    {
+        return kz;
+    }
+
+    public double getShearX()
+    {
+        return shearX;
+    }
+
+    public double getShearY()
+    {
+        return shearY;
+    }
+
+    public double getShearZ()
+    {
+        return shearZ;
     }
 
     /**
@@ -54,6 +54,14 @@ public class RGBSpectrum extends CoefficientSpectrum
     {
         return b;
     }
+
+    /**
+     * @return the luminance of this color.
+     */
+    public double y()
+    {
+        return 0.212671 * samples[0] + 0.715160 * samples[1] + 0.072169 * samples[2];
+    }
     
     // XXX this is RGB, not XYZ
     @Override
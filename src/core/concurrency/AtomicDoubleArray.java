@@ -0,0 +1,51 @@
+package core.concurrency;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * An array of doubles that can be added to concurrently without locking. Values are kept as
+ * their raw bits in a long array and updated by compare-and-set.
+ */
+public class AtomicDoubleArray
+{
+    private static final VarHandle BITS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final long[] bits;
+
+    public AtomicDoubleArray(int length)
+    {
+        // the bits of 0.0 are all zero
+        bits = new long[length];
+    }
+
+    public int length()
+    {
+        return bits.length;
+    }
+
+    public void add(int i, double x)
+    {
+        long current = (long) BITS.getVolatile(bits, i);
+        while (true)
+        {
+            long next = Double.doubleToRawLongBits(Double.longBitsToDouble(current) + x);
+            long witness = (long) BITS.compareAndExchange(bits, i, current, next);
+            if (witness == current)
+            {
+                return;
+            }
+            current = witness;
+        }
+    }
+
+    public double get(int i)
+    {
+        return Double.longBitsToDouble((long) BITS.getVolatile(bits, i));
+    }
+
+    public void set(int i, double value)
+    {
+        BITS.setVolatile(bits, i, Double.doubleToRawLongBits(value));
+    }
+}
@@ -1,18 +1,18 @@
 package film;
 
 import java.io.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.logging.Logger;
 
 import core.colors.RGBSpectrum;
-import core.concurrency.AtomicDouble;
+import core.concurrency.AtomicDoubleArray;
 import core.math.Direction2;
 import core.math.Point2;
 import core.space.BoundingBox2;
-import film.FilmTile.FilmTilePixel;
 import film.filter.Filter;
 import film.writer.PngImageWriter;
 import utilities.MathUtilities;
@@ -27,6 +27,8 @@ public class Film
     private final double scale;
     private BoundingBox2 croppedPixelBounds;
     private List<Pixel> pixels;
+    // XYZ splat sums, three per pixel, which may be added to from any thread
+    private final AtomicDoubleArray splatXYZ;
     
     private static final int FILTER_TABLE_WIDTH = 16;
     private double[] filterTable;
@@ -38,6 +40,18 @@ public class Film
     
     public Film(Point2 resolution, BoundingBox2 cropWindow, Filter filter, double diagonal, String outputDirectory, String fileName,
             double scale)
+    {
+        this(resolution, cropWindow, filter, diagonal, outputDirectory, fileName, scale,
+             new PngImageWriter(outputDirectory + "/" + fileName));
+    }
+    
+    /**
+     * @param imageWriter
+     *            writes the final image, usually to a file named after outputDirectory and
+     *            fileName
+     */
+    public Film(Point2 resolution, BoundingBox2 cropWindow, Filter filter, double diagonal, String outputDirectory, String fileName,
+            double scale, ImageWriter imageWriter)
     {
         this.resolution = resolution;
         this.filter = filter;
@@ -47,7 +61,7 @@ public class Film
         tileDirectory = outputDirectory + "/" + fileName;
         this.fileName = fileName;
 
-        this.imageWriter = new PngImageWriter(outputDirectory + "/" + fileName);
+        this.imageWriter = imageWriter;
         
         croppedPixelBounds = new BoundingBox2(new Point2(Math.ceil(resolution.x() * cropWindow.get(0).x()),
                                                          Math.ceil(resolution.y() * cropWindow.get(0).y())),
@@ -58,6 +72,7 @@ public class Film
         {
             pixels.add(new Pixel());
         }
+        splatXYZ = new AtomicDoubleArray(3 * croppedPixelBounds.integerArea());
         
         filterTable = new double[FILTER_TABLE_WIDTH * FILTER_TABLE_WIDTH];
         int offset = 0;
@@ -87,58 +102,50 @@ public class Film
     }
     
     public FilmTile getFilmTile(BoundingBox2 sampleBounds)
+    {
+        if (isFilmTileComplete(sampleBounds))
+        {
+            return null;
+        }
+        return createFilmTile(sampleBounds);
+    }
+    
+    /**
+     * @return a tile for these sample bounds, whether or not one has been written out already.
+     *         Progressive renders merge many tiles for the same bounds with
+     *         {@link #mergeFilmTile(FilmTile)}.
+     */
+    public FilmTile createFilmTile(BoundingBox2 sampleBounds)
+    {
+        return new FilmTile(getTilePixelBounds(sampleBounds), filter.getRadius(), filterTable, FILTER_TABLE_WIDTH);
+    }
+    
+    /**
+     * @return true if the tile for these sample bounds has already been rendered and written out,
+     *         by this render or one that was interrupted.
+     */
+    public boolean isFilmTileComplete(BoundingBox2 sampleBounds)
+    {
+        String tileFileName = FilmTile.getFileName(getTilePixelBounds(sampleBounds));
+        return new File(tileDirectory, tileFileName).exists();
+    }
+    
+    private BoundingBox2 getTilePixelBounds(BoundingBox2 sampleBounds)
     {
         BoundingBox2 bounds = new BoundingBox2(sampleBounds);
         Direction2 halfPixel = new Direction2(0.5, 0.5);
         Point2 p0 = bounds.get(0).minus(halfPixel).minus(filter.getRadius()).ceil();
         Point2 p1 = bounds.get(1).minus(halfPixel).plus(filter.getRadius()).floor();
-        BoundingBox2 tilePixelBounds = new BoundingBox2(p0, p1).intersect(croppedPixelBounds);
-
-        String tileFileName = FilmTile.getFileName(tilePixelBounds);
-        File tileFile = new File(tileDirectory, tileFileName);
-        if (tileFile.exists())
-        {
-            return null;
-        }
-
-        return new FilmTile(tilePixelBounds, filter.getRadius(), filterTable, FILTER_TABLE_WIDTH);
+        return new BoundingBox2(p0, p1).intersect(croppedPixelBounds);
     }
 
     public void onFilmTileComplete(FilmTile filmTile)
     {
-        // Write tile information to file
-        double[] tilePixels = new double[3 * filmTile.getPixelBounds().integerArea()];
-        double[] tileWeights = new double[filmTile.getPixelBounds().integerArea()];
-        int tileIndex = 0;
-
-        for (Point2 pixel : filmTile.getPixelBounds())
-        {
-            FilmTilePixel tilePixel = filmTile.getPixel(pixel);
-            double[] xyz = tilePixel.getContribution().toXYZ();
-
-            tileWeights[tileIndex] = tilePixel.getFilterWeight();
-
-            tilePixels[3 * tileIndex] = xyz[0];
-            tilePixels[3 * tileIndex + 1] = xyz[1];
-            tilePixels[3 * tileIndex + 2] = xyz[2];
-            tileIndex += 1;
-        }
-
-        // TODO dedicated writer class?
-        File weightFile = new File(tileDirectory, filmTile.getFileName());
-        weightFile.getParentFile().mkdirs();
-        try(PrintStream weightOutput = new PrintStream(new FileOutputStream(weightFile)))
+        File tileFile = new File(tileDirectory, filmTile.getFileName());
+        tileFile.getParentFile().mkdirs();
+        try
         {
-            weightOutput.println(filmTile.getTileNum());
-            for (int i = 0; i < tileWeights.length; i++)
-            {
-                weightOutput.println("{");
-                weightOutput.println("    " + tilePixels[3 * i]);
-                weightOutput.println("    " + tilePixels[3 * i + 1]);
-                weightOutput.println("    " + tilePixels[3 * i + 2]);
-                weightOutput.println("    " + tileWeights[i]);
-                weightOutput.println("},");
-            }
+            FilmTileFile.write(tileFile.toPath(), filmTile);
         }
         catch (IOException e)
         {
@@ -146,7 +153,10 @@ public class Film
         }
     }
 
-    // Read film tiles on disk and merge them
+    /**
+     * Read the film tiles on disk and merge them. Tile files are memory-mapped and read in
+     * parallel.
+     */
     public void mergeFilmTiles()
     {
         File tileDir = new File(tileDirectory);
@@ -155,65 +165,58 @@ public class Film
             throw new IllegalStateException(
                     "Programming error. Tile directory " + tileDir.getAbsolutePath() + " does not exist.");
         }
-        File[] tiles = tileDir.listFiles();
+        // tiles still being written have not been completed
+        File[] tiles = tileDir.listFiles((dir, name) -> !name.endsWith(FilmTileFile.TEMPORARY_SUFFIX));
         if (tiles == null)
         {
             logger.warning("No tiles available in directory " + tileDir.getAbsolutePath());
             return;
         }
 
-        for (File file : tiles)
+        Arrays.stream(tiles).parallel().forEach(file ->
         {
-            // TODO dedicated reader class?
-            String fileName = file.getName();
-            String[] nameComponents = fileName.split("\\.")[0].split("-");
-            //int tileNum = Integer.valueOf(nameComponents[4]);
-            Point2 min = new Point2(Double.valueOf(nameComponents[0]), Double.valueOf(nameComponents[1]));
-            Point2 max = new Point2(Double.valueOf(nameComponents[2]), Double.valueOf(nameComponents[3]));
-            List<FilmTile.FilmTilePixel> filmTilePixels = new LinkedList<>();
-
-            try (BufferedReader reader = new BufferedReader(new FileReader(file)))
+            try
             {
-                String line;
-                int tileNum = Integer.valueOf(reader.readLine());
-                while ((line = reader.readLine()) != null)
-                {
-                    if (line.contains("{") || line.contains("}"))
-                    {
-                        continue;
-                    }
-
-                    double r = Double.valueOf(line);
-                    double g = Double.valueOf(reader.readLine());
-                    double b = Double.valueOf(reader.readLine());
-                    double weight = Double.valueOf(reader.readLine());
-
-                    filmTilePixels.add(new FilmTile.FilmTilePixel(new RGBSpectrum(r, g, b), weight));
-                }
-
-                FilmTile filmTile = new FilmTile(tileNum, new BoundingBox2(min, max), filmTilePixels);
-                mergeFilmTile(filmTile);
+                mergeFilmTile(FilmTileFile.read(file.toPath()));
             }
             catch (IOException e)
             {
                 logger.severe("Failed to read tile " + file.getAbsolutePath() + ": " + e);
             }
-        }
+        });
         // TODO delete tile dir when done? flag?
     }
     
+    private synchronized void mergeFilmTile(FilmTileFile tileFile)
+    {
+        double[] values = tileFile.getValues();
+        int offset = 0;
+        for (Point2 pixel : tileFile.getPixelBounds())
+        {
+            Pixel mergePixel = getPixel(pixel);
+            for (int i = 0 ; i < 3; i++)
+            {
+                mergePixel.xyz[i] += values[offset + i];
+            }
+            mergePixel.filterWeightSum += values[offset + 3];
+            offset += FilmTileFile.VALUES_PER_PIXEL;
+        }
+    }
+    
     public synchronized void mergeFilmTile(FilmTile filmTile)
     {
+        double[] contributionSums = filmTile.getContributionSums();
+        double[] filterWeightSums = filmTile.getFilterWeightSums();
+        int offset = 0;
         for (Point2 pixel : filmTile.getPixelBounds())
         {
-            FilmTilePixel tilePixel = filmTile.getPixel(pixel);
             Pixel mergePixel = getPixel(pixel);
-            double[] xyz = tilePixel.getContribution().toXYZ();
             for (int i = 0 ; i < 3; i++)
             {
-                mergePixel.xyz[i] += xyz[i];
+                mergePixel.xyz[i] += contributionSums[3 * offset + i];
             }
-            mergePixel.filterWeightSum += tilePixel.getFilterWeight();
+            mergePixel.filterWeightSum += filterWeightSums[offset];
+            offset += 1;
         }
     }
     
@@ -224,9 +227,10 @@ public class Film
             Pixel p = pixels.get(i);
             double[] xyz = img[i].toXYZ();
             p.filterWeightSum = 1;
-            p.splatXYZ[0] = new AtomicDouble(0);
-            p.splatXYZ[1] = new AtomicDouble(0);
-            p.splatXYZ[2] = new AtomicDouble(0);
+            for (int j = 0; j < 3; j++)
+            {
+                splatXYZ.set(3 * i + j, 0);
+            }
         }
     }
     
@@ -236,56 +240,28 @@ public class Film
         {
             return;
         }
-        double[] xyz = v.toXYZ();
-        Pixel pixel = getPixel(p);
+        int offset = getOffset(p);
         for (int i = 0; i < 3; i++)
         {
-            pixel.splatXYZ[i].add(xyz[i]);
+            splatXYZ.add(3 * offset + i, v.getSample(i));
         }
     }
     
+    /**
+     * Write the image through this film's image writer. High dynamic range writers get linear
+     * RGB; others get gamma-corrected values clamped to [0, 255]. Scanlines are converted as the
+     * writer asks for them, so streaming writers need no copy of the image.
+     */
     public void writeImage(double splatScale)
     {
-        double[] imageRgb = new double[3 * croppedPixelBounds.integerArea()];
-        int offset = 0;
-        for (Point2 p : croppedPixelBounds)
-        {
-            Pixel pixel = getPixel(p);
-            // convert XYZ color to RGB
-            // TODO this is already RGB; do conversion when we are using Spectrum instead of Color
-            double[] rgb = Arrays.copyOf(pixel.xyz, 3);
-            
-            // normalize pixel with weight sum
-            double filterWeightSum = pixel.filterWeightSum;
-            if (filterWeightSum != 0)
-            {
-                double invWeight = 1.0 / filterWeightSum;
-                for (int i = 0; i < 3; i++)
-                {
-                    rgb[i] = Math.max(0, rgb[i] * invWeight);
-                }
-            }
-
-            // TODO XYZ conversion to RGB
-            for (int i = 0; i < 3; i++)
-            {
-                rgb[i] += splatScale * pixel.splatXYZ[i].getValue();
-                imageRgb[3 * offset + i] = rgb[i] * scale;
-            }
-            offset += 1;
-        }
-        
-        // TODO: move this functionality elsewhere
-        // Scale samples from [0,1) to [0,256)
-        for (int i = 0; i < imageRgb.length; i++)
-        {
-            double scaledSample = 255 * MathUtilities.gammaCorrect(imageRgb[i]);
-            imageRgb[i] = MathUtilities.clamp(scaledSample, 0, 255);
-        }
-
+        int width = (int) croppedPixelBounds.get(1).x() - (int) croppedPixelBounds.get(0).x();
+        int height = (int) croppedPixelBounds.get(1).y() - (int) croppedPixelBounds.get(0).y();
+        boolean highDynamicRange = imageWriter.isHighDynamicRange();
         try
         {
-            imageWriter.writeImage((int) resolution.x(), (int) resolution.y(), imageRgb);
+            imageWriter.writeImage(width, height,
+                                   (y, rgb, rgbOffset) -> getScanline(y, width, splatScale, highDynamicRange,
+                                                                      rgb, rgbOffset));
         }
         catch (IOException e)
         {
@@ -294,23 +270,100 @@ public class Film
         }
     }
     
+    private void getScanline(int y, int width, double splatScale, boolean highDynamicRange, double[] rgb,
+                             int rgbOffset)
+    {
+        for (int x = 0, offset = y * width; x < width; x++, offset++)
+        {
+            Pixel pixel = pixels.get(offset);
+            double filterWeightSum = pixel.filterWeightSum;
+            double invWeight = filterWeightSum != 0 ? 1.0 / filterWeightSum : 0;
+            for (int i = 0; i < 3; i++)
+            {
+                // convert XYZ color to RGB
+                // TODO this is already RGB; do conversion when we are using Spectrum instead of Color
+                double value = pixel.xyz[i];
+                
+                // normalize pixel with weight sum
+                if (filterWeightSum != 0)
+                {
+                    value = Math.max(0, value * invWeight);
+                }
+                
+                // TODO XYZ conversion to RGB
+                value = (value + splatScale * splatXYZ.get(3 * offset + i)) * scale;
+                if (!highDynamicRange)
+                {
+                    // Scale samples from [0,1) to [0,256)
+                    value = MathUtilities.clamp(255 * MathUtilities.gammaCorrect(value), 0, 255);
+                }
+                rgb[rgbOffset + 3 * x + i] = value;
+            }
+        }
+    }
+    
     public Point2 getResolution()
     {
         return resolution;
     }
     
+    public BoundingBox2 getCroppedPixelBounds()
+    {
+        return croppedPixelBounds;
+    }
+    
+    /**
+     * @return where renders of this film keep their checkpoint journal.
+     */
+    public Path getCheckpointPath()
+    {
+        return Paths.get(outputDirectory, fileName + ".checkpoint");
+    }
+    
+    /**
+     * Write the XYZ contribution and filter weight sums of all pixels, for a checkpoint.
+     */
+    public synchronized void writePixels(DataOutput output) throws IOException
+    {
+        for (Pixel pixel : pixels)
+        {
+            output.writeDouble(pixel.xyz[0]);
+            output.writeDouble(pixel.xyz[1]);
+            output.writeDouble(pixel.xyz[2]);
+            output.writeDouble(pixel.filterWeightSum);
+        }
+    }
+    
+    /**
+     * Replace the contribution and filter weight sums of all pixels with ones written by
+     * {@link #writePixels(DataOutput)}.
+     */
+    public synchronized void readPixels(DataInput input) throws IOException
+    {
+        for (Pixel pixel : pixels)
+        {
+            pixel.xyz[0] = input.readDouble();
+            pixel.xyz[1] = input.readDouble();
+            pixel.xyz[2] = input.readDouble();
+            pixel.filterWeightSum = input.readDouble();
+        }
+    }
+    
     private Pixel getPixel(Point2 p)
+    {
+        return pixels.get(getOffset(p));
+    }
+    
+    private int getOffset(Point2 p)
     {
         int width = (int) croppedPixelBounds.get(1).x() - (int) croppedPixelBounds.get(0).x();
-        int offset = ((int) p.x() - (int) croppedPixelBounds.get(0).x()) +
-                     ((int) p.y() - (int) croppedPixelBounds.get(0).y()) * width;
-        return pixels.get(offset);   
+        return ((int) p.x() - (int) croppedPixelBounds.get(0).x()) +
+               ((int) p.y() - (int) croppedPixelBounds.get(0).y()) * width;
     }
     
     private static class Pixel
     {
         double[] xyz = new double[] {0, 0, 0};
         double filterWeightSum = 0;
-        AtomicDouble[] splatXYZ = new AtomicDouble[] { new AtomicDouble(), new AtomicDouble(), new AtomicDouble() };
     }
 }
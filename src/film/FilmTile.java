@@ -1,7 +1,5 @@
 package film;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import core.colors.RGBSpectrum;
@@ -9,107 +7,225 @@ import core.math.Direction2;
 import core.math.Point2;
 import core.space.BoundingBox2;
 
+/**
+ * The pixels of one tile of the film, accumulated by a single rendering thread. Pixels are held
+ * in flat arrays in scanline order, so that adding a sample allocates nothing.
+ */
 public class FilmTile
 {
     private final BoundingBox2 pixelBounds;
-    private final Direction2 filterRadius;
-    private final Direction2 invFilterRadius;
+    private final int x0;
+    private final int y0;
+    private final int x1;
+    private final int y1;
+    private final int width;
+    private final double filterRadiusX;
+    private final double filterRadiusY;
+    private final double invFilterRadiusX;
+    private final double invFilterRadiusY;
     private final double[] filter;
     // Note that filter is a linearized 2D array and so filter.length != filterTableWidth
     private final int filterTableWidth;
-    private final List<FilmTilePixel> pixels;
-    
+    // filter table offsets of the pixels a sample touches, reused by every sample
+    private final int[] ifx;
+    private final int[] ify;
+
+    // RGB contribution sums, three per pixel
+    private final double[] contributionSums;
+    private final double[] filterWeightSums;
+    // running luminance statistics of the samples taken for each pixel, as opposed to the
+    // filtered contributions of samples of nearby pixels
+    private final long[] sampleCounts;
+    private final double[] luminanceMeans;
+    private final double[] luminanceSquaredDeviations;
+
     private final int myTileNum;
     private static AtomicInteger tileNum = new AtomicInteger();
 
     public FilmTile(BoundingBox2 pixelBounds, Direction2 filterRadius, double[] filter, int filterTableWidth)
     {
-        this.pixelBounds = pixelBounds;
-        this.filterRadius = filterRadius;
-        this.invFilterRadius = new Direction2(1 / filterRadius.x(), 1 / filterRadius.y());
-        this.filter = filter;
-        this.filterTableWidth = filterTableWidth;
-        
-        myTileNum = tileNum.getAndIncrement();
-        
-        pixels = new ArrayList<>(pixelBounds.integerArea());
-        for (int i = 0; i < pixelBounds.integerArea(); i++)
-        {
-            pixels.add(new FilmTilePixel());
-        }
+        this(tileNum.getAndIncrement(), pixelBounds, filterRadius, filter, filterTableWidth,
+             new double[3 * pixelBounds.integerArea()], new double[pixelBounds.integerArea()]);
     }
 
     // placeholder
-    public FilmTile(int tileNum, BoundingBox2 pixelBounds, List<FilmTilePixel> pixels)
+    public FilmTile(int tileNum, BoundingBox2 pixelBounds, double[] contributionSums, double[] filterWeightSums)
+    {
+        this(tileNum, pixelBounds, null, null, 0, contributionSums, filterWeightSums);
+    }
+
+    private FilmTile(int tileNum, BoundingBox2 pixelBounds, Direction2 filterRadius, double[] filter,
+                     int filterTableWidth, double[] contributionSums, double[] filterWeightSums)
     {
+        int area = pixelBounds.integerArea();
+        if (contributionSums.length != 3 * area || filterWeightSums.length != area)
+        {
+            throw new IllegalArgumentException(String.format("%d contribution and %d weight sums for %d pixels.",
+                                                             contributionSums.length, filterWeightSums.length,
+                                                             area));
+        }
         this.pixelBounds = pixelBounds;
-        this.pixels = pixels;
+        x0 = (int) pixelBounds.get(0).x();
+        y0 = (int) pixelBounds.get(0).y();
+        x1 = (int) pixelBounds.get(1).x();
+        y1 = (int) pixelBounds.get(1).y();
+        width = x1 - x0;
+        this.filter = filter;
+        this.filterTableWidth = filterTableWidth;
+        if (filterRadius != null)
+        {
+            filterRadiusX = filterRadius.x();
+            filterRadiusY = filterRadius.y();
+            invFilterRadiusX = 1 / filterRadiusX;
+            invFilterRadiusY = 1 / filterRadiusY;
+            ifx = new int[(int) Math.ceil(2 * filterRadiusX) + 1];
+            ify = new int[(int) Math.ceil(2 * filterRadiusY) + 1];
+        }
+        else
+        {
+            filterRadiusX = filterRadiusY = invFilterRadiusX = invFilterRadiusY = 0;
+            ifx = ify = null;
+        }
         myTileNum = tileNum;
 
-        filterRadius = null;
-        invFilterRadius = null;
-        filter = null;
-        filterTableWidth = 0;
+        this.contributionSums = contributionSums;
+        this.filterWeightSums = filterWeightSums;
+        sampleCounts = new long[area];
+        luminanceMeans = new double[area];
+        luminanceSquaredDeviations = new double[area];
     }
-    
+
     public int getTileNum()
     {
         return myTileNum;
     }
-    
+
     public void addSample(Point2 pFilm, RGBSpectrum radiance, double sampleWeight)
+    {
+        addSample(pFilm.x(), pFilm.y(), radiance.getSample(0), radiance.getSample(1), radiance.getSample(2),
+                  sampleWeight);
+    }
+
+    public void addSample(double filmX, double filmY, double r, double g, double b, double sampleWeight)
     {
         // Get the bounds of pixels affected by this sample
-        Point2 pFilmDiscrete = pFilm.minus(new Direction2(0.5, 0.5));
-        Point2 p0 = pFilmDiscrete.minus(filterRadius).ceil();
-        Point2 p1 = pFilmDiscrete.plus(filterRadius).floor().plus(new Direction2(1, 1));
-        p0 = Point2.max(p0, pixelBounds.get(0));
-        p1 = Point2.min(p1, pixelBounds.get(1));
-        
+        double discreteX = filmX - 0.5;
+        double discreteY = filmY - 0.5;
+        int px0 = Math.max((int) Math.ceil(discreteX - filterRadiusX), x0);
+        int py0 = Math.max((int) Math.ceil(discreteY - filterRadiusY), y0);
+        int px1 = Math.min((int) Math.floor(discreteX + filterRadiusX) + 1, x1);
+        int py1 = Math.min((int) Math.floor(discreteY + filterRadiusY) + 1, y1);
+
         // precompute x and y table offsets
-        int[] ifx = new int[(int) p1.x() - (int) p0.x()];
-        for (int x = (int) p0.x(); x < (int) p1.x(); x++)
+        for (int x = px0; x < px1; x++)
         {
-            double fx = Math.abs((x - pFilmDiscrete.x()) * invFilterRadius.x() * filterTableWidth);
-            ifx[x - (int)p0.x()] = Math.min((int)Math.floor(fx), filterTableWidth - 1);
+            double fx = Math.abs((x - discreteX) * invFilterRadiusX * filterTableWidth);
+            ifx[x - px0] = Math.min((int) Math.floor(fx), filterTableWidth - 1);
         }
-
-        int[] ify = new int[(int) p1.y() - (int) p0.y()];
-        for (int y = (int) p0.y(); y < (int) p1.y(); y++)
+        for (int y = py0; y < py1; y++)
         {
-            double fy = Math.abs((y - pFilmDiscrete.y()) * invFilterRadius.y() * filterTableWidth);
-            ify[y - (int)p0.y()] = Math.min((int)Math.floor(fy), filterTableWidth - 1);
+            double fy = Math.abs((y - discreteY) * invFilterRadiusY * filterTableWidth);
+            ify[y - py0] = Math.min((int) Math.floor(fy), filterTableWidth - 1);
         }
-        
-        for (int y = (int) p0.y(); y < (int) p1.y(); y++)
+
+        for (int y = py0; y < py1; y++)
         {
-            for (int x = (int) p0.x(); x < (int) p1.x(); x++)
+            int filterRow = ify[y - py0] * filterTableWidth;
+            int pixel = (y - y0) * width + (px0 - x0);
+            for (int x = px0; x < px1; x++, pixel++)
             {
                 // evaluate filter value at pixel x, y
-                int offset = ify[y - (int) p0.y()] * filterTableWidth + ifx[x - (int)p0.x()];
-                double filterWeight = filter[offset];
-                
+                double filterWeight = filter[filterRow + ifx[x - px0]];
+
                 // update pixel values with filtered sample contribution
-                FilmTilePixel pixel = getPixel(new Point2(x, y));
-                pixel.addContribution(radiance.times(sampleWeight * filterWeight));
-                pixel.filterWeightSum += filterWeight;
+                double contributionWeight = sampleWeight * filterWeight;
+                contributionSums[3 * pixel] += r * contributionWeight;
+                contributionSums[3 * pixel + 1] += g * contributionWeight;
+                contributionSums[3 * pixel + 2] += b * contributionWeight;
+                filterWeightSums[pixel] += filterWeight;
             }
         }
     }
-    
-    public FilmTilePixel getPixel(Point2 p)
+
+    /**
+     * Record the luminance of a sample taken for the given pixel, for the pixel's variance.
+     * Samples for pixels outside this tile are ignored.
+     */
+    public void addLuminanceSample(Point2 pixel, double luminance)
+    {
+        if (pixelBounds.containsExclusive(pixel))
+        {
+            // Welford's update, as in PixelStatistics
+            int offset = getOffset(pixel);
+            long n = ++sampleCounts[offset];
+            double delta = luminance - luminanceMeans[offset];
+            luminanceMeans[offset] += delta / n;
+            luminanceSquaredDeviations[offset] += delta * (luminance - luminanceMeans[offset]);
+        }
+    }
+
+    public long getSampleCount(Point2 pixel)
+    {
+        return sampleCounts[getOffset(pixel)];
+    }
+
+    public double getLuminanceMean(Point2 pixel)
+    {
+        return luminanceMeans[getOffset(pixel)];
+    }
+
+    /**
+     * @return the sample variance of the luminance of the pixel's samples, or infinity if it has
+     *         fewer than two.
+     */
+    public double getLuminanceVariance(Point2 pixel)
+    {
+        int offset = getOffset(pixel);
+        return sampleCounts[offset] < 2 ? Double.POSITIVE_INFINITY
+                                        : luminanceSquaredDeviations[offset] / (sampleCounts[offset] - 1);
+    }
+
+    /**
+     * @return the RGB contribution sums of the pixels, three per pixel in scanline order.
+     */
+    double[] getContributionSums()
+    {
+        return contributionSums;
+    }
+
+    /**
+     * @return the filter weight sums of the pixels, in scanline order.
+     */
+    double[] getFilterWeightSums()
     {
-        int width = (int) pixelBounds.get(1).x() - (int) pixelBounds.get(0).x();
-        int offset = ((int) p.x() - (int) pixelBounds.get(0).x()) +
-                     ((int) p.y() - (int) pixelBounds.get(0).y()) * width;
-        return pixels.get(offset);
+        return filterWeightSums;
     }
-    
+
+    long[] getSampleCounts()
+    {
+        return sampleCounts;
+    }
+
+    double[] getLuminanceMeans()
+    {
+        return luminanceMeans;
+    }
+
+    double[] getLuminanceSquaredDeviations()
+    {
+        return luminanceSquaredDeviations;
+    }
+
+    private int getOffset(Point2 p)
+    {
+        return ((int) p.x() - x0) + ((int) p.y() - y0) * width;
+    }
+
     public BoundingBox2 getPixelBounds()
     {
         return pixelBounds;
     }
-    
+
     public String getFileName()
     {
         return getFileName(pixelBounds);
@@ -120,35 +236,4 @@ public class FilmTile
         return String.format("%d-%d-%d-%d", (int) boundingBox.get(0).x(), (int) boundingBox.get(0).y(),
                              (int) boundingBox.get(1).x(), (int) boundingBox.get(1).y());
     }
-
-    public static class FilmTilePixel
-    {
-        private RGBSpectrum contributionSum = new RGBSpectrum(0, 0, 0);
-        private double filterWeightSum = 0;
-
-        FilmTilePixel()
-        {
-        }
-
-        public FilmTilePixel(RGBSpectrum color, double filterWeight)
-        {
-            contributionSum = color;
-            filterWeightSum = filterWeight;
-        }
-        
-        public void addContribution(RGBSpectrum color)
-        {
-            contributionSum = contributionSum.plus(color);
-        }
-        
-        public RGBSpectrum getContribution()
-        {
-            return contributionSum;
-        }
-        
-        public double getFilterWeight()
-        {
-            return filterWeightSum;
-        }
-    }
 }
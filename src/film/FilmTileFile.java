@@ -0,0 +1,154 @@
+package film;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import core.math.Point2;
+import core.space.BoundingBox2;
+
+/**
+ * Binary checkpoint of a rendered film tile. A header holding a magic number, the format
+ * version, the size of the stored values, the tile number and the tile's pixel bounds is
+ * followed by the XYZ contribution sum and the filter weight sum of each pixel, in scanline
+ * order. Values are written as float64, but float32 files can be read as well.
+ */
+public class FilmTileFile
+{
+    private static final int MAGIC = 0x46544C45;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8 * Integer.BYTES;
+    public static final int VALUES_PER_PIXEL = 4;
+    private static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    /**
+     * Tiles are written under this suffix first and renamed once complete, so that an
+     * interrupted write never leaves behind a file that looks like a finished tile.
+     */
+    public static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private final int tileNum;
+    private final BoundingBox2 pixelBounds;
+    private final double[] values;
+
+    private FilmTileFile(int tileNum, BoundingBox2 pixelBounds, double[] values)
+    {
+        this.tileNum = tileNum;
+        this.pixelBounds = pixelBounds;
+        this.values = values;
+    }
+
+    public int getTileNum()
+    {
+        return tileNum;
+    }
+
+    public BoundingBox2 getPixelBounds()
+    {
+        return pixelBounds;
+    }
+
+    /**
+     * @return X, Y, Z and filter weight of each pixel, in scanline order.
+     */
+    public double[] getValues()
+    {
+        return values;
+    }
+
+    public static void write(Path path, FilmTile filmTile) throws IOException
+    {
+        BoundingBox2 bounds = filmTile.getPixelBounds();
+        int numPixels = bounds.integerArea();
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + numPixels * VALUES_PER_PIXEL * Double.BYTES)
+                                      .order(BYTE_ORDER);
+        buffer.putInt(MAGIC)
+              .putInt(VERSION)
+              .putInt(Double.BYTES)
+              .putInt(filmTile.getTileNum())
+              .putInt((int) bounds.get(0).x())
+              .putInt((int) bounds.get(0).y())
+              .putInt((int) bounds.get(1).x())
+              .putInt((int) bounds.get(1).y());
+        // the film's RGB is its XYZ for now
+        double[] contributionSums = filmTile.getContributionSums();
+        double[] filterWeightSums = filmTile.getFilterWeightSums();
+        for (int pixel = 0; pixel < numPixels; pixel++)
+        {
+            buffer.putDouble(contributionSums[3 * pixel])
+                  .putDouble(contributionSums[3 * pixel + 1])
+                  .putDouble(contributionSums[3 * pixel + 2])
+                  .putDouble(filterWeightSums[pixel]);
+        }
+        buffer.flip();
+
+        Path temporaryPath = path.resolveSibling(path.getFileName() + TEMPORARY_SUFFIX);
+        try (FileChannel channel = FileChannel.open(temporaryPath,
+                                                    StandardOpenOption.CREATE,
+                                                    StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            while (buffer.hasRemaining())
+            {
+                channel.write(buffer);
+            }
+        }
+        Files.move(temporaryPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public static FilmTileFile read(Path path) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            if (channel.size() < HEADER_SIZE)
+            {
+                throw new IOException("Tile file " + path + " is too short.");
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            mapped.order(BYTE_ORDER);
+            if (mapped.getInt() != MAGIC)
+            {
+                throw new IOException(path + " is not a tile file.");
+            }
+            int version = mapped.getInt();
+            if (version != VERSION)
+            {
+                throw new IOException("Unsupported version " + version + " of tile file " + path + ".");
+            }
+            int bytesPerValue = mapped.getInt();
+            int tileNum = mapped.getInt();
+            Point2 min = new Point2(mapped.getInt(), mapped.getInt());
+            Point2 max = new Point2(mapped.getInt(), mapped.getInt());
+            BoundingBox2 pixelBounds = new BoundingBox2(min, max);
+
+            double[] values = new double[pixelBounds.integerArea() * VALUES_PER_PIXEL];
+            if (mapped.remaining() != (long) values.length * bytesPerValue)
+            {
+                throw new IOException("Tile file " + path + " has " + mapped.remaining() +
+                                      " bytes of pixel data for " + pixelBounds.integerArea() + " pixels.");
+            }
+            if (bytesPerValue == Double.BYTES)
+            {
+                mapped.asDoubleBuffer().get(values);
+            }
+            else if (bytesPerValue == Float.BYTES)
+            {
+                for (int i = 0; i < values.length; i++)
+                {
+                    values[i] = mapped.getFloat();
+                }
+            }
+            else
+            {
+                throw new IOException("Unsupported value size " + bytesPerValue + " in tile file " + path + ".");
+            }
+            return new FilmTileFile(tileNum, pixelBounds, values);
+        }
+    }
+}
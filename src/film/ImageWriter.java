@@ -5,4 +5,37 @@ import java.io.IOException;
 public interface ImageWriter
 {
     void writeImage(int resolutionX, int resolutionY, double[] pixels) throws IOException;
+
+    /**
+     * @return true if this writer takes linear, unclamped RGB instead of gamma-corrected values in
+     *         [0, 255].
+     */
+    default boolean isHighDynamicRange()
+    {
+        return false;
+    }
+
+    /**
+     * Write an image whose scanlines are produced as the writer needs them, so that writers that
+     * stream their output never hold a copy of the whole image. Other writers gather the
+     * scanlines and write them as one array.
+     */
+    default void writeImage(int resolutionX, int resolutionY, ScanlineSource scanlines) throws IOException
+    {
+        double[] pixels = new double[3 * resolutionX * resolutionY];
+        for (int y = 0; y < resolutionY; y++)
+        {
+            scanlines.getScanline(y, pixels, 3 * resolutionX * y);
+        }
+        writeImage(resolutionX, resolutionY, pixels);
+    }
+
+    @FunctionalInterface
+    interface ScanlineSource
+    {
+        /**
+         * Put the RGB of each pixel of row y, counted from the top, into rgb from offset on.
+         */
+        void getScanline(int y, double[] rgb, int offset);
+    }
 }
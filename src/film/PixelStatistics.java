@@ -0,0 +1,143 @@
+package film;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import core.math.Point2;
+import core.space.BoundingBox2;
+
+/**
+ * Running mean and variance of the luminance of the samples taken for each pixel, used to tell
+ * how noisy the image still is. Each pixel must only be updated by one thread at a time.
+ */
+public class PixelStatistics
+{
+    // pixels darker than this count as this bright when computing relative errors, so that
+    // nearly black pixels do not dominate
+    public static final double MIN_LUMINANCE = 0.01;
+
+    private final int x0;
+    private final int y0;
+    private final int width;
+    private final long[] sampleCounts;
+    private final double[] means;
+    // sum of squared differences from the mean
+    private final double[] squaredDeviations;
+
+    public PixelStatistics(BoundingBox2 pixelBounds)
+    {
+        x0 = (int) pixelBounds.get(0).x();
+        y0 = (int) pixelBounds.get(0).y();
+        width = (int) pixelBounds.get(1).x() - x0;
+        int area = pixelBounds.integerArea();
+        sampleCounts = new long[area];
+        means = new double[area];
+        squaredDeviations = new double[area];
+    }
+
+    /**
+     * Add the luminance statistics of the pixels of a rendered tile that lie within these
+     * bounds.
+     */
+    public void merge(FilmTile filmTile)
+    {
+        long[] tileSampleCounts = filmTile.getSampleCounts();
+        double[] tileMeans = filmTile.getLuminanceMeans();
+        double[] tileSquaredDeviations = filmTile.getLuminanceSquaredDeviations();
+        int tilePixel = -1;
+        for (Point2 pixel : filmTile.getPixelBounds())
+        {
+            tilePixel++;
+            long nB = tileSampleCounts[tilePixel];
+            if (nB == 0)
+            {
+                continue;
+            }
+            // combine the two sets of samples as Chan et al. do
+            int offset = getOffset(pixel);
+            long nA = sampleCounts[offset];
+            long n = nA + nB;
+            double delta = tileMeans[tilePixel] - means[offset];
+            means[offset] += delta * nB / n;
+            squaredDeviations[offset] += tileSquaredDeviations[tilePixel] +
+                                         delta * delta * nA * nB / n;
+            sampleCounts[offset] = n;
+        }
+    }
+
+    public long getSampleCount(Point2 pixel)
+    {
+        return sampleCounts[getOffset(pixel)];
+    }
+
+    public double getMean(Point2 pixel)
+    {
+        return means[getOffset(pixel)];
+    }
+
+    /**
+     * @return the sample variance of the pixel's luminance, or infinity if it has fewer than two
+     *         samples.
+     */
+    public double getVariance(Point2 pixel)
+    {
+        int offset = getOffset(pixel);
+        long n = sampleCounts[offset];
+        return n < 2 ? Double.POSITIVE_INFINITY : squaredDeviations[offset] / (n - 1);
+    }
+
+    /**
+     * @return the relative error averaged over all pixels.
+     */
+    public double getMeanRelativeError()
+    {
+        double sum = 0;
+        for (int offset = 0; offset < sampleCounts.length; offset++)
+        {
+            sum += getRelativeError(offset);
+        }
+        return sum / sampleCounts.length;
+    }
+
+    // standard error of the pixel's mean luminance relative to that mean
+    private double getRelativeError(int offset)
+    {
+        long n = sampleCounts[offset];
+        if (n < 2)
+        {
+            return Double.POSITIVE_INFINITY;
+        }
+        double variance = squaredDeviations[offset] / (n - 1);
+        return Math.sqrt(variance / n) / Math.max(Math.abs(means[offset]), MIN_LUMINANCE);
+    }
+
+    public void write(DataOutput output) throws IOException
+    {
+        for (int offset = 0; offset < sampleCounts.length; offset++)
+        {
+            output.writeLong(sampleCounts[offset]);
+            output.writeDouble(means[offset]);
+            output.writeDouble(squaredDeviations[offset]);
+        }
+    }
+
+    /**
+     * Replace all statistics with ones written by {@link #write(DataOutput)} for the same
+     * pixel bounds.
+     */
+    public void read(DataInput input) throws IOException
+    {
+        for (int offset = 0; offset < sampleCounts.length; offset++)
+        {
+            sampleCounts[offset] = input.readLong();
+            means[offset] = input.readDouble();
+            squaredDeviations[offset] = input.readDouble();
+        }
+    }
+
+    private int getOffset(Point2 pixel)
+    {
+        return ((int) pixel.x() - x0) + ((int) pixel.y() - y0) * width;
+    }
+}
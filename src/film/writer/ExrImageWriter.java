@@ -0,0 +1,166 @@
+package film.writer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Logger;
+
+import film.ImageWriter;
+
+/**
+ * Writes linear RGB as an uncompressed scanline OpenEXR file with 32-bit float channels. Each
+ * chunk of an uncompressed file holds one scanline of known size, so the offset table can be
+ * written up front and the scanlines streamed after it, top row first.
+ */
+public class ExrImageWriter implements ImageWriter
+{
+    private static final Logger logger = Logger.getLogger(ExrImageWriter.class.getName());
+
+    private static final int MAGIC = 20000630;
+    // single-part scanline image, without long names
+    private static final int VERSION = 2;
+    private static final int PIXEL_TYPE_FLOAT = 2;
+    private static final byte NO_COMPRESSION = 0;
+    private static final byte INCREASING_Y = 0;
+    // channels are stored in alphabetical order
+    private static final String[] CHANNELS = { "B", "G", "R" };
+    private static final int[] CHANNEL_RGB_INDICES = { 2, 1, 0 };
+    private static final int MAX_HEADER_SIZE = 1024;
+
+    private final String fileName;
+
+    public ExrImageWriter(String fileName)
+    {
+        this.fileName = fileName;
+    }
+
+    @Override
+    public boolean isHighDynamicRange()
+    {
+        return true;
+    }
+
+    @Override
+    public void writeImage(int resolutionX, int resolutionY, double[] pixels) throws IOException
+    {
+        writeImage(resolutionX, resolutionY,
+                   (y, rgb, offset) -> System.arraycopy(pixels, 3 * resolutionX * y, rgb, offset, 3 * resolutionX));
+    }
+
+    @Override
+    public void writeImage(int resolutionX, int resolutionY, ScanlineSource scanlines) throws IOException
+    {
+        Path imagePath = Paths.get(fileName + ".exr");
+        logger.fine("Writing image to " + imagePath.toAbsolutePath());
+        if (imagePath.toAbsolutePath().getParent() != null)
+        {
+            Files.createDirectories(imagePath.toAbsolutePath().getParent());
+        }
+
+        try (FileChannel channel = FileChannel.open(imagePath,
+                                                    StandardOpenOption.CREATE,
+                                                    StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            ByteBuffer header = getHeader(resolutionX, resolutionY);
+            long headerSize = header.remaining();
+            write(channel, header);
+
+            int scanlineSize = CHANNELS.length * resolutionX * Float.BYTES;
+            long chunkSize = 2 * Integer.BYTES + scanlineSize;
+            ByteBuffer offsets = ByteBuffer.allocate(resolutionY * Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            long firstChunk = headerSize + offsets.capacity();
+            for (int y = 0; y < resolutionY; y++)
+            {
+                offsets.putLong(firstChunk + y * chunkSize);
+            }
+            offsets.flip();
+            write(channel, offsets);
+
+            double[] scanline = new double[3 * resolutionX];
+            ByteBuffer chunk = ByteBuffer.allocate((int) chunkSize).order(ByteOrder.LITTLE_ENDIAN);
+            for (int y = 0; y < resolutionY; y++)
+            {
+                scanlines.getScanline(y, scanline, 0);
+                chunk.clear();
+                chunk.putInt(y).putInt(scanlineSize);
+                for (int channelIndex : CHANNEL_RGB_INDICES)
+                {
+                    for (int x = 0; x < resolutionX; x++)
+                    {
+                        chunk.putFloat((float) scanline[3 * x + channelIndex]);
+                    }
+                }
+                chunk.flip();
+                write(channel, chunk);
+            }
+        }
+    }
+
+    private static ByteBuffer getHeader(int resolutionX, int resolutionY)
+    {
+        ByteBuffer header = ByteBuffer.allocate(MAX_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION);
+
+        // each channel is its name, pixel type, linear flag, three reserved bytes and x and y
+        // sampling, and the list ends with an empty name
+        int channelListSize = 1;
+        for (String channel : CHANNELS)
+        {
+            channelListSize += channel.length() + 1 + 4 * Integer.BYTES;
+        }
+        putAttribute(header, "channels", "chlist", channelListSize);
+        for (String channel : CHANNELS)
+        {
+            putString(header, channel);
+            header.putInt(PIXEL_TYPE_FLOAT).put(new byte[4]).putInt(1).putInt(1);
+        }
+        header.put((byte) 0);
+
+        putAttribute(header, "compression", "compression", 1);
+        header.put(NO_COMPRESSION);
+        putAttribute(header, "dataWindow", "box2i", 4 * Integer.BYTES);
+        header.putInt(0).putInt(0).putInt(resolutionX - 1).putInt(resolutionY - 1);
+        putAttribute(header, "displayWindow", "box2i", 4 * Integer.BYTES);
+        header.putInt(0).putInt(0).putInt(resolutionX - 1).putInt(resolutionY - 1);
+        putAttribute(header, "lineOrder", "lineOrder", 1);
+        header.put(INCREASING_Y);
+        putAttribute(header, "pixelAspectRatio", "float", Float.BYTES);
+        header.putFloat(1);
+        putAttribute(header, "screenWindowCenter", "v2f", 2 * Float.BYTES);
+        header.putFloat(0).putFloat(0);
+        putAttribute(header, "screenWindowWidth", "float", Float.BYTES);
+        header.putFloat(1);
+        // end of header
+        header.put((byte) 0);
+
+        header.flip();
+        return header;
+    }
+
+    private static void putAttribute(ByteBuffer header, String name, String type, int size)
+    {
+        putString(header, name);
+        putString(header, type);
+        header.putInt(size);
+    }
+
+    private static void putString(ByteBuffer buffer, String s)
+    {
+        buffer.put(s.getBytes(StandardCharsets.US_ASCII)).put((byte) 0);
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+    }
+}
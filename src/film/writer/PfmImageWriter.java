@@ -0,0 +1,84 @@
+package film.writer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Logger;
+
+import film.ImageWriter;
+
+/**
+ * Writes linear RGB as a Portable Float Map: a text header followed by float32 RGB scanlines,
+ * bottom row first. A negative scale in the header marks the values as little-endian.
+ */
+public class PfmImageWriter implements ImageWriter
+{
+    private static final Logger logger = Logger.getLogger(PfmImageWriter.class.getName());
+    private final String fileName;
+
+    public PfmImageWriter(String fileName)
+    {
+        this.fileName = fileName;
+    }
+
+    @Override
+    public boolean isHighDynamicRange()
+    {
+        return true;
+    }
+
+    @Override
+    public void writeImage(int resolutionX, int resolutionY, double[] pixels) throws IOException
+    {
+        writeImage(resolutionX, resolutionY,
+                   (y, rgb, offset) -> System.arraycopy(pixels, 3 * resolutionX * y, rgb, offset, 3 * resolutionX));
+    }
+
+    @Override
+    public void writeImage(int resolutionX, int resolutionY, ScanlineSource scanlines) throws IOException
+    {
+        Path imagePath = Paths.get(fileName + ".pfm");
+        logger.fine("Writing image to " + imagePath.toAbsolutePath());
+        if (imagePath.toAbsolutePath().getParent() != null)
+        {
+            Files.createDirectories(imagePath.toAbsolutePath().getParent());
+        }
+
+        try (FileChannel channel = FileChannel.open(imagePath,
+                                                    StandardOpenOption.CREATE,
+                                                    StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            String header = String.format("PF\n%d %d\n-1.0\n", resolutionX, resolutionY);
+            write(channel, ByteBuffer.wrap(header.getBytes(StandardCharsets.US_ASCII)));
+
+            double[] scanline = new double[3 * resolutionX];
+            ByteBuffer buffer = ByteBuffer.allocate(scanline.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            for (int y = resolutionY - 1; y >= 0; y--)
+            {
+                scanlines.getScanline(y, scanline, 0);
+                buffer.clear();
+                for (double value : scanline)
+                {
+                    buffer.putFloat((float) value);
+                }
+                buffer.flip();
+                write(channel, buffer);
+            }
+        }
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package integrator;
+
+import core.math.Point2;
+import film.FilmTile;
+import film.PixelStatistics;
+
+/**
+ * When a pixel has been sampled enough. Every pixel takes a minimum number of samples; pixels
+ * then keep taking that many more at a time, up to the sampler's samples per pixel, for as long
+ * as the confidence interval of their mean luminance is wider than a threshold relative to the
+ * mean.
+ */
+public class AdaptiveSampling
+{
+    // 95% confidence
+    private static final double CONFIDENCE_Z = 1.96;
+
+    private final int minSamples;
+    private final double errorThreshold;
+
+    /**
+     * @param minSamples
+     *            samples taken by every pixel, and by each further round of sampling a pixel
+     * @param errorThreshold
+     *            half the width of the 95% confidence interval of a converged pixel's luminance,
+     *            relative to its mean
+     */
+    public AdaptiveSampling(int minSamples, double errorThreshold)
+    {
+        if (minSamples < 2)
+        {
+            throw new IllegalArgumentException("At least two samples are needed to estimate variance: " +
+                                               minSamples);
+        }
+        if (errorThreshold <= 0)
+        {
+            throw new IllegalArgumentException("Error threshold must be positive: " + errorThreshold);
+        }
+        this.minSamples = minSamples;
+        this.errorThreshold = errorThreshold;
+    }
+
+    public int getMinSamples()
+    {
+        return minSamples;
+    }
+
+    public double getErrorThreshold()
+    {
+        return errorThreshold;
+    }
+
+    public boolean isConverged(FilmTile filmTile, Point2 pixel)
+    {
+        long n = filmTile.getSampleCount(pixel);
+        if (n < minSamples)
+        {
+            return false;
+        }
+        double halfWidth = CONFIDENCE_Z * Math.sqrt(filmTile.getLuminanceVariance(pixel) / n);
+        return halfWidth <= errorThreshold * Math.max(Math.abs(filmTile.getLuminanceMean(pixel)),
+                                                      PixelStatistics.MIN_LUMINANCE);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("adaptive from %d samples to error %.4f", minSamples, errorThreshold);
+    }
+}
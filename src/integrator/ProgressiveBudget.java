@@ -0,0 +1,100 @@
+package integrator;
+
+/**
+ * When a progressive render stops adding passes. Each pass renders the whole image with a few
+ * more samples per pixel and writes out the image so far; the render stops after the first pass
+ * that reaches any of the limits set.
+ */
+public class ProgressiveBudget
+{
+    private final int samplesPerPass;
+    private final long timeLimit;
+    private final long targetSamplesPerPixel;
+    private final double noiseThreshold;
+
+    /**
+     * @param samplesPerPass
+     *            samples per pixel taken by each pass
+     * @param timeLimit
+     *            wall-clock time in milliseconds, or 0 for none. No pass is started that is
+     *            expected to end after it, based on the time the previous pass took.
+     * @param targetSamplesPerPixel
+     *            total samples per pixel, or 0 for none
+     * @param noiseThreshold
+     *            standard error of the mean pixel luminance relative to that luminance, averaged
+     *            over the image, or 0 for none
+     */
+    public ProgressiveBudget(int samplesPerPass, long timeLimit, long targetSamplesPerPixel, double noiseThreshold)
+    {
+        if (samplesPerPass < 1)
+        {
+            throw new IllegalArgumentException("Samples per pass must be positive: " + samplesPerPass);
+        }
+        if (timeLimit <= 0 && targetSamplesPerPixel <= 0 && noiseThreshold <= 0)
+        {
+            throw new IllegalArgumentException("A progressive render needs a time, sample or noise limit.");
+        }
+        this.samplesPerPass = samplesPerPass;
+        this.timeLimit = timeLimit;
+        this.targetSamplesPerPixel = targetSamplesPerPixel;
+        this.noiseThreshold = noiseThreshold;
+    }
+
+    public int getSamplesPerPass()
+    {
+        return samplesPerPass;
+    }
+
+    public long getTimeLimit()
+    {
+        return timeLimit;
+    }
+
+    public long getTargetSamplesPerPixel()
+    {
+        return targetSamplesPerPixel;
+    }
+
+    public double getNoiseThreshold()
+    {
+        return noiseThreshold;
+    }
+
+    /**
+     * @return the number of samples per pixel the next pass should take, given the number taken
+     *         so far.
+     */
+    public int getSamplesForNextPass(long samplesPerPixel)
+    {
+        if (targetSamplesPerPixel > 0)
+        {
+            return (int) Math.min(samplesPerPass, targetSamplesPerPixel - samplesPerPixel);
+        }
+        return samplesPerPass;
+    }
+
+    /**
+     * @param elapsedTime
+     *            milliseconds since the render started
+     * @param passTime
+     *            milliseconds the last pass took
+     * @param samplesPerPixel
+     *            samples per pixel taken so far
+     * @param noise
+     *            the mean relative error of the image so far
+     * @return true if no more passes should be rendered.
+     */
+    public boolean isSpent(long elapsedTime, long passTime, long samplesPerPixel, double noise)
+    {
+        return (timeLimit > 0 && elapsedTime + passTime > timeLimit) ||
+               (targetSamplesPerPixel > 0 && samplesPerPixel >= targetSamplesPerPixel) ||
+               (noiseThreshold > 0 && noise <= noiseThreshold);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%d samples per pass until %d ms, %d samples per pixel or noise %.4f",
+                             samplesPerPass, timeLimit, targetSamplesPerPixel, noiseThreshold);
+    }
+}
@@ -0,0 +1,196 @@
+package integrator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+import film.Film;
+import film.FilmTile;
+import film.PixelStatistics;
+
+/**
+ * Progress of a progressive render, and the journal file it is saved to so that the render can
+ * be resumed. For each tile the journal holds the passes and samples per pixel it has completed;
+ * samplers are seeded by pass and tile, so that is all of their state. It also holds the film
+ * accumulated so far and the luminance statistics of its pixels.
+ * <p>
+ * Tiles are merged into the film through {@link #completeTilePass}, under the same lock that
+ * saving takes, so a journal never holds part of a tile's pass.
+ */
+public class RenderCheckpoint
+{
+    private static final Logger logger = Logger.getLogger(RenderCheckpoint.class.getName());
+
+    private static final int MAGIC = 0x52434B50;
+    private static final int VERSION = 1;
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Film film;
+    private final PixelStatistics pixelStatistics;
+    private final int[] tilePasses;
+    private final long[] tileSamples;
+    private final Path path;
+    private final long saveInterval;
+    private long lastSaveTime = System.currentTimeMillis();
+
+    /**
+     * @param numTiles
+     *            number of tiles, which are identified by their index in row-major order
+     * @param saveInterval
+     *            milliseconds between saves to the journal, or 0 for no journal
+     */
+    public RenderCheckpoint(Film film, PixelStatistics pixelStatistics, int numTiles, long saveInterval)
+    {
+        this.film = film;
+        this.pixelStatistics = pixelStatistics;
+        tilePasses = new int[numTiles];
+        tileSamples = new long[numTiles];
+        path = film.getCheckpointPath();
+        this.saveInterval = saveInterval;
+    }
+
+    public boolean isJournaled()
+    {
+        return saveInterval > 0;
+    }
+
+    public synchronized int getTilePasses(int tile)
+    {
+        return tilePasses[tile];
+    }
+
+    /**
+     * @return the fewest passes any tile has completed.
+     */
+    public synchronized int getCompletedPasses()
+    {
+        return Arrays.stream(tilePasses).min().orElse(0);
+    }
+
+    /**
+     * @return the fewest samples per pixel any tile has taken.
+     */
+    public synchronized long getSamplesPerPixel()
+    {
+        return Arrays.stream(tileSamples).min().orElse(0);
+    }
+
+    /**
+     * Merge the film tiles rendered for one pass of a tile into the film, and save the journal if
+     * it is due.
+     */
+    public synchronized void completeTilePass(int tile, int samplesPerPixel, List<FilmTile> filmTiles)
+    {
+        for (FilmTile filmTile : filmTiles)
+        {
+            film.mergeFilmTile(filmTile);
+            pixelStatistics.merge(filmTile);
+        }
+        tilePasses[tile]++;
+        tileSamples[tile] += samplesPerPixel;
+        if (isJournaled() && System.currentTimeMillis() - lastSaveTime >= saveInterval)
+        {
+            save();
+        }
+    }
+
+    /**
+     * Write the journal, replacing the previous one only once it is complete. Failures are
+     * logged, as the render can go on without its journal.
+     */
+    public synchronized void save()
+    {
+        long saveStart = System.currentTimeMillis();
+        Path temporaryPath = path.resolveSibling(path.getFileName() + TEMPORARY_SUFFIX);
+        try
+        {
+            Files.createDirectories(path.toAbsolutePath().getParent());
+            try (FileChannel channel = FileChannel.open(temporaryPath,
+                                                        StandardOpenOption.CREATE,
+                                                        StandardOpenOption.WRITE,
+                                                        StandardOpenOption.TRUNCATE_EXISTING);
+                 DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel),
+                                                                                         BUFFER_SIZE)))
+            {
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                output.writeInt(tilePasses.length);
+                output.writeInt(film.getCroppedPixelBounds().integerArea());
+                for (int tile = 0; tile < tilePasses.length; tile++)
+                {
+                    output.writeInt(tilePasses[tile]);
+                    output.writeLong(tileSamples[tile]);
+                }
+                film.writePixels(output);
+                pixelStatistics.write(output);
+            }
+            Files.move(temporaryPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            lastSaveTime = System.currentTimeMillis();
+            logger.info(String.format("Saved checkpoint at %d samples per pixel in %d ms.",
+                                      getSamplesPerPixel(), lastSaveTime - saveStart));
+        }
+        catch (IOException e)
+        {
+            logger.severe("Failed to save checkpoint " + path + ": " + e);
+        }
+    }
+
+    /**
+     * Restore the progress, film and pixel statistics saved in the journal, if there is one for
+     * a render of the same image in the same tiles.
+     *
+     * @return true if the render resumes from the journal.
+     */
+    public synchronized boolean load()
+    {
+        if (!isJournaled() || !Files.exists(path))
+        {
+            return false;
+        }
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path),
+                                                                                 BUFFER_SIZE)))
+        {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION)
+            {
+                logger.warning(path + " is not a checkpoint of this version. Starting over.");
+                return false;
+            }
+            int numTiles = input.readInt();
+            int numPixels = input.readInt();
+            if (numTiles != tilePasses.length || numPixels != film.getCroppedPixelBounds().integerArea())
+            {
+                logger.warning(String.format("Checkpoint %s has %d tiles and %d pixels, not %d and %d. Starting over.",
+                                             path, numTiles, numPixels, tilePasses.length,
+                                             film.getCroppedPixelBounds().integerArea()));
+                return false;
+            }
+            for (int tile = 0; tile < numTiles; tile++)
+            {
+                tilePasses[tile] = input.readInt();
+                tileSamples[tile] = input.readLong();
+            }
+            film.readPixels(input);
+            pixelStatistics.read(input);
+        }
+        catch (IOException e)
+        {
+            // the film may have been partly overwritten
+            throw new RuntimeException("Failed to read checkpoint " + path + ".", e);
+        }
+        logger.info(String.format("Resuming from checkpoint %s at %d samples per pixel.", path,
+                                  getSamplesPerPixel()));
+        return true;
+    }
+}
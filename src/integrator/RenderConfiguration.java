@@ -0,0 +1,147 @@
+package integrator;
+
+/**
+ * How a {@link SamplerIntegrator} divides an image into tiles, which threads render them,
+ * whether the image is refined in passes and whether pixels stop sampling once converged.
+ */
+public class RenderConfiguration
+{
+    public enum ExecutorType
+    {
+        /**
+         * A work-stealing pool of platform threads owned by the integrator, shut down when the
+         * render completes.
+         */
+        PLATFORM_THREADS,
+
+        /**
+         * One virtual thread per tile, at most the configured number running at once. Needs a
+         * Java runtime with virtual threads.
+         */
+        VIRTUAL_THREADS,
+
+        /**
+         * The JVM-wide common fork/join pool, shared with anything else using it. Its size is
+         * fixed when the JVM starts, so the configured thread count is ignored.
+         */
+        SHARED_POOL
+    }
+
+    public static final int DEFAULT_TILE_SIZE = 16;
+
+    private final int tileSize;
+    private final int numThreads;
+    private final ExecutorType executorType;
+    private final TileOrder tileOrder;
+    private final ProgressiveBudget progressiveBudget;
+    private final AdaptiveSampling adaptiveSampling;
+    private final long checkpointInterval;
+
+    public RenderConfiguration(int tileSize, int numThreads, ExecutorType executorType, TileOrder tileOrder)
+    {
+        this(tileSize, numThreads, executorType, tileOrder, null, null);
+    }
+
+    public RenderConfiguration(int tileSize, int numThreads, ExecutorType executorType, TileOrder tileOrder,
+            ProgressiveBudget progressiveBudget, AdaptiveSampling adaptiveSampling)
+    {
+        this(tileSize, numThreads, executorType, tileOrder, progressiveBudget, adaptiveSampling, 0);
+    }
+
+    /**
+     * @param progressiveBudget
+     *            when to stop rendering passes, or null to render each tile with all samples at
+     *            once
+     * @param adaptiveSampling
+     *            when pixels have been sampled enough, or null to take every sample of every
+     *            pixel. In a progressive render this applies to each pass on its own.
+     * @param checkpointInterval
+     *            milliseconds between saves of a progressive render's {@link RenderCheckpoint}
+     *            journal, or 0 to keep none. A journaled render resumes from the journal left by
+     *            an earlier render of the same film, and saves it when stopped or finished.
+     */
+    public RenderConfiguration(int tileSize, int numThreads, ExecutorType executorType, TileOrder tileOrder,
+            ProgressiveBudget progressiveBudget, AdaptiveSampling adaptiveSampling, long checkpointInterval)
+    {
+        if (tileSize < 1)
+        {
+            throw new IllegalArgumentException("Tile size must be positive: " + tileSize);
+        }
+        if (numThreads < 1)
+        {
+            throw new IllegalArgumentException("Thread count must be positive: " + numThreads);
+        }
+        if (checkpointInterval > 0 && progressiveBudget == null)
+        {
+            throw new IllegalArgumentException("Only progressive renders keep a checkpoint journal.");
+        }
+        this.tileSize = tileSize;
+        this.numThreads = numThreads;
+        this.executorType = executorType;
+        this.tileOrder = tileOrder;
+        this.progressiveBudget = progressiveBudget;
+        this.adaptiveSampling = adaptiveSampling;
+        this.checkpointInterval = Math.max(0, checkpointInterval);
+    }
+
+    /**
+     * @return 16 pixel tiles in Hilbert order, rendered by a pool of one platform thread per
+     *         available processor.
+     */
+    public static RenderConfiguration getDefault()
+    {
+        return new RenderConfiguration(DEFAULT_TILE_SIZE,
+                                       Runtime.getRuntime().availableProcessors(),
+                                       ExecutorType.PLATFORM_THREADS,
+                                       TileOrder.HILBERT);
+    }
+
+    public int getTileSize()
+    {
+        return tileSize;
+    }
+
+    public int getNumThreads()
+    {
+        return numThreads;
+    }
+
+    public ExecutorType getExecutorType()
+    {
+        return executorType;
+    }
+
+    public TileOrder getTileOrder()
+    {
+        return tileOrder;
+    }
+
+    public ProgressiveBudget getProgressiveBudget()
+    {
+        return progressiveBudget;
+    }
+
+    public boolean isProgressive()
+    {
+        return progressiveBudget != null;
+    }
+
+    public AdaptiveSampling getAdaptiveSampling()
+    {
+        return adaptiveSampling;
+    }
+
+    public long getCheckpointInterval()
+    {
+        return checkpointInterval;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s, %d threads, %dx%d tiles in %s order%s%s",
+                             executorType, numThreads, tileSize, tileSize, tileOrder,
+                             progressiveBudget == null ? "" : ", " + progressiveBudget,
+                             adaptiveSampling == null ? "" : ", " + adaptiveSampling);
+    }
+}
@@ -1,9 +1,15 @@
 package integrator;
 
 import java.util.EnumSet;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -15,8 +21,11 @@ import core.math.Direction3;
 import core.math.Normal3;
 import core.math.Point2;
 import core.space.BoundingBox2;
+import film.Film;
 import film.FilmTile;
+import film.PixelStatistics;
 import camera.CameraSample;
+import integrator.RenderConfiguration.ExecutorType;
 import metrics.MetricsLogger;
 import metrics.ProgressTracker;
 import sampler.Sampler;
@@ -33,19 +42,83 @@ public abstract class SamplerIntegrator implements Integrator
     private final Sampler sampler;
     private final Camera camera;
 
+    private final RenderConfiguration configuration;
     private final ExecutorService executor;
     private final int numThreads;
-    private static final int TILE_SIZE = 16;
+    private final int tileSize;
+    // bounds the number of tiles rendered at once on virtual threads
+    private final Semaphore virtualThreadPermits;
+    // the top-level tasks of the pass being rendered
+    private final List<TileRenderTask> tileTasks = new ArrayList<>();
+    private volatile boolean stopped = false;
+    // progress of a progressive render, and the luminance statistics of its samples
+    private RenderCheckpoint checkpoint;
+    private PixelStatistics pixelStatistics;
+    // tiles are not split below this size
+    private static final int MIN_SPLIT_TILE_SIZE = 4;
+    // number of camera rays traced together, when the number of samples per pixel allows
+    private static final int PACKET_SIZE = 64;
+    // quadrant path of a whole tile; each split appends the quadrant number as a base 4 digit
+    private static final long WHOLE_TILE = 1;
 
     private ProgressTracker progressTracker;
+    // number of tiles that no thread has started on yet
+    private final AtomicInteger unstartedTiles = new AtomicInteger();
     
     public SamplerIntegrator(Sampler sampler, Camera camera)
+    {
+        this(sampler, camera, RenderConfiguration.getDefault());
+    }
+    
+    public SamplerIntegrator(Sampler sampler, Camera camera, RenderConfiguration configuration)
     {
         this.sampler = sampler;
         this.camera = camera;
+        this.configuration = configuration;
+        tileSize = configuration.getTileSize();
+
+        switch (configuration.getExecutorType())
+        {
+            case PLATFORM_THREADS:
+                numThreads = configuration.getNumThreads();
+                executor = new ForkJoinPool(numThreads);
+                virtualThreadPermits = null;
+                break;
+            case VIRTUAL_THREADS:
+                numThreads = configuration.getNumThreads();
+                executor = newVirtualThreadPerTaskExecutor();
+                virtualThreadPermits = new Semaphore(numThreads);
+                break;
+            case SHARED_POOL:
+                numThreads = ForkJoinPool.getCommonPoolParallelism();
+                executor = ForkJoinPool.commonPool();
+                virtualThreadPermits = null;
+                break;
+            default:
+                throw new UnsupportedOperationException("Unsupported executor type: " +
+                                                        configuration.getExecutorType());
+        }
+    }
+
+    /**
+     * Looked up reflectively, since virtual threads only exist from Java 21 on.
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor()
+    {
+        try
+        {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new UnsupportedOperationException("Virtual threads are not available in Java " +
+                                                    Runtime.version().feature() + ".", e);
+        }
+    }
 
-        numThreads = Runtime.getRuntime().availableProcessors();
-        executor = Executors.newFixedThreadPool(numThreads);
+    public RenderConfiguration getConfiguration()
+    {
+        return configuration;
     }
 
     public void preprocess(Scene scene, Sampler sampler)
@@ -62,60 +135,235 @@ public abstract class SamplerIntegrator implements Integrator
 
         BoundingBox2 sampleBounds = camera.getFilm().getSampleBounds();
         Direction2 sampleExtent = sampleBounds.diagonal();
-        Point2 nTiles = new Point2((int) (sampleExtent.x() + TILE_SIZE - 1) / TILE_SIZE,
-                                   (int) (sampleExtent.y() + TILE_SIZE - 1) / TILE_SIZE);
-        int numTiles = (int) (nTiles.x() * nTiles.y());
-        logger.info(String.format("Rendering %d tiles with %d threads.", numTiles, numThreads));
-        progressTracker = new ProgressTracker(numTiles);
-        progressTracker.updateProgressBar();
-        metricsLogger.onRenderStart(preprocessEnd - preprocessStart, numThreads, numTiles);
+        Point2 nTiles = new Point2((int) (sampleExtent.x() + tileSize - 1) / tileSize,
+                                   (int) (sampleExtent.y() + tileSize - 1) / tileSize);
+        List<Point2> tiles = configuration.getTileOrder().getTiles((int) nTiles.x(), (int) nTiles.y());
+        int numTiles = tiles.size();
+        logger.info(String.format("Rendering %d tiles with %d threads (%s).", numTiles, numThreads,
+                                  configuration.getExecutorType()));
+        metricsLogger.onRenderStart(preprocessEnd - preprocessStart, configuration.getExecutorType().toString(),
+                                    numThreads, tileSize, numTiles);
 
         long renderStart = System.currentTimeMillis();
-        for (int y = 0; y < nTiles.y(); y++)
+        long imageWriteTime;
+        if (configuration.isProgressive())
         {
-            for (int x = 0; x < nTiles.x(); x++)
+            imageWriteTime = renderProgressively(scene, tiles, (int) nTiles.x(), renderStart);
+            shutdownExecutor();
+            metricsLogger.onRenderComplete(System.currentTimeMillis() - renderStart);
+        }
+        else
+        {
+            renderPass(scene, tiles, (int) nTiles.x(), 0, (int) sampler.getSamplesPerPixel());
+            shutdownExecutor();
+            metricsLogger.onRenderComplete(System.currentTimeMillis() - renderStart);
+
+            long imageWriteStart = System.currentTimeMillis();
+            camera.getFilm().mergeFilmTiles();
+            camera.getFilm().writeImage(1);
+            imageWriteTime = System.currentTimeMillis() - imageWriteStart;
+        }
+        metricsLogger.onOutputComplete(imageWriteTime);
+
+        metricsLogger.outputMetrics();
+    }
+
+    /**
+     * Renders passes over the whole image, each taking a few samples per pixel and writing out
+     * the image so far, until the configured budget is spent.
+     *
+     * @return the time spent writing images.
+     */
+    private long renderProgressively(Scene scene, List<Point2> tiles, int nTilesX, long renderStart)
+    {
+        ProgressiveBudget budget = configuration.getProgressiveBudget();
+        Film film = camera.getFilm();
+        pixelStatistics = new PixelStatistics(film.getCroppedPixelBounds());
+        checkpoint = new RenderCheckpoint(film, pixelStatistics, tiles.size(), configuration.getCheckpointInterval());
+        long imageWriteTime = 0;
+        if (checkpoint.load())
+        {
+            long imageWriteStart = System.currentTimeMillis();
+            film.writeImage(1);
+            imageWriteTime += System.currentTimeMillis() - imageWriteStart;
+        }
+        long samplesPerPixel = checkpoint.getSamplesPerPixel();
+        for (int pass = checkpoint.getCompletedPasses(); !stopped; pass++)
+        {
+            // the sampler cannot take more samples per pixel than it was made for; later passes
+            // use new sampler seeds instead
+            int passSamples = (int) Math.min(budget.getSamplesForNextPass(samplesPerPixel),
+                                             sampler.getSamplesPerPixel());
+            if (passSamples <= 0)
+            {
+                break;
+            }
+            long passStart = System.currentTimeMillis();
+            renderPass(scene, tiles, nTilesX, pass, passSamples);
+            if (stopped)
+            {
+                break;
+            }
+            samplesPerPixel = checkpoint.getSamplesPerPixel();
+            long passEnd = System.currentTimeMillis();
+
+            film.writeImage(1);
+            imageWriteTime += System.currentTimeMillis() - passEnd;
+
+            double noise = pixelStatistics.getMeanRelativeError();
+            metricsLogger.onRenderPassComplete(samplesPerPixel);
+            logger.info(String.format("Pass %d done after %d ms: %d samples per pixel, relative error %.4f.",
+                                      pass + 1, passEnd - renderStart, samplesPerPixel, noise));
+            if (budget.isSpent(System.currentTimeMillis() - renderStart, passEnd - passStart, samplesPerPixel,
+                               noise))
             {
-                Point2 tile = new Point2(x, y);
-                executor.execute(new TileRenderTask(tile, scene, nTiles, sampleBounds));
+                break;
             }
         }
-
-        try
+        if (checkpoint.isJournaled() && !stopped)
         {
-            executor.shutdown();
-            executor.awaitTermination(1000, TimeUnit.DAYS);
+            checkpoint.save();
         }
-        catch (InterruptedException e)
+        return imageWriteTime;
+    }
+
+    /**
+     * Renders every tile with the given number of samples per pixel and waits for them. Tiles
+     * of a resumed progressive render that have completed this pass already are skipped.
+     */
+    private void renderPass(Scene scene, List<Point2> tiles, int nTilesX, int pass, int samplesPerPixel)
+    {
+        BoundingBox2 sampleBounds = camera.getFilm().getSampleBounds();
+        List<TileRenderTask> tasks = new ArrayList<>(tiles.size());
+        for (Point2 tile : tiles)
         {
-            logger.log(Level.WARNING, "Executor was interrupted.", e);
+            int tileIndex = (int) tile.y() * nTilesX + (int) tile.x();
+            if (checkpoint != null && checkpoint.getTilePasses(tileIndex) > pass)
+            {
+                continue;
+            }
+            int x0 = (int) sampleBounds.get(0).x() + (int) tile.x() * tileSize;
+            int x1 = Math.min(x0 + tileSize, (int) sampleBounds.get(1).x());
+            int y0 = (int) sampleBounds.get(0).y() + (int) tile.y() * tileSize;
+            int y1 = Math.min(y0 + tileSize, (int) sampleBounds.get(1).y());
+            BoundingBox2 tileBounds = new BoundingBox2(new Point2(x0, y0), new Point2(x1, y1));
+            // each pass gets its own seeds, so that passes do not repeat each other's samples
+            tasks.add(new TileRenderTask(tileBounds, scene, tileIndex, pass, WHOLE_TILE, samplesPerPixel));
         }
-        long renderEnd = System.currentTimeMillis();
-        metricsLogger.onRenderComplete(renderEnd - renderStart);
+        progressTracker = new ProgressTracker(tasks.size());
+        progressTracker.updateProgressBar();
 
-        long imageWriteStart = System.currentTimeMillis();
-        camera.getFilm().mergeFilmTiles();
-        camera.getFilm().writeImage(1);
-        long imageWriteEnd = System.currentTimeMillis();
-        metricsLogger.onOutputComplete(imageWriteEnd - imageWriteStart);
+        synchronized (tileTasks)
+        {
+            if (stopped)
+            {
+                return;
+            }
+            tileTasks.clear();
+            tileTasks.addAll(tasks);
+        }
+        unstartedTiles.set(tasks.size());
+        for (TileRenderTask task : tasks)
+        {
+            execute(task);
+        }
+        for (TileRenderTask task : tasks)
+        {
+            task.quietlyJoin();
+        }
+    }
 
-        metricsLogger.outputMetrics();
+    private void shutdownExecutor()
+    {
+        // the shared pool outlives the render
+        if (configuration.getExecutorType() != ExecutorType.SHARED_POOL)
+        {
+            try
+            {
+                executor.shutdown();
+                executor.awaitTermination(1000, TimeUnit.DAYS);
+            }
+            catch (InterruptedException e)
+            {
+                logger.log(Level.WARNING, "Executor was interrupted.", e);
+            }
+        }
     }
 
     @Override
     public void shutdownNow()
     {
         logger.info("Shutting down.");
-        executor.shutdownNow();
-        camera.getFilm().mergeFilmTiles();
+        synchronized (tileTasks)
+        {
+            stopped = true;
+            for (TileRenderTask task : tileTasks)
+            {
+                task.cancel(false);
+            }
+        }
+        if (configuration.getExecutorType() != ExecutorType.SHARED_POOL)
+        {
+            executor.shutdownNow();
+        }
+        // a progressive render has already written out its last complete pass, but the tiles
+        // completed since then can be kept in its journal
+        if (!configuration.isProgressive())
+        {
+            camera.getFilm().mergeFilmTiles();
+        }
+        else if (checkpoint != null && checkpoint.isJournaled())
+        {
+            checkpoint.save();
+        }
+    }
+
+    private void execute(TileRenderTask task)
+    {
+        if (virtualThreadPermits == null)
+        {
+            ((ForkJoinPool) executor).execute(task);
+            return;
+        }
+        executor.execute(() ->
+        {
+            try
+            {
+                virtualThreadPermits.acquire();
+            }
+            catch (InterruptedException e)
+            {
+                return;
+            }
+            try
+            {
+                task.quietlyInvoke();
+            }
+            finally
+            {
+                virtualThreadPermits.release();
+            }
+        });
     }
 
-    protected RGBSpectrum getRadiance(RayDifferential ray, Scene scene, Sampler sampler)
+    protected RGBSpectrum getRadiance(RayDifferential ray, SurfaceInteraction surfaceInteraction,
+            Scene scene, Sampler sampler)
     {
-        return getRadiance(ray, scene, sampler, 0);
+        return getRadiance(ray, surfaceInteraction, scene, sampler, 0);
     }
 
-    protected abstract RGBSpectrum getRadiance(RayDifferential ray, Scene scene, Sampler sampler,
-            int depth);
+    protected RGBSpectrum getRadiance(RayDifferential ray, Scene scene, Sampler sampler, int depth)
+    {
+        return getRadiance(ray, scene.intersect(ray), scene, sampler, depth);
+    }
+
+    /**
+     * @param surfaceInteraction
+     *            the closest intersection of ray with the scene, or null if it escaped. Camera
+     *            rays are intersected in packets before their radiance is computed.
+     */
+    protected abstract RGBSpectrum getRadiance(RayDifferential ray,
+            SurfaceInteraction surfaceInteraction, Scene scene, Sampler sampler, int depth);
 
     protected RGBSpectrum specularReflect(RayDifferential ray,
             SurfaceInteraction surfaceInteraction, Scene scene, Sampler sampler, int depth)
@@ -233,87 +481,369 @@ public abstract class SamplerIntegrator implements Integrator
         }
     }
 
-    private class TileRenderTask implements Runnable
+    /**
+     * @return the sampler seed for a whole tile in a pass, for integrators that render tiles
+     *         without splitting them.
+     */
+    public static int getTileSeed(int pass, int tileIndex)
     {
-        private final Point2 tile;
-        private final Scene scene;
-        private final Point2 nTiles;
-        private final BoundingBox2 sampleBounds;
-        private final Sampler tileSampler;
+        return getTileSeed(pass, tileIndex, WHOLE_TILE);
+    }
+
+    /**
+     * @return the sampler seed for the part of a tile given by its quadrant path, in a pass. The
+     *         pass, tile index and path are hashed together, so parts of different tiles or passes
+     *         only share a seed by a chance collision.
+     */
+    static int getTileSeed(int pass, int tileIndex, long quadrantPath)
+    {
+        long hash = mix(((long) pass << 32) | (tileIndex & 0xFFFFFFFFL));
+        hash = mix(hash ^ quadrantPath);
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    // SplitMix64 finalizer
+    private static long mix(long z)
+    {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
 
-        public TileRenderTask(Point2 tile, Scene scene, Point2 nTiles, BoundingBox2 sampleBounds)
+    /**
+     * Renders one tile. Near the end of the render, when fewer tiles are left than threads, a
+     * tile whose worker has no queued work for idle threads to steal is split into quarters
+     * instead, so that expensive tiles do not leave most threads waiting on one.
+     */
+    private class TileRenderTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final BoundingBox2 tileBounds;
+        private final Scene scene;
+        private final int tileIndex;
+        private final int pass;
+        private final long quadrantPath;
+        private final int seed;
+        private final int samplesPerPixel;
+        private final boolean topLevel;
+        // the rendered film tiles of a progressive render, merged once the whole tile is done
+        private final List<FilmTile> filmTiles = new ArrayList<>(1);
+
+        public TileRenderTask(BoundingBox2 tileBounds, Scene scene, int tileIndex, int pass,
+                long quadrantPath, int samplesPerPixel)
         {
-            this.tile = tile;
+            this.tileBounds = tileBounds;
             this.scene = scene;
-            this.nTiles = nTiles;
-            this.sampleBounds = sampleBounds;
-            
-            int seed = (int) tile.y() * (int) nTiles.x() + (int) tile.x();
-            tileSampler = sampler.getCopy(seed);
+            this.tileIndex = tileIndex;
+            this.pass = pass;
+            this.quadrantPath = quadrantPath;
+            seed = getTileSeed(pass, tileIndex, quadrantPath);
+            this.samplesPerPixel = samplesPerPixel;
+            this.topLevel = quadrantPath == WHOLE_TILE;
         }
 
         @Override
-        public void run()
+        protected void compute()
         {
-            int x0 = (int) sampleBounds.get(0).x() + (int) tile.x() * TILE_SIZE;
-            int x1 = Math.min(x0 + TILE_SIZE, (int) sampleBounds.get(1).x());
-            int y0 = (int) sampleBounds.get(0).y() + (int) tile.y() * TILE_SIZE;
-            int y1 = Math.min(y0 + TILE_SIZE, (int) sampleBounds.get(1).y());
-            BoundingBox2 tileBounds = new BoundingBox2(new Point2(x0, y0), new Point2(x1, y1));
-
-            FilmTile filmTile = camera.getFilm().getFilmTile(tileBounds);
-            if (filmTile == null)
+            if (topLevel)
+            {
+                unstartedTiles.decrementAndGet();
+            }
+            try
+            {
+                List<TileRenderTask> subtasks = split();
+                if (subtasks != null)
+                {
+                    invokeAll(subtasks);
+                    for (TileRenderTask subtask : subtasks)
+                    {
+                        filmTiles.addAll(subtask.filmTiles);
+                    }
+                }
+                else
+                {
+                    render();
+                }
+                if (topLevel && configuration.isProgressive())
+                {
+                    checkpoint.completeTilePass(tileIndex, samplesPerPixel, filmTiles);
+                }
+            }
+            catch (RuntimeException e)
+            {
+                // the pool keeps exceptions of submitted tasks to itself
+                if (topLevel)
+                {
+                    logger.log(Level.SEVERE, "Failed to render tile " + tileBounds + ".", e);
+                }
+                throw e;
+            }
+            if (topLevel)
             {
                 progressTracker.onTileCompleted();
-                metricsLogger.onTileSkipped();
-                return;
             }
-            for (Point2 pixel : tileBounds)
+        }
+
+        /**
+         * @return tasks for the parts of this tile, or null if it should be rendered whole.
+         */
+        private List<TileRenderTask> split()
+        {
+            int x0 = (int) tileBounds.get(0).x();
+            int x1 = (int) tileBounds.get(1).x();
+            int y0 = (int) tileBounds.get(0).y();
+            int y1 = (int) tileBounds.get(1).y();
+            boolean splitX = x1 - x0 > MIN_SPLIT_TILE_SIZE;
+            boolean splitY = y1 - y0 > MIN_SPLIT_TILE_SIZE;
+            if (!splitX && !splitY)
+            {
+                return null;
+            }
+            // A part written out by an interrupted render is skipped whole by render().
+            if (!configuration.isProgressive() && camera.getFilm().isFilmTileComplete(tileBounds))
+            {
+                return null;
+            }
+            // A render resumed after an interruption must split the tiles that were split before,
+            // or parts already written out would be rendered again. Progressive renders resume
+            // from their checkpoint journal, which records whole tiles, so how their tiles were
+            // split does not matter. Tiles on virtual threads are not split, as there is no pool
+            // for idle threads to take the parts from.
+            boolean wasSplit = !configuration.isProgressive() && wasSplit(x0, x1, y0, y1);
+            if (!wasSplit && (!inForkJoinPool() || unstartedTiles.get() >= numThreads ||
+                              getSurplusQueuedTaskCount() > 0))
+            {
+                return null;
+            }
+
+            int xMid = splitX ? (x0 + x1) / 2 : x1;
+            int yMid = splitY ? (y0 + y1) / 2 : y1;
+            List<TileRenderTask> subtasks = new ArrayList<>(4);
+            int quadrant = 0;
+            for (int[] ys : new int[][] { { y0, yMid }, { yMid, y1 } })
             {
-                tileSampler.startPixel(pixel);
-                do
+                for (int[] xs : new int[][] { { x0, xMid }, { xMid, x1 } })
                 {
-                    CameraSample cameraSample = tileSampler.getCameraSample(pixel);
-                    var r = camera.generateRayDifferential(cameraSample);
-                    RayDifferential ray = r.getFirst();
-                    double rayWeight = r.getSecond();
-                    ray.scaleDifferentials(1 / Math.sqrt(tileSampler.getSamplesPerPixel()));
-
-                    RGBSpectrum radiance = new RGBSpectrum(0, 0, 0);
-                    if (rayWeight > 0)
+                    if (xs[0] < xs[1] && ys[0] < ys[1])
                     {
-                        radiance = getRadiance(ray, scene, tileSampler);
+                        BoundingBox2 bounds = new BoundingBox2(new Point2(xs[0], ys[0]),
+                                                               new Point2(xs[1], ys[1]));
+                        long path = 4 * quadrantPath + quadrant++;
+                        subtasks.add(new TileRenderTask(bounds, scene, tileIndex, pass, path,
+                                                        samplesPerPixel));
                     }
+                }
+            }
+            return subtasks;
+        }
 
-                    if (Double.isNaN(radiance.getSample(0)) ||
-                        Double.isNaN(radiance.getSample(1)) || Double.isNaN(radiance.getSample(2)))
+        private boolean wasSplit(int x0, int x1, int y0, int y1)
+        {
+            if (x1 - x0 <= MIN_SPLIT_TILE_SIZE && y1 - y0 <= MIN_SPLIT_TILE_SIZE)
+            {
+                return false;
+            }
+            int xMid = x1 - x0 > MIN_SPLIT_TILE_SIZE ? (x0 + x1) / 2 : x1;
+            int yMid = y1 - y0 > MIN_SPLIT_TILE_SIZE ? (y0 + y1) / 2 : y1;
+            for (int[] ys : new int[][] { { y0, yMid }, { yMid, y1 } })
+            {
+                for (int[] xs : new int[][] { { x0, xMid }, { xMid, x1 } })
+                {
+                    if (xs[0] < xs[1] && ys[0] < ys[1] &&
+                        (camera.getFilm().isFilmTileComplete(new BoundingBox2(new Point2(xs[0], ys[0]),
+                                                                              new Point2(xs[1], ys[1]))) ||
+                         wasSplit(xs[0], xs[1], ys[0], ys[1])))
                     {
-                        logger.warning(String.format("NaN radiance returned for pixel (%f, %f), sample %d. Setting to black.",
-                                                     pixel.x(),
-                                                     pixel.y(),
-                                                     tileSampler.getCurrentSampleNumber()));
-                        radiance = new RGBSpectrum(0);
-                    } else if (radiance.getSample(1) < -1e-5)
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private void render()
+        {
+            int x0 = (int) tileBounds.get(0).x();
+            int x1 = (int) tileBounds.get(1).x();
+            int y0 = (int) tileBounds.get(0).y();
+            int y1 = (int) tileBounds.get(1).y();
+
+            Film film = camera.getFilm();
+            FilmTile filmTile = configuration.isProgressive() ? film.createFilmTile(tileBounds)
+                                                              : film.getFilmTile(tileBounds);
+            if (filmTile == null)
+            {
+                if (topLevel)
+                {
+                    metricsLogger.onTileSkipped();
+                }
+                return;
+            }
+            // Pixels take their samples in rounds, and only pixels that have not converged go on
+            // to the next one. Without adaptive sampling there is a single round.
+            AdaptiveSampling adaptiveSampling = configuration.getAdaptiveSampling();
+            int roundSamples = adaptiveSampling == null ? samplesPerPixel
+                                                        : Math.min(adaptiveSampling.getMinSamples(), samplesPerPixel);
+            // Camera rays are traced in packets covering a small block of pixels, all samples of
+            // the round each, so that the aggregate can share traversal work between them.
+            double differentialScale = 1 / Math.sqrt(sampler.getSamplesPerPixel());
+            int pixelsPerPacket = Integer.highestOneBit(Math.max(1, PACKET_SIZE / roundSamples));
+            int packetWidth = 1 << ((Integer.numberOfTrailingZeros(pixelsPerPacket) + 1) / 2);
+            int packetHeight = pixelsPerPacket / packetWidth;
+            int maxPacketSize = pixelsPerPacket * roundSamples;
+            CameraSample[] cameraSamples = new CameraSample[maxPacketSize];
+            RayDifferential[] rays = new RayDifferential[maxPacketSize];
+            double[] rayWeights = new double[maxPacketSize];
+            SurfaceInteraction[] interactions = new SurfaceInteraction[maxPacketSize];
+            Point2[] packetPixels = new Point2[pixelsPerPacket];
+            int[] pixelSamples = new int[pixelsPerPacket];
+            // Each pixel of a packet has its own sampler, started once, so that its samples stay
+            // stratified across adaptive rounds and shading can go back to a sample after the
+            // packet has been traced.
+            Sampler[] pixelSamplers = new Sampler[pixelsPerPacket];
+            for (int p = 0; p < pixelsPerPacket; p++)
+            {
+                pixelSamplers[p] = sampler.getCopy((int) mix(((long) seed << 32) | p));
+            }
+            long samplesTaken = 0;
+
+            for (int py = y0; py < y1; py += packetHeight)
+            {
+                for (int px = x0; px < x1; px += packetWidth)
+                {
+                    int numPixels = 0;
+                    for (int y = py; y < Math.min(py + packetHeight, y1); y++)
                     {
-                        logger.warning(String.format("Negative luminance value (%f) returned for pixel (%f, %f), sample %d. Setting to black.",
-                                                     radiance.getSample(1),
-                                                     pixel.x(),
-                                                     pixel.y(),
-                                                     tileSampler.getCurrentSampleNumber()));
-                        radiance = new RGBSpectrum(0);
-                    } else if (Double.isInfinite(radiance.getSample(1)))
+                        for (int x = px; x < Math.min(px + packetWidth, x1); x++)
+                        {
+                            packetPixels[numPixels] = new Point2(x, y);
+                            pixelSamples[numPixels] = 0;
+                            pixelSamplers[numPixels].startPixel(packetPixels[numPixels]);
+                            numPixels++;
+                        }
+                    }
+
+                    while (numPixels > 0)
                     {
-                        logger.warning(String.format("Infinite luminance returned for pixel (%f, %f), sample %d. Setting to black.",
-                                                     pixel.x(),
-                                                     pixel.y(),
-                                                     tileSampler.getCurrentSampleNumber()));
-                        radiance = new RGBSpectrum(0);
+                        int packetSize = 0;
+                        for (int p = 0; p < numPixels; p++)
+                        {
+                            Point2 pixel = packetPixels[p];
+                            Sampler pixelSampler = pixelSamplers[p];
+                            int numSamples = Math.min(roundSamples, samplesPerPixel - pixelSamples[p]);
+                            pixelSampler.setSampleNumber(pixelSamples[p]);
+                            for (int s = 0; s < numSamples; s++, pixelSampler.startNextSample())
+                            {
+                                CameraSample cameraSample = pixelSampler.getCameraSample(pixel);
+                                var r = camera.generateRayDifferential(cameraSample);
+                                RayDifferential ray = r.getFirst();
+                                ray.scaleDifferentials(differentialScale);
+                                cameraSamples[packetSize] = cameraSample;
+                                rays[packetSize] = ray;
+                                rayWeights[packetSize] = r.getSecond();
+                                packetSize++;
+                            }
+                        }
+
+                        scene.intersect(rays, interactions, packetSize);
+
+                        // Going back to a sample without starting the pixel again replays the same
+                        // camera sample, which moves the sampler on to the dimensions the
+                        // integrator uses.
+                        int i = 0;
+                        for (int p = 0; p < numPixels; p++)
+                        {
+                            Point2 pixel = packetPixels[p];
+                            Sampler pixelSampler = pixelSamplers[p];
+                            int numSamples = Math.min(roundSamples, samplesPerPixel - pixelSamples[p]);
+                            pixelSampler.setSampleNumber(pixelSamples[p]);
+                            for (int s = 0; s < numSamples; s++, pixelSampler.startNextSample())
+                            {
+                                pixelSampler.getCameraSample(pixel);
+                                RGBSpectrum radiance = new RGBSpectrum(0, 0, 0);
+                                if (rayWeights[i] > 0)
+                                {
+                                    radiance = getRadiance(rays[i], interactions[i], scene,
+                                                           pixelSampler);
+                                }
+                                radiance = checkRadiance(radiance, pixel,
+                                                         pixelSampler.getCurrentSampleNumber());
+                                filmTile.addSample(cameraSamples[i].getPFilm(), radiance,
+                                                   rayWeights[i]);
+                                filmTile.addLuminanceSample(pixel, radiance.y() * rayWeights[i]);
+                                interactions[i] = null;
+                                i++;
+                            }
+                            pixelSamples[p] += numSamples;
+                        }
+                        samplesTaken += packetSize;
+
+                        // keep the pixels that need more samples; pixels outside the film tile
+                        // have no statistics and take all of theirs
+                        int numActivePixels = 0;
+                        for (int p = 0; p < numPixels; p++)
+                        {
+                            Point2 pixel = packetPixels[p];
+                            if (adaptiveSampling != null && pixelSamples[p] < samplesPerPixel &&
+                                (!filmTile.getPixelBounds().containsExclusive(pixel) ||
+                                 !adaptiveSampling.isConverged(filmTile, pixel)))
+                            {
+                                // swap the samplers, so each slot keeps one of its own
+                                Sampler pixelSampler = pixelSamplers[p];
+                                pixelSamplers[p] = pixelSamplers[numActivePixels];
+                                pixelSamplers[numActivePixels] = pixelSampler;
+                                packetPixels[numActivePixels] = pixel;
+                                pixelSamples[numActivePixels] = pixelSamples[p];
+                                numActivePixels++;
+                            }
+                        }
+                        numPixels = numActivePixels;
                     }
-                    filmTile.addSample(cameraSample.getPFilm(), radiance, rayWeight);
-                } while (tileSampler.startNextSample());
+                }
+            }
+            if (adaptiveSampling != null)
+            {
+                metricsLogger.onAdaptiveSamplesTaken(samplesTaken,
+                                                     (long) tileBounds.integerArea() * samplesPerPixel);
+            }
+            if (configuration.isProgressive())
+            {
+                filmTiles.add(filmTile);
+            }
+            else
+            {
+                film.onFilmTileComplete(filmTile);
+            }
+        }
+
+        private RGBSpectrum checkRadiance(RGBSpectrum radiance, Point2 pixel, long sampleNumber)
+        {
+            if (Double.isNaN(radiance.getSample(0)) ||
+                Double.isNaN(radiance.getSample(1)) || Double.isNaN(radiance.getSample(2)))
+            {
+                logger.warning(String.format("NaN radiance returned for pixel (%f, %f), sample %d. Setting to black.",
+                                             pixel.x(),
+                                             pixel.y(),
+                                             sampleNumber));
+                return new RGBSpectrum(0);
+            } else if (radiance.getSample(1) < -1e-5)
+            {
+                logger.warning(String.format("Negative luminance value (%f) returned for pixel (%f, %f), sample %d. Setting to black.",
+                                             radiance.getSample(1),
+                                             pixel.x(),
+                                             pixel.y(),
+                                             sampleNumber));
+                return new RGBSpectrum(0);
+            } else if (Double.isInfinite(radiance.getSample(1)))
+            {
+                logger.warning(String.format("Infinite luminance returned for pixel (%f, %f), sample %d. Setting to black.",
+                                             pixel.x(),
+                                             pixel.y(),
+                                             sampleNumber));
+                return new RGBSpectrum(0);
             }
-            camera.getFilm().onFilmTileComplete(filmTile);
-            progressTracker.onTileCompleted();
+            return radiance;
         }
 
     }
@@ -0,0 +1,114 @@
+package integrator;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import core.math.Point2;
+
+/**
+ * The order in which the tiles of an image are handed to the render threads.
+ */
+public enum TileOrder
+{
+    /**
+     * Left to right, top to bottom.
+     */
+    ROW_MAJOR,
+
+    /**
+     * Along a Hilbert curve, so that consecutive tiles are neighbors and threads working at the
+     * same time touch nearby parts of the scene.
+     */
+    HILBERT,
+
+    /**
+     * Outwards from the center of the image, which usually holds the subject, in rings.
+     */
+    SPIRAL;
+
+    /**
+     * @return the coordinates of all tiles of an nTilesX by nTilesY grid, each once, in this
+     *         order.
+     */
+    public List<Point2> getTiles(int nTilesX, int nTilesY)
+    {
+        List<Point2> tiles = new ArrayList<>(nTilesX * nTilesY);
+        switch (this)
+        {
+            case ROW_MAJOR:
+                for (int y = 0; y < nTilesY; y++)
+                {
+                    for (int x = 0; x < nTilesX; x++)
+                    {
+                        tiles.add(new Point2(x, y));
+                    }
+                }
+                break;
+            case HILBERT:
+                // walk the curve over the smallest power of two square covering the grid
+                int n = 1;
+                while (n < nTilesX || n < nTilesY)
+                {
+                    n *= 2;
+                }
+                for (int d = 0; d < n * n; d++)
+                {
+                    int[] xy = hilbertToTile(n, d);
+                    if (xy[0] < nTilesX && xy[1] < nTilesY)
+                    {
+                        tiles.add(new Point2(xy[0], xy[1]));
+                    }
+                }
+                break;
+            case SPIRAL:
+                double centerX = (nTilesX - 1) / 2.0;
+                double centerY = (nTilesY - 1) / 2.0;
+                for (int y = 0; y < nTilesY; y++)
+                {
+                    for (int x = 0; x < nTilesX; x++)
+                    {
+                        tiles.add(new Point2(x, y));
+                    }
+                }
+                tiles.sort(Comparator.<Point2> comparingDouble(t -> Math.max(Math.abs(t.x() - centerX),
+                                                                              Math.abs(t.y() - centerY)))
+                                     .thenComparingDouble(t -> Math.atan2(t.y() - centerY, t.x() - centerX)));
+                break;
+            default:
+                throw new UnsupportedOperationException("Unsupported tile order: " + this);
+        }
+        return tiles;
+    }
+
+    /**
+     * Convert a distance d along the Hilbert curve filling an n by n grid, n a power of two, to
+     * grid coordinates.
+     */
+    private static int[] hilbertToTile(int n, int d)
+    {
+        int x = 0;
+        int y = 0;
+        for (int s = 1; s < n; s *= 2)
+        {
+            int rx = 1 & (d / 2);
+            int ry = 1 & (d ^ rx);
+            // rotate the quadrant
+            if (ry == 0)
+            {
+                if (rx == 1)
+                {
+                    x = s - 1 - x;
+                    y = s - 1 - y;
+                }
+                int t = x;
+                x = y;
+                y = t;
+            }
+            x += s * rx;
+            y += s * ry;
+            d /= 4;
+        }
+        return new int[] { x, y };
+    }
+}
@@ -10,6 +10,7 @@ import camera.Camera;
 import core.RayDifferential;
 import core.colors.RGBSpectrum;
 import core.math.Direction3;
+import integrator.RenderConfiguration;
 import integrator.SamplerIntegrator;
 import sampler.Sampler;
 import scene.Scene;
@@ -45,6 +46,14 @@ public class DirectLightingIntegrator extends SamplerIntegrator
         this.maxDepth = maxDepth;
     }
     
+    public DirectLightingIntegrator(Sampler sampler, Camera camera, LightStrategy lightStrategy, int maxDepth,
+            RenderConfiguration configuration)
+    {
+        super(sampler, camera, configuration);
+        this.strategy = lightStrategy;
+        this.maxDepth = maxDepth;
+    }
+    
     @Override
     public void preprocess(Scene scene, Sampler sampler)
     {
@@ -68,11 +77,11 @@ public class DirectLightingIntegrator extends SamplerIntegrator
     }
     
     @Override
-    protected RGBSpectrum getRadiance(RayDifferential ray, Scene scene, Sampler sampler, int depth)
+    protected RGBSpectrum getRadiance(RayDifferential ray, SurfaceInteraction surfaceInteraction,
+            Scene scene, Sampler sampler, int depth)
     {
         RGBSpectrum radiance = new RGBSpectrum(0);
         
-        SurfaceInteraction surfaceInteraction = scene.intersect(ray);
         if (surfaceInteraction == null)
         {
             for (Light light : scene.getLights())
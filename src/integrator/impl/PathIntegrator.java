@@ -6,6 +6,7 @@ import camera.Camera;
 import core.RayDifferential;
 import core.colors.RGBSpectrum;
 import core.math.Direction3;
+import integrator.RenderConfiguration;
 import integrator.SamplerIntegrator;
 import sampler.Sampler;
 import scene.Scene;
@@ -25,19 +26,28 @@ public class PathIntegrator extends SamplerIntegrator
         this.maxDepth = maxDepth;
     }
 
+    public PathIntegrator(int maxDepth, Camera camera, Sampler sampler, RenderConfiguration configuration)
+    {
+        super(sampler, camera, configuration);
+        this.maxDepth = maxDepth;
+    }
+
     @Override
-    protected RGBSpectrum getRadiance(RayDifferential r, Scene scene, Sampler sampler, int depth)
+    protected RGBSpectrum getRadiance(RayDifferential r, SurfaceInteraction firstInteraction,
+            Scene scene, Sampler sampler, int depth)
     {
         RGBSpectrum radiance = new RGBSpectrum(0);
         RGBSpectrum beta = new RGBSpectrum(1); // path throughput weight
         RayDifferential ray = new RayDifferential(r);
         boolean specularBounce = false;
+        boolean firstRay = true;
 
         for (int bounces = 0; ; bounces++)
         {
             // find next path vertex and accumulate contribution
-            // intersect ray with scene
-            SurfaceInteraction surfaceInteraction = scene.intersect(ray);
+            // intersect ray with scene; the caller has already intersected the first ray
+            SurfaceInteraction surfaceInteraction = firstRay ? firstInteraction : scene.intersect(ray);
+            firstRay = false;
 
             // possibly add emitted light at intersection
             if (bounces == 0 || specularBounce)
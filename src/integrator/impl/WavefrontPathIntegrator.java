@@ -0,0 +1,724 @@
+package integrator.impl;
+
+import static utilities.SamplingUtilities.powerHeuristic;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+import camera.Camera;
+import camera.CameraSample;
+import core.Ray;
+import core.RayDifferential;
+import core.colors.RGBSpectrum;
+import core.math.Direction2;
+import core.math.Direction3;
+import core.math.Normal3;
+import core.math.Point2;
+import core.math.Point3;
+import core.space.BoundingBox2;
+import core.space.BoundingBox3;
+import film.FilmTile;
+import integrator.Integrator;
+import integrator.RenderConfiguration;
+import integrator.RenderConfiguration.ExecutorType;
+import integrator.SamplerIntegrator;
+import metrics.MetricsLogger;
+import metrics.ProgressTracker;
+import sampler.Sampler;
+import scene.Scene;
+import scene.interactions.Interaction;
+import scene.interactions.impl.SurfaceInteraction;
+import scene.lights.Light;
+import scene.lights.Light.VisibilityTester;
+import scene.materials.Material;
+import scene.materials.functions.AbstractBidirectionalDistributionFunction.BxDFType;
+import scene.materials.functions.BidirectionalScatteringDistributionFunction;
+import scene.medium.Medium.MediumInterface;
+import scene.primitives.accelerator.bvh.tree.HierarchicalLinearTreeBuilder;
+
+/**
+ * A path tracer that advances a large batch of paths together, one stage at a time, instead of
+ * following each path to its end before starting the next: camera rays are generated for every
+ * path of the batch, then all of them are intersected, then all hits are shaded, then all shadow
+ * rays are traced, and so on until every path has terminated, when the batch is accumulated into
+ * the film. Each stage is a parallel loop over the paths still alive.
+ * <p>
+ * Between stages, paths are sorted so that neighboring iterations do similar work: by direction
+ * octant and origin before intersection, so that the rays traced together as a packet are
+ * coherent, and by material type before shading.
+ * <p>
+ * Direct lighting combines light sampling and the BSDF sampled continuation ray with multiple
+ * importance sampling, so it needs no extra ray per bounce; otherwise the estimator is that of
+ * {@link PathIntegrator}.
+ */
+public class WavefrontPathIntegrator implements Integrator
+{
+    private static final Logger logger = Logger.getLogger(WavefrontPathIntegrator.class.getName());
+    private static final MetricsLogger metricsLogger = MetricsLogger.getInstance();
+
+    private static final int DEFAULT_MAX_BATCH_SIZE = 1 << 12;
+    // sort keys hold the path index in their low bits
+    private static final int INDEX_BITS = 24;
+    private static final long INDEX_MASK = (1L << INDEX_BITS) - 1;
+    private static final int PACKET_SIZE = 64;
+    // sampler values each path draws per bounce when it is generated, and where they are kept
+    private static final int SAMPLES_PER_BOUNCE = 6;
+    private static final int LIGHT_SELECTION_SAMPLE = 0;
+    private static final int LIGHT_SAMPLE = 1;
+    private static final int SCATTERING_SAMPLE = 3;
+    private static final int ROULETTE_SAMPLE = 5;
+    private static final EnumSet<BxDFType> NON_SPECULAR = EnumSet.complementOf(EnumSet.of(BxDFType.SPECULAR));
+    private static final EnumSet<BxDFType> ALL = EnumSet.allOf(BxDFType.class);
+
+    private final int maxDepth;
+    private final Camera camera;
+    private final Sampler sampler;
+    private final int maxBatchSize;
+    private final RenderConfiguration configuration;
+    private final int tileSize;
+    private final int numThreads;
+    // runs the stages' parallel loops
+    private final ForkJoinPool pool;
+
+    private final Map<Class<? extends Material>, Long> materialTypes = new ConcurrentHashMap<>();
+    private final AtomicLong nextMaterialType = new AtomicLong(2);
+    private volatile boolean stopped = false;
+
+    private ProgressTracker progressTracker;
+
+    // Path state of the current batch, one entry per path. A path's index is fixed for the
+    // batch; sorting only reorders the list of live paths.
+    private int numPaths;
+    private boolean[] hasSample;
+    private boolean[] alive;
+    private double[] filmX;
+    private double[] filmY;
+    private double[] cameraWeight;
+    private double[] betaR;
+    private double[] betaG;
+    private double[] betaB;
+    private double[] radianceR;
+    private double[] radianceG;
+    private double[] radianceB;
+    private double[] directR;
+    private double[] directG;
+    private double[] directB;
+    private int[] bounces;
+    private boolean[] specularBounce;
+    private double[] scatteringPdf;
+    // the values the path's pixel sampler gave for every bounce, SAMPLES_PER_BOUNCE per bounce
+    private double[] pathSamples;
+    private RayDifferential[] rays;
+    private Ray[] shadowRays;
+    private SurfaceInteraction[] interactions;
+    // the previous path vertex, for weighting light found by BSDF sampling
+    private double[] previousX;
+    private double[] previousY;
+    private double[] previousZ;
+    private double[] previousNormalX;
+    private double[] previousNormalY;
+    private double[] previousNormalZ;
+    private double[] previousErrorX;
+    private double[] previousErrorY;
+    private double[] previousErrorZ;
+    private MediumInterface[] previousMediumInterfaces;
+
+    private int[] livePaths;
+    private int numLivePaths;
+    private long[] sortKeys;
+    // one packet of rays and hits per group of PACKET_SIZE live paths
+    private Ray[][] packetRays;
+    private SurfaceInteraction[][] packetHits;
+
+    public WavefrontPathIntegrator(int maxDepth, Camera camera, Sampler sampler)
+    {
+        this(maxDepth, camera, sampler, RenderConfiguration.getDefault());
+    }
+
+    public WavefrontPathIntegrator(int maxDepth, Camera camera, Sampler sampler, RenderConfiguration configuration)
+    {
+        this(maxDepth, camera, sampler, configuration, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    /**
+     * @param configuration
+     *            the tile size and order, and the threads that run the stages. Stages are
+     *            parallel loops, so they need a fork/join pool rather than virtual threads;
+     *            progressive and adaptive rendering are not supported.
+     * @param maxBatchSize
+     *            the most paths traced together; batches cover whole tiles, at least one
+     */
+    public WavefrontPathIntegrator(int maxDepth, Camera camera, Sampler sampler, RenderConfiguration configuration,
+            int maxBatchSize)
+    {
+        if (maxBatchSize <= 0 || maxBatchSize > INDEX_MASK)
+        {
+            throw new IllegalArgumentException("Unsupported batch size: " + maxBatchSize);
+        }
+        if (configuration.isProgressive() || configuration.getAdaptiveSampling() != null)
+        {
+            throw new UnsupportedOperationException("Wavefront rendering is neither progressive nor adaptive: " +
+                                                    configuration);
+        }
+        this.maxDepth = maxDepth;
+        this.camera = camera;
+        this.sampler = sampler;
+        this.maxBatchSize = maxBatchSize;
+        this.configuration = configuration;
+        tileSize = configuration.getTileSize();
+
+        switch (configuration.getExecutorType())
+        {
+            case PLATFORM_THREADS:
+                numThreads = configuration.getNumThreads();
+                pool = new ForkJoinPool(numThreads);
+                break;
+            case SHARED_POOL:
+                numThreads = ForkJoinPool.getCommonPoolParallelism();
+                pool = ForkJoinPool.commonPool();
+                break;
+            default:
+                throw new UnsupportedOperationException("Unsupported executor type: " +
+                                                        configuration.getExecutorType());
+        }
+    }
+
+    @Override
+    public void render(Scene scene)
+    {
+        BoundingBox2 sampleBounds = camera.getFilm().getSampleBounds();
+        Direction2 sampleExtent = sampleBounds.diagonal();
+        int nTilesX = (int) (sampleExtent.x() + tileSize - 1) / tileSize;
+        int nTilesY = (int) (sampleExtent.y() + tileSize - 1) / tileSize;
+        List<Point2> tiles = configuration.getTileOrder().getTiles(nTilesX, nTilesY);
+        int numTiles = tiles.size();
+        int pathsPerTile = tileSize * tileSize * (int) sampler.getSamplesPerPixel();
+        int tilesPerBatch = Math.max(1, Math.min(numTiles, maxBatchSize / pathsPerTile));
+        if ((long) tilesPerBatch * pathsPerTile > INDEX_MASK ||
+            (long) tilesPerBatch * pathsPerTile * maxDepth * SAMPLES_PER_BOUNCE > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("Too many samples per pixel for a batch: " +
+                                               sampler.getSamplesPerPixel());
+        }
+        allocate(tilesPerBatch * pathsPerTile);
+
+        logger.info(String.format("Rendering %d tiles in batches of %d paths with %d threads (%s).",
+                                  numTiles, tilesPerBatch * pathsPerTile, numThreads,
+                                  configuration.getExecutorType()));
+        progressTracker = new ProgressTracker(numTiles);
+        progressTracker.updateProgressBar();
+        metricsLogger.onRenderStart(0, configuration.getExecutorType().toString(), numThreads, tileSize,
+                                    numTiles);
+
+        long renderStart = System.currentTimeMillis();
+        // parallel loops run in the pool of the thread that starts them
+        pool.invoke(ForkJoinTask.adapt(() -> renderBatches(scene, tiles, nTilesX, sampleBounds,
+                                                           tilesPerBatch, pathsPerTile)));
+        // the shared pool outlives the render
+        if (configuration.getExecutorType() != ExecutorType.SHARED_POOL)
+        {
+            pool.shutdown();
+        }
+        long renderEnd = System.currentTimeMillis();
+        metricsLogger.onRenderComplete(renderEnd - renderStart);
+
+        long imageWriteStart = System.currentTimeMillis();
+        camera.getFilm().mergeFilmTiles();
+        camera.getFilm().writeImage(1);
+        long imageWriteEnd = System.currentTimeMillis();
+        metricsLogger.onOutputComplete(imageWriteEnd - imageWriteStart);
+
+        metricsLogger.outputMetrics();
+    }
+
+    private void renderBatches(Scene scene, List<Point2> tiles, int nTilesX, BoundingBox2 sampleBounds,
+            int tilesPerBatch, int pathsPerTile)
+    {
+        int numTiles = tiles.size();
+        for (int firstTile = 0; firstTile < numTiles && !stopped; firstTile += tilesPerBatch)
+        {
+            int batchTiles = Math.min(tilesPerBatch, numTiles - firstTile);
+            FilmTile[] filmTiles = new FilmTile[batchTiles];
+            numPaths = batchTiles * pathsPerTile;
+
+            generate(tiles.subList(firstTile, firstTile + batchTiles), nTilesX, sampleBounds, filmTiles,
+                     pathsPerTile);
+            boolean cameraRays = true;
+            while (numLivePaths > 0)
+            {
+                sortByRay(scene.worldBound());
+                intersect(scene, cameraRays);
+                cameraRays = false;
+                sortByMaterial();
+                shade(scene);
+                traceShadowRays(scene);
+                compact();
+            }
+            accumulate(filmTiles, pathsPerTile);
+        }
+    }
+
+    @Override
+    public void shutdownNow()
+    {
+        logger.info("Shutting down.");
+        stopped = true;
+        camera.getFilm().mergeFilmTiles();
+    }
+
+    private void allocate(int size)
+    {
+        hasSample = new boolean[size];
+        alive = new boolean[size];
+        filmX = new double[size];
+        filmY = new double[size];
+        cameraWeight = new double[size];
+        betaR = new double[size];
+        betaG = new double[size];
+        betaB = new double[size];
+        radianceR = new double[size];
+        radianceG = new double[size];
+        radianceB = new double[size];
+        directR = new double[size];
+        directG = new double[size];
+        directB = new double[size];
+        bounces = new int[size];
+        specularBounce = new boolean[size];
+        scatteringPdf = new double[size];
+        pathSamples = new double[size * maxDepth * SAMPLES_PER_BOUNCE];
+        rays = new RayDifferential[size];
+        shadowRays = new Ray[size];
+        interactions = new SurfaceInteraction[size];
+        previousX = new double[size];
+        previousY = new double[size];
+        previousZ = new double[size];
+        previousNormalX = new double[size];
+        previousNormalY = new double[size];
+        previousNormalZ = new double[size];
+        previousErrorX = new double[size];
+        previousErrorY = new double[size];
+        previousErrorZ = new double[size];
+        previousMediumInterfaces = new MediumInterface[size];
+        livePaths = new int[size];
+        sortKeys = new long[size];
+        int numPackets = (size + PACKET_SIZE - 1) / PACKET_SIZE;
+        packetRays = new Ray[numPackets][PACKET_SIZE];
+        packetHits = new SurfaceInteraction[numPackets][PACKET_SIZE];
+    }
+
+    /**
+     * Generate the camera ray of every sample of every pixel in the batch's tiles, and draw the
+     * sampler values its path will use at every bounce, since paths of a pixel are shaded in
+     * parallel and cannot share its sampler. Path indices are grouped by tile so that
+     * accumulation can run one tile per thread.
+     */
+    private void generate(List<Point2> batchTiles, int nTilesX, BoundingBox2 sampleBounds,
+            FilmTile[] filmTiles, int pathsPerTile)
+    {
+        int samplesPerPixel = (int) sampler.getSamplesPerPixel();
+        Arrays.fill(hasSample, 0, numPaths, false);
+        Arrays.fill(alive, 0, numPaths, false);
+        IntStream.range(0, filmTiles.length).parallel().forEach(t ->
+        {
+            Point2 tilePosition = batchTiles.get(t);
+            int tile = (int) tilePosition.y() * nTilesX + (int) tilePosition.x();
+            int x0 = (int) sampleBounds.get(0).x() + (int) tilePosition.x() * tileSize;
+            int x1 = Math.min(x0 + tileSize, (int) sampleBounds.get(1).x());
+            int y0 = (int) sampleBounds.get(0).y() + (int) tilePosition.y() * tileSize;
+            int y1 = Math.min(y0 + tileSize, (int) sampleBounds.get(1).y());
+            filmTiles[t] = camera.getFilm().getFilmTile(new BoundingBox2(new Point2(x0, y0),
+                                                                         new Point2(x1, y1)));
+            if (filmTiles[t] == null)
+            {
+                return;
+            }
+
+            Sampler tileSampler = sampler.getCopy(SamplerIntegrator.getTileSeed(0, tile));
+            int path = t * pathsPerTile;
+            for (int y = y0; y < y1; y++)
+            {
+                for (int x = x0; x < x1; x++)
+                {
+                    Point2 pixel = new Point2(x, y);
+                    tileSampler.startPixel(pixel);
+                    do
+                    {
+                        CameraSample cameraSample = tileSampler.getCameraSample(pixel);
+                        var r = camera.generateRayDifferential(cameraSample);
+                        RayDifferential ray = r.getFirst();
+                        ray.scaleDifferentials(1 / Math.sqrt(samplesPerPixel));
+
+                        hasSample[path] = true;
+                        alive[path] = r.getSecond() > 0;
+                        filmX[path] = cameraSample.getPFilm().x();
+                        filmY[path] = cameraSample.getPFilm().y();
+                        cameraWeight[path] = r.getSecond();
+                        betaR[path] = betaG[path] = betaB[path] = 1;
+                        radianceR[path] = radianceG[path] = radianceB[path] = 0;
+                        bounces[path] = 0;
+                        specularBounce[path] = false;
+                        int sample = path * maxDepth * SAMPLES_PER_BOUNCE;
+                        for (int bounce = 0; bounce < maxDepth; bounce++)
+                        {
+                            pathSamples[sample + LIGHT_SELECTION_SAMPLE] = tileSampler.get1D();
+                            Point2 lightSample = tileSampler.get2D();
+                            pathSamples[sample + LIGHT_SAMPLE] = lightSample.x();
+                            pathSamples[sample + LIGHT_SAMPLE + 1] = lightSample.y();
+                            Point2 scatteringSample = tileSampler.get2D();
+                            pathSamples[sample + SCATTERING_SAMPLE] = scatteringSample.x();
+                            pathSamples[sample + SCATTERING_SAMPLE + 1] = scatteringSample.y();
+                            pathSamples[sample + ROULETTE_SAMPLE] = tileSampler.get1D();
+                            sample += SAMPLES_PER_BOUNCE;
+                        }
+                        rays[path] = ray;
+                        path++;
+                    } while (tileSampler.startNextSample());
+                }
+            }
+        });
+
+        numLivePaths = 0;
+        for (int path = 0; path < numPaths; path++)
+        {
+            if (alive[path])
+            {
+                livePaths[numLivePaths++] = path;
+            }
+        }
+    }
+
+    /**
+     * Order live paths by direction octant, then by the Morton code of their ray's origin, so
+     * that consecutive rays tend to traverse the same nodes.
+     */
+    private void sortByRay(BoundingBox3 worldBound)
+    {
+        IntStream.range(0, numLivePaths).parallel().forEach(i ->
+        {
+            int path = livePaths[i];
+            Ray ray = rays[path];
+            Direction3 d = ray.getDirection();
+            long octant = (d.x() < 0 ? 1 : 0) | (d.y() < 0 ? 2 : 0) | (d.z() < 0 ? 4 : 0);
+            long morton = HierarchicalLinearTreeBuilder.encodeMorton3(worldBound, ray.getOrigin());
+            sortKeys[i] = (((octant << 30) | morton) << INDEX_BITS) | path;
+        });
+        sortLivePaths();
+    }
+
+    private void sortByMaterial()
+    {
+        IntStream.range(0, numLivePaths).parallel().forEach(i ->
+        {
+            int path = livePaths[i];
+            sortKeys[i] = (getMaterialType(interactions[path]) << INDEX_BITS) | path;
+        });
+        sortLivePaths();
+    }
+
+    private void sortLivePaths()
+    {
+        Arrays.parallelSort(sortKeys, 0, numLivePaths);
+        IntStream.range(0, numLivePaths).parallel().forEach(i ->
+        {
+            livePaths[i] = (int) (sortKeys[i] & INDEX_MASK);
+        });
+    }
+
+    // 0 for escaped rays, then one key per material class in order of first appearance
+    private long getMaterialType(SurfaceInteraction surfaceInteraction)
+    {
+        if (surfaceInteraction == null)
+        {
+            return 0;
+        }
+        Material material = surfaceInteraction.getPrimitive().getMaterial();
+        if (material == null)
+        {
+            return 1;
+        }
+        return materialTypes.computeIfAbsent(material.getClass(), c -> nextMaterialType.getAndIncrement());
+    }
+
+    /**
+     * Intersect the live paths' rays in groups of consecutive paths. Camera rays are coherent
+     * enough to be traced as packets; bounced rays with the same direction octant and nearby
+     * origins still diverge too much for a packet to cull nodes, so they are traced one by one.
+     */
+    private void intersect(Scene scene, boolean cameraRays)
+    {
+        int numPackets = (numLivePaths + PACKET_SIZE - 1) / PACKET_SIZE;
+        IntStream.range(0, numPackets).parallel().forEach(p ->
+        {
+            int start = p * PACKET_SIZE;
+            int count = Math.min(PACKET_SIZE, numLivePaths - start);
+            Ray[] packet = packetRays[p];
+            SurfaceInteraction[] hits = packetHits[p];
+            for (int i = 0; i < count; i++)
+            {
+                packet[i] = rays[livePaths[start + i]];
+            }
+            if (cameraRays)
+            {
+                scene.intersect(packet, hits, count);
+            }
+            else
+            {
+                for (int i = 0; i < count; i++)
+                {
+                    hits[i] = scene.intersect(packet[i]);
+                }
+            }
+            for (int i = 0; i < count; i++)
+            {
+                interactions[livePaths[start + i]] = hits[i];
+                packet[i] = null;
+                hits[i] = null;
+            }
+        });
+    }
+
+    private void shade(Scene scene)
+    {
+        List<Light> lights = scene.getLights();
+        IntStream.range(0, numLivePaths).parallel().forEach(i -> shade(livePaths[i], lights));
+    }
+
+    private void shade(int path, List<Light> lights)
+    {
+        RayDifferential ray = rays[path];
+        SurfaceInteraction surfaceInteraction = interactions[path];
+        interactions[path] = null;
+        shadowRays[path] = null;
+
+        // add emitted light at path vertex or from environment
+        if (surfaceInteraction == null)
+        {
+            for (Light light : lights)
+            {
+                addEmittedRadiance(path, light, light.emittedRadiance(ray), ray.getDirection(),
+                                   lights.size());
+            }
+            alive[path] = false;
+            return;
+        }
+        addEmittedRadiance(path, surfaceInteraction.getPrimitive().getAreaLight(),
+                           surfaceInteraction.getEmittedRadiance(ray.getDirection().times(-1)),
+                           ray.getDirection(), lights.size());
+        if (bounces[path] >= maxDepth)
+        {
+            alive[path] = false;
+            return;
+        }
+
+        // compute scattering functions and skip medium boundaries
+        surfaceInteraction.computeScatteringFunctions(ray);
+        BidirectionalScatteringDistributionFunction bsdf = surfaceInteraction.getBsdf();
+        if (bsdf == null)
+        {
+            rays[path] = new RayDifferential(surfaceInteraction.spawnRay(ray.getDirection()));
+            return;
+        }
+        Direction3 wo = surfaceInteraction.getWo();
+        double shadingNormalX = surfaceInteraction.getShadingGeometry().getN().x();
+        double shadingNormalY = surfaceInteraction.getShadingGeometry().getN().y();
+        double shadingNormalZ = surfaceInteraction.getShadingGeometry().getN().z();
+
+        // sample one light; its shadow ray is traced in the next stage
+        if (!lights.isEmpty())
+        {
+            int numLights = lights.size();
+            Light light = lights.get(Math.min((int) (getPathSample(path, LIGHT_SELECTION_SAMPLE) * numLights),
+                                              numLights - 1));
+            var lightSample = light.sampleRadiance(surfaceInteraction,
+                                                   new Point2(getPathSample(path, LIGHT_SAMPLE),
+                                                              getPathSample(path, LIGHT_SAMPLE + 1)));
+            RGBSpectrum incidentRadiance = lightSample.getFirst();
+            Direction3 wi = lightSample.getSecond();
+            double lightPdf = lightSample.getThird() / numLights;
+            VisibilityTester visibility = lightSample.getFourth();
+            if (lightPdf > 0 && !incidentRadiance.isBlack())
+            {
+                double cosTheta = Math.abs(wi.x() * shadingNormalX + wi.y() * shadingNormalY +
+                                           wi.z() * shadingNormalZ);
+                RGBSpectrum f = bsdf.f(wo, wi, NON_SPECULAR).times(cosTheta);
+                if (!f.isBlack())
+                {
+                    double weight = light.isDeltaLight() ? 1 :
+                            powerHeuristic(1, lightPdf, 1, bsdf.pdf(wo, wi, NON_SPECULAR));
+                    RGBSpectrum direct = f.times(incidentRadiance).times(weight / lightPdf);
+                    directR[path] = betaR[path] * direct.r();
+                    directG[path] = betaG[path] * direct.g();
+                    directB[path] = betaB[path] * direct.b();
+                    shadowRays[path] = visibility.p0().spawnRayTo(visibility.p1());
+                }
+            }
+        }
+
+        // sample BSDF to get new path direction
+        var sample = bsdf.sampleF(wo, new Point2(getPathSample(path, SCATTERING_SAMPLE),
+                                                 getPathSample(path, SCATTERING_SAMPLE + 1)), ALL);
+        RGBSpectrum f = sample.getFirst();
+        Direction3 wi = sample.getSecond();
+        double pdf = sample.getThird();
+        if (f.isBlack() || pdf == 0)
+        {
+            alive[path] = false;
+            return;
+        }
+        double cosTheta = Math.abs(wi.x() * shadingNormalX + wi.y() * shadingNormalY +
+                                   wi.z() * shadingNormalZ);
+        betaR[path] *= f.r() * cosTheta / pdf;
+        betaG[path] *= f.g() * cosTheta / pdf;
+        betaB[path] *= f.b() * cosTheta / pdf;
+        specularBounce[path] = sample.getFourth().contains(BxDFType.SPECULAR);
+        scatteringPdf[path] = pdf;
+        setPreviousVertex(path, surfaceInteraction);
+        rays[path] = new RayDifferential(surfaceInteraction.spawnRay(wi));
+
+        // possibly terminate path with Russian roulette
+        double rouletteSample = getPathSample(path, ROULETTE_SAMPLE);
+        if (bounces[path]++ > 3)
+        {
+            double q = Math.max(0.05, 1 - betaG[path]);
+            if (rouletteSample < q)
+            {
+                alive[path] = false;
+                return;
+            }
+            betaR[path] /= 1 - q;
+            betaG[path] /= 1 - q;
+            betaB[path] /= 1 - q;
+        }
+    }
+
+    /**
+     * Light found by a BSDF sampled ray is weighted against sampling the light directly at the
+     * previous vertex, unless there was none or the bounce was specular.
+     */
+    private void addEmittedRadiance(int path, Light light, RGBSpectrum emittedRadiance,
+            Direction3 wi, int numLights)
+    {
+        if (emittedRadiance.isBlack())
+        {
+            return;
+        }
+        double weight = 1;
+        if (bounces[path] > 0 && !specularBounce[path] && light != null)
+        {
+            double lightPdf = light.pdfRadiance(getPreviousVertex(path), wi) / numLights;
+            weight = powerHeuristic(1, scatteringPdf[path], 1, lightPdf);
+        }
+        radianceR[path] += betaR[path] * emittedRadiance.r() * weight;
+        radianceG[path] += betaG[path] * emittedRadiance.g() * weight;
+        radianceB[path] += betaB[path] * emittedRadiance.b() * weight;
+    }
+
+    private void setPreviousVertex(int path, SurfaceInteraction surfaceInteraction)
+    {
+        previousX[path] = surfaceInteraction.getP().x();
+        previousY[path] = surfaceInteraction.getP().y();
+        previousZ[path] = surfaceInteraction.getP().z();
+        previousNormalX[path] = surfaceInteraction.getN().x();
+        previousNormalY[path] = surfaceInteraction.getN().y();
+        previousNormalZ[path] = surfaceInteraction.getN().z();
+        previousErrorX[path] = surfaceInteraction.getError().x();
+        previousErrorY[path] = surfaceInteraction.getError().y();
+        previousErrorZ[path] = surfaceInteraction.getError().z();
+        previousMediumInterfaces[path] = surfaceInteraction.getMediumInterface();
+    }
+
+    private Interaction getPreviousVertex(int path)
+    {
+        return new Interaction(new Point3(previousX[path], previousY[path], previousZ[path]),
+                               new Normal3(previousNormalX[path], previousNormalY[path],
+                                           previousNormalZ[path]),
+                               new Direction3(previousErrorX[path], previousErrorY[path],
+                                              previousErrorZ[path]),
+                               null, 0, previousMediumInterfaces[path]);
+    }
+
+    private void traceShadowRays(Scene scene)
+    {
+        IntStream.range(0, numLivePaths).parallel().forEach(i ->
+        {
+            int path = livePaths[i];
+            Ray shadowRay = shadowRays[path];
+            if (shadowRay != null)
+            {
+                if (!scene.intersectP(shadowRay))
+                {
+                    radianceR[path] += directR[path];
+                    radianceG[path] += directG[path];
+                    radianceB[path] += directB[path];
+                }
+                shadowRays[path] = null;
+            }
+        });
+    }
+
+    private void compact()
+    {
+        int numAlive = 0;
+        for (int i = 0; i < numLivePaths; i++)
+        {
+            int path = livePaths[i];
+            if (alive[path])
+            {
+                livePaths[numAlive++] = path;
+            }
+            else
+            {
+                rays[path] = null;
+                previousMediumInterfaces[path] = null;
+            }
+        }
+        numLivePaths = numAlive;
+    }
+
+    private void accumulate(FilmTile[] filmTiles, int pathsPerTile)
+    {
+        IntStream.range(0, filmTiles.length).parallel().forEach(t ->
+        {
+            FilmTile filmTile = filmTiles[t];
+            if (filmTile == null)
+            {
+                progressTracker.onTileCompleted();
+                metricsLogger.onTileSkipped();
+                return;
+            }
+            for (int path = t * pathsPerTile; path < (t + 1) * pathsPerTile; path++)
+            {
+                if (!hasSample[path])
+                {
+                    continue;
+                }
+                double r = radianceR[path];
+                double g = radianceG[path];
+                double b = radianceB[path];
+                if (Double.isNaN(r) || Double.isNaN(g) || Double.isNaN(b) || Double.isInfinite(g) || g < -1e-5)
+                {
+                    logger.warning(String.format("Invalid radiance %s for film position (%f, %f). Setting to black.",
+                                                 new RGBSpectrum(r, g, b), filmX[path], filmY[path]));
+                    r = g = b = 0;
+                }
+                filmTile.addSample(filmX[path], filmY[path], r, g, b, cameraWeight[path]);
+            }
+            camera.getFilm().onFilmTileComplete(filmTile);
+            progressTracker.onTileCompleted();
+        });
+    }
+
+    // a sampler value of the path's current bounce
+    private double getPathSample(int path, int dimension)
+    {
+        return pathSamples[(path * maxDepth + bounces[path]) * SAMPLES_PER_BOUNCE + dimension];
+    }
+}
@@ -5,6 +5,7 @@ import core.RayDifferential;
 import core.colors.RGBSpectrum;
 import core.math.Direction3;
 import core.math.Normal3;
+import integrator.RenderConfiguration;
 import integrator.SamplerIntegrator;
 import sampler.Sampler;
 import scene.Scene;
@@ -22,12 +23,18 @@ public class WhittedIntegrator extends SamplerIntegrator
         this.maxDepth = maxDepth;
     }
     
+    public WhittedIntegrator(Sampler sampler, Camera camera, int maxDepth, RenderConfiguration configuration)
+    {
+        super(sampler, camera, configuration);
+        this.maxDepth = maxDepth;
+    }
+    
     @Override
-    protected RGBSpectrum getRadiance(RayDifferential ray, Scene scene, Sampler sampler, int depth)
+    protected RGBSpectrum getRadiance(RayDifferential ray, SurfaceInteraction surfaceInteraction,
+            Scene scene, Sampler sampler, int depth)
     {
         RGBSpectrum radiance = new RGBSpectrum(0);
         
-        SurfaceInteraction surfaceInteraction = scene.intersect(ray);
         if (surfaceInteraction == null)
         {
             for (Light light : scene.getLights())
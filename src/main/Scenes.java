@@ -22,7 +22,9 @@ import scene.primitives.Aggregate;
 import scene.primitives.Primitive;
 import scene.primitives.accelerator.bvh.BoundingVolumeHierarchy;
 import scene.primitives.accelerator.bvh.BoundingVolumeHierarchy.SplitMethod;
+import scene.primitives.accelerator.bvh.LinearTreeCache;
 import scene.primitives.impl.GeometricPrimitive;
+import scene.primitives.impl.TransformedPrimitive;
 import texture.Texture;
 import texture.impl.*;
 import texture.mipmap.MipMap.ImageWrap;
@@ -39,6 +41,8 @@ import java.util.stream.Collectors;
 
 public class Scenes
 {
+    private static final String BVH_CACHE_DIRECTORY = "cache";
+    
     public static Scene fromPdb(String pdbPath)
     {
         try
@@ -62,7 +66,10 @@ public class Scenes
                                                  "textures/vp_sky_v2_002_sm.jpg");
             lights.add(light);
             
-            Aggregate geo = new BoundingVolumeHierarchy(primitives, 5, SplitMethod.SURFACE_AREA_HEURISTIC);
+            Aggregate geo = new BoundingVolumeHierarchy(primitives,
+                                                        5,
+                                                        SplitMethod.SURFACE_AREA_HEURISTIC,
+                                                        new LinearTreeCache(BVH_CACHE_DIRECTORY));
             
             return new Scene(geo, lights);
         }
@@ -116,7 +123,7 @@ public class Scenes
                                              "textures/vp_sky_v2_002_sm.jpg");
         lights.add(light);
         
-        Aggregate geo = new BoundingVolumeHierarchy(primitives, 5, SplitMethod.SURFACE_AREA_HEURISTIC);
+        Aggregate geo = new BoundingVolumeHierarchy(primitives, 5, SplitMethod.SPATIAL_SPLIT);
         
         return new Scene(geo, lights);
     }
@@ -280,6 +287,40 @@ public class Scenes
         return new Scene(geo, lights);
     }
     
+    public static Scene instancedCubes()
+    {
+        // build the cube's geometry and acceleration structure once...
+        Material cubeMaterial = MaterialUtilities.getPlasticMaterial(Colors.GRAY50, Colors.WHITE, 0.1, false);
+        TriangleMesh cubeMesh = MeshUtilities.createCube(Transformation.IDENTITY, false);
+        Aggregate cube = new BoundingVolumeHierarchy(getPrimitives(cubeMesh, Transformation.IDENTITY, cubeMaterial),
+                                                     5,
+                                                     SplitMethod.SURFACE_AREA_HEURISTIC);
+
+        // ...and place it many times
+        List<Primitive> primitives = new LinkedList<>();
+        for (int i = -10; i <= 10; i++)
+        {
+            for (int j = 0; j <= 20; j++)
+            {
+                Transformation instanceTransform = Transformation.getTranslation(3 * i, -10 - 3 * j, 0)
+                                                                 .compose(Transformation.getRotation(new Direction3(i, j, 1),
+                                                                                                     15 * (i + j)));
+                primitives.add(new TransformedPrimitive(cube, instanceTransform));
+            }
+        }
+
+        Transformation planeTransform = Transformation.getTranslation(0, 0, -2).compose(Transformation.getUniformScale(2000));
+        Material planeMaterial = MaterialUtilities.getMatteMaterial(Colors.WHITE, 0.5);
+        TriangleMesh planeMesh = MeshUtilities.createQuad(planeTransform);
+        primitives.addAll(getPrimitives(planeMesh, Transformation.IDENTITY, planeMaterial));
+
+        Light light = new InfiniteAreaLight(Transformation.IDENTITY, new RGBSpectrum(1), 5, "textures/vp_sky_v2_002_sm.jpg");
+        List<Light> lights = Collections.singletonList(light);
+
+        Aggregate geo = new BoundingVolumeHierarchy(primitives, 5, SplitMethod.SURFACE_AREA_HEURISTIC);
+        return new Scene(geo, lights);
+    }
+    
     public static Scene getTestScene()
     {
         List<Primitive> primitives = new LinkedList<>();
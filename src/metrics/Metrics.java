@@ -9,6 +9,20 @@ public enum Metrics
 {
     ACCELERATOR_BUILD_TIME(ACCELERATOR, "Time to build accelerator", MS, MetricsLogger.getInstance()::getAcceleratorBuildTime),
     NUM_PRIMITIVES(ACCELERATOR, "Number of primitives", NONE, MetricsLogger.getInstance()::getNumPrimitives),
+    NUM_ACCELERATOR_STRUCTURES(ACCELERATOR, "Number of accelerator structures", NONE, MetricsLogger.getInstance()::getNumAcceleratorStructures),
+    NUM_ACCELERATOR_NODES(ACCELERATOR, "Number of nodes", NONE, MetricsLogger.getInstance()::getNumAcceleratorNodes),
+    NUM_ACCELERATOR_LEAVES(ACCELERATOR, "Number of leaves", NONE, MetricsLogger.getInstance()::getNumAcceleratorLeaves),
+    ACCELERATOR_MAX_DEPTH(ACCELERATOR, "Maximum depth", NONE, MetricsLogger.getInstance()::getAcceleratorMaxDepth),
+    ACCELERATOR_AVERAGE_LEAF_DEPTH(ACCELERATOR, "Average leaf depth", NONE, MetricsLogger.getInstance()::getAverageLeafDepth),
+    ACCELERATOR_PRIMITIVES_PER_LEAF(ACCELERATOR, "Average primitives per leaf", NONE, MetricsLogger.getInstance()::getAveragePrimitivesPerLeaf),
+    ACCELERATOR_SAH_COST(ACCELERATOR, "SAH cost", NONE, MetricsLogger.getInstance()::getAcceleratorSahCost),
+    NUM_ACCELERATOR_REBUILDS(ACCELERATOR, "Number of rebuilds after refitting", NONE, MetricsLogger.getInstance()::getNumAcceleratorRebuilds),
+    ACCELERATOR_REBUILD_TIME(ACCELERATOR, "Time to rebuild accelerators", MS, MetricsLogger.getInstance()::getAcceleratorRebuildTime),
+    RAYS_TRAVERSED(ACCELERATOR, "Rays traversed", NONE, MetricsLogger.getInstance()::getNumRaysTraversed),
+    NODES_VISITED_PER_RAY(ACCELERATOR, "Nodes visited per ray", NONE, MetricsLogger.getInstance()::getNodesVisitedPerRay),
+    BOX_TESTS_PER_RAY(ACCELERATOR, "Box tests per ray", NONE, MetricsLogger.getInstance()::getBoxTestsPerRay),
+    PRIMITIVE_TESTS_PER_RAY(ACCELERATOR, "Primitive tests per ray", NONE, MetricsLogger.getInstance()::getPrimitiveTestsPerRay),
+    SHADOW_RAY_EARLY_OUTS(ACCELERATOR, "Fraction of shadow rays stopped early", NONE, MetricsLogger.getInstance()::getShadowRayEarlyOutFraction),
 
     TEXTURE_CACHE_HITS(TEXTURE, "Texture cache hits", NONE, MetricsLogger.getInstance()::getNumTextureCacheHits),
     TEXTURE_CACHE_MISSES(TEXTURE, "Texture cache misses", NONE, MetricsLogger.getInstance()::getNumTextureCacheMisses),
@@ -17,20 +31,27 @@ public enum Metrics
     MIPMAP_PROCESS_TIME(TEXTURE, "Total time spent processing mipmaps", MS, MetricsLogger.getInstance()::getMipmapProcessTimes),
 
     SCENE_PREPROCESS_TIME(INTEGRATOR, "Scene preprocessing time", MS, MetricsLogger.getInstance()::getScenePreprocessTime),
+    RENDER_EXECUTOR_TYPE(INTEGRATOR, "Rendering executor", NONE, MetricsLogger.getInstance()::getRenderExecutorType),
     RENDER_THREAD_COUNT(INTEGRATOR, "Number of rendering threads", NONE, MetricsLogger.getInstance()::getNumRenderingThreads),
+    TILE_SIZE(INTEGRATOR, "Tile size", NONE, MetricsLogger.getInstance()::getTileSize),
     NUM_TILES(INTEGRATOR, "Number of tiles", NONE, MetricsLogger.getInstance()::getNumTiles),
     TILES_SKIPPED(INTEGRATOR, "Number of tiles skipped", NONE, MetricsLogger.getInstance()::getNumTilesSkipped),
+    RENDER_PASSES(INTEGRATOR, "Number of progressive passes", NONE, MetricsLogger.getInstance()::getNumRenderPasses),
+    SAMPLES_PER_PIXEL(INTEGRATOR, "Samples per pixel", NONE, MetricsLogger.getInstance()::getSamplesPerPixel),
+    ADAPTIVE_SAMPLE_FRACTION(INTEGRATOR, "Fraction of samples taken adaptively", NONE, MetricsLogger.getInstance()::getAdaptiveSampleFraction),
     TOTAL_RENDER_TIME(INTEGRATOR, "Total render time", MS, MetricsLogger.getInstance()::getTotalRenderTime),
     OUTPUT_WRITE_TIME(INTEGRATOR, "Output write time", MS, MetricsLogger.getInstance()::getOutputWriteTime);
 
     private final MetricsCategory category;
     private final String metricName;
     private final Unit unit;
-    private final Supplier<Long> valueSupplier;
+    private final Supplier<?> valueSupplier;
 
     private static final String INT_FORMAT_STRING = "\t%-42s%8d%s";
+    private static final String DOUBLE_FORMAT_STRING = "\t%-42s%11.2f%s";
+    private static final String STRING_FORMAT_STRING = "\t%-42s%s%s";
 
-    Metrics(MetricsCategory category, String metricName, Unit unit, Supplier<Long> valueSupplier)
+    Metrics(MetricsCategory category, String metricName, Unit unit, Supplier<?> valueSupplier)
     {
         this.category = category;
         this.metricName = metricName;
@@ -45,11 +66,19 @@ public enum Metrics
 
     public String getStringForLogging()
     {
-        Long value = valueSupplier.get();
+        Object value = valueSupplier.get();
         if (value == null)
         {
             return null;
         }
-        return String.format(INT_FORMAT_STRING, metricName, value, unit.toString());
+        if (value instanceof Double)
+        {
+            return String.format(DOUBLE_FORMAT_STRING, metricName, value, unit.toString());
+        }
+        if (value instanceof Number)
+        {
+            return String.format(INT_FORMAT_STRING, metricName, value, unit.toString());
+        }
+        return String.format(STRING_FORMAT_STRING, metricName, value, unit.toString());
     }
 }
@@ -1,6 +1,8 @@
 package metrics;
 
+import java.lang.ref.WeakReference;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
@@ -12,8 +14,19 @@ public class MetricsLogger
 
     private Long acceleratorBuildTime = null;
     private Long numPrimitives = null;
+    private Long numAcceleratorStructures = null;
+    private Long numAcceleratorNodes = null;
+    private Long numAcceleratorLeaves = null;
+    private Long acceleratorMaxDepth = null;
+    private long acceleratorLeafDepthSum = 0;
+    private long acceleratorLeafPrimitiveSum = 0;
+    private Double acceleratorSahCost = null;
+    private Long numAcceleratorRebuilds = null;
+    private Long acceleratorRebuildTime = null;
     private Long scenePreprocessTime = null;
+    private String renderExecutorType = null;
     private Long numRenderingThreads = null;
+    private Long tileSize = null;
     private Long numTiles = null;
     private Long totalRenderTime = null;
     private Long outputWriteTime = null;
@@ -23,6 +36,47 @@ public class MetricsLogger
     private final AtomicLong textureResampleTimes = new AtomicLong();
     private final AtomicLong mipmapProcessTimes = new AtomicLong();
     private final AtomicLong tilesSkipped = new AtomicLong();
+    private Long numRenderPasses = null;
+    private final AtomicLong adaptiveSamplesTaken = new AtomicLong();
+    private final AtomicLong adaptiveSamplesAvailable = new AtomicLong();
+    private Long samplesPerPixel = null;
+
+    private static final int RAYS = 0;
+    private static final int SHADOW_RAYS = 1;
+    private static final int NODES_VISITED = 2;
+    private static final int BOX_TESTS = 3;
+    private static final int PRIMITIVE_TESTS = 4;
+    private static final int SHADOW_EARLY_OUTS = 5;
+    // not a counter, but how many traversals are in progress on the thread, so that a ray traced
+    // through nested aggregates is only counted once
+    private static final int TRAVERSAL_DEPTH = 6;
+    private static final int NUM_TRAVERSAL_COUNTERS = 7;
+
+    // Traversal is counted once per ray on every rendering thread, so each thread gets its own
+    // stripe of counters that only it writes to; the stripes are summed when metrics are output.
+    // Stripes of threads that have ended are folded into retiredTraversalCounters, so that pools
+    // that replace their threads, and renders on virtual threads, do not grow the queue.
+    private final Queue<TraversalCounterStripe> traversalCounterStripes = new ConcurrentLinkedQueue<>();
+    private final long[] retiredTraversalCounters = new long[NUM_TRAVERSAL_COUNTERS];
+    private final ThreadLocal<long[]> traversalCounters = ThreadLocal.withInitial(() ->
+    {
+        retireTraversalCounterStripes(true);
+        TraversalCounterStripe stripe = new TraversalCounterStripe();
+        traversalCounterStripes.add(stripe);
+        return stripe.counters;
+    });
+
+    private static class TraversalCounterStripe
+    {
+        private final long[] counters = new long[NUM_TRAVERSAL_COUNTERS];
+        private final WeakReference<Thread> owner = new WeakReference<>(Thread.currentThread());
+
+        private boolean isOwnerAlive()
+        {
+            Thread thread = owner.get();
+            return thread != null && thread.isAlive();
+        }
+    }
 
     public static MetricsLogger getInstance()
     {
@@ -79,16 +133,21 @@ public class MetricsLogger
         return mipmapProcessTimes.get();
     }
 
-    public void onAcceleratorStructureBuilt(long timeToBuild, long numPrimitives)
+    // Scenes with instancing build one accelerator structure per instanced object plus a top-level
+    // one, so build times and primitive counts accumulate.
+    public synchronized void onAcceleratorStructureBuilt(long timeToBuild, long numPrimitives)
     {
         if (acceleratorBuildTime == null && this.numPrimitives == null)
         {
             acceleratorBuildTime = timeToBuild;
             this.numPrimitives = numPrimitives;
+            numAcceleratorStructures = 1L;
         }
         else
         {
-            throw new RuntimeException("Programming error. Only one accelerator structure should be built.");
+            acceleratorBuildTime += timeToBuild;
+            this.numPrimitives += numPrimitives;
+            numAcceleratorStructures++;
         }
     }
 
@@ -102,12 +161,288 @@ public class MetricsLogger
         return numPrimitives;
     }
 
-    public void onRenderStart(long scenePreprocessTime, long numRenderingThreads, long numTiles)
+    Long getNumAcceleratorStructures()
+    {
+        return numAcceleratorStructures;
+    }
+
+    /**
+     * Report the shape of a newly built accelerator structure. Like build times, these
+     * accumulate over all structures in the scene; the SAH cost is summed.
+     *
+     * @param leafDepthSum
+     *            the sum of the depths of all leaves, counting the root as depth 1
+     * @param leafPrimitiveSum
+     *            the sum of the number of primitives in all leaves
+     */
+    public synchronized void onAcceleratorStructureStatistics(long numNodes, long numLeaves,
+            long maxDepth, long leafDepthSum, long leafPrimitiveSum, double sahCost)
+    {
+        if (numAcceleratorNodes == null)
+        {
+            numAcceleratorNodes = numNodes;
+            numAcceleratorLeaves = numLeaves;
+            acceleratorMaxDepth = maxDepth;
+            acceleratorSahCost = sahCost;
+        }
+        else
+        {
+            numAcceleratorNodes += numNodes;
+            numAcceleratorLeaves += numLeaves;
+            acceleratorMaxDepth = Math.max(acceleratorMaxDepth, maxDepth);
+            acceleratorSahCost += sahCost;
+        }
+        acceleratorLeafDepthSum += leafDepthSum;
+        acceleratorLeafPrimitiveSum += leafPrimitiveSum;
+    }
+
+    /**
+     * Report that a refit accelerator structure was rebuilt. Rebuilds are counted apart from the
+     * structures of the scene, whose statistics stay those of the trees as first built.
+     */
+    public synchronized void onAcceleratorStructureRebuilt(long timeToRebuild)
+    {
+        if (numAcceleratorRebuilds == null)
+        {
+            numAcceleratorRebuilds = 1L;
+            acceleratorRebuildTime = timeToRebuild;
+        }
+        else
+        {
+            numAcceleratorRebuilds++;
+            acceleratorRebuildTime += timeToRebuild;
+        }
+    }
+
+    Long getNumAcceleratorRebuilds()
+    {
+        return numAcceleratorRebuilds;
+    }
+
+    Long getAcceleratorRebuildTime()
+    {
+        return acceleratorRebuildTime;
+    }
+
+    Long getNumAcceleratorNodes()
+    {
+        return numAcceleratorNodes;
+    }
+
+    Long getNumAcceleratorLeaves()
+    {
+        return numAcceleratorLeaves;
+    }
+
+    Long getAcceleratorMaxDepth()
+    {
+        return acceleratorMaxDepth;
+    }
+
+    synchronized Double getAverageLeafDepth()
+    {
+        if (numAcceleratorLeaves == null || numAcceleratorLeaves == 0)
+        {
+            return null;
+        }
+        return (double) acceleratorLeafDepthSum / numAcceleratorLeaves;
+    }
+
+    synchronized Double getAveragePrimitivesPerLeaf()
+    {
+        if (numAcceleratorLeaves == null || numAcceleratorLeaves == 0)
+        {
+            return null;
+        }
+        return (double) acceleratorLeafPrimitiveSum / numAcceleratorLeaves;
+    }
+
+    Double getAcceleratorSahCost()
+    {
+        return acceleratorSahCost;
+    }
+
+    /**
+     * Called when an aggregate starts tracing a ray or a packet of rays. Every call must be
+     * followed by one to {@link #onRayTraversed}, {@link #onRayPacketTraversed} or
+     * {@link #onShadowRayTraversed} when the traversal ends. The work of traversals nested in
+     * another on the same thread, such as those of instanced meshes, is added to the outer ray,
+     * which is only counted once.
+     */
+    public void onTraversalStart()
+    {
+        traversalCounters.get()[TRAVERSAL_DEPTH]++;
+    }
+
+    public void onRayTraversed(int nodesVisited, int boxTests, int primitiveTests)
+    {
+        long[] counters = traversalCounters.get();
+        if (--counters[TRAVERSAL_DEPTH] == 0)
+        {
+            counters[RAYS]++;
+        }
+        counters[NODES_VISITED] += nodesVisited;
+        counters[BOX_TESTS] += boxTests;
+        counters[PRIMITIVE_TESTS] += primitiveTests;
+    }
+
+    /**
+     * Counts the work of tracing a packet of rays together, shared between its rays.
+     */
+    public void onRayPacketTraversed(int numRays, int nodesVisited, int boxTests,
+            int primitiveTests)
+    {
+        long[] counters = traversalCounters.get();
+        if (--counters[TRAVERSAL_DEPTH] == 0)
+        {
+            counters[RAYS] += numRays;
+        }
+        counters[NODES_VISITED] += nodesVisited;
+        counters[BOX_TESTS] += boxTests;
+        counters[PRIMITIVE_TESTS] += primitiveTests;
+    }
+
+    /**
+     * @param earlyOut
+     *            true if traversal stopped at the first occluder found
+     */
+    public void onShadowRayTraversed(int nodesVisited, int boxTests, int primitiveTests,
+            boolean earlyOut)
+    {
+        long[] counters = traversalCounters.get();
+        if (--counters[TRAVERSAL_DEPTH] == 0)
+        {
+            counters[SHADOW_RAYS]++;
+            if (earlyOut)
+            {
+                counters[SHADOW_EARLY_OUTS]++;
+            }
+        }
+        counters[NODES_VISITED] += nodesVisited;
+        counters[BOX_TESTS] += boxTests;
+        counters[PRIMITIVE_TESTS] += primitiveTests;
+    }
+
+    /**
+     * Fold the stripes of threads that have ended into the retired counters and drop them. A
+     * thread's writes to its stripe are visible once it is seen to have ended.
+     *
+     * @param keepCounts
+     *            false to discard the counts of the dropped stripes
+     */
+    private void retireTraversalCounterStripes(boolean keepCounts)
+    {
+        synchronized (retiredTraversalCounters)
+        {
+            Iterator<TraversalCounterStripe> stripes = traversalCounterStripes.iterator();
+            while (stripes.hasNext())
+            {
+                TraversalCounterStripe stripe = stripes.next();
+                if (!stripe.isOwnerAlive())
+                {
+                    for (int i = 0; keepCounts && i < NUM_TRAVERSAL_COUNTERS; i++)
+                    {
+                        retiredTraversalCounters[i] += stripe.counters[i];
+                    }
+                    stripes.remove();
+                }
+            }
+        }
+    }
+
+    private long sumTraversalCounter(int counter)
+    {
+        long sum;
+        synchronized (retiredTraversalCounters)
+        {
+            sum = retiredTraversalCounters[counter];
+        }
+        for (TraversalCounterStripe stripe : traversalCounterStripes)
+        {
+            sum += stripe.counters[counter];
+        }
+        return sum;
+    }
+
+    private Double getPerRayAverage(int counter)
+    {
+        long rays = sumTraversalCounter(RAYS) + sumTraversalCounter(SHADOW_RAYS);
+        if (rays == 0)
+        {
+            return null;
+        }
+        return (double) sumTraversalCounter(counter) / rays;
+    }
+
+    Long getNumRaysTraversed()
+    {
+        return sumTraversalCounter(RAYS) + sumTraversalCounter(SHADOW_RAYS);
+    }
+
+    Double getNodesVisitedPerRay()
+    {
+        return getPerRayAverage(NODES_VISITED);
+    }
+
+    Double getBoxTestsPerRay()
+    {
+        return getPerRayAverage(BOX_TESTS);
+    }
+
+    Double getPrimitiveTestsPerRay()
+    {
+        return getPerRayAverage(PRIMITIVE_TESTS);
+    }
+
+    Double getShadowRayEarlyOutFraction()
+    {
+        long shadowRays = sumTraversalCounter(SHADOW_RAYS);
+        if (shadowRays == 0)
+        {
+            return null;
+        }
+        return (double) sumTraversalCounter(SHADOW_EARLY_OUTS) / shadowRays;
+    }
+
+    /**
+     * Forget the start, completion and output of the last render, and everything counted during
+     * it, so that another render in the same JVM can report its own. Must not be called while
+     * rays are being traced.
+     */
+    public synchronized void resetRender()
+    {
+        retireTraversalCounterStripes(false);
+        synchronized (retiredTraversalCounters)
+        {
+            Arrays.fill(retiredTraversalCounters, 0);
+        }
+        for (TraversalCounterStripe stripe : traversalCounterStripes)
+        {
+            Arrays.fill(stripe.counters, 0);
+        }
+        tilesSkipped.set(0);
+        numRenderPasses = null;
+        samplesPerPixel = null;
+        adaptiveSamplesTaken.set(0);
+        adaptiveSamplesAvailable.set(0);
+        scenePreprocessTime = null;
+        renderExecutorType = null;
+        numRenderingThreads = null;
+        tileSize = null;
+        numTiles = null;
+        totalRenderTime = null;
+        outputWriteTime = null;
+    }
+
+    public void onRenderStart(long scenePreprocessTime, String renderExecutorType, long numRenderingThreads,
+            long tileSize, long numTiles)
     {
         if (this.scenePreprocessTime == null && this.numRenderingThreads == null && this.numTiles == null)
         {
             this.scenePreprocessTime = scenePreprocessTime;
+            this.renderExecutorType = renderExecutorType;
             this.numRenderingThreads = numRenderingThreads;
+            this.tileSize = tileSize;
             this.numTiles = numTiles;
         }
         else
@@ -132,11 +467,21 @@ public class MetricsLogger
         return scenePreprocessTime;
     }
 
+    String getRenderExecutorType()
+    {
+        return renderExecutorType;
+    }
+
     Long getNumRenderingThreads()
     {
         return numRenderingThreads;
     }
 
+    Long getTileSize()
+    {
+        return tileSize;
+    }
+
     Long getNumTiles()
     {
         return numTiles;
@@ -174,6 +519,45 @@ public class MetricsLogger
         return tilesSkipped.get();
     }
 
+    /**
+     * Called after each pass of a progressive render, with the samples per pixel taken so far.
+     */
+    public void onRenderPassComplete(long samplesPerPixel)
+    {
+        numRenderPasses = numRenderPasses == null ? 1 : numRenderPasses + 1;
+        this.samplesPerPixel = samplesPerPixel;
+    }
+
+    /**
+     * Called for each tile rendered with adaptive sampling, with the samples its pixels took and
+     * the samples they would have taken without it.
+     */
+    public void onAdaptiveSamplesTaken(long samplesTaken, long samplesAvailable)
+    {
+        adaptiveSamplesTaken.addAndGet(samplesTaken);
+        adaptiveSamplesAvailable.addAndGet(samplesAvailable);
+    }
+
+    Double getAdaptiveSampleFraction()
+    {
+        long available = adaptiveSamplesAvailable.get();
+        if (available == 0)
+        {
+            return null;
+        }
+        return (double) adaptiveSamplesTaken.get() / available;
+    }
+
+    Long getNumRenderPasses()
+    {
+        return numRenderPasses;
+    }
+
+    Long getSamplesPerPixel()
+    {
+        return samplesPerPixel;
+    }
+
     private static final String METRIC_TYPE_SEPARATOR = "--------------------------------------------------------------------------------\n";
 
     public void outputMetrics()
@@ -42,6 +42,14 @@ public class Scene
         return aggregate.intersect(ray);
     }
     
+    /**
+     * @see Aggregate#intersect(Ray[], SurfaceInteraction[], int)
+     */
+    public void intersect(Ray[] rays, SurfaceInteraction[] interactions, int count)
+    {
+        aggregate.intersect(rays, interactions, count);
+    }
+    
     public boolean intersectP(Ray ray)
     {
         return aggregate.intersectP(ray);
@@ -6,6 +6,7 @@ import core.math.Point2;
 import core.math.Transformation;
 import core.space.BoundingBox3;
 import core.tuple.Pair;
+import scene.interactions.HitRecord;
 import scene.interactions.Interaction;
 import scene.interactions.impl.SurfaceInteraction;
 
@@ -58,6 +59,37 @@ public abstract class Shape
     
     public abstract Pair<Double, SurfaceInteraction> intersect(Ray ray, boolean testAlpha);
     
+    /**
+     * First phase of a closest-hit query: find the hit distance and record it in
+     * <code>hit</code> along with whatever {@link #computeSurfaceInteraction} needs, without
+     * building the {@link SurfaceInteraction}. Does not modify the ray.
+     * 
+     * This default builds the interaction right away; shapes where that is expensive should
+     * override both methods.
+     * 
+     * @return true if the ray hits the shape within its extent.
+     */
+    public boolean intersectDeferred(Ray ray, HitRecord hit)
+    {
+        var intersection = intersect(ray, true);
+        if (intersection == null)
+        {
+            return false;
+        }
+        hit.setT(intersection.getFirst());
+        hit.setInteraction(intersection.getSecond());
+        return true;
+    }
+    
+    /**
+     * Second phase of a closest-hit query: build the interaction for a hit recorded by
+     * {@link #intersectDeferred}.
+     */
+    public SurfaceInteraction computeSurfaceInteraction(Ray ray, HitRecord hit)
+    {
+        return hit.getInteraction();
+    }
+    
     public boolean intersectP(Ray ray)
     {
         return intersectP(ray, true);
@@ -0,0 +1,142 @@
+package scene.geometry.impl;
+
+import static utilities.MathUtilities.*;
+import static utilities.SamplingUtilities.*;
+
+import core.Ray;
+import core.math.Direction3;
+import core.math.Normal3;
+import core.math.Point2;
+import core.math.Point3;
+import core.space.BoundingBox3;
+import core.tuple.Pair;
+import scene.geometry.Shape;
+import scene.interactions.HitRecord;
+import scene.interactions.Interaction;
+import scene.interactions.impl.SurfaceInteraction;
+
+/**
+ * Lightweight view of one triangle of an {@link IndexedTriangleMesh}, for the places that need a
+ * {@link Shape}: surface interactions and area lights. Meshes do not keep these around; they are
+ * created on demand.
+ */
+public class IndexedTriangle extends Shape
+{
+    private final IndexedTriangleMesh mesh;
+    private final int triangle;
+
+    public IndexedTriangle(IndexedTriangleMesh mesh, int triangle)
+    {
+        super(mesh.getObjectToWorld(), mesh.getWorldToObject(), mesh.isOrientationReversed());
+        this.mesh = mesh;
+        this.triangle = triangle;
+    }
+
+    public IndexedTriangleMesh getMesh()
+    {
+        return mesh;
+    }
+
+    public int getTriangleIndex()
+    {
+        return triangle;
+    }
+
+    /**
+     * @param vertex
+     *            0, 1 or 2
+     * @return the given vertex of this triangle in world space.
+     */
+    public Point3 getVertex(int vertex)
+    {
+        return mesh.getVertex(triangle, vertex);
+    }
+
+    @Override
+    public BoundingBox3 objectBound()
+    {
+        return new BoundingBox3(worldToObject.transform(getVertex(0)),
+                                worldToObject.transform(getVertex(1))).union(worldToObject.transform(getVertex(2)));
+    }
+
+    @Override
+    public BoundingBox3 worldBound()
+    {
+        return mesh.getBounds(triangle);
+    }
+
+    @Override
+    public Pair<Double, SurfaceInteraction> intersect(Ray ray, boolean testAlpha)
+    {
+        HitRecord hit = new HitRecord();
+        if (!intersectDeferred(ray, hit))
+        {
+            return null;
+        }
+        return new Pair<>(hit.getT(), computeSurfaceInteraction(ray, hit));
+    }
+
+    @Override
+    public boolean intersectDeferred(Ray ray, HitRecord hit)
+    {
+        ray.precomputeIntersectionData();
+        double t = mesh.intersect(triangle, ray, hit.getCoordinates());
+        if (t == Double.POSITIVE_INFINITY)
+        {
+            return false;
+        }
+        hit.setT(t);
+        return true;
+    }
+
+    @Override
+    public SurfaceInteraction computeSurfaceInteraction(Ray ray, HitRecord hit)
+    {
+        return mesh.getSurfaceInteraction(triangle, ray, hit.getCoordinate(0), hit.getCoordinate(1),
+                                          hit.getCoordinate(2));
+    }
+
+    @Override
+    public boolean intersectP(Ray ray, boolean testAlpha)
+    {
+        ray.precomputeIntersectionData();
+        return mesh.intersect(triangle, ray, null) != Double.POSITIVE_INFINITY;
+    }
+
+    @Override
+    public double surfaceArea()
+    {
+        return mesh.surfaceArea(triangle);
+    }
+
+    @Override
+    public Interaction sample(Point2 u)
+    {
+        Point2 b = uniformSampleTriangle(u);
+        double b0 = b.get(0);
+        double b1 = b.get(1);
+        double b2 = 1 - b0 - b1;
+        Point3 p0 = getVertex(0);
+        Point3 p1 = getVertex(1);
+        Point3 p2 = getVertex(2);
+
+        Point3 p = p0.times(b0).plus(p1.times(b1)).plus(p2.times(b2));
+        Normal3 n;
+        if (mesh.hasNormals())
+        {
+            n = mesh.getShadingNormal(triangle, b0, b1, b2);
+        }
+        else
+        {
+            n = new Normal3(p1.minus(p0).cross(p2.minus(p0))).normalize();
+        }
+        if (reverseOrientation)
+        {
+            n.timesEquals(-1);
+        }
+
+        Point3 pAbsSum = p0.times(b0).abs().plus(p1.times(b1).abs()).plus(p2.times(b2).abs());
+        Direction3 pError = new Direction3(pAbsSum).times(gamma(6));
+        return new Interaction(p, n, pError);
+    }
+}
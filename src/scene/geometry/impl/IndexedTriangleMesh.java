@@ -0,0 +1,243 @@
+package scene.geometry.impl;
+
+import core.Ray;
+import core.math.Normal3;
+import core.math.Point2;
+import core.math.Point3;
+import core.math.Transformation;
+import core.space.BoundingBox3;
+import scene.interactions.impl.SurfaceInteraction;
+
+/**
+ * Triangle mesh stored in flat primitive arrays: three doubles per vertex position, three floats
+ * per vertex normal, two floats per vertex UV and three vertex indices per triangle. Positions and
+ * normals are transformed to world space on construction.
+ *
+ * Unlike {@link TriangleMesh}, individual triangles are not objects; they are addressed by index.
+ * Intersection tests work directly on the buffers and do not allocate, so the full
+ * {@link SurfaceInteraction} is only computed for the closest hit.
+ */
+public class IndexedTriangleMesh
+{
+    private final Transformation objectToWorld;
+    private final Transformation worldToObject;
+    private final boolean reverseOrientation;
+    private final int numTriangles;
+    private final int[] vertexIndices;
+    private final double[] positions;
+    private final float[] normals;
+    private final float[] uvs;
+
+    /**
+     * @param vertexIndices
+     *            three indices into the vertex buffers per triangle
+     * @param positions
+     *            x, y and z of every vertex, in object space
+     * @param normals
+     *            x, y and z of every vertex normal, in object space; may be null
+     * @param uvs
+     *            u and v of every vertex; may be null
+     */
+    public IndexedTriangleMesh(Transformation objectToWorld, boolean reverseOrientation,
+            int[] vertexIndices, double[] positions, float[] normals, float[] uvs)
+    {
+        if (vertexIndices.length % 3 != 0 || positions.length % 3 != 0)
+        {
+            throw new IllegalArgumentException("Vertex indices and positions must come in threes.");
+        }
+        int numVertices = positions.length / 3;
+        if ((normals != null && normals.length != 3 * numVertices) ||
+            (uvs != null && uvs.length != 2 * numVertices))
+        {
+            throw new IllegalArgumentException("Vertex buffers must have one entry per vertex.");
+        }
+
+        this.objectToWorld = objectToWorld;
+        this.worldToObject = objectToWorld.inverse();
+        this.reverseOrientation = reverseOrientation;
+        this.numTriangles = vertexIndices.length / 3;
+        this.vertexIndices = vertexIndices.clone();
+
+        this.positions = new double[positions.length];
+        for (int i = 0; i < positions.length; i += 3)
+        {
+            Point3 p = objectToWorld.transform(new Point3(positions[i], positions[i + 1], positions[i + 2]));
+            this.positions[i] = p.x();
+            this.positions[i + 1] = p.y();
+            this.positions[i + 2] = p.z();
+        }
+
+        if (normals != null)
+        {
+            this.normals = new float[normals.length];
+            for (int i = 0; i < normals.length; i += 3)
+            {
+                Normal3 n = objectToWorld.transform(new Normal3(normals[i], normals[i + 1], normals[i + 2]));
+                this.normals[i] = (float) n.x();
+                this.normals[i + 1] = (float) n.y();
+                this.normals[i + 2] = (float) n.z();
+            }
+        }
+        else
+        {
+            this.normals = null;
+        }
+
+        this.uvs = uvs != null ? uvs.clone() : null;
+    }
+
+    public int getNumTriangles()
+    {
+        return numTriangles;
+    }
+
+    public Transformation getObjectToWorld()
+    {
+        return objectToWorld;
+    }
+
+    public Transformation getWorldToObject()
+    {
+        return worldToObject;
+    }
+
+    public boolean isOrientationReversed()
+    {
+        return reverseOrientation;
+    }
+
+    public IndexedTriangle getTriangle(int triangle)
+    {
+        return new IndexedTriangle(this, triangle);
+    }
+
+    /**
+     * @param vertex
+     *            0, 1 or 2
+     * @return the given vertex of the given triangle in world space.
+     */
+    public Point3 getVertex(int triangle, int vertex)
+    {
+        int i = 3 * vertexIndices[3 * triangle + vertex];
+        return new Point3(positions[i], positions[i + 1], positions[i + 2]);
+    }
+
+    public BoundingBox3 getBounds(int triangle)
+    {
+        int i0 = 3 * vertexIndices[3 * triangle];
+        int i1 = 3 * vertexIndices[3 * triangle + 1];
+        int i2 = 3 * vertexIndices[3 * triangle + 2];
+        return new BoundingBox3(Math.min(positions[i0],     Math.min(positions[i1],     positions[i2])),
+                                Math.min(positions[i0 + 1], Math.min(positions[i1 + 1], positions[i2 + 1])),
+                                Math.min(positions[i0 + 2], Math.min(positions[i1 + 2], positions[i2 + 2])),
+                                Math.max(positions[i0],     Math.max(positions[i1],     positions[i2])),
+                                Math.max(positions[i0 + 1], Math.max(positions[i1 + 1], positions[i2 + 1])),
+                                Math.max(positions[i0 + 2], Math.max(positions[i1 + 2], positions[i2 + 2])));
+    }
+
+    /**
+     * Write the world space bounds of a triangle to bounds from offset on, as (minX, minY, minZ,
+     * maxX, maxY, maxZ), without allocating.
+     */
+    public void getBounds(int triangle, double[] bounds, int offset)
+    {
+        int i0 = 3 * vertexIndices[3 * triangle];
+        int i1 = 3 * vertexIndices[3 * triangle + 1];
+        int i2 = 3 * vertexIndices[3 * triangle + 2];
+        for (int axis = 0; axis < 3; axis++)
+        {
+            bounds[offset + axis] = Math.min(positions[i0 + axis], Math.min(positions[i1 + axis], positions[i2 + axis]));
+            bounds[offset + 3 + axis] = Math.max(positions[i0 + axis], Math.max(positions[i1 + axis], positions[i2 + axis]));
+        }
+    }
+
+    public double surfaceArea(int triangle)
+    {
+        Point3 p0 = getVertex(triangle, 0);
+        Point3 p1 = getVertex(triangle, 1);
+        Point3 p2 = getVertex(triangle, 2);
+        return 0.5 * p1.minus(p0).cross(p2.minus(p0)).length();
+    }
+
+    public boolean hasNormals()
+    {
+        return normals != null;
+    }
+
+    /**
+     * @return the interpolated vertex normal at the given barycentric coordinates, normalized.
+     */
+    public Normal3 getShadingNormal(int triangle, double b0, double b1, double b2)
+    {
+        int n0 = 3 * vertexIndices[3 * triangle];
+        int n1 = 3 * vertexIndices[3 * triangle + 1];
+        int n2 = 3 * vertexIndices[3 * triangle + 2];
+        return new Normal3(b0 * normals[n0]     + b1 * normals[n1]     + b2 * normals[n2],
+                           b0 * normals[n0 + 1] + b1 * normals[n1 + 1] + b2 * normals[n2 + 1],
+                           b0 * normals[n0 + 2] + b1 * normals[n1 + 2] + b2 * normals[n2 + 2]).normalize();
+    }
+
+    /**
+     * Watertight ray-triangle intersection test, done on the vertex buffers without allocating.
+     * The ray's intersection data must have been precomputed with
+     * {@link Ray#precomputeIntersectionData()}.
+     *
+     * @param barycentrics
+     *            if not null, receives the barycentric coordinates of the hit
+     * @return the parametric distance to the hit, or infinity if the ray misses the triangle
+     *         within its extent.
+     */
+    public double intersect(int triangle, Ray ray, double[] barycentrics)
+    {
+        int i0 = 3 * vertexIndices[3 * triangle];
+        int i1 = 3 * vertexIndices[3 * triangle + 1];
+        int i2 = 3 * vertexIndices[3 * triangle + 2];
+        return Triangle.intersectWatertight(ray,
+                                            positions[i0], positions[i0 + 1], positions[i0 + 2],
+                                            positions[i1], positions[i1 + 1], positions[i1 + 2],
+                                            positions[i2], positions[i2 + 1], positions[i2 + 2],
+                                            barycentrics);
+    }
+
+    /**
+     * Compute the full surface interaction of a hit found by
+     * {@link #intersect(int, Ray, double[])}.
+     */
+    public SurfaceInteraction getSurfaceInteraction(int triangle, Ray ray, double b0, double b1,
+            double b2)
+    {
+        Normal3[] n = null;
+        if (normals != null)
+        {
+            n = new Normal3[] { getVertexNormal(triangle, 0),
+                                getVertexNormal(triangle, 1),
+                                getVertexNormal(triangle, 2) };
+        }
+        return Triangle.computeSurfaceInteraction(ray, getTriangle(triangle),
+                                                  getVertex(triangle, 0),
+                                                  getVertex(triangle, 1),
+                                                  getVertex(triangle, 2),
+                                                  getUVs(triangle), n, null, b0, b1, b2);
+    }
+
+    private Normal3 getVertexNormal(int triangle, int vertex)
+    {
+        int i = 3 * vertexIndices[3 * triangle + vertex];
+        return new Normal3(normals[i], normals[i + 1], normals[i + 2]);
+    }
+
+    private Point2[] getUVs(int triangle)
+    {
+        if (uvs == null)
+        {
+            return new Point2[] { new Point2(0, 0), new Point2(1, 0), new Point2(1, 1) };
+        }
+        Point2[] uv = new Point2[3];
+        for (int vertex = 0; vertex < 3; vertex++)
+        {
+            int i = 2 * vertexIndices[3 * triangle + vertex];
+            uv[vertex] = new Point2(uvs[i], uvs[i + 1]);
+        }
+        return uv;
+    }
+}
@@ -18,6 +18,7 @@ import core.space.BoundingBox3;
 import core.tuple.Pair;
 import core.tuple.Triple;
 import scene.geometry.Shape;
+import scene.interactions.HitRecord;
 import scene.interactions.Interaction;
 import scene.interactions.impl.SurfaceInteraction;
 
@@ -29,6 +30,8 @@ public class Sphere extends Shape
     private final double thetaMin;
     private final double thetaMax;
     private final double phiMax;
+    // no z or phi clipping, so any root of the quadratic within the ray's extent is a hit
+    private final boolean isComplete;
     
     public Sphere(Transformation objectToWorld, Transformation worldToObject, boolean reverseOrientation, double radius)
     {
@@ -48,6 +51,7 @@ public class Sphere extends Shape
         this.thetaMin = Math.acos(clamp(zMin / radius, -1, 1));
         this.thetaMax = Math.acos(clamp(zMax / radius, -1, 1));
         this.phiMax = Math.toRadians(clamp(phiMax, 0, 360));
+        this.isComplete = this.zMin == -radius && this.zMax == radius && this.phiMax >= 2 * Math.PI;
     }
 
     @Override
@@ -60,6 +64,20 @@ public class Sphere extends Shape
 
     @Override
     public Pair<Double, SurfaceInteraction> intersect(Ray ray, boolean testAlpha)
+    {
+        HitRecord hit = new HitRecord();
+        if (!intersectDeferred(ray, hit))
+        {
+            return null;
+        }
+        return new Pair<>(hit.getT(), computeSurfaceInteraction(ray, hit));
+    }
+    
+    /**
+     * Records the object space hit point and its phi.
+     */
+    @Override
+    public boolean intersectDeferred(Ray ray, HitRecord hit)
     {
         var transformedRay = worldToObject.transformWithError(ray);
         Ray objectSpaceRay = transformedRay.getFirst();
@@ -71,18 +89,30 @@ public class Sphere extends Shape
                                                                                     directionError);
         if (quadraticSolution == null)
         {
-            return null;
+            return false;
         }
         Triple<Point3, eDouble, Double> closestValidIntersection = getClosestValidIntersection(quadraticSolution, objectSpaceRay);
         if (closestValidIntersection == null)
         {
-            return null;
+            return false;
         }
         
-        // found hit -- compute parametric representation
         Point3 pHit = closestValidIntersection.getFirst();
-        eDouble tShapeHit = closestValidIntersection.getSecond();
-        double phi = closestValidIntersection.getThird();
+        double[] coordinates = hit.getCoordinates();
+        coordinates[0] = pHit.x();
+        coordinates[1] = pHit.y();
+        coordinates[2] = pHit.z();
+        coordinates[3] = closestValidIntersection.getThird();
+        hit.setT(closestValidIntersection.getSecond().getValue());
+        return true;
+    }
+    
+    @Override
+    public SurfaceInteraction computeSurfaceInteraction(Ray ray, HitRecord hit)
+    {
+        // compute parametric representation of the hit
+        Point3 pHit = new Point3(hit.getCoordinate(0), hit.getCoordinate(1), hit.getCoordinate(2));
+        double phi = hit.getCoordinate(3);
         
         double px = pHit.x();
         double py = pHit.y();
@@ -126,8 +156,7 @@ public class Sphere extends Shape
                                                                                   dndv,
                                                                                   ray.getTime(),
                                                                                   this));
-        double tHit = tShapeHit.getValue();
-        return new Pair<>(tHit, isect);
+        return isect;
     }
     
     @Override
@@ -145,6 +174,17 @@ public class Sphere extends Shape
         {
             return false;
         }
+        if (isComplete)
+        {
+            // skip computing the hit point and phi, which are only needed for clipping
+            eDouble t0 = quadraticSolution.getFirst();
+            eDouble t1 = quadraticSolution.getSecond();
+            if (t0.upperBound() > objectSpaceRay.getTMax() || t1.lowerBound() <= 0)
+            {
+                return false;
+            }
+            return t0.lowerBound() > 0 || t1.upperBound() <= objectSpaceRay.getTMax();
+        }
         var closestValidIntersection = getClosestValidIntersection(quadraticSolution, objectSpaceRay);
         if (closestValidIntersection == null)
         {
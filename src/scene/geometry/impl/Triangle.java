@@ -17,8 +17,8 @@ import core.math.Point2;
 import core.math.Point3;
 import core.math.Transformation;
 import core.tuple.Pair;
-import core.tuple.Triple;
 import scene.geometry.Shape;
+import scene.interactions.HitRecord;
 import scene.interactions.Interaction;
 import scene.interactions.impl.SurfaceInteraction;
 
@@ -54,6 +54,16 @@ public class Triangle extends Shape
         return triangles;
     }
 
+    /**
+     * @param vertex
+     *            0, 1 or 2
+     * @return the given vertex of this triangle in world space.
+     */
+    public Point3 getVertex(int vertex)
+    {
+        return mesh.getPoint(pointIndex + vertex);
+    }
+
     @Override
     public BoundingBox3 objectBound()
     {
@@ -77,22 +87,64 @@ public class Triangle extends Shape
 
     @Override
     public Pair<Double, SurfaceInteraction> intersect(Ray ray, boolean testAlpha)
+    {
+        HitRecord hit = new HitRecord();
+        if (!intersectDeferred(ray, hit))
+        {
+            return null;
+        }
+        return new Pair<>(hit.getT(), computeSurfaceInteraction(ray, hit));
+    }
+    
+    /**
+     * Records the barycentric coordinates of the hit.
+     */
+    @Override
+    public boolean intersectDeferred(Ray ray, HitRecord hit)
     {
         Point3 p0 = mesh.getPoint(pointIndex);
         Point3 p1 = mesh.getPoint(pointIndex + 1);
         Point3 p2 = mesh.getPoint(pointIndex + 2);
         
-        var isect = doIntersectionTest(new Triple<>(p0, p1, p2), ray);
-        if (isect == null)
+        ray.precomputeIntersectionData();
+        double t = intersectWatertight(ray, p0.x(), p0.y(), p0.z(), p1.x(), p1.y(), p1.z(),
+                                       p2.x(), p2.y(), p2.z(), hit.getCoordinates());
+        if (t == Double.POSITIVE_INFINITY)
         {
-            return null;
+            return false;
         }
-        var barycentricCoordinates = isect.getFirst();
-        double b0 = barycentricCoordinates.getFirst();
-        double b1 = barycentricCoordinates.getSecond();
-        double b2 = barycentricCoordinates.getThird();
-        double t = isect.getSecond();
-        Point2[] uv = getUVs();
+        hit.setT(t);
+        return true;
+    }
+    
+    @Override
+    public SurfaceInteraction computeSurfaceInteraction(Ray ray, HitRecord hit)
+    {
+        Normal3[] n = mesh.getN() == null ? null : Arrays.copyOfRange(mesh.getN(), pointIndex, pointIndex + 3);
+        Direction3[] s = mesh.getS() == null ? null : Arrays.copyOfRange(mesh.getS(), pointIndex, pointIndex + 3);
+        return computeSurfaceInteraction(ray, this,
+                                         mesh.getPoint(pointIndex),
+                                         mesh.getPoint(pointIndex + 1),
+                                         mesh.getPoint(pointIndex + 2),
+                                         getUVs(), n, s,
+                                         hit.getCoordinate(0),
+                                         hit.getCoordinate(1),
+                                         hit.getCoordinate(2));
+    }
+    
+    /**
+     * Compute the surface interaction at barycentric coordinates (b0, b1, b2) of the world space
+     * triangle (p0, p1, p2). Shared with {@link IndexedTriangleMesh}, which stores its vertex data
+     * differently.
+     *
+     * @param n
+     *            the vertices' shading normals; may be null
+     * @param s
+     *            the vertices' shading tangents; may be null
+     */
+    static SurfaceInteraction computeSurfaceInteraction(Ray ray, Shape shape, Point3 p0, Point3 p1,
+            Point3 p2, Point2[] uv, Normal3[] n, Direction3[] s, double b0, double b1, double b2)
+    {
         var partialDerivatives = computePartialDerivatives(p0, p1, p2, uv);
         Direction3 dpdu = partialDerivatives.getFirst();
         Direction3 dpdv = partialDerivatives.getSecond();
@@ -116,15 +168,15 @@ public class Triangle extends Shape
                                                                        new Normal3(0, 0, 0),
                                                                        new Normal3(0, 0, 0),
                                                                        ray.getTime(),
-                                                                       this);
+                                                                       shape);
         // SurfaceInteraction initializes the normal as dpdu x dpdv. Override as meshes
         // may have bad UV parameterizations.
         Normal3 overrideNormal = new Normal3(p0.minus(p2).cross(p1.minus(p2)).normalize());
         surfaceInteraction.setN(overrideNormal);
         surfaceInteraction.getShadingGeometry().setN(overrideNormal);
         
-        Normal3 ns = computeShadingNormal(b0, b1, b2, surfaceInteraction.getN());
-        Direction3 ss = computeShadingTangent(b0, b1, b2, surfaceInteraction.getDpdu());
+        Normal3 ns = computeShadingNormal(n, b0, b1, b2, surfaceInteraction.getN());
+        Direction3 ss = computeShadingTangent(s, b0, b1, b2, surfaceInteraction.getDpdu());
         Direction3 ts = ss.cross(ns);
         if (ts.lengthSquared() > 0)
         {
@@ -139,7 +191,7 @@ public class Triangle extends Shape
             ts = c.getV3();
         }
         
-        var normalDerivatives = computeNormalPartialDerivatives(uv);
+        var normalDerivatives = computeNormalPartialDerivatives(n, uv);
         Normal3 dndu = normalDerivatives.getFirst();
         Normal3 dndv = normalDerivatives.getSecond();
         
@@ -147,105 +199,140 @@ public class Triangle extends Shape
         
         // If interpolated normals are available, they are the most authoritative source
         // of orientation information.
-        if (mesh.getN() != null)
+        if (n != null)
         {
             surfaceInteraction.setN(Normal3.faceForward(surfaceInteraction.getN(),
                                                         surfaceInteraction.getShadingGeometry().getN()));
         }
-        else if (reverseOrientation ^ swapsHandedness)
+        else if (shape.isOrientationReversed() ^ shape.isHandednessSwapped())
         {
             surfaceInteraction.setN(surfaceInteraction.getN().times(-1));
             surfaceInteraction.getShadingGeometry().setN(surfaceInteraction.getN());
         }
-        return new Pair<>(t, surfaceInteraction);
+        return surfaceInteraction;
     }
     
-    private Pair<Triple<Double, Double, Double>, Double> doIntersectionTest(Triple<Point3, Point3, Point3> points, Ray ray)
+    /**
+     * Watertight ray-triangle intersection test on world space vertex coordinates, using the
+     * ray's precomputed permutation and shear (see {@link Ray#precomputeIntersectionData()}).
+     *
+     * @param barycentrics
+     *            if not null, receives the barycentric coordinates of the hit
+     * @return the parametric distance to the hit, or infinity if the ray misses the triangle
+     *         within its extent.
+     */
+    static double intersectWatertight(Ray ray, double p0x, double p0y, double p0z, double p1x,
+            double p1y, double p1z, double p2x, double p2y, double p2z, double[] barycentrics)
     {
-        Point3 p0t = points.getFirst().minus(new Direction3(ray.getOrigin()));
-        Point3 p1t = points.getSecond().minus(new Direction3(ray.getOrigin()));
-        Point3 p2t = points.getThird().minus(new Direction3(ray.getOrigin()));
-        
-        // permute dimensions so that z has the highest magnitude
-        int kz = ray.getDirection().abs().maxDimension();
-        int kx = (kz + 1) % 3;
-        int ky = (kx + 1) % 3;
-        Direction3 d = ray.getDirection().permute(kx, ky, kz);
-        p0t = p0t.permute(kx, ky, kz);
-        p1t = p1t.permute(kx, ky, kz);
-        p2t = p2t.permute(kx, ky, kz);
-        
+        int kx = ray.getKx();
+        int ky = ray.getKy();
+        int kz = ray.getKz();
+        Point3 origin = ray.getOrigin();
+        double originX = origin.x();
+        double originY = origin.y();
+        double originZ = origin.z();
+
+        // translate vertices to the ray origin and permute dimensions so that z has the highest
+        // magnitude
+        double p0tx = component(p0x - originX, p0y - originY, p0z - originZ, kx);
+        double p0ty = component(p0x - originX, p0y - originY, p0z - originZ, ky);
+        double p0tz = component(p0x - originX, p0y - originY, p0z - originZ, kz);
+        double p1tx = component(p1x - originX, p1y - originY, p1z - originZ, kx);
+        double p1ty = component(p1x - originX, p1y - originY, p1z - originZ, ky);
+        double p1tz = component(p1x - originX, p1y - originY, p1z - originZ, kz);
+        double p2tx = component(p2x - originX, p2y - originY, p2z - originZ, kx);
+        double p2ty = component(p2x - originX, p2y - originY, p2z - originZ, ky);
+        double p2tz = component(p2x - originX, p2y - originY, p2z - originZ, kz);
+
         // apply shear transformation to align ray direction with z+
-        double Sx = -d.x() / d.z();
-        double Sy = -d.y() / d.z();
-        double Sz = 1.0 / d.z();
-        p0t.setX(p0t.x() + Sx * p0t.z());
-        p0t.setY(p0t.y() + Sy * p0t.z());
-        p1t.setX(p1t.x() + Sx * p1t.z());
-        p1t.setY(p1t.y() + Sy * p1t.z());
-        p2t.setX(p2t.x() + Sx * p2t.z());
-        p2t.setY(p2t.y() + Sy * p2t.z());
-        // XXX for higher performance, consider precomputing these values and storing
-        // in Ray
-        
+        double Sx = ray.getShearX();
+        double Sy = ray.getShearY();
+        double Sz = ray.getShearZ();
+        p0tx += Sx * p0tz;
+        p0ty += Sy * p0tz;
+        p1tx += Sx * p1tz;
+        p1ty += Sy * p1tz;
+        p2tx += Sx * p2tz;
+        p2ty += Sy * p2tz;
+
         // compute edge function coefficients
-        double e0 = p1t.x() * p2t.y() - p1t.y() * p2t.x();
-        double e1 = p2t.x() * p0t.y() - p2t.y() * p0t.x();
-        double e2 = p0t.x() * p1t.y() - p0t.y() * p1t.x();
+        double e0 = p1tx * p2ty - p1ty * p2tx;
+        double e1 = p2tx * p0ty - p2ty * p0tx;
+        double e2 = p0tx * p1ty - p0ty * p1tx;
         // we have a valid intersection if all coefficients have the same sign and their
         // sum is nonzero
         if ((e0 < 0 || e1 < 0 || e2 < 0) && (e0 > 0 || e1 > 0 || e2 > 0))
         {
-            return null;
+            return Double.POSITIVE_INFINITY;
         }
         double determinant = e0 + e1 + e2;
         if (determinant == 0)
         {
-            return null;
+            return Double.POSITIVE_INFINITY;
         }
-        
+
         // compute scaled hit distance to triangle and test against ray t range
-        p0t.setZ(p0t.z() * Sz);
-        p1t.setZ(p1t.z() * Sz);
-        p2t.setZ(p2t.z() * Sz);
-        double tScaled = e0 * p0t.z() + e1 * p1t.z() + e2 * p2t.z();
+        p0tz *= Sz;
+        p1tz *= Sz;
+        p2tz *= Sz;
+        double tScaled = e0 * p0tz + e1 * p1tz + e2 * p2tz;
         if (determinant < 0 && (tScaled >= 0 || tScaled < ray.getTMax() * determinant))
         {
-            return null;
+            return Double.POSITIVE_INFINITY;
         }
         else if (determinant > 0 && (tScaled <= 0 || tScaled > ray.getTMax() * determinant))
         {
-            return null;
+            return Double.POSITIVE_INFINITY;
         }
-        
+
         // we know there is a valid intersection at this point
         // compute barycentric coordinates and t value
         double invDet = 1 / determinant;
-        double b0 = e0 * invDet;
-        double b1 = e1 * invDet;
-        double b2 = e2 * invDet;
         double t = tScaled * invDet;
-        
+
         // ensure, conservatively, that t > 0
-        double maxZt = new Direction3(p0t.z(), p1t.z(), p2t.z()).abs().maxComponent();
+        double maxZt = Math.max(Math.abs(p0tz), Math.max(Math.abs(p1tz), Math.abs(p2tz)));
         double deltaZ = MathUtilities.gamma(3) * maxZt;
-        double maxXt = new Direction3(p0t.x(), p1t.x(), p2t.x()).abs().maxComponent();
-        double maxYt = new Direction3(p0t.y(), p1t.y(), p2t.y()).abs().maxComponent();
+        double maxXt = Math.max(Math.abs(p0tx), Math.max(Math.abs(p1tx), Math.abs(p2tx)));
+        double maxYt = Math.max(Math.abs(p0ty), Math.max(Math.abs(p1ty), Math.abs(p2ty)));
         double deltaX = MathUtilities.gamma(5) * (maxXt + maxZt);
         double deltaY = MathUtilities.gamma(5) * (maxYt + maxZt);
         double deltaE = 2 * (MathUtilities.gamma(2) * maxXt * maxYt + deltaY * maxXt + deltaX * maxYt);
-        double maxE = new Direction3(e0, e1, e2).abs().maxComponent();
+        double maxE = Math.max(Math.abs(e0), Math.max(Math.abs(e1), Math.abs(e2)));
         double deltaT = 3 * (MathUtilities.gamma(3) * maxE * maxZt + deltaE * maxZt + deltaZ * maxE) * Math.abs(invDet);
         if (t <= deltaT)
         {
-            return null;
+            return Double.POSITIVE_INFINITY;
         }
-        
-        Triple<Double, Double, Double> barycentricCoordinates = new Triple<>(b0, b1, b2);
-        return new Pair<>(barycentricCoordinates, t);
+
+        if (barycentrics != null)
+        {
+            barycentrics[0] = e0 * invDet;
+            barycentrics[1] = e1 * invDet;
+            barycentrics[2] = e2 * invDet;
+        }
+        return t;
+    }
+
+    private static double component(double x, double y, double z, int axis)
+    {
+        return axis == 0 ? x : (axis == 1 ? y : z);
     }
     
-    private Pair<Direction3, Direction3> computePartialDerivatives(Point3 p0, Point3 p1, Point3 p2, Point2[] uv)
+    @Override
+    public boolean intersectP(Ray ray, boolean testAlpha)
+    {
+        Point3 p0 = mesh.getPoint(pointIndex);
+        Point3 p1 = mesh.getPoint(pointIndex + 1);
+        Point3 p2 = mesh.getPoint(pointIndex + 2);
+
+        // any hit will do, so skip the barycentrics and the surface interaction
+        ray.precomputeIntersectionData();
+        return intersectWatertight(ray, p0.x(), p0.y(), p0.z(), p1.x(), p1.y(), p1.z(),
+                                   p2.x(), p2.y(), p2.z(), null) != Double.POSITIVE_INFINITY;
+    }
+    
+    private static Pair<Direction3, Direction3> computePartialDerivatives(Point3 p0, Point3 p1, Point3 p2, Point2[] uv)
     {
         Direction3 dpdu, dpdv;
         Direction2 duv02 = uv[0].minus(uv[2]);
@@ -271,13 +358,11 @@ public class Triangle extends Shape
         return new Pair<>(dpdu, dpdv);
     }
     
-    private Normal3 computeShadingNormal(double b0, double b1, double b2, Normal3 existingNormal)
+    private static Normal3 computeShadingNormal(Normal3[] n, double b0, double b1, double b2, Normal3 existingNormal)
     {
-        if (mesh.getN() != null)
+        if (n != null)
         {
-            return mesh.getN()[pointIndex]    .times(b0) .plus(
-                   mesh.getN()[pointIndex + 1].times(b1)).plus(
-                   mesh.getN()[pointIndex + 2].times(b2)).normalize();
+            return n[0].times(b0).plus(n[1].times(b1)).plus(n[2].times(b2)).normalize();
         }
         else
         {
@@ -285,13 +370,11 @@ public class Triangle extends Shape
         }
     }
     
-    private Direction3 computeShadingTangent(double b0, double b1, double b2, Direction3 existingDpdu)
+    private static Direction3 computeShadingTangent(Direction3[] s, double b0, double b1, double b2, Direction3 existingDpdu)
     {
-        if (mesh.getS() != null)
+        if (s != null)
         {
-            return mesh.getS()[pointIndex]    .times(b0) .plus(
-                   mesh.getS()[pointIndex + 1].times(b1)).plus(
-                   mesh.getS()[pointIndex + 2].times(b2)).normalize();
+            return s[0].times(b0).plus(s[1].times(b1)).plus(s[2].times(b2)).normalize();
         }
         else
         {
@@ -299,22 +382,19 @@ public class Triangle extends Shape
         }
     }
     
-    private Pair<Normal3, Normal3> computeNormalPartialDerivatives(Point2[] uv)
+    private static Pair<Normal3, Normal3> computeNormalPartialDerivatives(Normal3[] n, Point2[] uv)
     {
-        if (mesh.getN() != null)
+        if (n != null)
         {
             Direction2 duv02 = uv[0].minus(uv[2]);
             Direction2 duv12 = uv[1].minus(uv[2]);
-            Normal3 dn1 = mesh.getN()[pointIndex]    .minus(mesh.getN()[pointIndex + 2]);
-            Normal3 dn2 = mesh.getN()[pointIndex + 1].minus(mesh.getN()[pointIndex + 2]);
+            Normal3 dn1 = n[0].minus(n[2]);
+            Normal3 dn2 = n[1].minus(n[2]);
             double determinant = duv02.x() * duv12.y() - duv02.y() * duv12.x();
             if (determinant == 0)
             {
                 // degenerate case
-                Direction3 dn = new Direction3(mesh.getN()[pointIndex + 2].minus(
-                                               mesh.getN()[pointIndex]    )).cross(
-                                new Direction3(mesh.getN()[pointIndex + 1].minus(
-                                               mesh.getN()[pointIndex]    )));
+                Direction3 dn = new Direction3(n[2].minus(n[0])).cross(new Direction3(n[1].minus(n[0])));
                 if (dn.lengthSquared() == 0)
                 {
                     return new Pair<>(new Normal3(0, 0, 0), new Normal3(0, 0, 0));
@@ -0,0 +1,50 @@
+package scene.interactions;
+
+import scene.interactions.impl.SurfaceInteraction;
+
+/**
+ * What the first phase of a closest-hit query records about a candidate hit: its distance and the
+ * shape's coordinates of the hit point (barycentrics for triangles, the object space hit point and
+ * phi for spheres). The second phase turns the final closest hit into a
+ * {@link SurfaceInteraction}, so candidates that are later replaced by a closer hit never pay for
+ * one. Records are mutable so that traversal can reuse them across rays.
+ */
+public class HitRecord
+{
+    public static final int NUM_COORDINATES = 4;
+
+    private double t = Double.POSITIVE_INFINITY;
+    private final double[] coordinates = new double[NUM_COORDINATES];
+    // set instead of the coordinates by shapes that cannot defer building the interaction
+    private SurfaceInteraction interaction;
+
+    public double getT()
+    {
+        return t;
+    }
+
+    public void setT(double t)
+    {
+        this.t = t;
+    }
+
+    public double[] getCoordinates()
+    {
+        return coordinates;
+    }
+
+    public double getCoordinate(int i)
+    {
+        return coordinates[i];
+    }
+
+    public SurfaceInteraction getInteraction()
+    {
+        return interaction;
+    }
+
+    public void setInteraction(SurfaceInteraction interaction)
+    {
+        this.interaction = interaction;
+    }
+}
@@ -1,5 +1,6 @@
 package scene.primitives;
 
+import core.Ray;
 import scene.geometry.Shape;
 import scene.interactions.impl.SurfaceInteraction;
 import scene.lights.AreaLight;
@@ -32,4 +33,22 @@ public interface Aggregate extends Primitive
     {
         throw new UnsupportedOperationException("No area light for Aggregate.");
     }
+    
+    /**
+     * Find the closest intersection of each of a group of rays, such as the camera rays of a few
+     * neighboring pixels. Implementations may share work between the rays when they are coherent;
+     * the default traces them one at a time.
+     * 
+     * @param interactions
+     *            receives the closest intersection of rays[i] at index i, or null if it missed
+     * @param count
+     *            number of rays, starting at index 0, to trace
+     */
+    default void intersect(Ray[] rays, SurfaceInteraction[] interactions, int count)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            interactions[i] = intersect(rays[i]);
+        }
+    }
 }
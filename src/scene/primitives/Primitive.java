@@ -3,6 +3,7 @@ package scene.primitives;
 import core.Ray;
 import core.space.BoundingBox3;
 import scene.geometry.Shape;
+import scene.interactions.HitRecord;
 import scene.interactions.impl.SurfaceInteraction;
 import scene.lights.AreaLight;
 import scene.materials.Material;
@@ -12,6 +13,35 @@ public interface Primitive
 {
     BoundingBox3 worldBound();
     SurfaceInteraction intersect(Ray ray);
+    
+    /**
+     * First phase of a closest-hit query. Like {@link #intersect(Ray)} this shortens the ray to
+     * the hit, but it only records the hit in <code>hit</code>; the interaction is built by
+     * {@link #computeSurfaceInteraction(Ray, HitRecord)} once the closest hit is known.
+     * 
+     * @return true if the ray hits this primitive within its extent.
+     */
+    default boolean intersectDeferred(Ray ray, HitRecord hit)
+    {
+        SurfaceInteraction intersection = intersect(ray);
+        if (intersection == null)
+        {
+            return false;
+        }
+        hit.setT(ray.getTMax());
+        hit.setInteraction(intersection);
+        return true;
+    }
+    
+    /**
+     * Second phase of a closest-hit query, for a hit recorded by
+     * {@link #intersectDeferred(Ray, HitRecord)}.
+     */
+    default SurfaceInteraction computeSurfaceInteraction(Ray ray, HitRecord hit)
+    {
+        return hit.getInteraction();
+    }
+    
     boolean intersectP(Ray ray);
     AreaLight getAreaLight();
     Material getMaterial();
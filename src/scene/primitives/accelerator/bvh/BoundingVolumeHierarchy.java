@@ -1,22 +1,23 @@
 package scene.primitives.accelerator.bvh;
 
-import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Deque;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.logging.Logger;
 
 import core.Ray;
-import core.math.Direction3;
 import core.space.BoundingBox3;
 import metrics.MetricsLogger;
+import scene.interactions.HitRecord;
 import scene.interactions.impl.SurfaceInteraction;
 import scene.primitives.Aggregate;
 import scene.primitives.Primitive;
 import scene.primitives.accelerator.bvh.tree.EqualCountsTreeBuilder;
+import scene.primitives.accelerator.bvh.tree.HierarchicalLinearTreeBuilder;
 import scene.primitives.accelerator.bvh.tree.MiddleTreeBuilder;
+import scene.primitives.accelerator.bvh.tree.ParallelSurfaceAreaHeuristicTreeBuilder;
+import scene.primitives.accelerator.bvh.tree.SpatialSplitTreeBuilder;
 import scene.primitives.accelerator.bvh.tree.SurfaceAreaHeuristicTreeBuilder;
 import scene.primitives.accelerator.bvh.tree.TreeBuilder;
 
@@ -24,25 +25,89 @@ public class BoundingVolumeHierarchy implements Aggregate
 {
     public enum SplitMethod
     {
-        SURFACE_AREA_HEURISTIC, HLBVH, MIDDLE, EQUAL_COUNTS;
+        SURFACE_AREA_HEURISTIC, PARALLEL_SURFACE_AREA_HEURISTIC, SPATIAL_SPLIT, HLBVH, MIDDLE, EQUAL_COUNTS;
     }
 
     private static final Logger logger = Logger.getLogger(BoundingVolumeHierarchy.class.getName());
+    private static final MetricsLogger metricsLogger = MetricsLogger.getInstance();
     
+    // A refit that makes the tree this much more expensive than when it was built triggers a
+    // rebuild.
+    private static final double DEFAULT_REBUILD_COST_RATIO = 1.5;
+    
+    /**
+     * Largest number of rays traced together by {@link #intersect(Ray[], SurfaceInteraction[], int)}.
+     */
+    public static final int MAX_PACKET_SIZE = 64;
+    
+    private final SplitMethod splitMethod;
+    private final int maxPrimitivesPerNode;
+    private final double spatialSplitBudget;
+    
+    // the primitives in the order they were given, which rebuilds start from
+    private final List<Primitive> sourcePrimitives;
+    // the primitive references in leaf order; spatial splits may reference a primitive repeatedly
     private List<Primitive> primitives;
-    private final TreeBuilder treeBuilder;
+    private LinearTree nodes;
+    private int maxDepth = 0;
+    // SAH cost of the tree as built, for judging how much refitting has degraded it.
+    private double builtCost = 0;
     
-    private LinearNode[] nodes;
+    private final ThreadLocal<TraversalState> traversalState = ThreadLocal.withInitial(TraversalState::new);
+    private final LinearTree.PrimitiveIntersector occlusionTester =
+            (ray, primitiveIndex) -> primitives.get(primitiveIndex).intersectP(ray);
     
     public BoundingVolumeHierarchy(List<Primitive> primitives, int maxPrimitivesPerNode, SplitMethod splitMethod)
     {
-        this.primitives = Collections.unmodifiableList(primitives);
-        maxPrimitivesPerNode = Math.min(255, maxPrimitivesPerNode);
-        treeBuilder = getTreeBuilder(splitMethod, maxPrimitivesPerNode);
+        this(primitives, maxPrimitivesPerNode, splitMethod, null);
+    }
+    
+    /**
+     * @param cache
+     *            if not null, the tree is loaded from this cache when a matching entry exists, and
+     *            stored to it after being built otherwise. Rebuilds triggered by {@link #refit} do
+     *            not use the cache.
+     */
+    public BoundingVolumeHierarchy(List<Primitive> primitives, int maxPrimitivesPerNode,
+            SplitMethod splitMethod, LinearTreeCache cache)
+    {
+        this(primitives, maxPrimitivesPerNode, splitMethod, cache,
+             SpatialSplitTreeBuilder.DEFAULT_SPLIT_BUDGET);
+    }
+    
+    /**
+     * @param spatialSplitBudget
+     *            for {@link SplitMethod#SPATIAL_SPLIT}, the number of extra primitive references
+     *            that spatial splits may create, as a fraction of the number of primitives.
+     */
+    public BoundingVolumeHierarchy(List<Primitive> primitives, int maxPrimitivesPerNode,
+            SplitMethod splitMethod, LinearTreeCache cache, double spatialSplitBudget)
+    {
+        this.splitMethod = splitMethod;
+        this.maxPrimitivesPerNode = Math.min(255, maxPrimitivesPerNode);
+        this.spatialSplitBudget = spatialSplitBudget;
+        // builders look primitives up by index, so make sure that is not a linear scan
+        this.sourcePrimitives = Collections.unmodifiableList(new ArrayList<>(primitives));
+        build(cache, false);
+    }
+    
+    /**
+     * @param cache
+     *            the cache to load the tree from or store it to, or null to always build it.
+     * @param rebuild
+     *            true if this replaces a tree already reported to the metrics, in which case
+     *            only the rebuild is reported.
+     */
+    private void build(LinearTreeCache cache, boolean rebuild)
+    {
+        List<Primitive> primitives = sourcePrimitives;
+        TreeBuilder treeBuilder = getTreeBuilder(splitMethod, primitives, maxPrimitivesPerNode,
+                                                 spatialSplitBudget);
         
         if (primitives.isEmpty())
         {
             this.primitives = Collections.emptyList();
+            nodes = null;
             return;
         }
 
@@ -55,41 +120,146 @@ public class BoundingVolumeHierarchy implements Aggregate
             i++;
         }
         
-        List<Primitive> orderedPrimitives = new LinkedList<>();
+        List<Primitive> orderedPrimitives = new ArrayList<>(primitives.size());
         
         long treeBuildStart = System.currentTimeMillis();
-        nodes = treeBuilder.build(primitiveInfos, orderedPrimitives);
+        byte[] cacheKey = null;
+        LinearTree tree = null;
+        if (cache != null)
+        {
+            cacheKey = cache.computeKey(primitives, primitiveInfos, splitMethod,
+                                        maxPrimitivesPerNode, spatialSplitBudget);
+            tree = cache.load(cacheKey, primitives, orderedPrimitives);
+        }
+        boolean loadedFromCache = tree != null;
+        if (!loadedFromCache)
+        {
+            orderedPrimitives.clear();
+            tree = treeBuilder.build(primitiveInfos, orderedPrimitives);
+        }
         long treeBuildEnd = System.currentTimeMillis();
+        if (loadedFromCache)
+        {
+            logger.info("Loaded BVH for " + primitives.size() + " primitives from cache.");
+        }
+        else if (cache != null)
+        {
+            cache.store(cacheKey, tree, primitives, orderedPrimitives);
+        }
+        nodes = tree;
+        maxDepth = nodes.getMaxDepth();
+        builtCost = nodes.getSurfaceAreaHeuristicCost();
 
-        MetricsLogger.getInstance().onAcceleratorStructureBuilt(treeBuildEnd - treeBuildStart, primitives.size());
+        if (rebuild)
+        {
+            metricsLogger.onAcceleratorStructureRebuilt(treeBuildEnd - treeBuildStart);
+        }
+        else
+        {
+            metricsLogger.onAcceleratorStructureBuilt(treeBuildEnd - treeBuildStart, primitives.size());
+            metricsLogger.onAcceleratorStructureStatistics(nodes.getNumNodes(), nodes.getNumLeaves(),
+                                                           maxDepth, nodes.getLeafDepthSum(),
+                                                           nodes.getNumLeafPrimitives(), builtCost);
+        }
         
         this.primitives = Collections.unmodifiableList(orderedPrimitives);
     }
     
-    private TreeBuilder getTreeBuilder(SplitMethod splitMethod, int maxPrimitivesPerNode)
+    /**
+     * Recompute the bounds of all nodes from the current world bounds of the primitives, keeping
+     * the tree topology, and rebuild the tree if that made it much more expensive to traverse.
+     * Leaves of spatial-split trees get the full bounds of their primitives, not the clipped ones.
+     * Must not be called while rays are being traced against this BVH.
+     *
+     * @return true if the tree was rebuilt.
+     */
+    public boolean refit()
+    {
+        return refit(DEFAULT_REBUILD_COST_RATIO);
+    }
+    
+    /**
+     * @param maxCostRatio
+     *            rebuild if the SAH cost of the refit tree exceeds its cost when built by more than
+     *            this factor; pass infinity to never rebuild.
+     * @see #refit()
+     */
+    public boolean refit(double maxCostRatio)
+    {
+        if (nodes == null)
+        {
+            return false;
+        }
+        
+        long refitStart = System.currentTimeMillis();
+        nodes.refit(primitives);
+        double cost = nodes.getSurfaceAreaHeuristicCost();
+        logger.fine("Refit BVH in " + (System.currentTimeMillis() - refitStart) + " ms; SAH cost " +
+                    builtCost + " -> " + cost + ".");
+        
+        if (cost > builtCost * maxCostRatio)
+        {
+            logger.info("Rebuilding BVH; refitting raised its SAH cost from " + builtCost + " to " +
+                        cost + ".");
+            // the primitives have moved since the cached build, and will keep moving, so storing
+            // the new tree would only grow the cache. Start from the source primitives, not the
+            // leaf-ordered references, which spatial splits have already duplicated.
+            build(null, true);
+            return true;
+        }
+        return false;
+    }
+    
+    static TreeBuilder getTreeBuilder(SplitMethod splitMethod, List<Primitive> primitives,
+            int maxPrimitivesPerNode, double spatialSplitBudget)
     {
         switch(splitMethod)
         {
             case MIDDLE:
-                return new MiddleTreeBuilder(this.primitives);
+                return new MiddleTreeBuilder(primitives);
             case EQUAL_COUNTS:
-                return new EqualCountsTreeBuilder(this.primitives);
+                return new EqualCountsTreeBuilder(primitives);
             case SURFACE_AREA_HEURISTIC:
-                return new SurfaceAreaHeuristicTreeBuilder(this.primitives, maxPrimitivesPerNode);
+                return new SurfaceAreaHeuristicTreeBuilder(primitives, maxPrimitivesPerNode);
+            case PARALLEL_SURFACE_AREA_HEURISTIC:
+                return new ParallelSurfaceAreaHeuristicTreeBuilder(primitives, maxPrimitivesPerNode);
+            case SPATIAL_SPLIT:
+                return new SpatialSplitTreeBuilder(primitives, maxPrimitivesPerNode, spatialSplitBudget);
+            case HLBVH:
+                return new HierarchicalLinearTreeBuilder(primitives, maxPrimitivesPerNode);
             default:
                 throw new UnsupportedOperationException("Unsupported split method: " + splitMethod);
         }
     }
     
+    private TraversalState getTraversalState()
+    {
+        TraversalState state = traversalState.get();
+        if (state.nodesToVisit.length < maxDepth)
+        {
+            state.nodesToVisit = new int[maxDepth];
+        }
+        return state;
+    }
+    
     @Override
     public BoundingBox3 worldBound()
     {
         if (nodes != null)
         {
-            return nodes[0].getBounds();
+            return nodes.getBounds(0);
         }
         return new BoundingBox3();
     }
+    
+    /**
+     * @return the number of primitive references in the leaves, which exceeds the number of
+     *         primitives when spatial splits have duplicated some.
+     */
+    int getNumReferences()
+    {
+        return primitives.size();
+    }
 
     @Override
     public SurfaceInteraction intersect(Ray ray)
@@ -99,131 +269,246 @@ public class BoundingVolumeHierarchy implements Aggregate
             return null;
         }
         
-        SurfaceInteraction intersection = null;
-        Direction3 invDirection = new Direction3(1 / ray.getDirection().x(),
-                                                 1 / ray.getDirection().y(),
-                                                 1 / ray.getDirection().z());
-        boolean[] directionIsNegative = new boolean[] { invDirection.x() < 0, invDirection.y() < 0,
-                                                        invDirection.z() < 0 };
+        // Candidate hits are only recorded; the surface interaction is built once, for the
+        // closest one.
+        TraversalState state = getTraversalState();
+        state.closestPrimitive = null;
+        nodes.traverse(ray, state.nodesToVisit, state, false);
+        
+        Primitive closestPrimitive = state.closestPrimitive;
+        if (closestPrimitive == null)
+        {
+            return null;
+        }
+        state.closestPrimitive = null;
+        return closestPrimitive.computeSurfaceInteraction(ray, state.closestHit);
+    }
+
+    /**
+     * Traces the rays in packets of up to {@value #MAX_PACKET_SIZE}. Each packet descends the tree
+     * together, culling nodes with a single interval arithmetic test that covers all of its rays;
+     * rays are tested on their own only against the bounds and primitives of the leaves the
+     * packet reaches. Packets whose rays do not share direction signs are traced ray by ray.
+     */
+    @Override
+    public void intersect(Ray[] rays, SurfaceInteraction[] interactions, int count)
+    {
+        for (int start = 0; start < count; start += MAX_PACKET_SIZE)
+        {
+            intersectPacket(rays, interactions, start, Math.min(count, start + MAX_PACKET_SIZE));
+        }
+    }
+    
+    private void intersectPacket(Ray[] rays, SurfaceInteraction[] interactions, int start, int end)
+    {
+        if (nodes == null)
+        {
+            Arrays.fill(interactions, start, end, null);
+            return;
+        }
+        
+        TraversalState state = getTraversalState();
+        double[] originX = state.originX;
+        double[] originY = state.originY;
+        double[] originZ = state.originZ;
+        double[] invDirX = state.invDirX;
+        double[] invDirY = state.invDirY;
+        double[] invDirZ = state.invDirZ;
+        int numRays = end - start;
         
-        // follow ray through nodes to find primitive intersection
+        double originMinX = Double.POSITIVE_INFINITY, originMaxX = Double.NEGATIVE_INFINITY;
+        double originMinY = Double.POSITIVE_INFINITY, originMaxY = Double.NEGATIVE_INFINITY;
+        double originMinZ = Double.POSITIVE_INFINITY, originMaxZ = Double.NEGATIVE_INFINITY;
+        double invDirMinX = Double.POSITIVE_INFINITY, invDirMaxX = Double.NEGATIVE_INFINITY;
+        double invDirMinY = Double.POSITIVE_INFINITY, invDirMaxY = Double.NEGATIVE_INFINITY;
+        double invDirMinZ = Double.POSITIVE_INFINITY, invDirMaxZ = Double.NEGATIVE_INFINITY;
+        double packetTMax = 0;
+        int directionIsNegative = -1;
+        for (int i = 0; i < numRays; i++)
+        {
+            Ray ray = rays[start + i];
+            ray.precomputeIntersectionData();
+            originX[i] = ray.getOrigin().x();
+            originY[i] = ray.getOrigin().y();
+            originZ[i] = ray.getOrigin().z();
+            invDirX[i] = 1 / ray.getDirection().x();
+            invDirY[i] = 1 / ray.getDirection().y();
+            invDirZ[i] = 1 / ray.getDirection().z();
+            int signs = LinearTree.getDirectionSigns(invDirX[i], invDirY[i], invDirZ[i]);
+            if ((directionIsNegative != -1 && signs != directionIsNegative) ||
+                Double.isInfinite(invDirX[i]) || Double.isInfinite(invDirY[i]) ||
+                Double.isInfinite(invDirZ[i]))
+            {
+                // the interval test cannot bound these rays
+                for (int j = start; j < end; j++)
+                {
+                    interactions[j] = intersect(rays[j]);
+                }
+                return;
+            }
+            directionIsNegative = signs;
+            
+            originMinX = Math.min(originMinX, originX[i]);
+            originMaxX = Math.max(originMaxX, originX[i]);
+            originMinY = Math.min(originMinY, originY[i]);
+            originMaxY = Math.max(originMaxY, originY[i]);
+            originMinZ = Math.min(originMinZ, originZ[i]);
+            originMaxZ = Math.max(originMaxZ, originZ[i]);
+            invDirMinX = Math.min(invDirMinX, invDirX[i]);
+            invDirMaxX = Math.max(invDirMaxX, invDirX[i]);
+            invDirMinY = Math.min(invDirMinY, invDirY[i]);
+            invDirMaxY = Math.max(invDirMaxY, invDirY[i]);
+            invDirMinZ = Math.min(invDirMinZ, invDirZ[i]);
+            invDirMaxZ = Math.max(invDirMaxZ, invDirZ[i]);
+            packetTMax = Math.max(packetTMax, ray.getTMax());
+            state.closestPrimitives[i] = null;
+        }
+        
+        HitRecord[] candidateHits = state.candidateHits;
+        HitRecord[] closestHits = state.closestHits;
+        Primitive[] closestPrimitives = state.closestPrimitives;
         int currentNodeIndex = 0;
-        Deque<Integer> nodesToVisit = new ArrayDeque<>();
+        int[] nodesToVisit = state.nodesToVisit;
+        int toVisitOffset = 0;
+        int nodesVisited = 0;
+        int boxTests = 0;
+        int primitiveTests = 0;
         
-        while(true)
+        metricsLogger.onTraversalStart();
+        while (true)
         {
-            LinearNode node = nodes[currentNodeIndex];
-            // check ray against node
-            if (node.getBounds().intersect(ray, invDirection, directionIsNegative))
+            boxTests++;
+            if (nodes.intersectBoundsInterval(currentNodeIndex, originMinX, originMaxX, originMinY,
+                                              originMaxY, originMinZ, originMaxZ, invDirMinX,
+                                              invDirMaxX, invDirMinY, invDirMaxY, invDirMinZ,
+                                              invDirMaxZ, directionIsNegative, packetTMax))
             {
-                if (node.getNumPrimitives() > 0)
+                nodesVisited++;
+                int numPrimitives = nodes.getNumPrimitives(currentNodeIndex);
+                if (numPrimitives > 0)
                 {
-                    // leaf node; intersect ray with primitives
-                    for (int i = 0; i < node.getNumPrimitives(); i++)
+                    // leaf node; intersect the rays that hit its bounds with its primitives
+                    int primitiveOffset = nodes.getOffset(currentNodeIndex);
+                    packetTMax = 0;
+                    for (int i = 0; i < numRays; i++)
                     {
-                        // Primitive intersection updates ray's tMax, so we always get the closest
-                        // intersection.
-                        SurfaceInteraction isect = primitives.get(node.getOffset() + i).intersect(ray);
-                        if (isect != null)
+                        Ray ray = rays[start + i];
+                        boxTests++;
+                        if (nodes.intersectBounds(currentNodeIndex, originX[i], originY[i],
+                                                  originZ[i], invDirX[i], invDirY[i], invDirZ[i],
+                                                  directionIsNegative, ray.getTMax()))
                         {
-                            intersection = isect;
+                            primitiveTests += numPrimitives;
+                            for (int j = 0; j < numPrimitives; j++)
+                            {
+                                Primitive primitive = primitives.get(primitiveOffset + j);
+                                if (primitive.intersectDeferred(ray, candidateHits[i]))
+                                {
+                                    closestPrimitives[i] = primitive;
+                                    HitRecord previousHit = closestHits[i];
+                                    closestHits[i] = candidateHits[i];
+                                    candidateHits[i] = previousHit;
+                                }
+                            }
                         }
+                        packetTMax = Math.max(packetTMax, ray.getTMax());
                     }
-                    if (nodesToVisit.isEmpty())
+                    if (toVisitOffset == 0)
                     {
                         break;
                     }
-                    currentNodeIndex = nodesToVisit.pop();
+                    currentNodeIndex = nodesToVisit[--toVisitOffset];
                 }
                 else
                 {
-                    // put far node on nodesToVisit stack; advance to near node
-                    if (directionIsNegative[node.getAxis().ordinal()])
+                    // all rays share direction signs, so they agree on the near child
+                    int secondChildOffset = nodes.getOffset(currentNodeIndex);
+                    if (((directionIsNegative >> nodes.getAxis(currentNodeIndex)) & 1) == 1)
                     {
-                        nodesToVisit.push(currentNodeIndex + 1);
-                        currentNodeIndex = node.getOffset();
+                        nodesToVisit[toVisitOffset++] = currentNodeIndex + 1;
+                        currentNodeIndex = secondChildOffset;
                     }
                     else
                     {
-                        nodesToVisit.push(node.getOffset());
+                        nodesToVisit[toVisitOffset++] = secondChildOffset;
                         currentNodeIndex = currentNodeIndex + 1;
                     }
                 }
             }
             else
             {
-                if (nodesToVisit.isEmpty())
+                if (toVisitOffset == 0)
                 {
                     break;
                 }
-                // complete miss -- pop next node to visit off stack
-                currentNodeIndex = nodesToVisit.pop();
+                currentNodeIndex = nodesToVisit[--toVisitOffset];
             }
         }
-        return intersection;
+        metricsLogger.onRayPacketTraversed(numRays, nodesVisited, boxTests, primitiveTests);
+        
+        for (int i = 0; i < numRays; i++)
+        {
+            Primitive closestPrimitive = closestPrimitives[i];
+            interactions[start + i] = closestPrimitive == null ? null :
+                    closestPrimitive.computeSurfaceInteraction(rays[start + i], closestHits[i]);
+            closestPrimitives[i] = null;
+        }
     }
 
     @Override
     public boolean intersectP(Ray ray)
     {
-        Direction3 invDirection = new Direction3(1 / ray.getDirection().x(),
-                                                 1 / ray.getDirection().y(),
-                                                 1 / ray.getDirection().z());
-        boolean[] directionIsNegative = new boolean[] { invDirection.x() < 0, invDirection.y() < 0,
-                                                        invDirection.z() < 0 };
-        // follow ray through nodes to find primitive intersection
-        int currentNodeIndex = 0;
-        Deque<Integer> nodesToVisit = new ArrayDeque<>();
+        if (nodes == null)
+        {
+            return false;
+        }
+        return nodes.traverse(ray, getTraversalState().nodesToVisit, occlusionTester, true);
+    }
+
+    // Per-thread scratch space reused across rays so that traversal does not allocate. The depth
+    // of the tree bounds the number of pending far children, so a stack of maxDepth entries never
+    // overflows.
+    private class TraversalState implements LinearTree.PrimitiveIntersector
+    {
+        private int[] nodesToVisit = new int[0];
+        private HitRecord candidateHit = new HitRecord();
+        private HitRecord closestHit = new HitRecord();
+        private Primitive closestPrimitive;
         
-        while(true)
+        // per-ray data of the packet being traced
+        private final double[] originX = new double[MAX_PACKET_SIZE];
+        private final double[] originY = new double[MAX_PACKET_SIZE];
+        private final double[] originZ = new double[MAX_PACKET_SIZE];
+        private final double[] invDirX = new double[MAX_PACKET_SIZE];
+        private final double[] invDirY = new double[MAX_PACKET_SIZE];
+        private final double[] invDirZ = new double[MAX_PACKET_SIZE];
+        private final HitRecord[] candidateHits = new HitRecord[MAX_PACKET_SIZE];
+        private final HitRecord[] closestHits = new HitRecord[MAX_PACKET_SIZE];
+        private final Primitive[] closestPrimitives = new Primitive[MAX_PACKET_SIZE];
+        
+        private TraversalState()
         {
-            LinearNode node = nodes[currentNodeIndex];
-            // check ray against node
-            if (node.getBounds().intersect(ray, invDirection, directionIsNegative))
+            for (int i = 0; i < MAX_PACKET_SIZE; i++)
             {
-                if (node.getNumPrimitives() > 0)
-                {
-                    // leaf node; intersect ray with primitives
-                    for (int i = 0; i < node.getNumPrimitives(); i++)
-                    {
-                        // Primitive intersection updates ray's tMax, so we always get the closest
-                        // intersection.
-                        boolean hit = primitives.get(node.getOffset() + i).intersectP(ray);
-                        if (hit)
-                        {
-                            return true;
-                        }
-                    }
-                    if (nodesToVisit.isEmpty())
-                    {
-                        break;
-                    }
-                    currentNodeIndex = nodesToVisit.pop();
-                }
-                else
-                {
-                    // put far node on nodesToVisit stack; advance to near node
-                    if (directionIsNegative[node.getAxis().ordinal()])
-                    {
-                        nodesToVisit.push(currentNodeIndex + 1);
-                        currentNodeIndex = node.getOffset();
-                    }
-                    else
-                    {
-                        nodesToVisit.push(node.getOffset());
-                        currentNodeIndex = currentNodeIndex + 1;
-                    }
-                }
+                candidateHits[i] = new HitRecord();
+                closestHits[i] = new HitRecord();
             }
-            else
+        }
+        
+        // Primitive intersection updates ray's tMax, so the last hit is always the closest.
+        @Override
+        public boolean intersect(Ray ray, int primitiveIndex)
+        {
+            Primitive primitive = primitives.get(primitiveIndex);
+            if (!primitive.intersectDeferred(ray, candidateHit))
             {
-                if (nodesToVisit.isEmpty())
-                {
-                    break;
-                }
-                currentNodeIndex = nodesToVisit.pop();
+                return false;
             }
+            closestPrimitive = primitive;
+            HitRecord previousHit = closestHit;
+            closestHit = candidateHit;
+            candidateHit = previousHit;
+            return true;
         }
-        return false;
     }
 }
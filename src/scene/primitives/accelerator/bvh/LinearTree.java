@@ -0,0 +1,491 @@
+package scene.primitives.accelerator.bvh;
+
+import java.util.List;
+
+import core.Ray;
+import core.space.Axis;
+import core.space.BoundingBox3;
+import metrics.MetricsLogger;
+import scene.primitives.Primitive;
+import utilities.MathUtilities;
+
+/**
+ * Depth-first linearized BVH, stored as flat primitive arrays rather than one object per node.
+ * The first child of an interior node immediately follows it; the offset of the second child is
+ * stored explicitly.
+ *
+ * Node bounds are packed into a single double[] (minX, minY, minZ, maxX, maxY, maxZ per node) so
+ * that a ray/box test touches one contiguous region of memory instead of chasing the
+ * BoundingBox3 -> Point3 -> double[] pointers.
+ */
+public class LinearTree
+{
+    static final int BOUNDS_STRIDE = 6;
+    static final int INFO_STRIDE = 2;
+
+    // Slack applied to the far slab distance to make the box test conservative.
+    private static final double FAR_SCALE = 1 + 2 * MathUtilities.gamma(3);
+
+    private static final MetricsLogger metricsLogger = MetricsLogger.getInstance();
+
+    private final int numNodes;
+    private final double[] bounds;
+    // per node: offset (primitive offset for leaf nodes, secondChild offset for interior nodes),
+    // then (numPrimitives << 2) | axis. numPrimitives == 0 -> interior node.
+    private final int[] info;
+
+    public LinearTree(int numNodes)
+    {
+        this.numNodes = numNodes;
+        bounds = new double[BOUNDS_STRIDE * numNodes];
+        info = new int[INFO_STRIDE * numNodes];
+    }
+
+    // Wraps node data read back from a LinearTreeCache.
+    LinearTree(int numNodes, double[] bounds, int[] info)
+    {
+        this.numNodes = numNodes;
+        this.bounds = bounds;
+        this.info = info;
+    }
+
+    double[] getBoundsArray()
+    {
+        return bounds;
+    }
+
+    int[] getInfoArray()
+    {
+        return info;
+    }
+
+    public int getNumNodes()
+    {
+        return numNodes;
+    }
+
+    public void setBounds(int node, BoundingBox3 b)
+    {
+        int i = BOUNDS_STRIDE * node;
+        bounds[i]     = b.getMinPoint().x();
+        bounds[i + 1] = b.getMinPoint().y();
+        bounds[i + 2] = b.getMinPoint().z();
+        bounds[i + 3] = b.getMaxPoint().x();
+        bounds[i + 4] = b.getMaxPoint().y();
+        bounds[i + 5] = b.getMaxPoint().z();
+    }
+
+    public BoundingBox3 getBounds(int node)
+    {
+        int i = BOUNDS_STRIDE * node;
+        return new BoundingBox3(bounds[i],
+                                bounds[i + 1],
+                                bounds[i + 2],
+                                bounds[i + 3],
+                                bounds[i + 4],
+                                bounds[i + 5]);
+    }
+
+    public void setLeaf(int node, int primitiveOffset, int numPrimitives)
+    {
+        info[INFO_STRIDE * node] = primitiveOffset;
+        info[INFO_STRIDE * node + 1] = numPrimitives << 2;
+    }
+
+    public void setInterior(int node, int secondChildOffset, Axis axis)
+    {
+        info[INFO_STRIDE * node] = secondChildOffset;
+        info[INFO_STRIDE * node + 1] = axis.ordinal();
+    }
+
+    public int getOffset(int node)
+    {
+        return info[INFO_STRIDE * node];
+    }
+
+    public int getNumPrimitives(int node)
+    {
+        return info[INFO_STRIDE * node + 1] >>> 2;
+    }
+
+    /**
+     * @return the split axis of an interior node as an index (0 = x, 1 = y, 2 = z).
+     */
+    public int getAxis(int node)
+    {
+        return info[INFO_STRIDE * node + 1] & 3;
+    }
+
+    /**
+     * Returns the length of the longest root-to-leaf path, counting the root as depth 1.
+     */
+    public int getMaxDepth()
+    {
+        int maxDepth = 0;
+        for (int depth : getDepths())
+        {
+            maxDepth = Math.max(maxDepth, depth);
+        }
+        return maxDepth;
+    }
+
+    public int getNumLeaves()
+    {
+        int numLeaves = 0;
+        for (int node = 0; node < numNodes; node++)
+        {
+            if (getNumPrimitives(node) > 0)
+            {
+                numLeaves++;
+            }
+        }
+        return numLeaves;
+    }
+
+    /**
+     * Returns the sum of the depths of all leaves, counting the root as depth 1.
+     */
+    public long getLeafDepthSum()
+    {
+        int[] depths = getDepths();
+        long leafDepthSum = 0;
+        for (int node = 0; node < numNodes; node++)
+        {
+            if (getNumPrimitives(node) > 0)
+            {
+                leafDepthSum += depths[node];
+            }
+        }
+        return leafDepthSum;
+    }
+
+    /**
+     * Returns the total number of primitive references held by the leaves. With spatial splits
+     * this can exceed the number of primitives.
+     */
+    public long getNumLeafPrimitives()
+    {
+        long numLeafPrimitives = 0;
+        for (int node = 0; node < numNodes; node++)
+        {
+            numLeafPrimitives += getNumPrimitives(node);
+        }
+        return numLeafPrimitives;
+    }
+
+    private int[] getDepths()
+    {
+        int[] depth = new int[numNodes];
+        if (numNodes == 0)
+        {
+            return depth;
+        }
+        // Nodes are stored in depth-first order, so every parent precedes its children.
+        depth[0] = 1;
+        for (int node = 0; node < numNodes; node++)
+        {
+            if (getNumPrimitives(node) == 0)
+            {
+                depth[node + 1] = depth[node] + 1;
+                depth[getOffset(node)] = depth[node] + 1;
+            }
+        }
+        return depth;
+    }
+
+    /**
+     * Recompute all node bounds bottom-up from the current world bounds of the primitives the
+     * leaves refer to, keeping the tree topology.
+     */
+    public void refit(List<Primitive> orderedPrimitives)
+    {
+        // Nodes are stored in depth-first order, so walking backwards visits children before
+        // their parents.
+        for (int node = numNodes - 1; node >= 0; node--)
+        {
+            int i = BOUNDS_STRIDE * node;
+            int numPrimitives = getNumPrimitives(node);
+            if (numPrimitives > 0)
+            {
+                int primitiveOffset = getOffset(node);
+                setBounds(node, orderedPrimitives.get(primitiveOffset).worldBound());
+                for (int p = primitiveOffset + 1; p < primitiveOffset + numPrimitives; p++)
+                {
+                    BoundingBox3 b = orderedPrimitives.get(p).worldBound();
+                    for (int axis = 0; axis < 3; axis++)
+                    {
+                        bounds[i + axis] = Math.min(bounds[i + axis], b.getMinPoint().get(axis));
+                        bounds[i + 3 + axis] = Math.max(bounds[i + 3 + axis], b.getMaxPoint().get(axis));
+                    }
+                }
+            }
+            else
+            {
+                int c0 = BOUNDS_STRIDE * (node + 1);
+                int c1 = BOUNDS_STRIDE * getOffset(node);
+                for (int axis = 0; axis < 3; axis++)
+                {
+                    bounds[i + axis] = Math.min(bounds[c0 + axis], bounds[c1 + axis]);
+                    bounds[i + 3 + axis] = Math.max(bounds[c0 + 3 + axis], bounds[c1 + 3 + axis]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the expected cost of tracing a ray through the tree under the surface area
+     * heuristic: the sum over all nodes of the probability of a ray hitting the node, given that
+     * it hits the root, times the cost of processing the node. Traversal steps and primitive
+     * intersections are both counted as cost 1, as in SurfaceAreaHeuristicTreeBuilder.
+     */
+    public double getSurfaceAreaHeuristicCost()
+    {
+        if (numNodes == 0)
+        {
+            return 0;
+        }
+        double rootArea = surfaceArea(0);
+        if (rootArea == 0)
+        {
+            return 0;
+        }
+        double cost = 0;
+        for (int node = 0; node < numNodes; node++)
+        {
+            int numPrimitives = getNumPrimitives(node);
+            cost += surfaceArea(node) / rootArea * (numPrimitives > 0 ? numPrimitives : 1);
+        }
+        return cost;
+    }
+
+    private double surfaceArea(int node)
+    {
+        int i = BOUNDS_STRIDE * node;
+        double x = bounds[i + 3] - bounds[i];
+        double y = bounds[i + 4] - bounds[i + 1];
+        double z = bounds[i + 5] - bounds[i + 2];
+        return 2.0 * (x * y + x * z + y * z);
+    }
+
+    /**
+     * Packs the signs of a ray's inverse direction into a bit mask: bit i is set if the
+     * direction is negative along axis i.
+     */
+    public static int getDirectionSigns(double invDirX, double invDirY, double invDirZ)
+    {
+        return (invDirX < 0 ? 1 : 0) | (invDirY < 0 ? 2 : 0) | (invDirZ < 0 ? 4 : 0);
+    }
+
+    /**
+     * Slab test of a ray against the bounds of a node, with the per-ray values precomputed.
+     *
+     * @param dirIsNegative sign bit mask from {@link #getDirectionSigns}
+     */
+    public boolean intersectBounds(int node, double originX, double originY, double originZ,
+            double invDirX, double invDirY, double invDirZ, int dirIsNegative, double rayTMax)
+    {
+        int i = BOUNDS_STRIDE * node;
+        int xNeg = 3 * (dirIsNegative & 1);
+        int yNeg = 3 * ((dirIsNegative >> 1) & 1);
+        int zNeg = 3 * ((dirIsNegative >> 2) & 1);
+
+        double tMin  = (bounds[i +     xNeg]  - originX) * invDirX;
+        double tMax  = (bounds[i + 3 - xNeg]  - originX) * invDirX * FAR_SCALE;
+        double tyMin = (bounds[i + 1 + yNeg]  - originY) * invDirY;
+        double tyMax = (bounds[i + 4 - yNeg]  - originY) * invDirY * FAR_SCALE;
+        if (tMin > tyMax || tyMin > tMax)
+        {
+            return false;
+        }
+        if (tyMin > tMin)
+        {
+            tMin = tyMin;
+        }
+        if (tyMax < tMax)
+        {
+            tMax = tyMax;
+        }
+
+        double tzMin = (bounds[i + 2 + zNeg] - originZ) * invDirZ;
+        double tzMax = (bounds[i + 5 - zNeg] - originZ) * invDirZ * FAR_SCALE;
+        if (tMin > tzMax || tzMin > tMax)
+        {
+            return false;
+        }
+        if (tzMin > tMin)
+        {
+            tMin = tzMin;
+        }
+        if (tzMax < tMax)
+        {
+            tMax = tzMax;
+        }
+
+        return (tMin < rayTMax) && (tMax > 0);
+    }
+
+    /**
+     * Follow a ray through the tree, nearer child first, handing every primitive of each leaf it
+     * reaches to intersector. The ray's tMax is re-read at every node, so an intersector that
+     * shortens the ray to its hits prunes the rest of the traversal to the closest hit. With
+     * anyHit the traversal stops at the first hit instead, and is counted as a shadow ray.
+     *
+     * @param nodesToVisit stack of pending far children, at least {@link #getMaxDepth()} long
+     * @return true if the ray hit any primitive
+     */
+    public boolean traverse(Ray ray, int[] nodesToVisit, PrimitiveIntersector intersector, boolean anyHit)
+    {
+        metricsLogger.onTraversalStart();
+        ray.precomputeIntersectionData();
+        double originX = ray.getOrigin().x();
+        double originY = ray.getOrigin().y();
+        double originZ = ray.getOrigin().z();
+        double invDirX = 1 / ray.getDirection().x();
+        double invDirY = 1 / ray.getDirection().y();
+        double invDirZ = 1 / ray.getDirection().z();
+        int directionIsNegative = getDirectionSigns(invDirX, invDirY, invDirZ);
+
+        int currentNodeIndex = 0;
+        int toVisitOffset = 0;
+        int nodesVisited = 0;
+        int boxTests = 0;
+        int primitiveTests = 0;
+        boolean hit = false;
+
+        while(true)
+        {
+            // check ray against node
+            boxTests++;
+            if (intersectBounds(currentNodeIndex, originX, originY, originZ, invDirX, invDirY,
+                                invDirZ, directionIsNegative, ray.getTMax()))
+            {
+                nodesVisited++;
+                int numPrimitives = getNumPrimitives(currentNodeIndex);
+                if (numPrimitives > 0)
+                {
+                    // leaf node; intersect ray with primitives
+                    int primitiveOffset = getOffset(currentNodeIndex);
+                    for (int i = 0; i < numPrimitives; i++)
+                    {
+                        primitiveTests++;
+                        if (intersector.intersect(ray, primitiveOffset + i))
+                        {
+                            hit = true;
+                            if (anyHit)
+                            {
+                                metricsLogger.onShadowRayTraversed(nodesVisited, boxTests,
+                                                                   primitiveTests, true);
+                                return true;
+                            }
+                        }
+                    }
+                    if (toVisitOffset == 0)
+                    {
+                        break;
+                    }
+                    currentNodeIndex = nodesToVisit[--toVisitOffset];
+                }
+                else
+                {
+                    // put far node on nodesToVisit stack; advance to near node
+                    int secondChildOffset = getOffset(currentNodeIndex);
+                    if (((directionIsNegative >> getAxis(currentNodeIndex)) & 1) == 1)
+                    {
+                        nodesToVisit[toVisitOffset++] = currentNodeIndex + 1;
+                        currentNodeIndex = secondChildOffset;
+                    }
+                    else
+                    {
+                        nodesToVisit[toVisitOffset++] = secondChildOffset;
+                        currentNodeIndex = currentNodeIndex + 1;
+                    }
+                }
+            }
+            else
+            {
+                if (toVisitOffset == 0)
+                {
+                    break;
+                }
+                // complete miss -- pop next node to visit off stack
+                currentNodeIndex = nodesToVisit[--toVisitOffset];
+            }
+        }
+        if (anyHit)
+        {
+            metricsLogger.onShadowRayTraversed(nodesVisited, boxTests, primitiveTests, false);
+        }
+        else
+        {
+            metricsLogger.onRayTraversed(nodesVisited, boxTests, primitiveTests);
+        }
+        return hit;
+    }
+
+    /**
+     * Conservative slab test of a packet of rays against the bounds of a node, using interval
+     * arithmetic over the packet's origins and inverse directions: returns false only if no ray
+     * of the packet can hit the node. All rays must have the same direction signs, and none may
+     * have an infinite inverse direction.
+     *
+     * @param dirIsNegative sign bit mask shared by all rays of the packet
+     * @param packetTMax the largest tMax of the rays in the packet
+     */
+    public boolean intersectBoundsInterval(int node, double originMinX, double originMaxX,
+            double originMinY, double originMaxY, double originMinZ, double originMaxZ,
+            double invDirMinX, double invDirMaxX, double invDirMinY, double invDirMaxY,
+            double invDirMinZ, double invDirMaxZ, int dirIsNegative, double packetTMax)
+    {
+        int i = BOUNDS_STRIDE * node;
+        int xNeg = 3 * (dirIsNegative & 1);
+        int yNeg = 3 * ((dirIsNegative >> 1) & 1);
+        int zNeg = 3 * ((dirIsNegative >> 2) & 1);
+
+        // Rounded subtraction and multiplication are monotonic, so the extreme products bound
+        // what the per-ray test computes for every ray of the packet.
+        double tMin = intervalMin(bounds[i + xNeg], originMinX, originMaxX, invDirMinX, invDirMaxX);
+        double tMax = intervalMax(bounds[i + 3 - xNeg], originMinX, originMaxX, invDirMinX, invDirMaxX);
+        double tyMin = intervalMin(bounds[i + 1 + yNeg], originMinY, originMaxY, invDirMinY, invDirMaxY);
+        double tyMax = intervalMax(bounds[i + 4 - yNeg], originMinY, originMaxY, invDirMinY, invDirMaxY);
+        double tzMin = intervalMin(bounds[i + 2 + zNeg], originMinZ, originMaxZ, invDirMinZ, invDirMaxZ);
+        double tzMax = intervalMax(bounds[i + 5 - zNeg], originMinZ, originMaxZ, invDirMinZ, invDirMaxZ);
+
+        tMin = Math.max(tMin, Math.max(tyMin, tzMin));
+        tMax = Math.min(tMax, Math.min(tyMax, tzMax));
+        if (tMax > 0)
+        {
+            tMax *= FAR_SCALE;
+        }
+        return tMin <= tMax && tMin < packetTMax && tMax > 0;
+    }
+
+    private static double intervalMin(double plane, double originMin, double originMax,
+            double invDirMin, double invDirMax)
+    {
+        double dMin = plane - originMax;
+        double dMax = plane - originMin;
+        return Math.min(Math.min(dMin * invDirMin, dMin * invDirMax),
+                        Math.min(dMax * invDirMin, dMax * invDirMax));
+    }
+
+    private static double intervalMax(double plane, double originMin, double originMax,
+            double invDirMin, double invDirMax)
+    {
+        double dMin = plane - originMax;
+        double dMax = plane - originMin;
+        return Math.max(Math.max(dMin * invDirMin, dMin * invDirMax),
+                        Math.max(dMax * invDirMin, dMax * invDirMax));
+    }
+
+    /**
+     * Intersects a ray with one primitive of a leaf during {@link LinearTree#traverse}.
+     */
+    public interface PrimitiveIntersector
+    {
+        /**
+         * @param primitiveIndex the primitive's position in the leaf order the tree was built with
+         * @return true if the ray hits the primitive
+         */
+        boolean intersect(Ray ray, int primitiveIndex);
+    }
+}
@@ -0,0 +1,292 @@
+package scene.primitives.accelerator.bvh;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import core.math.Point3;
+import core.space.BoundingBox3;
+import scene.primitives.Primitive;
+import scene.primitives.accelerator.bvh.BoundingVolumeHierarchy.SplitMethod;
+import scene.primitives.accelerator.bvh.tree.SpatialSplitTreeBuilder;
+
+/**
+ * Stores flattened BVHs on disk so that re-rendering a scene can skip the tree build.
+ *
+ * A cache entry is keyed by a SHA-256 digest of the build inputs (split method and its parameters
+ * and the bounds of every primitive, in order, plus the vertices of every triangle for spatial
+ * splits, which clip triangles against split planes), and holds the node arrays of the LinearTree plus the
+ * primitive ordering as indices into the unordered primitive list. Entries are read back by
+ * memory-mapping the file. With spatial splits a primitive can be referenced from more than one
+ * leaf, so the ordering may be longer than the primitive list.
+ *
+ * File layout, big-endian:
+ *   int magic, int version, byte[32] key, int numPrimitives, int numReferences, int numNodes,
+ *   int padding, double[6 * numNodes] bounds, int[2 * numNodes] info,
+ *   int[numReferences] primitive order
+ */
+public class LinearTreeCache
+{
+    private static final Logger logger = Logger.getLogger(LinearTreeCache.class.getName());
+
+    private static final int MAGIC = 0x42564843; // "BVHC"
+    // Bump whenever the file layout or the meaning of the node arrays changes.
+    private static final int VERSION = 2;
+    private static final int KEY_LENGTH = 32;
+    // padded to keep the node bounds 8-byte aligned
+    private static final int HEADER_SIZE = 4 + 4 + KEY_LENGTH + 4 + 4 + 4 + 4;
+
+    private final File cacheDirectory;
+
+    public LinearTreeCache(String cacheDirectory)
+    {
+        this.cacheDirectory = new File(cacheDirectory);
+    }
+
+    /**
+     * @param primitives
+     *            the unordered primitives the primitive infos describe
+     */
+    public byte[] computeKey(List<Primitive> primitives, List<PrimitiveInfo> primitiveInfos,
+            SplitMethod splitMethod, int maxPrimitivesPerNode, double spatialSplitBudget)
+    {
+        MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new RuntimeException(e);
+        }
+
+        // room for the bounds and triangle vertices of many primitives
+        ByteBuffer buffer = ByteBuffer.allocate(16 * Double.BYTES * 256);
+        buffer.putInt(VERSION).putInt(maxPrimitivesPerNode).putInt(primitiveInfos.size());
+        buffer.putDouble(spatialSplitBudget);
+        buffer.put(splitMethod.name().getBytes(StandardCharsets.UTF_8));
+        for (PrimitiveInfo primitiveInfo : primitiveInfos)
+        {
+            if (buffer.remaining() < 16 * Double.BYTES)
+            {
+                digest.update(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+            BoundingBox3 bounds = primitiveInfo.getBounds();
+            for (int axis = 0; axis < 3; axis++)
+            {
+                buffer.putDouble(bounds.getMinPoint().get(axis));
+            }
+            for (int axis = 0; axis < 3; axis++)
+            {
+                buffer.putDouble(bounds.getMaxPoint().get(axis));
+            }
+            if (splitMethod == SplitMethod.SPATIAL_SPLIT)
+            {
+                Point3[] vertices = SpatialSplitTreeBuilder.getTriangleVertices(
+                        primitives.get(primitiveInfo.getPrimitiveNumber()).getShape());
+                buffer.put((byte) (vertices == null ? 0 : 1));
+                for (int v = 0; vertices != null && v < vertices.length; v++)
+                {
+                    for (int axis = 0; axis < 3; axis++)
+                    {
+                        buffer.putDouble(vertices[v].get(axis));
+                    }
+                }
+            }
+        }
+        digest.update(buffer.array(), 0, buffer.position());
+        return digest.digest();
+    }
+
+    /**
+     * Load the tree stored under the given key, filling orderedPrimitives with the cached
+     * primitive ordering.
+     *
+     * @return the cached tree, or null if there is no usable cache entry.
+     */
+    public LinearTree load(byte[] key, List<Primitive> unorderedPrimitives,
+            List<Primitive> orderedPrimitives)
+    {
+        File cacheFile = getCacheFile(key);
+        if (!cacheFile.isFile())
+        {
+            return null;
+        }
+
+        try (FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ))
+        {
+            long fileSize = channel.size();
+            if (fileSize < HEADER_SIZE)
+            {
+                logger.warning("Ignoring truncated BVH cache file " + cacheFile.getAbsolutePath());
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+
+            byte[] storedKey = new byte[KEY_LENGTH];
+            int magic = buffer.getInt();
+            int version = buffer.getInt();
+            buffer.get(storedKey);
+            int numPrimitives = buffer.getInt();
+            int numReferences = buffer.getInt();
+            int numNodes = buffer.getInt();
+            buffer.getInt();
+            if (magic != MAGIC || version != VERSION || !Arrays.equals(key, storedKey) ||
+                numPrimitives != unorderedPrimitives.size() || numNodes <= 0 || numReferences < 0 ||
+                fileSize != getFileSize(numNodes, numReferences))
+            {
+                logger.warning("Ignoring stale or incompatible BVH cache file " +
+                               cacheFile.getAbsolutePath());
+                return null;
+            }
+
+            double[] bounds = new double[LinearTree.BOUNDS_STRIDE * numNodes];
+            int[] info = new int[LinearTree.INFO_STRIDE * numNodes];
+            int[] primitiveOrder = new int[numReferences];
+            buffer.asDoubleBuffer().get(bounds);
+            buffer.position(buffer.position() + bounds.length * Double.BYTES);
+            buffer.asIntBuffer().get(info);
+            buffer.position(buffer.position() + info.length * Integer.BYTES);
+            buffer.asIntBuffer().get(primitiveOrder);
+
+            boolean corrupt = !areNodesValid(numNodes, numReferences, info);
+            for (int primitiveNumber : primitiveOrder)
+            {
+                corrupt |= primitiveNumber < 0 || primitiveNumber >= numPrimitives;
+            }
+            if (corrupt)
+            {
+                logger.warning("Ignoring corrupt BVH cache file " + cacheFile.getAbsolutePath());
+                return null;
+            }
+            for (int primitiveNumber : primitiveOrder)
+            {
+                orderedPrimitives.add(unorderedPrimitives.get(primitiveNumber));
+            }
+            return new LinearTree(numNodes, bounds, info);
+        }
+        catch (IOException e)
+        {
+            logger.warning("Failed to read BVH cache file " + cacheFile.getAbsolutePath() + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Store a built tree under the given key. Failing to write the cache is not fatal.
+     */
+    public void store(byte[] key, LinearTree tree, List<Primitive> unorderedPrimitives,
+            List<Primitive> orderedPrimitives)
+    {
+        // recover the ordering as indices into the unordered primitives
+        Map<Primitive, Integer> primitiveNumbers = new IdentityHashMap<>(unorderedPrimitives.size());
+        for (int i = 0; i < unorderedPrimitives.size(); i++)
+        {
+            primitiveNumbers.put(unorderedPrimitives.get(i), i);
+        }
+
+        int numNodes = tree.getNumNodes();
+        int numReferences = orderedPrimitives.size();
+        long fileSize = getFileSize(numNodes, numReferences);
+        if (fileSize > Integer.MAX_VALUE)
+        {
+            logger.warning("BVH too large to cache: " + fileSize + " bytes.");
+            return;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) fileSize);
+        buffer.putInt(MAGIC).putInt(VERSION).put(key);
+        buffer.putInt(unorderedPrimitives.size()).putInt(numReferences).putInt(numNodes).putInt(0);
+        buffer.asDoubleBuffer().put(tree.getBoundsArray());
+        buffer.position(buffer.position() + tree.getBoundsArray().length * Double.BYTES);
+        buffer.asIntBuffer().put(tree.getInfoArray());
+        buffer.position(buffer.position() + tree.getInfoArray().length * Integer.BYTES);
+        for (Primitive primitive : orderedPrimitives)
+        {
+            buffer.putInt(primitiveNumbers.get(primitive));
+        }
+        buffer.flip();
+
+        File cacheFile = getCacheFile(key);
+        cacheDirectory.mkdirs();
+        try
+        {
+            // write to a temporary file first so a concurrent reader never sees a partial entry
+            Path tempFile = Files.createTempFile(cacheDirectory.toPath(), "bvh", ".tmp");
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE))
+            {
+                while (buffer.hasRemaining())
+                {
+                    channel.write(buffer);
+                }
+            }
+            Files.move(tempFile, cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+            logger.info("Wrote BVH cache file " + cacheFile.getAbsolutePath());
+        }
+        catch (IOException e)
+        {
+            logger.warning("Failed to write BVH cache file " + cacheFile.getAbsolutePath() + ": " + e);
+        }
+    }
+
+    /**
+     * @return true if every leaf's primitives lie within the references and every interior
+     *         node's children lie after it within the nodes, so that traversal stays in bounds
+     *         and terminates.
+     */
+    private static boolean areNodesValid(int numNodes, int numReferences, int[] info)
+    {
+        for (int node = 0; node < numNodes; node++)
+        {
+            int offset = info[LinearTree.INFO_STRIDE * node];
+            int numPrimitives = info[LinearTree.INFO_STRIDE * node + 1] >>> 2;
+            int axis = info[LinearTree.INFO_STRIDE * node + 1] & 3;
+            if (numPrimitives > 0)
+            {
+                if (offset < 0 || (long) offset + numPrimitives > numReferences)
+                {
+                    return false;
+                }
+            }
+            else if (axis > 2 || offset <= node + 1 || offset >= numNodes)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private File getCacheFile(byte[] key)
+    {
+        StringBuilder name = new StringBuilder("bvh-");
+        for (int i = 0; i < 16; i++)
+        {
+            name.append(String.format("%02x", key[i]));
+        }
+        return new File(cacheDirectory, name.append(".bin").toString());
+    }
+
+    private static long getFileSize(int numNodes, int numReferences)
+    {
+        return HEADER_SIZE +
+               (long) LinearTree.BOUNDS_STRIDE * numNodes * Double.BYTES +
+               (long) LinearTree.INFO_STRIDE * numNodes * Integer.BYTES +
+               (long) numReferences * Integer.BYTES;
+    }
+}
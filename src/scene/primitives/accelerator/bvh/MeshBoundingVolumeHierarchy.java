@@ -0,0 +1,341 @@
+package scene.primitives.accelerator.bvh;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import core.Ray;
+import core.space.BoundingBox3;
+import metrics.MetricsLogger;
+import scene.geometry.Shape;
+import scene.geometry.impl.IndexedTriangleMesh;
+import scene.interactions.HitRecord;
+import scene.interactions.impl.SurfaceInteraction;
+import scene.lights.AreaLight;
+import scene.materials.Material;
+import scene.materials.TransportMode;
+import scene.medium.Medium.MediumInterface;
+import scene.primitives.Primitive;
+import scene.primitives.accelerator.bvh.BoundingVolumeHierarchy.SplitMethod;
+import scene.primitives.accelerator.bvh.tree.ParallelSurfaceAreaHeuristicTreeBuilder;
+import scene.primitives.accelerator.bvh.tree.SpatialSplitTreeBuilder;
+import scene.primitives.accelerator.bvh.tree.TreeBuilder;
+
+/**
+ * BVH over the triangles of an {@link IndexedTriangleMesh}, whose leaves refer to triangles by
+ * index instead of holding one primitive object per triangle. The whole mesh shares one material,
+ * so this is the mesh's primitive as well as its accelerator.
+ */
+public class MeshBoundingVolumeHierarchy implements Primitive
+{
+    private static final Logger logger = Logger.getLogger(MeshBoundingVolumeHierarchy.class.getName());
+    private static final MetricsLogger metricsLogger = MetricsLogger.getInstance();
+
+    // hit record coordinate holding the index of the hit triangle
+    private static final int TRIANGLE_COORDINATE = 3;
+
+    private final IndexedTriangleMesh mesh;
+    private final Material material;
+    private final MediumInterface mediumInterface;
+
+    private LinearTree nodes;
+    // triangle indices in leaf order; leaves refer to ranges of this array
+    private int[] triangleIndices;
+    private int maxDepth = 0;
+
+    private final ThreadLocal<TraversalState> traversalState = ThreadLocal.withInitial(TraversalState::new);
+    private final LinearTree.PrimitiveIntersector occlusionTester;
+
+    public MeshBoundingVolumeHierarchy(IndexedTriangleMesh mesh, Material material,
+            int maxPrimitivesPerNode, SplitMethod splitMethod)
+    {
+        this(mesh, material, new MediumInterface(), maxPrimitivesPerNode, splitMethod);
+    }
+
+    public MeshBoundingVolumeHierarchy(IndexedTriangleMesh mesh, Material material,
+            MediumInterface mediumInterface, int maxPrimitivesPerNode, SplitMethod splitMethod)
+    {
+        this.mesh = mesh;
+        this.material = material;
+        this.mediumInterface = mediumInterface;
+        occlusionTester = (ray, primitiveIndex) ->
+                mesh.intersect(triangleIndices[primitiveIndex], ray, null) != Double.POSITIVE_INFINITY;
+
+        int numTriangles = mesh.getNumTriangles();
+        if (numTriangles == 0)
+        {
+            triangleIndices = new int[0];
+            return;
+        }
+
+        long treeBuildStart = System.currentTimeMillis();
+        if (splitMethod == SplitMethod.SURFACE_AREA_HEURISTIC ||
+            splitMethod == SplitMethod.PARALLEL_SURFACE_AREA_HEURISTIC)
+        {
+            buildFromArrays(Math.min(255, maxPrimitivesPerNode));
+        }
+        else
+        {
+            buildFromReferences(splitMethod, Math.min(255, maxPrimitivesPerNode));
+        }
+        long treeBuildEnd = System.currentTimeMillis();
+
+        maxDepth = nodes.getMaxDepth();
+        logger.fine("Built BVH over " + numTriangles + " mesh triangles in " +
+                    (treeBuildEnd - treeBuildStart) + " ms.");
+
+        metricsLogger.onAcceleratorStructureBuilt(treeBuildEnd - treeBuildStart, numTriangles);
+        metricsLogger.onAcceleratorStructureStatistics(nodes.getNumNodes(), nodes.getNumLeaves(),
+                                                       maxDepth, nodes.getLeafDepthSum(),
+                                                       nodes.getNumLeafPrimitives(),
+                                                       nodes.getSurfaceAreaHeuristicCost());
+    }
+
+    /**
+     * Build over flat arrays of triangle bounds and centroids, permuting an array of triangle
+     * indices in place, so that no object is allocated per triangle.
+     */
+    private void buildFromArrays(int maxPrimitivesPerNode)
+    {
+        int numTriangles = mesh.getNumTriangles();
+        double[] triangleBounds = new double[6 * numTriangles];
+        double[] centroids = new double[3 * numTriangles];
+        triangleIndices = new int[numTriangles];
+        for (int i = 0; i < numTriangles; i++)
+        {
+            mesh.getBounds(i, triangleBounds, 6 * i);
+            for (int axis = 0; axis < 3; axis++)
+            {
+                centroids[3 * i + axis] = 0.5 * triangleBounds[6 * i + axis] +
+                                          0.5 * triangleBounds[6 * i + 3 + axis];
+            }
+            triangleIndices[i] = i;
+        }
+        nodes = new ParallelSurfaceAreaHeuristicTreeBuilder(maxPrimitivesPerNode).build(triangleBounds,
+                                                                                        centroids,
+                                                                                        triangleIndices);
+    }
+
+    /**
+     * Build with the primitive-based builders, which need a small stand-in per triangle for the
+     * duration of the build. Spatial splits clip the triangles' shapes, so they cannot work from
+     * bounds alone.
+     */
+    private void buildFromReferences(SplitMethod splitMethod, int maxPrimitivesPerNode)
+    {
+        int numTriangles = mesh.getNumTriangles();
+        List<Primitive> references = new ArrayList<>(numTriangles);
+        List<PrimitiveInfo> primitiveInfos = new ArrayList<>(numTriangles);
+        for (int i = 0; i < numTriangles; i++)
+        {
+            references.add(new TriangleReference(mesh, i));
+            primitiveInfos.add(new PrimitiveInfo(i, mesh.getBounds(i)));
+        }
+        TreeBuilder treeBuilder = BoundingVolumeHierarchy.getTreeBuilder(splitMethod,
+                                                                         references,
+                                                                         maxPrimitivesPerNode,
+                                                                         SpatialSplitTreeBuilder.DEFAULT_SPLIT_BUDGET);
+
+        List<Primitive> orderedReferences = new ArrayList<>(numTriangles);
+        nodes = treeBuilder.build(primitiveInfos, orderedReferences);
+
+        triangleIndices = new int[orderedReferences.size()];
+        for (int i = 0; i < triangleIndices.length; i++)
+        {
+            triangleIndices[i] = ((TriangleReference) orderedReferences.get(i)).triangle;
+        }
+    }
+
+    public IndexedTriangleMesh getMesh()
+    {
+        return mesh;
+    }
+
+    private TraversalState getTraversalState()
+    {
+        TraversalState state = traversalState.get();
+        if (state.nodesToVisit.length < maxDepth)
+        {
+            state.nodesToVisit = new int[maxDepth];
+        }
+        return state;
+    }
+
+    @Override
+    public BoundingBox3 worldBound()
+    {
+        if (nodes != null)
+        {
+            return nodes.getBounds(0);
+        }
+        return new BoundingBox3();
+    }
+
+    @Override
+    public SurfaceInteraction intersect(Ray ray)
+    {
+        HitRecord hit = getTraversalState().ownHit;
+        if (!intersectDeferred(ray, hit))
+        {
+            return null;
+        }
+        return computeSurfaceInteraction(ray, hit);
+    }
+
+    /**
+     * Records the closest triangle hit without building its surface interaction: the barycentrics
+     * go in the first three coordinates of the hit record and the triangle index in the fourth.
+     */
+    @Override
+    public boolean intersectDeferred(Ray ray, HitRecord hit)
+    {
+        if (nodes == null)
+        {
+            return false;
+        }
+        TraversalState state = getTraversalState();
+        state.hit = hit;
+        boolean found = nodes.traverse(ray, state.nodesToVisit, state, false);
+        state.hit = null;
+        return found;
+    }
+
+    @Override
+    public SurfaceInteraction computeSurfaceInteraction(Ray ray, HitRecord hit)
+    {
+        int triangle = (int) hit.getCoordinate(TRIANGLE_COORDINATE);
+        SurfaceInteraction surfaceInteraction = mesh.getSurfaceInteraction(triangle, ray,
+                                                                           hit.getCoordinate(0),
+                                                                           hit.getCoordinate(1),
+                                                                           hit.getCoordinate(2));
+        surfaceInteraction.setPrimitive(this);
+        if (mediumInterface.isMediumTransition())
+        {
+            surfaceInteraction.setMediumInterface(mediumInterface);
+        }
+        else
+        {
+            surfaceInteraction.setMediumInterface(new MediumInterface(ray.getMedium()));
+        }
+        return surfaceInteraction;
+    }
+
+    @Override
+    public boolean intersectP(Ray ray)
+    {
+        if (nodes == null)
+        {
+            return false;
+        }
+        return nodes.traverse(ray, getTraversalState().nodesToVisit, occlusionTester, true);
+    }
+
+    @Override
+    public AreaLight getAreaLight()
+    {
+        return null;
+    }
+
+    @Override
+    public Material getMaterial()
+    {
+        return material;
+    }
+
+    @Override
+    public Shape getShape()
+    {
+        throw new UnsupportedOperationException("No single shape for MeshBoundingVolumeHierarchy.");
+    }
+
+    @Override
+    public void computeScatteringFunctions(SurfaceInteraction surfaceInteraction,
+            TransportMode mode, boolean allowMultipleLobes)
+    {
+        if (material != null)
+        {
+            material.computeScatteringFunctions(surfaceInteraction, mode, allowMultipleLobes);
+        }
+    }
+
+    // Per-thread scratch space reused across rays so that traversal does not allocate.
+    private class TraversalState implements LinearTree.PrimitiveIntersector
+    {
+        private int[] nodesToVisit = new int[0];
+        // record being filled by the current traversal
+        private HitRecord hit;
+        // record for intersect(Ray), which has none of its own
+        private final HitRecord ownHit = new HitRecord();
+
+        @Override
+        public boolean intersect(Ray ray, int primitiveIndex)
+        {
+            int triangle = triangleIndices[primitiveIndex];
+            double t = mesh.intersect(triangle, ray, hit.getCoordinates());
+            if (t == Double.POSITIVE_INFINITY)
+            {
+                return false;
+            }
+            ray.setTMax(t);
+            hit.setT(t);
+            hit.getCoordinates()[TRIANGLE_COORDINATE] = triangle;
+            return true;
+        }
+    }
+
+    // Stand-in for a triangle while the tree is being built.
+    private static class TriangleReference implements Primitive
+    {
+        private final IndexedTriangleMesh mesh;
+        private final int triangle;
+
+        TriangleReference(IndexedTriangleMesh mesh, int triangle)
+        {
+            this.mesh = mesh;
+            this.triangle = triangle;
+        }
+
+        @Override
+        public BoundingBox3 worldBound()
+        {
+            return mesh.getBounds(triangle);
+        }
+
+        @Override
+        public Shape getShape()
+        {
+            return mesh.getTriangle(triangle);
+        }
+
+        @Override
+        public SurfaceInteraction intersect(Ray ray)
+        {
+            throw new UnsupportedOperationException("TriangleReference is only used for building.");
+        }
+
+        @Override
+        public boolean intersectP(Ray ray)
+        {
+            throw new UnsupportedOperationException("TriangleReference is only used for building.");
+        }
+
+        @Override
+        public AreaLight getAreaLight()
+        {
+            return null;
+        }
+
+        @Override
+        public Material getMaterial()
+        {
+            return null;
+        }
+
+        @Override
+        public void computeScatteringFunctions(SurfaceInteraction surfaceInteraction,
+                TransportMode mode, boolean allowMultipleLobes)
+        {
+            throw new UnsupportedOperationException("TriangleReference is only used for building.");
+        }
+    }
+}
@@ -0,0 +1,446 @@
+package scene.primitives.accelerator.bvh;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+
+import core.Ray;
+import core.space.BoundingBox3;
+import metrics.MetricsLogger;
+import scene.interactions.HitRecord;
+import scene.interactions.impl.SurfaceInteraction;
+import scene.primitives.Aggregate;
+import scene.primitives.Primitive;
+import scene.primitives.accelerator.bvh.BoundingVolumeHierarchy.SplitMethod;
+import scene.primitives.accelerator.bvh.tree.SpatialSplitTreeBuilder;
+import scene.primitives.accelerator.bvh.tree.TreeBuilder;
+import utilities.MathUtilities;
+
+/**
+ * BVH with 4 or 8 children per node, made by collapsing the binary tree produced by a
+ * {@link TreeBuilder}. Each node stores the bounds of all of its children structure-of-arrays
+ * style (all child minX values, then all minY values, ...), so a ray is tested against every child
+ * of a node in one tight loop over contiguous memory.
+ */
+public class WideBoundingVolumeHierarchy implements Aggregate
+{
+    private static final Logger logger = Logger.getLogger(WideBoundingVolumeHierarchy.class.getName());
+    private static final MetricsLogger metricsLogger = MetricsLogger.getInstance();
+
+    // Slack applied to the far slab distance to make the box test conservative.
+    private static final double FAR_SCALE = 1 + 2 * MathUtilities.gamma(3);
+
+    private final int width;
+    private List<Primitive> primitives;
+    private BoundingBox3 worldBound = new BoundingBox3();
+
+    private int numNodes = 0;
+    // per node: 6 * width child bounds, ordered minX[width], minY[width], ..., maxZ[width]
+    private double[] childBounds;
+    // per node and child slot: index of the child node if the child is interior, otherwise the
+    // offset of its first primitive
+    private int[] childOffsets;
+    // per node and child slot: number of primitives in a leaf child, 0 for an interior child
+    private int[] childPrimitiveCounts;
+    private int[] numChildren;
+    private int maxDepth = 0;
+
+    // build statistics, gathered while collapsing
+    private int numLeaves = 0;
+    private long leafDepthSum = 0;
+    private long leafPrimitiveSum = 0;
+    // sum over nodes of surface area times cost, to be divided by the root area
+    private double weightedArea = 0;
+
+    private final ThreadLocal<TraversalState> traversalState = ThreadLocal.withInitial(TraversalState::new);
+
+    public WideBoundingVolumeHierarchy(List<Primitive> primitives, int maxPrimitivesPerNode,
+            SplitMethod splitMethod, int width)
+    {
+        if (width != 4 && width != 8)
+        {
+            throw new IllegalArgumentException("Unsupported BVH width: " + width);
+        }
+        this.width = width;
+        this.primitives = Collections.unmodifiableList(new ArrayList<>(primitives));
+        maxPrimitivesPerNode = Math.min(255, maxPrimitivesPerNode);
+        TreeBuilder treeBuilder = BoundingVolumeHierarchy.getTreeBuilder(splitMethod,
+                                                                         this.primitives,
+                                                                         maxPrimitivesPerNode,
+                                                                         SpatialSplitTreeBuilder.DEFAULT_SPLIT_BUDGET);
+
+        if (primitives.isEmpty())
+        {
+            this.primitives = Collections.emptyList();
+            return;
+        }
+
+        // build binary BVH from primitives
+        List<PrimitiveInfo> primitiveInfos = new ArrayList<>(primitives.size());
+        int i = 0;
+        for (Primitive primitive : primitives)
+        {
+            primitiveInfos.add(new PrimitiveInfo(i, primitive.worldBound()));
+            i++;
+        }
+
+        List<Primitive> orderedPrimitives = new ArrayList<>(primitives.size());
+
+        long treeBuildStart = System.currentTimeMillis();
+        LinearTree binaryTree = treeBuilder.build(primitiveInfos, orderedPrimitives);
+        collapse(binaryTree);
+        long treeBuildEnd = System.currentTimeMillis();
+        logger.fine("Collapsed " + binaryTree.getNumNodes() + " binary nodes into " + numNodes +
+                    " " + width + "-wide nodes of depth " + maxDepth + ".");
+
+        metricsLogger.onAcceleratorStructureBuilt(treeBuildEnd - treeBuildStart, primitives.size());
+        double rootArea = binaryTree.getBounds(0).surfaceArea();
+        metricsLogger.onAcceleratorStructureStatistics(numNodes, numLeaves, maxDepth + 1,
+                                                       leafDepthSum, leafPrimitiveSum,
+                                                       rootArea > 0 ? weightedArea / rootArea : 0);
+
+        worldBound = binaryTree.getBounds(0);
+        this.primitives = Collections.unmodifiableList(orderedPrimitives);
+    }
+
+    private void collapse(LinearTree binaryTree)
+    {
+        // every wide node but the root replaces at least one binary interior node
+        int maxNodes = binaryTree.getNumNodes() / 2 + 1;
+        childBounds = new double[6 * width * maxNodes];
+        childOffsets = new int[width * maxNodes];
+        childPrimitiveCounts = new int[width * maxNodes];
+        numChildren = new int[maxNodes];
+
+        maxDepth = collapse(binaryTree, 0, 1);
+
+        childBounds = Arrays.copyOf(childBounds, 6 * width * numNodes);
+        childOffsets = Arrays.copyOf(childOffsets, width * numNodes);
+        childPrimitiveCounts = Arrays.copyOf(childPrimitiveCounts, width * numNodes);
+        numChildren = Arrays.copyOf(numChildren, numNodes);
+    }
+
+    /**
+     * Create a wide node whose children are the descendants of the given binary node, opening up
+     * the binary interior child with the largest surface area until the node is full.
+     *
+     * @return the depth of the created subtree.
+     */
+    private int collapse(LinearTree binaryTree, int binaryNode, int nodeDepth)
+    {
+        weightedArea += binaryTree.getBounds(binaryNode).surfaceArea();
+        List<Integer> children = new ArrayList<>(width);
+        if (binaryTree.getNumPrimitives(binaryNode) > 0)
+        {
+            children.add(binaryNode);
+        }
+        else
+        {
+            children.add(binaryNode + 1);
+            children.add(binaryTree.getOffset(binaryNode));
+        }
+        while (children.size() < width)
+        {
+            int largest = -1;
+            double largestArea = -1;
+            for (int c = 0; c < children.size(); c++)
+            {
+                int child = children.get(c);
+                double area = binaryTree.getBounds(child).surfaceArea();
+                if (binaryTree.getNumPrimitives(child) == 0 && area > largestArea)
+                {
+                    largest = c;
+                    largestArea = area;
+                }
+            }
+            if (largest == -1)
+            {
+                break;
+            }
+            int opened = children.remove(largest);
+            children.add(largest, binaryTree.getOffset(opened));
+            children.add(largest, opened + 1);
+        }
+
+        int node = numNodes++;
+        numChildren[node] = children.size();
+        int depth = 1;
+        for (int c = 0; c < children.size(); c++)
+        {
+            int child = children.get(c);
+            BoundingBox3 b = binaryTree.getBounds(child);
+            int base = 6 * width * node + c;
+            for (int axis = 0; axis < 3; axis++)
+            {
+                childBounds[base + axis * width] = b.getMinPoint().get(axis);
+                childBounds[base + (3 + axis) * width] = b.getMaxPoint().get(axis);
+            }
+            int numPrimitives = binaryTree.getNumPrimitives(child);
+            childPrimitiveCounts[width * node + c] = numPrimitives;
+            if (numPrimitives > 0)
+            {
+                childOffsets[width * node + c] = binaryTree.getOffset(child);
+                // leaves live in their parent's child slots, one level below it
+                numLeaves++;
+                leafDepthSum += nodeDepth + 1;
+                leafPrimitiveSum += numPrimitives;
+                weightedArea += b.surfaceArea() * numPrimitives;
+            }
+            else
+            {
+                childOffsets[width * node + c] = numNodes;
+                depth = Math.max(depth, 1 + collapse(binaryTree, child, nodeDepth + 1));
+            }
+        }
+        return depth;
+    }
+
+    private TraversalState getTraversalState()
+    {
+        TraversalState state = traversalState.get();
+        // each visited node pushes at most width - 1 more entries than it pops
+        int stackSize = (width - 1) * maxDepth + 1;
+        if (state.nodesToVisit.length < stackSize)
+        {
+            state.nodesToVisit = new int[stackSize];
+            state.distancesToVisit = new double[stackSize];
+        }
+        if (state.childDistances.length < width)
+        {
+            state.childDistances = new double[width];
+        }
+        return state;
+    }
+
+    /**
+     * Slab test of the ray against every child of a node. On return childDistances[c] holds the
+     * entry distance of child c, or infinity if the ray misses it.
+     */
+    private void intersectChildren(int node, double originX, double originY, double originZ,
+            double invDirX, double invDirY, double invDirZ, int dirIsNegative, double rayTMax,
+            double[] childDistances)
+    {
+        int base = 6 * width * node;
+        int xNeg = 3 * width * (dirIsNegative & 1);
+        int yNeg = 3 * width * ((dirIsNegative >> 1) & 1);
+        int zNeg = 3 * width * ((dirIsNegative >> 2) & 1);
+        int nearX = base + xNeg;
+        int farX  = base + 3 * width - xNeg;
+        int nearY = base + width + yNeg;
+        int farY  = base + 4 * width - yNeg;
+        int nearZ = base + 2 * width + zNeg;
+        int farZ  = base + 5 * width - zNeg;
+
+        int n = numChildren[node];
+        for (int c = 0; c < n; c++)
+        {
+            double tMin  = (childBounds[nearX + c] - originX) * invDirX;
+            double tMax  = (childBounds[farX + c]  - originX) * invDirX * FAR_SCALE;
+            double tyMin = (childBounds[nearY + c] - originY) * invDirY;
+            double tyMax = (childBounds[farY + c]  - originY) * invDirY * FAR_SCALE;
+            double tzMin = (childBounds[nearZ + c] - originZ) * invDirZ;
+            double tzMax = (childBounds[farZ + c]  - originZ) * invDirZ * FAR_SCALE;
+
+            // comparisons are written so that NaNs from 0 * infinity are ignored
+            double tEnter = 0;
+            double tExit = rayTMax;
+            if (tMin > tEnter)  tEnter = tMin;
+            if (tyMin > tEnter) tEnter = tyMin;
+            if (tzMin > tEnter) tEnter = tzMin;
+            if (tMax < tExit)   tExit = tMax;
+            if (tyMax < tExit)  tExit = tyMax;
+            if (tzMax < tExit)  tExit = tzMax;
+
+            childDistances[c] = tEnter <= tExit ? tEnter : Double.POSITIVE_INFINITY;
+        }
+    }
+
+    @Override
+    public BoundingBox3 worldBound()
+    {
+        return worldBound;
+    }
+
+    @Override
+    public SurfaceInteraction intersect(Ray ray)
+    {
+        if (numNodes == 0)
+        {
+            return null;
+        }
+
+        metricsLogger.onTraversalStart();
+        ray.precomputeIntersectionData();
+        double originX = ray.getOrigin().x();
+        double originY = ray.getOrigin().y();
+        double originZ = ray.getOrigin().z();
+        double invDirX = 1 / ray.getDirection().x();
+        double invDirY = 1 / ray.getDirection().y();
+        double invDirZ = 1 / ray.getDirection().z();
+        int directionIsNegative = LinearTree.getDirectionSigns(invDirX, invDirY, invDirZ);
+
+        TraversalState state = getTraversalState();
+        int[] nodesToVisit = state.nodesToVisit;
+        double[] distancesToVisit = state.distancesToVisit;
+        double[] childDistances = state.childDistances;
+        HitRecord candidateHit = state.candidateHit;
+        HitRecord closestHit = state.closestHit;
+        Primitive closestPrimitive = null;
+        int toVisitOffset = 0;
+        int currentNodeIndex = 0;
+        int nodesVisited = 0;
+        int boxTests = 0;
+        int primitiveTests = 0;
+
+        while (true)
+        {
+            intersectChildren(currentNodeIndex, originX, originY, originZ, invDirX, invDirY,
+                              invDirZ, directionIsNegative, ray.getTMax(), childDistances);
+            nodesVisited++;
+            boxTests += numChildren[currentNodeIndex];
+
+            // intersect leaf children right away; push interior children so that the nearest is
+            // on top of the stack
+            int firstPushed = toVisitOffset;
+            int slot = width * currentNodeIndex;
+            for (int c = 0; c < numChildren[currentNodeIndex]; c++)
+            {
+                double distance = childDistances[c];
+                // misses are at infinity, which an unbounded ray would not cull by itself
+                if (distance == Double.POSITIVE_INFINITY || distance > ray.getTMax())
+                {
+                    continue;
+                }
+                int numPrimitives = childPrimitiveCounts[slot + c];
+                int offset = childOffsets[slot + c];
+                if (numPrimitives > 0)
+                {
+                    primitiveTests += numPrimitives;
+                    for (int i = 0; i < numPrimitives; i++)
+                    {
+                        // Primitive intersection updates ray's tMax, so we always get the closest
+                        // intersection.
+                        Primitive primitive = primitives.get(offset + i);
+                        if (primitive.intersectDeferred(ray, candidateHit))
+                        {
+                            closestPrimitive = primitive;
+                            HitRecord previousHit = closestHit;
+                            closestHit = candidateHit;
+                            candidateHit = previousHit;
+                        }
+                    }
+                }
+                else
+                {
+                    int j = toVisitOffset++;
+                    while (j > firstPushed && distancesToVisit[j - 1] < distance)
+                    {
+                        nodesToVisit[j] = nodesToVisit[j - 1];
+                        distancesToVisit[j] = distancesToVisit[j - 1];
+                        j--;
+                    }
+                    nodesToVisit[j] = offset;
+                    distancesToVisit[j] = distance;
+                }
+            }
+
+            // pop the next node that may still contain a closer hit
+            do
+            {
+                if (toVisitOffset == 0)
+                {
+                    metricsLogger.onRayTraversed(nodesVisited, boxTests, primitiveTests);
+                    // only the closest hit gets a surface interaction
+                    return closestPrimitive != null ?
+                           closestPrimitive.computeSurfaceInteraction(ray, closestHit) : null;
+                }
+                toVisitOffset--;
+            } while (distancesToVisit[toVisitOffset] > ray.getTMax());
+            currentNodeIndex = nodesToVisit[toVisitOffset];
+        }
+    }
+
+    @Override
+    public boolean intersectP(Ray ray)
+    {
+        if (numNodes == 0)
+        {
+            return false;
+        }
+
+        metricsLogger.onTraversalStart();
+        ray.precomputeIntersectionData();
+        double originX = ray.getOrigin().x();
+        double originY = ray.getOrigin().y();
+        double originZ = ray.getOrigin().z();
+        double invDirX = 1 / ray.getDirection().x();
+        double invDirY = 1 / ray.getDirection().y();
+        double invDirZ = 1 / ray.getDirection().z();
+        int directionIsNegative = LinearTree.getDirectionSigns(invDirX, invDirY, invDirZ);
+
+        TraversalState state = getTraversalState();
+        int[] nodesToVisit = state.nodesToVisit;
+        double[] childDistances = state.childDistances;
+        int toVisitOffset = 0;
+        int currentNodeIndex = 0;
+        int nodesVisited = 0;
+        int boxTests = 0;
+        int primitiveTests = 0;
+
+        while (true)
+        {
+            intersectChildren(currentNodeIndex, originX, originY, originZ, invDirX, invDirY,
+                              invDirZ, directionIsNegative, ray.getTMax(), childDistances);
+            nodesVisited++;
+            boxTests += numChildren[currentNodeIndex];
+
+            // any hit will do, so visit children in storage order
+            int slot = width * currentNodeIndex;
+            for (int c = 0; c < numChildren[currentNodeIndex]; c++)
+            {
+                if (childDistances[c] == Double.POSITIVE_INFINITY)
+                {
+                    continue;
+                }
+                int numPrimitives = childPrimitiveCounts[slot + c];
+                int offset = childOffsets[slot + c];
+                if (numPrimitives > 0)
+                {
+                    for (int i = 0; i < numPrimitives; i++)
+                    {
+                        primitiveTests++;
+                        if (primitives.get(offset + i).intersectP(ray))
+                        {
+                            metricsLogger.onShadowRayTraversed(nodesVisited, boxTests,
+                                                               primitiveTests, true);
+                            return true;
+                        }
+                    }
+                }
+                else
+                {
+                    nodesToVisit[toVisitOffset++] = offset;
+                }
+            }
+
+            if (toVisitOffset == 0)
+            {
+                metricsLogger.onShadowRayTraversed(nodesVisited, boxTests, primitiveTests, false);
+                return false;
+            }
+            currentNodeIndex = nodesToVisit[--toVisitOffset];
+        }
+    }
+
+    // Per-thread scratch space reused across rays so that traversal does not allocate.
+    private static class TraversalState
+    {
+        private int[] nodesToVisit = new int[0];
+        private double[] distancesToVisit = new double[0];
+        private double[] childDistances = new double[0];
+        private final HitRecord candidateHit = new HitRecord();
+        private final HitRecord closestHit = new HitRecord();
+    }
+}
@@ -0,0 +1,105 @@
+package scene.primitives.accelerator.bvh.tree;
+
+import java.util.Arrays;
+
+import core.math.Point3;
+import core.space.BoundingBox3;
+
+/**
+ * Helpers for bounding boxes stored as (minX, minY, minZ, maxX, maxY, maxZ) in a double[], which
+ * the array-based builders use instead of allocating a BoundingBox3 per primitive or bucket.
+ */
+class BoundsArrays
+{
+    private BoundsArrays()
+    {
+    }
+
+    /**
+     * @return bounds that contain nothing, so that the union of them with any box is that box.
+     */
+    static double[] emptyBounds()
+    {
+        return new double[] { Double.POSITIVE_INFINITY,
+                              Double.POSITIVE_INFINITY,
+                              Double.POSITIVE_INFINITY,
+                              Double.NEGATIVE_INFINITY,
+                              Double.NEGATIVE_INFINITY,
+                              Double.NEGATIVE_INFINITY };
+    }
+
+    static void setEmpty(double[] bounds, int offset)
+    {
+        Arrays.fill(bounds, offset, offset + 3, Double.POSITIVE_INFINITY);
+        Arrays.fill(bounds, offset + 3, offset + 6, Double.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * Grow the bounds from offset on to contain the bounds in other from otherOffset on.
+     */
+    static void union(double[] bounds, int offset, double[] other, int otherOffset)
+    {
+        for (int axis = 0; axis < 3; axis++)
+        {
+            bounds[offset + axis] = Math.min(bounds[offset + axis], other[otherOffset + axis]);
+            bounds[offset + 3 + axis] = Math.max(bounds[offset + 3 + axis], other[otherOffset + 3 + axis]);
+        }
+    }
+
+    /**
+     * @return bounds, grown to contain other.
+     */
+    static double[] union(double[] bounds, double[] other)
+    {
+        union(bounds, 0, other, 0);
+        return bounds;
+    }
+
+    static void union(double[] bounds, Point3 p)
+    {
+        for (int axis = 0; axis < 3; axis++)
+        {
+            bounds[axis] = Math.min(bounds[axis], p.get(axis));
+            bounds[3 + axis] = Math.max(bounds[3 + axis], p.get(axis));
+        }
+    }
+
+    static double[] intersection(double[] a, double[] b)
+    {
+        double[] bounds = new double[6];
+        for (int axis = 0; axis < 3; axis++)
+        {
+            bounds[axis] = Math.max(a[axis], b[axis]);
+            bounds[3 + axis] = Math.min(a[3 + axis], b[3 + axis]);
+        }
+        return bounds;
+    }
+
+    // Empty and inverted boxes have no area.
+    static double surfaceArea(double[] bounds)
+    {
+        double x = bounds[3] - bounds[0];
+        double y = bounds[4] - bounds[1];
+        double z = bounds[5] - bounds[2];
+        if (x < 0 || y < 0 || z < 0)
+        {
+            return 0;
+        }
+        return 2.0 * (x * y + x * z + y * z);
+    }
+
+    static BoundingBox3 toBoundingBox(double[] bounds)
+    {
+        return new BoundingBox3(bounds[0], bounds[1], bounds[2], bounds[3], bounds[4], bounds[5]);
+    }
+
+    static double[] toArray(BoundingBox3 b)
+    {
+        return new double[] { b.getMinPoint().x(),
+                              b.getMinPoint().y(),
+                              b.getMinPoint().z(),
+                              b.getMaxPoint().x(),
+                              b.getMaxPoint().y(),
+                              b.getMaxPoint().z() };
+    }
+}
@@ -10,7 +10,7 @@ import core.tuple.Pair;
 import scene.primitives.Primitive;
 import scene.primitives.accelerator.bvh.PrimitiveInfo;
 
-public class EqualCountsTreeBuilder extends TreeBuilder
+public class EqualCountsTreeBuilder extends RecursiveTreeBuilder
 {
     private static final Logger logger = Logger.getLogger(EqualCountsTreeBuilder.class.getName());
 
@@ -0,0 +1,362 @@
+package scene.primitives.accelerator.bvh.tree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+import core.math.Point3;
+import core.space.Axis;
+import core.space.BoundingBox3;
+import core.tuple.Pair;
+import scene.primitives.Primitive;
+import scene.primitives.accelerator.bvh.LinearTree;
+import scene.primitives.accelerator.bvh.PrimitiveInfo;
+
+/**
+ * HLBVH construction (pbrt section 4.3.3). Primitive centroids are quantized onto a Morton curve
+ * and radix sorted; primitives that share the same high Morton bits form a treelet, and treelets
+ * are built independently on the fork-join pool by splitting on successive Morton bits. The
+ * treelet roots are then joined with the surface area heuristic.
+ *
+ * Because every treelet covers a contiguous range of the sorted primitives, the ordered primitive
+ * list is simply the Morton order, and the result does not depend on how work was scheduled.
+ */
+public class HierarchicalLinearTreeBuilder extends TreeBuilder
+{
+    private static final Logger logger = Logger.getLogger(HierarchicalLinearTreeBuilder.class.getName());
+
+    // Number of bits used to quantize each centroid coordinate. 3 * 10 bits fit in an int.
+    private static final int MORTON_BITS = 10;
+    private static final int MORTON_SCALE = 1 << MORTON_BITS;
+
+    // Primitives whose Morton codes agree in these (high 12) bits end up in the same treelet.
+    private static final int TREELET_MASK = 0b00111111111111000000000000000000;
+    private static final int FIRST_TREELET_BIT = 29 - 12;
+
+    private static final int RADIX_BITS_PER_PASS = 6;
+    private static final int RADIX_NUM_BUCKETS = 1 << RADIX_BITS_PER_PASS;
+    private static final int RADIX_MIN_CHUNK_SIZE = 1 << 14;
+
+    // Cost of traversing a node of the upper tree, relative to intersecting a treelet.
+    private static final double TRAVERSAL_COST = 0.125;
+
+    public HierarchicalLinearTreeBuilder(List<Primitive> unorderedPrimitives,
+            int maxPrimitivesPerNode)
+    {
+        super(unorderedPrimitives, Math.max(1, maxPrimitivesPerNode));
+    }
+
+    @Override
+    public LinearTree build(List<PrimitiveInfo> primitiveInfos, List<Primitive> orderedPrimitives)
+    {
+        int numPrimitives = primitiveInfos.size();
+
+        // compute bounding box of all primitive centroids
+        BoundingBox3 centroidBounds = new BoundingBox3();
+        for (PrimitiveInfo primitiveInfo : primitiveInfos)
+        {
+            centroidBounds = centroidBounds.union(primitiveInfo.getCentroid());
+        }
+
+        // compute Morton indices of primitives
+        int[] mortonCodes = new int[numPrimitives];
+        int[] sortedPrimitives = new int[numPrimitives];
+        final BoundingBox3 finalCentroidBounds = centroidBounds;
+        IntStream.range(0, numPrimitives).parallel().forEach(i ->
+        {
+            mortonCodes[i] = encodeMorton3(finalCentroidBounds, primitiveInfos.get(i).getCentroid());
+            sortedPrimitives[i] = i;
+        });
+
+        radixSort(mortonCodes, sortedPrimitives);
+
+        for (int i = 0; i < numPrimitives; i++)
+        {
+            int primitiveNumber = primitiveInfos.get(sortedPrimitives[i]).getPrimitiveNumber();
+            orderedPrimitives.add(unorderedPrimitives.get(primitiveNumber));
+        }
+
+        // find intervals of primitives for each treelet
+        List<int[]> treeletRanges = new ArrayList<>();
+        for (int start = 0, end = 1; end <= numPrimitives; end++)
+        {
+            if (end == numPrimitives ||
+                (mortonCodes[start] & TREELET_MASK) != (mortonCodes[end] & TREELET_MASK))
+            {
+                treeletRanges.add(new int[] { start, end - start });
+                start = end;
+            }
+        }
+
+        // create LBVHs for treelets in parallel
+        BuildNode[] treeletRoots = new BuildNode[treeletRanges.size()];
+        int[] treeletNodeCounts = new int[treeletRanges.size()];
+        IntStream.range(0, treeletRanges.size()).parallel().forEach(i ->
+        {
+            int[] range = treeletRanges.get(i);
+            var treelet = emitLinearTree(primitiveInfos,
+                                         mortonCodes,
+                                         sortedPrimitives,
+                                         range[0],
+                                         range[1],
+                                         FIRST_TREELET_BIT);
+            treeletRoots[i] = treelet.getFirst();
+            treeletNodeCounts[i] = treelet.getSecond();
+        });
+        int totalNodes = 0;
+        for (int count : treeletNodeCounts)
+        {
+            totalNodes += count;
+        }
+        logger.fine("Built " + treeletRoots.length + " treelets with " + totalNodes + " nodes on " +
+                    ForkJoinPool.getCommonPoolParallelism() + " threads.");
+
+        // create and return SAH BVH from treelets
+        var upperTree = buildUpperSurfaceAreaHeuristic(treeletRoots, 0, treeletRoots.length);
+        totalNodes += upperTree.getSecond();
+
+        return linearize(upperTree.getFirst(), totalNodes);
+    }
+
+    /**
+     * Build the subtree for the sorted primitives [start, start + count) by splitting at the
+     * first Morton bit, at or below bitIndex, that differs within the range.
+     *
+     * @return the subtree root and the number of nodes created.
+     */
+    private Pair<BuildNode, Integer> emitLinearTree(List<PrimitiveInfo> primitiveInfos,
+            int[] mortonCodes, int[] sortedPrimitives, int start, int count, int bitIndex)
+    {
+        if (bitIndex == -1 || count <= maxPrimitivesPerNode)
+        {
+            // create and return leaf node of LBVH treelet
+            BoundingBox3 bounds = new BoundingBox3();
+            for (int i = start; i < start + count; i++)
+            {
+                bounds = bounds.union(primitiveInfos.get(sortedPrimitives[i]).getBounds());
+            }
+            BuildNode node = new BuildNode();
+            node.initLeaf(start, count, bounds);
+            return new Pair<>(node, 1);
+        }
+
+        int mask = 1 << bitIndex;
+        // advance to next subtree level if there's no split for this bit
+        if ((mortonCodes[start] & mask) == (mortonCodes[start + count - 1] & mask))
+        {
+            return emitLinearTree(primitiveInfos, mortonCodes, sortedPrimitives, start, count,
+                                  bitIndex - 1);
+        }
+
+        // find split point for this dimension
+        int searchStart = start;
+        int searchEnd = start + count - 1;
+        while (searchStart + 1 != searchEnd)
+        {
+            int mid = (searchStart + searchEnd) >>> 1;
+            if ((mortonCodes[searchStart] & mask) == (mortonCodes[mid] & mask))
+            {
+                searchStart = mid;
+            }
+            else
+            {
+                searchEnd = mid;
+            }
+        }
+        int splitOffset = searchEnd;
+
+        // create and return interior LBVH node
+        var left = emitLinearTree(primitiveInfos, mortonCodes, sortedPrimitives, start,
+                                  splitOffset - start, bitIndex - 1);
+        var right = emitLinearTree(primitiveInfos, mortonCodes, sortedPrimitives, splitOffset,
+                                   start + count - splitOffset, bitIndex - 1);
+        BuildNode node = new BuildNode();
+        node.initInterior(Axis.values()[bitIndex % 3], left.getFirst(), right.getFirst());
+        return new Pair<>(node, left.getSecond() + right.getSecond() + 1);
+    }
+
+    /**
+     * Join the treelet roots in [start, end) with SAH bucketing on their centroids. Reorders
+     * treeletRoots in place.
+     *
+     * @return the root of the upper tree and the number of new nodes created.
+     */
+    private Pair<BuildNode, Integer> buildUpperSurfaceAreaHeuristic(BuildNode[] treeletRoots,
+            int start, int end)
+    {
+        int numNodes = end - start;
+        if (numNodes == 1)
+        {
+            return new Pair<>(treeletRoots[start], 0);
+        }
+
+        // compute bounds of all nodes and of their centroids
+        BoundingBox3 bounds = new BoundingBox3();
+        BoundingBox3 centroidBounds = new BoundingBox3();
+        for (int i = start; i < end; i++)
+        {
+            bounds = bounds.union(treeletRoots[i].bounds);
+            centroidBounds = centroidBounds.union(centroid(treeletRoots[i].bounds));
+        }
+        Axis splitAxis = centroidBounds.maximumExtent();
+        double centroidMin = centroidBounds.getMinPoint().get(splitAxis);
+        double centroidMax = centroidBounds.getMaxPoint().get(splitAxis);
+
+        int mid;
+        if (centroidMax == centroidMin)
+        {
+            // all treelet centroids coincide on every axis; split evenly
+            mid = start + numNodes / 2;
+        }
+        else
+        {
+            SurfaceAreaHeuristicBuckets buckets = new SurfaceAreaHeuristicBuckets(centroidMin, centroidMax);
+            for (int i = start; i < end; i++)
+            {
+                buckets.add(centroid(treeletRoots[i].bounds).get(splitAxis), treeletRoots[i].bounds);
+            }
+            double[] splitCosts = buckets.getSplitCosts(TRAVERSAL_COST, bounds.surfaceArea());
+            int minCostSplitBucket = SurfaceAreaHeuristicBuckets.getMinCostSplitBucket(splitCosts);
+
+            // split nodes at selected SAH bucket
+            mid = start;
+            for (int i = start; i < end; i++)
+            {
+                if (buckets.getBucket(centroid(treeletRoots[i].bounds).get(splitAxis)) <= minCostSplitBucket)
+                {
+                    BuildNode temp = treeletRoots[mid];
+                    treeletRoots[mid] = treeletRoots[i];
+                    treeletRoots[i] = temp;
+                    mid++;
+                }
+            }
+            if (mid == start || mid == end)
+            {
+                mid = start + numNodes / 2;
+            }
+        }
+
+        var left = buildUpperSurfaceAreaHeuristic(treeletRoots, start, mid);
+        var right = buildUpperSurfaceAreaHeuristic(treeletRoots, mid, end);
+        BuildNode node = new BuildNode();
+        node.initInterior(splitAxis, left.getFirst(), right.getFirst());
+        return new Pair<>(node, left.getSecond() + right.getSecond() + 1);
+    }
+
+    private static Point3 centroid(BoundingBox3 bounds)
+    {
+        return bounds.getMinPoint().times(0.5).plus(bounds.getMaxPoint().times(0.5));
+    }
+
+    /**
+     * 30-bit Morton code of a point, quantized to a 1024^3 grid over the given bounds. Points
+     * outside the bounds are clamped to them.
+     */
+    public static int encodeMorton3(BoundingBox3 centroidBounds, Point3 centroid)
+    {
+        int code = 0;
+        for (int axis = 0; axis < 3; axis++)
+        {
+            double min = centroidBounds.getMinPoint().get(axis);
+            double extent = centroidBounds.getMaxPoint().get(axis) - min;
+            double offset = extent > 0 ? (centroid.get(axis) - min) / extent : 0;
+            int quantized = Math.max(0, Math.min((int) (offset * MORTON_SCALE), MORTON_SCALE - 1));
+            code |= leftShift3(quantized) << axis;
+        }
+        return code;
+    }
+
+    /**
+     * Spread the low 10 bits of x out so that there are two zero bits between each of them.
+     */
+    static int leftShift3(int x)
+    {
+        if (x == (1 << 10))
+        {
+            --x;
+        }
+        x = (x | (x << 16)) & 0b00000011000000000000000011111111;
+        x = (x | (x <<  8)) & 0b00000011000000001111000000001111;
+        x = (x | (x <<  4)) & 0b00000011000011000011000011000011;
+        x = (x | (x <<  2)) & 0b00001001001001001001001001001001;
+        return x;
+    }
+
+    /**
+     * Stable LSD radix sort of the 30-bit Morton codes, permuting values alongside them. Each pass
+     * histograms and scatters independent chunks of the input in parallel.
+     */
+    static void radixSort(int[] keys, int[] values)
+    {
+        int n = keys.length;
+        int numChunks = Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism() * 4,
+                                             n / RADIX_MIN_CHUNK_SIZE));
+        int chunkSize = (n + numChunks - 1) / numChunks;
+
+        int[] keysIn = keys;
+        int[] valuesIn = values;
+        int[] keysOut = new int[n];
+        int[] valuesOut = new int[n];
+        int[][] chunkOffsets = new int[numChunks][RADIX_NUM_BUCKETS];
+
+        for (int lowBit = 0; lowBit < 3 * MORTON_BITS; lowBit += RADIX_BITS_PER_PASS)
+        {
+            final int shift = lowBit;
+            final int[] passKeysIn = keysIn;
+            final int[] passValuesIn = valuesIn;
+            final int[] passKeysOut = keysOut;
+            final int[] passValuesOut = valuesOut;
+
+            // count number of zero bits in array for current radix sort bit, per chunk
+            IntStream.range(0, numChunks).parallel().forEach(c ->
+            {
+                int[] counts = chunkOffsets[c];
+                Arrays.fill(counts, 0);
+                for (int i = c * chunkSize; i < Math.min(n, (c + 1) * chunkSize); i++)
+                {
+                    counts[(passKeysIn[i] >>> shift) & (RADIX_NUM_BUCKETS - 1)]++;
+                }
+            });
+
+            // convert counts to starting offsets; chunks within a bucket stay in input order
+            int offset = 0;
+            for (int b = 0; b < RADIX_NUM_BUCKETS; b++)
+            {
+                for (int c = 0; c < numChunks; c++)
+                {
+                    int count = chunkOffsets[c][b];
+                    chunkOffsets[c][b] = offset;
+                    offset += count;
+                }
+            }
+
+            // store sorted values in output array
+            IntStream.range(0, numChunks).parallel().forEach(c ->
+            {
+                int[] offsets = chunkOffsets[c];
+                for (int i = c * chunkSize; i < Math.min(n, (c + 1) * chunkSize); i++)
+                {
+                    int bucket = (passKeysIn[i] >>> shift) & (RADIX_NUM_BUCKETS - 1);
+                    int out = offsets[bucket]++;
+                    passKeysOut[out] = passKeysIn[i];
+                    passValuesOut[out] = passValuesIn[i];
+                }
+            });
+
+            keysOut = keysIn;
+            valuesOut = valuesIn;
+            keysIn = passKeysOut;
+            valuesIn = passValuesOut;
+        }
+
+        // copy final result from the last pass's output into the caller's arrays
+        if (keysIn != keys)
+        {
+            System.arraycopy(keysIn, 0, keys, 0, n);
+            System.arraycopy(valuesIn, 0, values, 0, n);
+        }
+    }
+}
@@ -10,7 +10,7 @@ import core.tuple.Pair;
 import scene.primitives.Primitive;
 import scene.primitives.accelerator.bvh.PrimitiveInfo;
 
-public class MiddleTreeBuilder extends TreeBuilder
+public class MiddleTreeBuilder extends RecursiveTreeBuilder
 {
     private static final Logger logger = Logger.getLogger(MiddleTreeBuilder.class.getName());
 
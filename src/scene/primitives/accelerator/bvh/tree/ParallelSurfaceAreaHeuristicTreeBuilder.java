@@ -0,0 +1,256 @@
+package scene.primitives.accelerator.bvh.tree;
+
+import static scene.primitives.accelerator.bvh.tree.BoundsArrays.*;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.logging.Logger;
+
+import core.space.Axis;
+import core.space.BoundingBox3;
+import core.tuple.Pair;
+import scene.primitives.Primitive;
+import scene.primitives.accelerator.bvh.LinearTree;
+import scene.primitives.accelerator.bvh.PrimitiveInfo;
+
+/**
+ * Surface area heuristic builder that builds the left and right subtrees of large nodes as
+ * fork-join tasks.
+ *
+ * Rather than splitting lists of PrimitiveInfos, the builder partitions a single array of
+ * primitive indices in place. Every node owns a contiguous range of that array, and a leaf's
+ * primitives are exactly its range, so subtrees never share output and the resulting tree is the
+ * same regardless of how tasks were scheduled.
+ */
+public class ParallelSurfaceAreaHeuristicTreeBuilder extends TreeBuilder
+{
+    private static final Logger logger = Logger.getLogger(ParallelSurfaceAreaHeuristicTreeBuilder.class.getName());
+
+    // Relative cost of intersection (i.e. not splitting) for deciding whether to partition or create a leaf.
+    private static final double INTERSECTION_COST = 1;
+
+    // Relative cost of traversal (i.e. splitting) for deciding whether to partition or create a leaf.
+    private static final double TRAVERSAL_COST = 1;
+
+    // Below this many primitives bucketing is not worth it; split at the median centroid instead.
+    private static final int FALLBACK_SIZE = 2;
+
+    // Subtrees with fewer primitives than this are built on the current thread.
+    private static final int PARALLEL_THRESHOLD = 4096;
+
+    // Per-primitive bounds (minX, minY, minZ, maxX, maxY, maxZ) and centroids (x, y, z), indexed
+    // by primitive number.
+    private double[] primitiveBounds;
+    private double[] centroids;
+    // Primitive numbers; partitioned in place as the tree is built.
+    private int[] indices;
+
+    public ParallelSurfaceAreaHeuristicTreeBuilder(List<Primitive> unorderedPrimitives,
+            int maxPrimitivesPerNode)
+    {
+        super(unorderedPrimitives, maxPrimitivesPerNode);
+    }
+
+    /**
+     * Create a builder that is only used through {@link #build(double[], double[], int[])}, for
+     * callers that describe their primitives with flat arrays rather than Primitive objects.
+     */
+    public ParallelSurfaceAreaHeuristicTreeBuilder(int maxPrimitivesPerNode)
+    {
+        this(null, maxPrimitivesPerNode);
+    }
+
+    @Override
+    public LinearTree build(List<PrimitiveInfo> primitiveInfos, List<Primitive> orderedPrimitives)
+    {
+        int numPrimitives = primitiveInfos.size();
+        double[] primitiveBounds = new double[6 * numPrimitives];
+        double[] centroids = new double[3 * numPrimitives];
+        int[] indices = new int[numPrimitives];
+        for (PrimitiveInfo primitiveInfo : primitiveInfos)
+        {
+            int p = primitiveInfo.getPrimitiveNumber();
+            BoundingBox3 b = primitiveInfo.getBounds();
+            for (int axis = 0; axis < 3; axis++)
+            {
+                primitiveBounds[6 * p + axis] = b.getMinPoint().get(axis);
+                primitiveBounds[6 * p + 3 + axis] = b.getMaxPoint().get(axis);
+                centroids[3 * p + axis] = primitiveInfo.getCentroid().get(axis);
+            }
+        }
+        for (int i = 0; i < numPrimitives; i++)
+        {
+            indices[i] = primitiveInfos.get(i).getPrimitiveNumber();
+        }
+
+        LinearTree tree = build(primitiveBounds, centroids, indices);
+
+        for (int i = 0; i < numPrimitives; i++)
+        {
+            orderedPrimitives.add(unorderedPrimitives.get(indices[i]));
+        }
+        return tree;
+    }
+
+    /**
+     * Build a tree over primitives described only by their bounds (six values per primitive) and
+     * centroids (three values per primitive). On return indices has been permuted so that the
+     * tree's leaves refer to positions in it.
+     */
+    public LinearTree build(double[] primitiveBounds, double[] centroids, int[] indices)
+    {
+        this.primitiveBounds = primitiveBounds;
+        this.centroids = centroids;
+        this.indices = indices;
+
+        var buildTree = ForkJoinPool.commonPool().invoke(new BuildTask(0, indices.length));
+        logger.fine("Built " + buildTree.getSecond() + " nodes on " +
+                    ForkJoinPool.getCommonPoolParallelism() + " threads.");
+
+        this.primitiveBounds = null;
+        this.centroids = null;
+        this.indices = null;
+
+        return linearize(buildTree.getFirst(), buildTree.getSecond());
+    }
+
+    /**
+     * Builds the subtree over indices[start, end).
+     *
+     * @return the subtree root and the number of nodes in the subtree.
+     */
+    private Pair<BuildNode, Integer> recursiveBuild(int start, int end)
+    {
+        BuildNode node = new BuildNode();
+        int numPrimitives = end - start;
+
+        // compute bounds of all primitives and of their centroids
+        double[] bounds = emptyBounds();
+        double[] centroidBounds = emptyBounds();
+        for (int i = start; i < end; i++)
+        {
+            int p = indices[i];
+            for (int axis = 0; axis < 3; axis++)
+            {
+                bounds[axis] = Math.min(bounds[axis], primitiveBounds[6 * p + axis]);
+                bounds[3 + axis] = Math.max(bounds[3 + axis], primitiveBounds[6 * p + 3 + axis]);
+                centroidBounds[axis] = Math.min(centroidBounds[axis], centroids[3 * p + axis]);
+                centroidBounds[3 + axis] = Math.max(centroidBounds[3 + axis], centroids[3 * p + axis]);
+            }
+        }
+
+        if (numPrimitives == 1)
+        {
+            node.initLeaf(start, numPrimitives, toBoundingBox(bounds));
+            return new Pair<>(node, 1);
+        }
+
+        int axis = maximumExtent(centroidBounds);
+        double centroidMin = centroidBounds[axis];
+        double centroidMax = centroidBounds[3 + axis];
+        if (centroidMax == centroidMin)
+        {
+            // handle degenerate case
+            node.initLeaf(start, numPrimitives, toBoundingBox(bounds));
+            return new Pair<>(node, 1);
+        }
+
+        int mid;
+        if (numPrimitives <= FALLBACK_SIZE)
+        {
+            mid = start + numPrimitives / 2;
+            if (centroids[3 * indices[start] + axis] > centroids[3 * indices[start + 1] + axis])
+            {
+                swap(start, start + 1);
+            }
+        }
+        else
+        {
+            SurfaceAreaHeuristicBuckets buckets = new SurfaceAreaHeuristicBuckets(centroidMin, centroidMax);
+            for (int i = start; i < end; i++)
+            {
+                int p = indices[i];
+                buckets.add(centroids[3 * p + axis], primitiveBounds, 6 * p);
+            }
+            double[] splitCosts = buckets.getSplitCosts(TRAVERSAL_COST, surfaceArea(bounds));
+            int minCostSplitBucket = SurfaceAreaHeuristicBuckets.getMinCostSplitBucket(splitCosts);
+            double minSplitCost = splitCosts[minCostSplitBucket];
+
+            // create leaf or split
+            double createLeafCost = INTERSECTION_COST * numPrimitives;
+            if (numPrimitives <= maxPrimitivesPerNode && minSplitCost >= createLeafCost)
+            {
+                node.initLeaf(start, numPrimitives, toBoundingBox(bounds));
+                return new Pair<>(node, 1);
+            }
+
+            mid = start;
+            for (int i = start; i < end; i++)
+            {
+                if (buckets.getBucket(centroids[3 * indices[i] + axis]) <= minCostSplitBucket)
+                {
+                    swap(i, mid++);
+                }
+            }
+        }
+
+        Pair<BuildNode, Integer> left;
+        Pair<BuildNode, Integer> right;
+        if (numPrimitives >= PARALLEL_THRESHOLD)
+        {
+            BuildTask leftTask = new BuildTask(start, mid);
+            leftTask.fork();
+            right = recursiveBuild(mid, end);
+            left = leftTask.join();
+        }
+        else
+        {
+            left = recursiveBuild(start, mid);
+            right = recursiveBuild(mid, end);
+        }
+
+        node.initInterior(Axis.values()[axis], left.getFirst(), right.getFirst());
+        return new Pair<>(node, left.getSecond() + right.getSecond() + 1);
+    }
+
+    private void swap(int i, int j)
+    {
+        int temp = indices[i];
+        indices[i] = indices[j];
+        indices[j] = temp;
+    }
+
+    private static int maximumExtent(double[] bounds)
+    {
+        double x = bounds[3] - bounds[0];
+        double y = bounds[4] - bounds[1];
+        double z = bounds[5] - bounds[2];
+        if (x > y && x > z)
+            return 0;
+        else if (y > z)
+            return 1;
+        else
+            return 2;
+    }
+
+    private class BuildTask extends RecursiveTask<Pair<BuildNode, Integer>>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final int start;
+        private final int end;
+
+        BuildTask(int start, int end)
+        {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected Pair<BuildNode, Integer> compute()
+        {
+            return recursiveBuild(start, end);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package scene.primitives.accelerator.bvh.tree;
+
+import java.util.List;
+
+import core.space.Axis;
+import core.space.BoundingBox3;
+import core.tuple.Pair;
+import scene.primitives.Primitive;
+import scene.primitives.accelerator.bvh.LinearTree;
+import scene.primitives.accelerator.bvh.PrimitiveInfo;
+
+/**
+ * Builds a tree top-down, splitting lists of PrimitiveInfos in two with a split method given by
+ * {@link #partition} until they are small enough to be leaves.
+ */
+public abstract class RecursiveTreeBuilder extends TreeBuilder
+{
+    protected RecursiveTreeBuilder(List<Primitive> unorderedPrimitives)
+    {
+        super(unorderedPrimitives);
+    }
+    
+    protected RecursiveTreeBuilder(List<Primitive> unorderedPrimitives, int maxPrimitivesPerNode)
+    {
+        super(unorderedPrimitives, maxPrimitivesPerNode);
+    }
+    
+    @Override
+    public LinearTree build(List<PrimitiveInfo> primitiveInfos, List<Primitive> orderedPrimitives)
+    {
+        var buildTree = recursiveBuild(primitiveInfos, 0, orderedPrimitives);
+        return linearize(buildTree.getFirst(), buildTree.getSecond());
+    }
+    
+    protected Pair<BuildNode, Integer> recursiveBuild(List<PrimitiveInfo> primitiveInfos,
+            int numTotalNodes, List<Primitive> orderedPrimitives)
+    {
+        BuildNode node = new BuildNode();
+        int totalNodes = numTotalNodes + 1;
+        
+        // compute bounds of all primitives in node
+        BoundingBox3 bounds = new BoundingBox3();
+        for (PrimitiveInfo primitiveInfo : primitiveInfos)
+        {
+            bounds = bounds.union(primitiveInfo.getBounds());
+        }
+        
+        if (primitiveInfos.size() == 1)
+        {
+            initLeaf(node, primitiveInfos, orderedPrimitives, bounds);
+            return new Pair<>(node, totalNodes);
+        }
+        else
+        {
+            // compute bound of centroids and choose split dimension
+            BoundingBox3 centroidBounds = new BoundingBox3();
+            for (PrimitiveInfo primitiveInfo : primitiveInfos)
+            {
+                centroidBounds = centroidBounds.union(primitiveInfo.getCentroid());
+            }
+            Axis splitAxis = centroidBounds.maximumExtent();
+            
+            if (centroidBounds.getMaxPoint().get(splitAxis) ==
+                centroidBounds.getMinPoint().get(splitAxis))
+            {
+                // handle degenerate case
+                initLeaf(node, primitiveInfos, orderedPrimitives, bounds);
+                return new Pair<>(node, totalNodes);
+            }
+            else
+            {
+                // partition primitives based on split method
+                var partition = partition(node,
+                                          splitAxis,
+                                          primitiveInfos,
+                                          orderedPrimitives,
+                                          centroidBounds,
+                                          bounds);
+                if (partition == null)
+                {
+                    return new Pair<>(node, totalNodes);
+                }
+                else
+                {
+                    List<PrimitiveInfo> leftPartition = partition.getFirst();
+                    List<PrimitiveInfo> rightPartition = partition.getSecond();
+                    
+                    var left = recursiveBuild(leftPartition, totalNodes, orderedPrimitives);
+                    BuildNode leftChild = left.getFirst();
+                    totalNodes = left.getSecond();
+                    
+                    var right = recursiveBuild(rightPartition, totalNodes, orderedPrimitives);
+                    BuildNode rightChild = right.getFirst();
+                    totalNodes = right.getSecond();
+                    
+                    node.initInterior(splitAxis, leftChild, rightChild);
+                }
+            }
+        }
+        return new Pair<>(node, totalNodes);
+    }
+    
+    /**
+     * Partition the provided list of primitiveInfos and return the two partitioned sublists, or
+     * return null if a leaf was created instead.
+     */
+    protected abstract Pair<List<PrimitiveInfo>, List<PrimitiveInfo>> partition(BuildNode node,
+            Axis splitAxis, List<PrimitiveInfo> primitiveInfos, List<Primitive> orderedPrimitives,
+            BoundingBox3 centroidBounds, BoundingBox3 primitiveBounds);
+    
+    protected void initLeaf(BuildNode node, List<PrimitiveInfo> primitiveInfos,
+            List<Primitive> orderedPrimitives, BoundingBox3 bounds)
+    {
+        int firstPrimitiveOffset = orderedPrimitives.size();
+        for (PrimitiveInfo primitiveInfo : primitiveInfos)
+        {
+            int primitiveNumber = primitiveInfo.getPrimitiveNumber();
+            orderedPrimitives.add(unorderedPrimitives.get(primitiveNumber));
+        }
+        node.initLeaf(firstPrimitiveOffset, primitiveInfos.size(), bounds);
+    }
+}
@@ -0,0 +1,495 @@
+package scene.primitives.accelerator.bvh.tree;
+
+import static scene.primitives.accelerator.bvh.tree.BoundsArrays.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import core.math.Point3;
+import core.space.Axis;
+import core.space.BoundingBox3;
+import core.tuple.Pair;
+import scene.geometry.Shape;
+import scene.geometry.impl.IndexedTriangle;
+import scene.geometry.impl.Triangle;
+import scene.primitives.Primitive;
+import scene.primitives.accelerator.bvh.LinearTree;
+import scene.primitives.accelerator.bvh.PrimitiveInfo;
+
+/**
+ * Split BVH builder (Stich et al., "Spatial Splits in Bounding Volume Hierarchies"). Besides the
+ * usual SAH object splits, each node also considers splitting space with an axis-aligned plane,
+ * in which case primitives straddling the plane are referenced from both children, each with the
+ * bounds of its part on that side. This removes most of the node overlap caused by large
+ * primitives, at the cost of some duplicated references.
+ *
+ * Triangles are clipped exactly against split planes; other primitives are represented by their
+ * bounding boxes, which are clipped instead.
+ */
+public class SpatialSplitTreeBuilder extends TreeBuilder
+{
+    private static final Logger logger = Logger.getLogger(SpatialSplitTreeBuilder.class.getName());
+
+    // Extra references allowed by default, as a fraction of the number of primitives.
+    public static final double DEFAULT_SPLIT_BUDGET = 0.3;
+
+    private static final int NUM_SPATIAL_BINS = 16;
+
+    // Relative cost of intersection (i.e. not splitting) for deciding whether to partition or create a leaf.
+    private static final double INTERSECTION_COST = 1;
+
+    // Relative cost of traversal (i.e. splitting) for deciding whether to partition or create a leaf.
+    private static final double TRAVERSAL_COST = 1;
+
+    // Spatial splits are only tried when the children of the best object split overlap by more
+    // than this fraction of the root's surface area.
+    private static final double OVERLAP_THRESHOLD = 1e-5;
+
+    private final double splitBudget;
+    private int remainingSplits;
+    private double rootArea;
+    private List<Primitive> orderedPrimitives;
+
+    public SpatialSplitTreeBuilder(List<Primitive> unorderedPrimitives, int maxPrimitivesPerNode)
+    {
+        this(unorderedPrimitives, maxPrimitivesPerNode, DEFAULT_SPLIT_BUDGET);
+    }
+
+    /**
+     * @param splitBudget
+     *            the number of references that spatial splits may add, as a fraction of the
+     *            number of primitives. 0 disables spatial splits.
+     */
+    public SpatialSplitTreeBuilder(List<Primitive> unorderedPrimitives, int maxPrimitivesPerNode,
+            double splitBudget)
+    {
+        super(unorderedPrimitives, Math.max(1, maxPrimitivesPerNode));
+        this.splitBudget = splitBudget;
+    }
+
+    @Override
+    public LinearTree build(List<PrimitiveInfo> primitiveInfos, List<Primitive> orderedPrimitives)
+    {
+        List<Reference> references = new ArrayList<>(primitiveInfos.size());
+        for (PrimitiveInfo primitiveInfo : primitiveInfos)
+        {
+            references.add(new Reference(primitiveInfo.getPrimitiveNumber(),
+                                         toArray(primitiveInfo.getBounds())));
+        }
+        remainingSplits = (int) (splitBudget * primitiveInfos.size());
+        rootArea = surfaceArea(unionOf(references));
+        this.orderedPrimitives = orderedPrimitives;
+
+        var buildTree = recursiveBuild(references);
+        logger.fine("Built " + buildTree.getSecond() + " nodes with " + orderedPrimitives.size() +
+                    " references to " + primitiveInfos.size() + " primitives.");
+
+        this.orderedPrimitives = null;
+        return linearize(buildTree.getFirst(), buildTree.getSecond());
+    }
+
+    private Pair<BuildNode, Integer> recursiveBuild(List<Reference> references)
+    {
+        BuildNode node = new BuildNode();
+        double[] bounds = unionOf(references);
+        int numReferences = references.size();
+        double nodeArea = surfaceArea(bounds);
+        double leafCost = INTERSECTION_COST * numReferences;
+
+        if (numReferences == 1)
+        {
+            return createLeaf(node, references, bounds);
+        }
+
+        ObjectSplit objectSplit = findObjectSplit(references, nodeArea);
+        SpatialSplit spatialSplit = null;
+        if (remainingSplits > 0 && objectSplit != null && nodeArea > 0 &&
+            objectSplit.overlapArea / rootArea > OVERLAP_THRESHOLD)
+        {
+            spatialSplit = findSpatialSplit(references, bounds, nodeArea);
+        }
+
+        double objectCost = objectSplit == null ? Double.POSITIVE_INFINITY : objectSplit.cost;
+        double spatialCost = spatialSplit == null ? Double.POSITIVE_INFINITY : spatialSplit.cost;
+        if (numReferences <= maxPrimitivesPerNode && leafCost <= Math.min(objectCost, spatialCost))
+        {
+            return createLeaf(node, references, bounds);
+        }
+
+        List<Reference> left = new ArrayList<>();
+        List<Reference> right = new ArrayList<>();
+        int axis;
+        if (spatialCost < objectCost)
+        {
+            axis = spatialSplit.axis;
+            performSpatialSplit(references, spatialSplit, left, right);
+        }
+        else if (objectSplit != null)
+        {
+            axis = objectSplit.axis;
+            for (Reference reference : references)
+            {
+                (objectSplit.isLeft(reference) ? left : right).add(reference);
+            }
+        }
+        else
+        {
+            // all centroids coincide; split the list in half so that leaves stay small
+            axis = 0;
+            left.addAll(references.subList(0, numReferences / 2));
+            right.addAll(references.subList(numReferences / 2, numReferences));
+        }
+
+        if (left.isEmpty() || right.isEmpty())
+        {
+            if (numReferences <= maxPrimitivesPerNode)
+            {
+                return createLeaf(node, references, bounds);
+            }
+            left = new ArrayList<>(references.subList(0, numReferences / 2));
+            right = new ArrayList<>(references.subList(numReferences / 2, numReferences));
+        }
+
+        var leftChild = recursiveBuild(left);
+        var rightChild = recursiveBuild(right);
+        node.initInterior(Axis.values()[axis], leftChild.getFirst(), rightChild.getFirst());
+        return new Pair<>(node, leftChild.getSecond() + rightChild.getSecond() + 1);
+    }
+
+    private Pair<BuildNode, Integer> createLeaf(BuildNode node, List<Reference> references,
+            double[] bounds)
+    {
+        int firstPrimitiveOffset = orderedPrimitives.size();
+        for (Reference reference : references)
+        {
+            orderedPrimitives.add(unorderedPrimitives.get(reference.primitiveNumber));
+        }
+        node.initLeaf(firstPrimitiveOffset, references.size(), toBoundingBox(bounds));
+        return new Pair<>(node, 1);
+    }
+
+    /**
+     * Find the cheapest SAH object split over centroid buckets on any axis.
+     *
+     * @return the split, or null if the centroids of all references coincide.
+     */
+    private ObjectSplit findObjectSplit(List<Reference> references, double nodeArea)
+    {
+        double[] centroidBounds = emptyBounds();
+        for (Reference reference : references)
+        {
+            for (int axis = 0; axis < 3; axis++)
+            {
+                double c = reference.centroid(axis);
+                centroidBounds[axis] = Math.min(centroidBounds[axis], c);
+                centroidBounds[3 + axis] = Math.max(centroidBounds[3 + axis], c);
+            }
+        }
+
+        ObjectSplit best = null;
+        for (int axis = 0; axis < 3; axis++)
+        {
+            double min = centroidBounds[axis];
+            double max = centroidBounds[3 + axis];
+            if (max == min)
+            {
+                continue;
+            }
+
+            SurfaceAreaHeuristicBuckets buckets = new SurfaceAreaHeuristicBuckets(min, max);
+            for (Reference reference : references)
+            {
+                buckets.add(reference.centroid(axis), reference.bounds, 0);
+            }
+            double[] splitCosts = buckets.getSplitCosts(TRAVERSAL_COST, nodeArea);
+            int split = SurfaceAreaHeuristicBuckets.getMinCostSplitBucket(splitCosts);
+            if (best == null || splitCosts[split] < best.cost)
+            {
+                best = new ObjectSplit(axis, split, buckets, splitCosts[split]);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Find the cheapest split of the node's bounds by a plane on a bin boundary, where every
+     * reference is counted on each side it overlaps.
+     */
+    private SpatialSplit findSpatialSplit(List<Reference> references, double[] bounds,
+            double nodeArea)
+    {
+        SpatialSplit best = null;
+        for (int axis = 0; axis < 3; axis++)
+        {
+            double min = bounds[axis];
+            double extent = bounds[3 + axis] - min;
+            if (extent <= 0)
+            {
+                continue;
+            }
+            double binWidth = extent / NUM_SPATIAL_BINS;
+
+            int[] entries = new int[NUM_SPATIAL_BINS];
+            int[] exits = new int[NUM_SPATIAL_BINS];
+            double[][] binBounds = new double[NUM_SPATIAL_BINS][];
+            for (int b = 0; b < NUM_SPATIAL_BINS; b++)
+            {
+                binBounds[b] = emptyBounds();
+            }
+
+            for (Reference reference : references)
+            {
+                int firstBin = getSpatialBin(reference.bounds[axis], min, binWidth);
+                int lastBin = getSpatialBin(reference.bounds[3 + axis], min, binWidth);
+                Reference remainder = reference;
+                for (int b = firstBin; b < lastBin; b++)
+                {
+                    var parts = split(remainder, axis, min + (b + 1) * binWidth);
+                    union(binBounds[b], parts.getFirst().bounds);
+                    remainder = parts.getSecond();
+                }
+                union(binBounds[lastBin], remainder.bounds);
+                entries[firstBin]++;
+                exits[lastBin]++;
+            }
+
+            for (int plane = 1; plane < NUM_SPATIAL_BINS; plane++)
+            {
+                double[] b0 = emptyBounds();
+                double[] b1 = emptyBounds();
+                int count0 = 0;
+                int count1 = 0;
+                for (int j = 0; j < plane; j++)
+                {
+                    union(b0, binBounds[j]);
+                    count0 += entries[j];
+                }
+                for (int j = plane; j < NUM_SPATIAL_BINS; j++)
+                {
+                    union(b1, binBounds[j]);
+                    count1 += exits[j];
+                }
+                if (count0 == 0 || count1 == 0)
+                {
+                    continue;
+                }
+                double cost = TRAVERSAL_COST + INTERSECTION_COST *
+                              (count0 * surfaceArea(b0) + count1 * surfaceArea(b1)) / nodeArea;
+                if (best == null || cost < best.cost)
+                {
+                    best = new SpatialSplit(axis, min + plane * binWidth, cost);
+                }
+            }
+        }
+        return best;
+    }
+
+    private void performSpatialSplit(List<Reference> references, SpatialSplit split,
+            List<Reference> left, List<Reference> right)
+    {
+        int axis = split.axis;
+        double[] leftBounds = emptyBounds();
+        double[] rightBounds = emptyBounds();
+        List<Reference> straddling = new ArrayList<>();
+        for (Reference reference : references)
+        {
+            if (reference.bounds[3 + axis] <= split.position)
+            {
+                left.add(reference);
+                union(leftBounds, reference.bounds);
+            }
+            else if (reference.bounds[axis] >= split.position)
+            {
+                right.add(reference);
+                union(rightBounds, reference.bounds);
+            }
+            else
+            {
+                straddling.add(reference);
+            }
+        }
+
+        for (Reference reference : straddling)
+        {
+            // Reference unsplitting: keeping the whole reference on one side can be cheaper than
+            // duplicating it, and always is once the budget has run out.
+            double leftArea = surfaceArea(leftBounds);
+            double rightArea = surfaceArea(rightBounds);
+            double[] leftWithReference = union(leftBounds.clone(), reference.bounds);
+            double[] rightWithReference = union(rightBounds.clone(), reference.bounds);
+            var parts = split(reference, axis, split.position);
+            double[] leftWithPart = union(leftBounds.clone(), parts.getFirst().bounds);
+            double[] rightWithPart = union(rightBounds.clone(), parts.getSecond().bounds);
+
+            double splitCost = surfaceArea(leftWithPart) * (left.size() + 1) +
+                               surfaceArea(rightWithPart) * (right.size() + 1);
+            double leftCost = surfaceArea(leftWithReference) * (left.size() + 1) +
+                              rightArea * right.size();
+            double rightCost = leftArea * left.size() +
+                               surfaceArea(rightWithReference) * (right.size() + 1);
+
+            if (remainingSplits > 0 && splitCost < leftCost && splitCost < rightCost)
+            {
+                left.add(parts.getFirst());
+                right.add(parts.getSecond());
+                leftBounds = leftWithPart;
+                rightBounds = rightWithPart;
+                remainingSplits--;
+            }
+            else if (leftCost <= rightCost)
+            {
+                left.add(reference);
+                leftBounds = leftWithReference;
+            }
+            else
+            {
+                right.add(reference);
+                rightBounds = rightWithReference;
+            }
+        }
+    }
+
+    /**
+     * Split a reference by the plane at the given position on the given axis.
+     *
+     * @return the parts of the reference below and above the plane.
+     */
+    private Pair<Reference, Reference> split(Reference reference, int axis, double position)
+    {
+        double[] leftBounds;
+        double[] rightBounds;
+        Point3[] vertices = getTriangleVertices(unorderedPrimitives.get(reference.primitiveNumber).getShape());
+        if (vertices != null)
+        {
+            // bound the parts of the triangle's edges on either side of the plane
+            leftBounds = emptyBounds();
+            rightBounds = emptyBounds();
+            for (int i = 0; i < 3; i++)
+            {
+                Point3 v0 = vertices[i];
+                Point3 v1 = vertices[(i + 1) % 3];
+                double p0 = v0.get(axis);
+                double p1 = v1.get(axis);
+                if (p0 <= position)
+                {
+                    union(leftBounds, v0);
+                }
+                if (p0 >= position)
+                {
+                    union(rightBounds, v0);
+                }
+                if ((p0 < position && position < p1) || (p1 < position && position < p0))
+                {
+                    double t = (position - p0) / (p1 - p0);
+                    Point3 crossing = v0.plus(v1.minus(v0).times(t));
+                    union(leftBounds, crossing);
+                    union(rightBounds, crossing);
+                }
+            }
+            leftBounds = intersection(leftBounds, reference.bounds);
+            rightBounds = intersection(rightBounds, reference.bounds);
+        }
+        else
+        {
+            leftBounds = reference.bounds.clone();
+            rightBounds = reference.bounds.clone();
+        }
+        leftBounds[3 + axis] = Math.min(leftBounds[3 + axis], position);
+        rightBounds[axis] = Math.max(rightBounds[axis], position);
+        return new Pair<>(new Reference(reference.primitiveNumber, leftBounds),
+                          new Reference(reference.primitiveNumber, rightBounds));
+    }
+
+    private static int getSpatialBin(double position, double min, double binWidth)
+    {
+        int b = (int) ((position - min) / binWidth);
+        return Math.max(0, Math.min(b, NUM_SPATIAL_BINS - 1));
+    }
+
+    /**
+     * @return the world space vertices of a triangle shape, which spatial splits clip exactly, or
+     *         null if the shape is not a triangle.
+     */
+    public static Point3[] getTriangleVertices(Shape shape)
+    {
+        if (shape instanceof Triangle)
+        {
+            Triangle triangle = (Triangle) shape;
+            return new Point3[] { triangle.getVertex(0), triangle.getVertex(1), triangle.getVertex(2) };
+        }
+        if (shape instanceof IndexedTriangle)
+        {
+            IndexedTriangle triangle = (IndexedTriangle) shape;
+            return new Point3[] { triangle.getVertex(0), triangle.getVertex(1), triangle.getVertex(2) };
+        }
+        return null;
+    }
+
+    private static double[] unionOf(List<Reference> references)
+    {
+        double[] bounds = emptyBounds();
+        for (Reference reference : references)
+        {
+            union(bounds, reference.bounds);
+        }
+        return bounds;
+    }
+
+    // A primitive, or the part of it within some bounds.
+    private static class Reference
+    {
+        private final int primitiveNumber;
+        private final double[] bounds;
+
+        Reference(int primitiveNumber, double[] bounds)
+        {
+            this.primitiveNumber = primitiveNumber;
+            this.bounds = bounds;
+        }
+
+        double centroid(int axis)
+        {
+            return 0.5 * (bounds[axis] + bounds[3 + axis]);
+        }
+    }
+
+    private static class ObjectSplit
+    {
+        private final int axis;
+        private final int bucket;
+        private final SurfaceAreaHeuristicBuckets buckets;
+        private final double cost;
+        // surface area of the intersection of the two children's bounds
+        private final double overlapArea;
+
+        ObjectSplit(int axis, int bucket, SurfaceAreaHeuristicBuckets buckets, double cost)
+        {
+            this.axis = axis;
+            this.bucket = bucket;
+            this.buckets = buckets;
+            this.cost = cost;
+            overlapArea = surfaceArea(intersection(buckets.getBounds(0, bucket + 1),
+                                                   buckets.getBounds(bucket + 1, SurfaceAreaHeuristicBuckets.NUM_BUCKETS)));
+        }
+
+        boolean isLeft(Reference reference)
+        {
+            return buckets.getBucket(reference.centroid(axis)) <= bucket;
+        }
+    }
+
+    private static class SpatialSplit
+    {
+        private final int axis;
+        private final double position;
+        private final double cost;
+
+        SpatialSplit(int axis, double position, double cost)
+        {
+            this.axis = axis;
+            this.position = position;
+            this.cost = cost;
+        }
+    }
+}
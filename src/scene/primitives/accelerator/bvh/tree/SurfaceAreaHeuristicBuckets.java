@@ -0,0 +1,117 @@
+package scene.primitives.accelerator.bvh.tree;
+
+import static scene.primitives.accelerator.bvh.tree.BoundsArrays.*;
+
+import core.space.BoundingBox3;
+
+/**
+ * Buckets for choosing a surface area heuristic split (pbrt section 4.3.2). Primitives are
+ * binned by their centroid along the split axis, and the split after each bucket is costed by the
+ * surface areas and primitive counts on either side of it.
+ */
+class SurfaceAreaHeuristicBuckets
+{
+    static final int NUM_BUCKETS = 12;
+
+    private final double centroidMin;
+    private final double centroidMax;
+    private final int[] counts = new int[NUM_BUCKETS];
+    // (minX, minY, minZ, maxX, maxY, maxZ) of each bucket
+    private final double[] bounds = new double[6 * NUM_BUCKETS];
+
+    /**
+     * @param centroidMin
+     *            the smallest centroid along the split axis
+     * @param centroidMax
+     *            the largest centroid along the split axis, which must exceed centroidMin
+     */
+    SurfaceAreaHeuristicBuckets(double centroidMin, double centroidMax)
+    {
+        this.centroidMin = centroidMin;
+        this.centroidMax = centroidMax;
+        for (int b = 0; b < NUM_BUCKETS; b++)
+        {
+            setEmpty(bounds, 6 * b);
+        }
+    }
+
+    int getBucket(double centroid)
+    {
+        int b = (int) (NUM_BUCKETS * ((centroid - centroidMin) / (centroidMax - centroidMin)));
+        return Math.min(b, NUM_BUCKETS - 1);
+    }
+
+    /**
+     * Add a primitive whose bounds are the six values of primitiveBounds from offset on.
+     */
+    void add(double centroid, double[] primitiveBounds, int offset)
+    {
+        int b = getBucket(centroid);
+        counts[b]++;
+        union(bounds, 6 * b, primitiveBounds, offset);
+    }
+
+    void add(double centroid, BoundingBox3 primitiveBounds)
+    {
+        int b = getBucket(centroid);
+        counts[b]++;
+        for (int axis = 0; axis < 3; axis++)
+        {
+            bounds[6 * b + axis] = Math.min(bounds[6 * b + axis], primitiveBounds.getMinPoint().get(axis));
+            bounds[6 * b + 3 + axis] = Math.max(bounds[6 * b + 3 + axis], primitiveBounds.getMaxPoint().get(axis));
+        }
+    }
+
+    /**
+     * @return the cost of splitting after each bucket but the last, relative to the cost of
+     *         intersecting one primitive.
+     */
+    double[] getSplitCosts(double traversalCost, double nodeArea)
+    {
+        // sweep from the right to get the area and count above each split, then from the left
+        double[] costs = new double[NUM_BUCKETS - 1];
+        double[] sweep = emptyBounds();
+        int count = 0;
+        for (int i = NUM_BUCKETS - 1; i > 0; i--)
+        {
+            union(sweep, 0, bounds, 6 * i);
+            count += counts[i];
+            costs[i - 1] = count * surfaceArea(sweep);
+        }
+        setEmpty(sweep, 0);
+        count = 0;
+        for (int i = 0; i < NUM_BUCKETS - 1; i++)
+        {
+            union(sweep, 0, bounds, 6 * i);
+            count += counts[i];
+            costs[i] = traversalCost + (costs[i] + count * surfaceArea(sweep)) / nodeArea;
+        }
+        return costs;
+    }
+
+    /**
+     * @return the union of the bounds of buckets [firstBucket, endBucket).
+     */
+    double[] getBounds(int firstBucket, int endBucket)
+    {
+        double[] union = emptyBounds();
+        for (int b = firstBucket; b < endBucket; b++)
+        {
+            union(union, 0, bounds, 6 * b);
+        }
+        return union;
+    }
+
+    static int getMinCostSplitBucket(double[] splitCosts)
+    {
+        int minCostSplitBucket = 0;
+        for (int i = 1; i < splitCosts.length; i++)
+        {
+            if (splitCosts[i] < splitCosts[minCostSplitBucket])
+            {
+                minCostSplitBucket = i;
+            }
+        }
+        return minCostSplitBucket;
+    }
+}
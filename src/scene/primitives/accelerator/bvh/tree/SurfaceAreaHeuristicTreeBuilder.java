@@ -10,12 +10,10 @@ import core.tuple.Pair;
 import scene.primitives.Primitive;
 import scene.primitives.accelerator.bvh.PrimitiveInfo;
 
-public class SurfaceAreaHeuristicTreeBuilder extends TreeBuilder
+public class SurfaceAreaHeuristicTreeBuilder extends RecursiveTreeBuilder
 {
     private static final Logger logger = Logger.getLogger(SurfaceAreaHeuristicTreeBuilder.class.getName());
 
-    private static final int NUM_BUCKETS = 12;
-    
     // Relative cost of intersection (i.e. not splitting) for deciding whether to partition or create a leaf.
     private static final double INTERSECTION_COST = 1;
     
@@ -44,39 +42,28 @@ public class SurfaceAreaHeuristicTreeBuilder extends TreeBuilder
         }
         else
         {
-            BucketInfo[] buckets = initializeBuckets(primitiveInfos, splitAxis, centroidBounds);
-
-            double[] splitCosts = estimateBucketSplitCosts(buckets, primitiveBounds);
-
-            // find bucket split that minimizes cost
-            double minSplitCost = splitCosts[0];
-            int minCostSplitBucket = 0;
-            for (int i = 1; i < splitCosts.length; i++)
+            double centroidMin = centroidBounds.getMinPoint().get(splitAxis);
+            double centroidMax = centroidBounds.getMaxPoint().get(splitAxis);
+            SurfaceAreaHeuristicBuckets buckets = new SurfaceAreaHeuristicBuckets(centroidMin, centroidMax);
+            for (PrimitiveInfo primitiveInfo : primitiveInfos)
             {
-                if (splitCosts[i] < minSplitCost)
-                {
-                    minSplitCost = splitCosts[i];
-                    minCostSplitBucket = i;
-                }
+                buckets.add(primitiveInfo.getCentroid().get(splitAxis), primitiveInfo.getBounds());
             }
+            double[] splitCosts = buckets.getSplitCosts(TRAVERSAL_COST, primitiveBounds.surfaceArea());
+
+            // find bucket split that minimizes cost
+            int minCostSplitBucket = SurfaceAreaHeuristicBuckets.getMinCostSplitBucket(splitCosts);
+            double minSplitCost = splitCosts[minCostSplitBucket];
 
             // create leaf or split
             double createLeafCost = INTERSECTION_COST * primitiveInfos.size();
             if (primitiveInfos.size() > maxPrimitivesPerNode || minSplitCost < createLeafCost)
             {
-                final BoundingBox3 finalCentroidBounds = new BoundingBox3(centroidBounds);
-                final int finalSplitBucket = minCostSplitBucket;
                 var splitPrimitiveInfos = primitiveInfos.stream()
                                                         .collect(Collectors.partitioningBy(pi ->
                                                         {
-                                                            int b = (int) (NUM_BUCKETS *
-                                                                           finalCentroidBounds.offset(pi.getCentroid())
-                                                                                              .get(splitAxis));
-                                                            if (b == NUM_BUCKETS)
-                                                            {
-                                                                b = NUM_BUCKETS - 1;
-                                                            }
-                                                            return b <= finalSplitBucket;
+                                                            double centroid = pi.getCentroid().get(splitAxis);
+                                                            return buckets.getBucket(centroid) <= minCostSplitBucket;
                                                         }));
                 List<PrimitiveInfo> leftPartition = splitPrimitiveInfos.get(false);
                 List<PrimitiveInfo> rightPartition = splitPrimitiveInfos.get(true);
@@ -92,62 +79,4 @@ public class SurfaceAreaHeuristicTreeBuilder extends TreeBuilder
             }
         }
     }
-    
-    private BucketInfo[] initializeBuckets(List<PrimitiveInfo> primitiveInfos, Axis splitAxis, BoundingBox3 centroidBounds)
-    {
-        BucketInfo[] buckets = new BucketInfo[NUM_BUCKETS];
-
-        // initialize BucketInfos
-        for (int i = 0; i < NUM_BUCKETS; i++)
-        {
-            buckets[i] = new BucketInfo();
-        }
-        
-        for (PrimitiveInfo primitiveInfo : primitiveInfos)
-        {
-            int b = (int) (NUM_BUCKETS *
-                           centroidBounds.offset(primitiveInfo.getCentroid()).get(splitAxis));
-            if (b == NUM_BUCKETS)
-            {
-                b = NUM_BUCKETS - 1;
-            }
-            buckets[b].count++;
-            buckets[b].bounds = buckets[b].bounds.union(primitiveInfo.getBounds());
-        }
-        
-        return buckets;
-    }
-    
-    private double[] estimateBucketSplitCosts(BucketInfo[] buckets, BoundingBox3 primitiveBounds)
-    {
-        // compute costs for splitting after each bucket
-        // traversal cost relative to intersection cost is arbitrarily set to 1/8.
-        double[] costs = new double[NUM_BUCKETS - 1];
-        for (int i = 0; i < costs.length; i++)
-        {
-            BoundingBox3 b0 = new BoundingBox3();
-            BoundingBox3 b1 = new BoundingBox3();
-            int count0 = 0;
-            int count1 = 0;
-            for (int j = 0; j <= i; j++)
-            {
-                b0 = b0.union(buckets[j].bounds);
-                count0 += buckets[j].count;
-            }
-            for (int j = i + 1; j < NUM_BUCKETS; j++)
-            {
-                b1 = b1.union(buckets[j].bounds);
-                count1 += buckets[j].count;
-            }
-            costs[i] = TRAVERSAL_COST + (count0 * b0.surfaceArea() + count1 * b1.surfaceArea()) /
-                                        primitiveBounds.surfaceArea();
-        }
-        return costs;
-    }
-
-    private static class BucketInfo
-    {
-        private int count = 0;
-        private BoundingBox3 bounds = new BoundingBox3();
-    }
 }
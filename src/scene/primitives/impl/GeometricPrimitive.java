@@ -3,6 +3,7 @@ package scene.primitives.impl;
 import core.Ray;
 import core.space.BoundingBox3;
 import scene.geometry.Shape;
+import scene.interactions.HitRecord;
 import scene.interactions.impl.SurfaceInteraction;
 import scene.lights.AreaLight;
 import scene.materials.Material;
@@ -45,16 +46,29 @@ public class GeometricPrimitive implements Primitive
     @Override
     public SurfaceInteraction intersect(Ray ray)
     {
-        var intersection = shape.intersect(ray);
-        if (intersection == null)
+        HitRecord hit = new HitRecord();
+        if (!intersectDeferred(ray, hit))
         {
             return null;
         }
-        
-        double tHit = intersection.getFirst();
-        SurfaceInteraction surfaceInteraction = intersection.getSecond();
-        
-        ray.setTMax(tHit);
+        return computeSurfaceInteraction(ray, hit);
+    }
+    
+    @Override
+    public boolean intersectDeferred(Ray ray, HitRecord hit)
+    {
+        if (!shape.intersectDeferred(ray, hit))
+        {
+            return false;
+        }
+        ray.setTMax(hit.getT());
+        return true;
+    }
+    
+    @Override
+    public SurfaceInteraction computeSurfaceInteraction(Ray ray, HitRecord hit)
+    {
+        SurfaceInteraction surfaceInteraction = shape.computeSurfaceInteraction(ray, hit);
         surfaceInteraction.setPrimitive(this);
         if (mediumInterface.isMediumTransition())
         {
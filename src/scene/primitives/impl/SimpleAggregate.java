@@ -42,6 +42,7 @@ public class SimpleAggregate implements Aggregate
             return null;
         }
         
+        ray.precomputeIntersectionData();
         SurfaceInteraction closestInteraction = null;
         double lowestT = Double.POSITIVE_INFINITY;
         for (Primitive primitive : primitives)
@@ -65,6 +66,7 @@ public class SimpleAggregate implements Aggregate
     @Override
     public boolean intersectP(Ray ray)
     {
+        ray.precomputeIntersectionData();
         for (Primitive primitive : primitives)
         {
             if (primitive.intersectP(ray))
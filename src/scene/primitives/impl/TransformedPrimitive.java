@@ -0,0 +1,88 @@
+package scene.primitives.impl;
+
+import core.Ray;
+import core.math.Transformation;
+import core.space.BoundingBox3;
+import scene.geometry.Shape;
+import scene.interactions.impl.SurfaceInteraction;
+import scene.lights.AreaLight;
+import scene.materials.Material;
+import scene.materials.TransportMode;
+import scene.primitives.Primitive;
+
+/**
+ * Places a shared primitive, typically an aggregate over an object's geometry, in the scene with
+ * its own transformation. Many instances can reference the same primitive, so repeated geometry is
+ * only stored (and its acceleration structure only built) once.
+ */
+public class TransformedPrimitive implements Primitive
+{
+    private final Primitive primitive;
+    private final Transformation primitiveToWorld;
+    private final Transformation worldToPrimitive;
+    private final BoundingBox3 worldBound;
+
+    public TransformedPrimitive(Primitive primitive, Transformation primitiveToWorld)
+    {
+        this.primitive = primitive;
+        this.primitiveToWorld = primitiveToWorld;
+        this.worldToPrimitive = primitiveToWorld.inverse();
+        this.worldBound = primitiveToWorld.transform(primitive.worldBound());
+    }
+
+    @Override
+    public BoundingBox3 worldBound()
+    {
+        return worldBound;
+    }
+
+    @Override
+    public SurfaceInteraction intersect(Ray ray)
+    {
+        // compute ray after transformation by primitiveToWorld
+        Ray primitiveRay = worldToPrimitive.transform(ray);
+        SurfaceInteraction intersection = primitive.intersect(primitiveRay);
+        if (intersection == null)
+        {
+            return null;
+        }
+        ray.setTMax(primitiveRay.getTMax());
+
+        // transform instance's intersection data to world space
+        SurfaceInteraction worldIntersection = primitiveToWorld.transform(intersection);
+        worldIntersection.setPrimitive(intersection.getPrimitive());
+        worldIntersection.setMediumInterface(intersection.getMediumInterface());
+        return worldIntersection;
+    }
+
+    @Override
+    public boolean intersectP(Ray ray)
+    {
+        return primitive.intersectP(worldToPrimitive.transform(ray));
+    }
+
+    @Override
+    public AreaLight getAreaLight()
+    {
+        throw new UnsupportedOperationException("No area light for TransformedPrimitive.");
+    }
+
+    @Override
+    public Material getMaterial()
+    {
+        throw new UnsupportedOperationException("No material for TransformedPrimitive.");
+    }
+
+    @Override
+    public Shape getShape()
+    {
+        throw new UnsupportedOperationException("No shape for TransformedPrimitive.");
+    }
+
+    @Override
+    public void computeScatteringFunctions(SurfaceInteraction surfaceInteraction,
+            TransportMode mode, boolean allowMultipleLobes)
+    {
+        throw new UnsupportedOperationException("No scattering functions for TransformedPrimitive.");
+    }
+}
@@ -0,0 +1,52 @@
+package core.concurrency;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class AtomicDoubleArrayUTest
+{
+    private static final int NUM_THREADS = 8;
+    private static final int ADDS_PER_THREAD = 100000;
+
+    // No additions are lost when many threads add to the same elements.
+    @Test
+    public void testConcurrentAdd() throws InterruptedException
+    {
+        AtomicDoubleArray array = new AtomicDoubleArray(3);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < NUM_THREADS; t++)
+        {
+            threads.add(new Thread(() ->
+            {
+                for (int i = 0; i < ADDS_PER_THREAD; i++)
+                {
+                    array.add(i % 2, 1);
+                    array.add(2, 0.5);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+        assertEquals(NUM_THREADS * ADDS_PER_THREAD / 2, array.get(0), 0);
+        assertEquals(NUM_THREADS * ADDS_PER_THREAD / 2, array.get(1), 0);
+        assertEquals(NUM_THREADS * ADDS_PER_THREAD * 0.5, array.get(2), 0);
+    }
+
+    @Test
+    public void testSet()
+    {
+        AtomicDoubleArray array = new AtomicDoubleArray(2);
+        assertEquals(0, array.get(1), 0);
+        array.add(1, -2.25);
+        array.set(0, 3);
+        assertEquals(3, array.get(0), 0);
+        assertEquals(-2.25, array.get(1), 0);
+    }
+}
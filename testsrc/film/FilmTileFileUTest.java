@@ -0,0 +1,66 @@
+package film;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import core.math.Point2;
+import core.space.BoundingBox2;
+
+public class FilmTileFileUTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip() throws IOException
+    {
+        BoundingBox2 bounds = new BoundingBox2(new Point2(-3, 5), new Point2(4, 8));
+        int numPixels = bounds.integerArea();
+        double[] contributionSums = new double[3 * numPixels];
+        double[] filterWeightSums = new double[numPixels];
+        for (int i = 0; i < numPixels; i++)
+        {
+            contributionSums[3 * i] = i;
+            contributionSums[3 * i + 1] = 0.1 * i;
+            contributionSums[3 * i + 2] = Math.PI / (i + 1);
+            filterWeightSums[i] = 1.0 / 3 + i;
+        }
+        FilmTile filmTile = new FilmTile(42, bounds, contributionSums, filterWeightSums);
+
+        Path path = folder.getRoot().toPath().resolve(filmTile.getFileName());
+        FilmTileFile.write(path, filmTile);
+        assertFalse(Files.exists(path.resolveSibling(path.getFileName() + FilmTileFile.TEMPORARY_SUFFIX)));
+
+        FilmTileFile tileFile = FilmTileFile.read(path);
+        assertEquals(42, tileFile.getTileNum());
+        assertEquals(bounds.get(0).x(), tileFile.getPixelBounds().get(0).x(), 0);
+        assertEquals(bounds.get(0).y(), tileFile.getPixelBounds().get(0).y(), 0);
+        assertEquals(bounds.get(1).x(), tileFile.getPixelBounds().get(1).x(), 0);
+        assertEquals(bounds.get(1).y(), tileFile.getPixelBounds().get(1).y(), 0);
+        double[] values = tileFile.getValues();
+        assertEquals(bounds.integerArea() * FilmTileFile.VALUES_PER_PIXEL, values.length);
+        for (int i = 0; i < numPixels; i++)
+        {
+            for (int c = 0; c < 3; c++)
+            {
+                assertEquals(contributionSums[3 * i + c], values[FilmTileFile.VALUES_PER_PIXEL * i + c], 0);
+            }
+            assertEquals(filterWeightSums[i], values[FilmTileFile.VALUES_PER_PIXEL * i + 3], 0);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsOtherFiles() throws IOException
+    {
+        Path path = folder.getRoot().toPath().resolve("0-0-16-16");
+        Files.write(path, "0\n{\n    1.0\n    1.0\n    1.0\n    1.0\n},\n".getBytes());
+        FilmTileFile.read(path);
+    }
+}
@@ -0,0 +1,65 @@
+package film;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import core.colors.RGBSpectrum;
+import core.math.Direction2;
+import core.math.Point2;
+import core.space.BoundingBox2;
+
+public class FilmTileUTest
+{
+    // A sample adds its filtered contribution to every pixel of the tile within the filter's radius.
+    @Test
+    public void testAddSample()
+    {
+        BoundingBox2 bounds = new BoundingBox2(new Point2(0, 0), new Point2(4, 3));
+        FilmTile filmTile = new FilmTile(bounds, new Direction2(1, 1), new double[] { 1, 0.5, 0.5, 0.25 }, 2);
+        filmTile.addSample(new Point2(3.5, 0.5), new RGBSpectrum(1, 2, 4), 2);
+
+        double[] contributionSums = filmTile.getContributionSums();
+        double[] filterWeightSums = filmTile.getFilterWeightSums();
+        int offset = 0;
+        for (Point2 pixel : bounds)
+        {
+            double dx = Math.abs(pixel.x() - 3);
+            double dy = Math.abs(pixel.y());
+            double expectedWeight = dx > 1 || dy > 1 ? 0 : (dx == 0 ? 1 : 0.5) * (dy == 0 ? 1 : 0.5);
+            assertEquals(expectedWeight, filterWeightSums[offset], 0);
+            for (int c = 0; c < 3; c++)
+            {
+                assertEquals(2 * (1 << c) * expectedWeight, contributionSums[3 * offset + c], 0);
+            }
+            offset++;
+        }
+    }
+
+    // Luminance samples keep a running mean and sample variance per pixel, and samples outside
+    // the tile are ignored.
+    @Test
+    public void testLuminanceStatistics()
+    {
+        BoundingBox2 bounds = new BoundingBox2(new Point2(0, 0), new Point2(4, 3));
+        FilmTile filmTile = new FilmTile(bounds, new Direction2(1, 1), new double[] { 1, 0.5, 0.5, 0.25 }, 2);
+        Point2 pixel = new Point2(1, 1);
+        Point2 otherPixel = new Point2(2, 1);
+        for (double luminance : new double[] { 1, 2, 3, 4, 10 })
+        {
+            filmTile.addLuminanceSample(pixel, luminance);
+        }
+        filmTile.addLuminanceSample(otherPixel, 7);
+        filmTile.addLuminanceSample(new Point2(4, 1), 100);
+
+        assertEquals(5, filmTile.getSampleCount(pixel));
+        assertEquals(4, filmTile.getLuminanceMean(pixel), 1e-12);
+        assertEquals((9 + 4 + 1 + 0 + 36) / 4.0, filmTile.getLuminanceVariance(pixel), 1e-12);
+
+        // a single sample gives no estimate of the variance
+        assertEquals(1, filmTile.getSampleCount(otherPixel));
+        assertEquals(7, filmTile.getLuminanceMean(otherPixel), 0);
+        assertEquals(Double.POSITIVE_INFINITY, filmTile.getLuminanceVariance(otherPixel), 0);
+        assertEquals(0, filmTile.getSampleCount(new Point2(3, 1)));
+    }
+}
@@ -0,0 +1,75 @@
+package film;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import core.math.Direction2;
+import core.math.Point2;
+import core.space.BoundingBox2;
+
+public class PixelStatisticsUTest
+{
+    @Test
+    public void testMeanAndVariance()
+    {
+        BoundingBox2 bounds = new BoundingBox2(new Point2(1, -1), new Point2(2, 0));
+        PixelStatistics statistics = new PixelStatistics(bounds);
+        Point2 pixel = new Point2(1, -1);
+        statistics.merge(createFilmTile(bounds, pixel, 2, 4, 4, 4, 5, 5, 7, 9));
+        assertEquals(8, statistics.getSampleCount(pixel));
+        assertEquals(5, statistics.getMean(pixel), 1e-12);
+        assertEquals(32.0 / 7, statistics.getVariance(pixel), 1e-12);
+        assertEquals(Math.sqrt(32.0 / 7 / 8) / 5, statistics.getMeanRelativeError(), 1e-12);
+    }
+
+    // Pixels without enough samples to estimate their variance are as noisy as can be.
+    @Test
+    public void testUnsampledPixelsAreNoisy()
+    {
+        BoundingBox2 bounds = new BoundingBox2(new Point2(0, 0), new Point2(2, 1));
+        PixelStatistics statistics = new PixelStatistics(bounds);
+        statistics.merge(createFilmTile(bounds, new Point2(0, 0), 1, 1));
+        statistics.merge(createFilmTile(bounds, new Point2(1, 0), 1));
+        assertEquals(Double.POSITIVE_INFINITY, statistics.getVariance(new Point2(1, 0)), 0);
+        assertEquals(Double.POSITIVE_INFINITY, statistics.getMeanRelativeError(), 0);
+        statistics.merge(createFilmTile(bounds, new Point2(1, 0), 1));
+        assertEquals(0, statistics.getMeanRelativeError(), 0);
+    }
+
+    // Merging the statistics of tiles gives the same result as taking all their samples in one
+    // tile.
+    @Test
+    public void testMergeTiles()
+    {
+        BoundingBox2 bounds = new BoundingBox2(new Point2(0, 0), new Point2(3, 3));
+        PixelStatistics merged = new PixelStatistics(bounds);
+        PixelStatistics whole = new PixelStatistics(bounds);
+        Point2 pixel = new Point2(1, 1);
+        double[][] tileSamples = { { 0.5, 2, 0.25 }, { 3 }, { 1, 1.5, 7, 0.1 } };
+        FilmTile wholeTile = createFilmTile(bounds, pixel);
+        for (double[] samples : tileSamples)
+        {
+            merged.merge(createFilmTile(bounds, pixel, samples));
+            for (double sample : samples)
+            {
+                wholeTile.addLuminanceSample(pixel, sample);
+            }
+        }
+        whole.merge(wholeTile);
+        assertEquals(8, merged.getSampleCount(pixel));
+        assertEquals(whole.getMean(pixel), merged.getMean(pixel), 1e-12);
+        assertEquals(whole.getVariance(pixel), merged.getVariance(pixel), 1e-12);
+        assertEquals(0, merged.getSampleCount(new Point2(0, 0)));
+    }
+
+    private static FilmTile createFilmTile(BoundingBox2 bounds, Point2 pixel, double... luminances)
+    {
+        FilmTile filmTile = new FilmTile(bounds, new Direction2(0.5, 0.5), new double[] { 1 }, 1);
+        for (double luminance : luminances)
+        {
+            filmTile.addLuminanceSample(pixel, luminance);
+        }
+        return filmTile;
+    }
+}
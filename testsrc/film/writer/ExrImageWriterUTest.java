@@ -0,0 +1,76 @@
+package film.writer;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ExrImageWriterUTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // Each scanline is found through the offset table and holds the B, G and R values of its
+    // pixels in turn.
+    @Test
+    public void testWriteImage() throws IOException
+    {
+        int width = 4;
+        int height = 3;
+        double[] pixels = new double[3 * width * height];
+        for (int i = 0; i < pixels.length; i++)
+        {
+            pixels[i] = 1.5 * i;
+        }
+        Path path = folder.getRoot().toPath().resolve("image");
+        new ExrImageWriter(path.toString()).writeImage(width, height, pixels);
+
+        ByteBuffer file = ByteBuffer.wrap(Files.readAllBytes(path.resolveSibling("image.exr")))
+                                    .order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(20000630, file.getInt());
+        assertEquals(2, file.getInt());
+        // skip the attributes, each a name, a type, a size and a value, up to the empty name
+        while (file.get(file.position()) != 0)
+        {
+            skipString(file);
+            skipString(file);
+            int size = file.getInt();
+            file.position(file.position() + size);
+        }
+        file.get();
+
+        long[] offsets = new long[height];
+        for (int y = 0; y < height; y++)
+        {
+            offsets[y] = file.getLong();
+        }
+        for (int y = 0; y < height; y++)
+        {
+            file.position((int) offsets[y]);
+            assertEquals(y, file.getInt());
+            assertEquals(3 * width * Float.BYTES, file.getInt());
+            for (int c = 2; c >= 0; c--)
+            {
+                for (int x = 0; x < width; x++)
+                {
+                    assertEquals(pixels[3 * (width * y + x) + c], file.getFloat(), 0);
+                }
+            }
+        }
+        assertFalse(file.hasRemaining());
+    }
+
+    private static void skipString(ByteBuffer buffer)
+    {
+        while (buffer.get() != 0)
+        {
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package film.writer;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PfmImageWriterUTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // Values are written unclamped, bottom row first.
+    @Test
+    public void testWriteImage() throws IOException
+    {
+        int width = 3;
+        int height = 2;
+        double[] pixels = new double[3 * width * height];
+        for (int i = 0; i < pixels.length; i++)
+        {
+            pixels[i] = 0.25 * i - 1;
+        }
+        Path path = folder.getRoot().toPath().resolve("image");
+        new PfmImageWriter(path.toString()).writeImage(width, height, pixels);
+
+        byte[] bytes = Files.readAllBytes(path.resolveSibling("image.pfm"));
+        String header = "PF\n3 2\n-1.0\n";
+        assertEquals(header, new String(bytes, 0, header.length(), StandardCharsets.US_ASCII));
+        ByteBuffer values = ByteBuffer.wrap(bytes, header.length(), bytes.length - header.length())
+                                      .order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(pixels.length * Float.BYTES, values.remaining());
+        for (int y = height - 1; y >= 0; y--)
+        {
+            for (int i = 0; i < 3 * width; i++)
+            {
+                assertEquals(pixels[3 * width * y + i], values.getFloat(), 0);
+            }
+        }
+    }
+}
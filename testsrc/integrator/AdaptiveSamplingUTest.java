@@ -0,0 +1,64 @@
+package integrator;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import core.math.Direction2;
+import core.math.Point2;
+import core.space.BoundingBox2;
+import film.FilmTile;
+
+public class AdaptiveSamplingUTest
+{
+    private static final Point2 PIXEL = new Point2(0, 0);
+
+    // A pixel needs the minimum number of samples, however consistent they are.
+    @Test
+    public void testNeedsMinimumSamples()
+    {
+        AdaptiveSampling adaptiveSampling = new AdaptiveSampling(4, 0.1);
+        FilmTile filmTile = createFilmTile(1, 1, 1);
+        assertFalse(adaptiveSampling.isConverged(filmTile, PIXEL));
+        filmTile.addLuminanceSample(PIXEL, 1);
+        assertTrue(adaptiveSampling.isConverged(filmTile, PIXEL));
+    }
+
+    // Samples of 0.5 and 1.5 have mean 1 and variance 1/3, so with four of them the 95%
+    // confidence interval has half width 1.96 * sqrt(1/12), about 0.566, relative to the mean.
+    @Test
+    public void testConvergenceThreshold()
+    {
+        FilmTile filmTile = createFilmTile(0.5, 1.5, 0.5, 1.5);
+        assertTrue(new AdaptiveSampling(4, 0.6).isConverged(filmTile, PIXEL));
+        assertFalse(new AdaptiveSampling(4, 0.5).isConverged(filmTile, PIXEL));
+        assertFalse(new AdaptiveSampling(5, 0.6).isConverged(filmTile, PIXEL));
+    }
+
+    // The error of nearly black pixels is measured relative to a minimum luminance rather than
+    // to their mean, so that they converge at all.
+    @Test
+    public void testDarkPixelsConverge()
+    {
+        FilmTile filmTile = createFilmTile(0, 0, 0, 0.002);
+        assertTrue(new AdaptiveSampling(4, 0.1).isConverged(filmTile, PIXEL));
+        assertFalse(new AdaptiveSampling(4, 0.05).isConverged(filmTile, PIXEL));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNeedsTwoSamples()
+    {
+        new AdaptiveSampling(1, 0.1);
+    }
+
+    private static FilmTile createFilmTile(double... luminances)
+    {
+        FilmTile filmTile = new FilmTile(new BoundingBox2(new Point2(0, 0), new Point2(1, 1)),
+                                         new Direction2(0.5, 0.5), new double[] { 1 }, 1);
+        for (double luminance : luminances)
+        {
+            filmTile.addLuminanceSample(PIXEL, luminance);
+        }
+        return filmTile;
+    }
+}
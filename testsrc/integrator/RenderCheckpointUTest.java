@@ -0,0 +1,83 @@
+package integrator;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import core.colors.RGBSpectrum;
+import core.math.Direction2;
+import core.math.Point2;
+import core.space.BoundingBox2;
+import film.Film;
+import film.FilmTile;
+import film.PixelStatistics;
+import film.filter.impl.BoxFilter;
+
+public class RenderCheckpointUTest
+{
+    private static final int NUM_TILES = 4;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // A journal restores the film, the pixel statistics and the progress of every tile.
+    @Test
+    public void testSaveAndLoad() throws IOException
+    {
+        Film film = createFilm();
+        PixelStatistics statistics = new PixelStatistics(film.getCroppedPixelBounds());
+        RenderCheckpoint checkpoint = new RenderCheckpoint(film, statistics, NUM_TILES, 1000);
+        assertFalse(checkpoint.load());
+
+        BoundingBox2 tileBounds = new BoundingBox2(new Point2(0, 0), new Point2(4, 4));
+        FilmTile filmTile = film.createFilmTile(tileBounds);
+        filmTile.addSample(new Point2(1.5, 2.5), new RGBSpectrum(1, 2, 3), 1);
+        filmTile.addLuminanceSample(new Point2(1, 2), 0.5);
+        filmTile.addLuminanceSample(new Point2(1, 2), 1.5);
+        checkpoint.completeTilePass(2, 4, Collections.singletonList(filmTile));
+        checkpoint.save();
+
+        Film resumedFilm = createFilm();
+        PixelStatistics resumedStatistics = new PixelStatistics(resumedFilm.getCroppedPixelBounds());
+        RenderCheckpoint resumed = new RenderCheckpoint(resumedFilm, resumedStatistics, NUM_TILES, 1000);
+        assertTrue(resumed.load());
+        assertEquals(1, resumed.getTilePasses(2));
+        assertEquals(0, resumed.getTilePasses(0));
+        assertEquals(0, resumed.getCompletedPasses());
+        assertEquals(0, resumed.getSamplesPerPixel());
+        assertEquals(2, resumedStatistics.getSampleCount(new Point2(1, 2)));
+        assertEquals(1, resumedStatistics.getMean(new Point2(1, 2)), 0);
+        assertArrayEquals(getPixels(film), getPixels(resumedFilm));
+    }
+
+    // A journal of a different image is not resumed from.
+    @Test
+    public void testIgnoresOtherRenders()
+    {
+        Film film = createFilm();
+        new RenderCheckpoint(film, new PixelStatistics(film.getCroppedPixelBounds()), NUM_TILES, 1000).save();
+        RenderCheckpoint other = new RenderCheckpoint(film, new PixelStatistics(film.getCroppedPixelBounds()),
+                                                      NUM_TILES + 1, 1000);
+        assertFalse(other.load());
+    }
+
+    private Film createFilm()
+    {
+        return new Film(new Point2(8, 8), new BoundingBox2(0, 0, 1, 1), new BoxFilter(new Direction2(0.5, 0.5)),
+                        35, folder.getRoot().getPath(), "checkpoint", 1);
+    }
+
+    private static byte[] getPixels(Film film) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        film.writePixels(new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,36 @@
+package integrator;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class SamplerIntegratorUTest
+{
+    // The parts a tile is split into must not reuse the seeds of other tiles, of each other or of
+    // other passes, or they would repeat those samples.
+    @Test
+    public void testTileSeedsAreDistinct()
+    {
+        Set<Integer> seeds = new HashSet<>();
+        int numSeeds = 0;
+        for (int pass = 0; pass < 4; pass++)
+        {
+            for (int tileIndex = 0; tileIndex < 64; tileIndex++)
+            {
+                // the whole tile (path 1), its quarters (4 to 7) and their quarters (16 to 31)
+                for (long first = 1; first < 64; first *= 4)
+                {
+                    for (long path = first; path < 2 * first; path++)
+                    {
+                        seeds.add(SamplerIntegrator.getTileSeed(pass, tileIndex, path));
+                        numSeeds++;
+                    }
+                }
+            }
+        }
+        assertEquals(numSeeds, seeds.size());
+    }
+}
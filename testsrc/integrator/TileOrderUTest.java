@@ -0,0 +1,60 @@
+package integrator;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import core.math.Point2;
+
+public class TileOrderUTest
+{
+    // Every order must visit each tile of the grid exactly once, including grids that are not
+    // square or whose sides are not powers of two.
+    @Test
+    public void testOrdersCoverEveryTileOnce()
+    {
+        int[][] grids = { { 1, 1 }, { 8, 8 }, { 7, 3 }, { 2, 13 } };
+        for (TileOrder order : TileOrder.values())
+        {
+            for (int[] grid : grids)
+            {
+                List<Point2> tiles = order.getTiles(grid[0], grid[1]);
+                Set<Integer> distinct = new HashSet<>();
+                for (Point2 tile : tiles)
+                {
+                    assertTrue(tile.x() >= 0 && tile.x() < grid[0]);
+                    assertTrue(tile.y() >= 0 && tile.y() < grid[1]);
+                    distinct.add((int) tile.y() * grid[0] + (int) tile.x());
+                }
+                assertEquals(grid[0] * grid[1], tiles.size());
+                assertEquals(tiles.size(), distinct.size());
+            }
+        }
+    }
+
+    // On a power of two square, consecutive tiles along the Hilbert curve are neighbors.
+    @Test
+    public void testHilbertOrderIsContinuous()
+    {
+        List<Point2> tiles = TileOrder.HILBERT.getTiles(16, 16);
+        for (int i = 1; i < tiles.size(); i++)
+        {
+            double distance = Math.abs(tiles.get(i).x() - tiles.get(i - 1).x()) +
+                              Math.abs(tiles.get(i).y() - tiles.get(i - 1).y());
+            assertEquals(1, distance, 0);
+        }
+    }
+
+    @Test
+    public void testSpiralOrderStartsAtCenter()
+    {
+        List<Point2> tiles = TileOrder.SPIRAL.getTiles(5, 7);
+        assertEquals(new Point2(2, 3), tiles.get(0));
+        Point2 last = tiles.get(tiles.size() - 1);
+        assertEquals(3, Math.max(Math.abs(last.x() - 2), Math.abs(last.y() - 3)), 0);
+    }
+}
@@ -0,0 +1,152 @@
+package integrator.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import camera.Camera;
+import camera.impl.PerspectiveCamera;
+import core.colors.Colors;
+import core.colors.RGBSpectrum;
+import core.math.Direction2;
+import core.math.Direction3;
+import core.math.Point2;
+import core.math.Point3;
+import core.math.Transformation;
+import core.space.BoundingBox2;
+import film.Film;
+import film.ImageWriter;
+import film.filter.impl.BoxFilter;
+import integrator.Integrator;
+import integrator.RenderConfiguration;
+import integrator.RenderConfiguration.ExecutorType;
+import integrator.TileOrder;
+import metrics.MetricsLogger;
+import sampler.impl.StratifiedSampler;
+import scene.Scene;
+import scene.geometry.impl.Sphere;
+import scene.geometry.impl.Triangle;
+import scene.lights.AreaLight;
+import scene.lights.Light;
+import scene.lights.impl.DiffuseAreaLight;
+import scene.materials.Material;
+import scene.medium.Medium.MediumInterface;
+import scene.primitives.Primitive;
+import scene.primitives.accelerator.bvh.BoundingVolumeHierarchy;
+import scene.primitives.accelerator.bvh.BoundingVolumeHierarchy.SplitMethod;
+import scene.primitives.impl.GeometricPrimitive;
+import utilities.MaterialUtilities;
+import utilities.MeshUtilities;
+
+public class WavefrontPathIntegratorUTest
+{
+    private static final int RESOLUTION = 16;
+    private static final int MAX_DEPTH = 5;
+    // relative difference allowed between the two estimates of the mean image radiance
+    private static final double TOLERANCE = 0.05;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // Both integrators estimate the same radiance, so over a whole image their means must agree
+    // up to noise.
+    @Test
+    public void testSameMeanRadianceAsPathIntegrator()
+    {
+        double[] pathImage = new double[3 * RESOLUTION * RESOLUTION];
+        Camera pathCamera = createCamera("path", pathImage);
+        render(new PathIntegrator(MAX_DEPTH, pathCamera, new StratifiedSampler(8, 8, true, 2 * MAX_DEPTH + 4)));
+
+        double[] wavefrontImage = new double[3 * RESOLUTION * RESOLUTION];
+        Camera wavefrontCamera = createCamera("wavefront", wavefrontImage);
+        RenderConfiguration configuration = new RenderConfiguration(8, 2, ExecutorType.PLATFORM_THREADS,
+                                                                    TileOrder.HILBERT);
+        render(new WavefrontPathIntegrator(MAX_DEPTH, wavefrontCamera,
+                                           new StratifiedSampler(8, 8, true, 2 * MAX_DEPTH + 4),
+                                           configuration));
+
+        double pathMean = mean(pathImage);
+        double wavefrontMean = mean(wavefrontImage);
+        assertTrue(pathMean > 0);
+        assertEquals(1, wavefrontMean / pathMean, TOLERANCE);
+    }
+
+    private static void render(Integrator integrator)
+    {
+        MetricsLogger.getInstance().resetRender();
+        integrator.render(createScene());
+    }
+
+    // A matte sphere on a matte floor under a spherical area light.
+    private static Scene createScene()
+    {
+        List<Primitive> primitives = new ArrayList<>();
+        List<Light> lights = new ArrayList<>();
+        Material white = MaterialUtilities.getMatteMaterial(Colors.WHITE, 1);
+        Material gray = MaterialUtilities.getMatteMaterial(Colors.GRAY50, 1);
+
+        Transformation floorTransform = Transformation.getTranslation(0, -10, -2)
+                                                      .compose(Transformation.getUniformScale(20));
+        for (Triangle triangle : Triangle.getTriangles(MeshUtilities.createQuad(floorTransform),
+                                                       Transformation.IDENTITY, Transformation.IDENTITY,
+                                                       false))
+        {
+            primitives.add(new GeometricPrimitive(triangle, gray));
+        }
+
+        Transformation sphereTransform = Transformation.getTranslation(0, -10, 0);
+        primitives.add(new GeometricPrimitive(new Sphere(sphereTransform, sphereTransform.inverse(), false, 2),
+                                              white));
+
+        Transformation lightTransform = Transformation.getTranslation(3, -7, 6);
+        Sphere lightSphere = new Sphere(lightTransform, lightTransform.inverse(), false, 2);
+        AreaLight light = new DiffuseAreaLight(Transformation.IDENTITY, new MediumInterface(),
+                                               new RGBSpectrum(4, 4, 4), 1, lightSphere);
+        lights.add(light);
+        primitives.add(new GeometricPrimitive(lightSphere, white, light, new MediumInterface()));
+
+        return new Scene(new BoundingVolumeHierarchy(primitives, 2, SplitMethod.SURFACE_AREA_HEURISTIC), lights);
+    }
+
+    // Renders into image as linear RGB.
+    private Camera createCamera(String fileName, double[] image)
+    {
+        ImageWriter imageWriter = new ImageWriter()
+        {
+            @Override
+            public void writeImage(int resolutionX, int resolutionY, double[] pixels)
+            {
+                System.arraycopy(pixels, 0, image, 0, image.length);
+            }
+
+            @Override
+            public boolean isHighDynamicRange()
+            {
+                return true;
+            }
+        };
+        Film film = new Film(new Point2(RESOLUTION, RESOLUTION), new BoundingBox2(0, 0, 1, 1),
+                             new BoxFilter(new Direction2(0.5, 0.5)), 35, folder.getRoot().getPath(),
+                             fileName, 1, imageWriter);
+        Transformation cameraToWorld = Transformation.getLookAt(new Point3(0, 0, 0),
+                                                                new Point3(0, -10, -1),
+                                                                new Direction3(0, 0, 1)).inverse();
+        return new PerspectiveCamera(cameraToWorld, new BoundingBox2(-1, -1, 1, 1), 0, 1, 0, 3, 40,
+                                     film, null);
+    }
+
+    private static double mean(double[] image)
+    {
+        double sum = 0;
+        for (double value : image)
+        {
+            sum += value;
+        }
+        return sum / image.length;
+    }
+}
@@ -0,0 +1,70 @@
+package metrics;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class MetricsLoggerUTest
+{
+    private final MetricsLogger metricsLogger = MetricsLogger.getInstance();
+
+    @After
+    public void tearDown()
+    {
+        metricsLogger.resetRender();
+    }
+
+    // A ray traced through an aggregate nested in another is one ray, but the work of both
+    // traversals counts towards it.
+    @Test
+    public void testNestedTraversalCountsOneRay()
+    {
+        metricsLogger.resetRender();
+        metricsLogger.onTraversalStart();
+        metricsLogger.onTraversalStart();
+        metricsLogger.onRayTraversed(2, 3, 4);
+        metricsLogger.onRayTraversed(1, 1, 1);
+
+        assertEquals(1, (long) metricsLogger.getNumRaysTraversed());
+        assertEquals(3, metricsLogger.getNodesVisitedPerRay(), 0);
+        assertEquals(5, metricsLogger.getPrimitiveTestsPerRay(), 0);
+    }
+
+    // Counts from threads that have ended are kept until the render is reset.
+    @Test
+    public void testCountsOfEndedThreadsAreKept() throws InterruptedException
+    {
+        metricsLogger.resetRender();
+        for (int i = 0; i < 3; i++)
+        {
+            Thread thread = new Thread(() ->
+            {
+                metricsLogger.onTraversalStart();
+                metricsLogger.onShadowRayTraversed(1, 1, 1, true);
+            });
+            thread.start();
+            thread.join();
+        }
+        assertEquals(3, (long) metricsLogger.getNumRaysTraversed());
+        assertEquals(1, metricsLogger.getShadowRayEarlyOutFraction(), 0);
+
+        metricsLogger.resetRender();
+        assertEquals(0, (long) metricsLogger.getNumRaysTraversed());
+    }
+
+    @Test
+    public void testResetRenderClearsRenderCounters()
+    {
+        metricsLogger.resetRender();
+        metricsLogger.onTileSkipped();
+        metricsLogger.onRenderPassComplete(4);
+        metricsLogger.onAdaptiveSamplesTaken(1, 2);
+
+        metricsLogger.resetRender();
+        assertEquals(0, (long) metricsLogger.getNumTilesSkipped());
+        assertNull(metricsLogger.getNumRenderPasses());
+        assertNull(metricsLogger.getSamplesPerPixel());
+        assertNull(metricsLogger.getAdaptiveSampleFraction());
+    }
+}
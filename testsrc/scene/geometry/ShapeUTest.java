@@ -0,0 +1,55 @@
+package scene.geometry;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import core.Ray;
+import core.math.Direction3;
+import core.math.Point3;
+import core.math.Transformation;
+import scene.geometry.impl.Sphere;
+import scene.geometry.impl.Triangle;
+import utilities.MeshUtilities;
+
+public class ShapeUTest
+{
+    private static final int NUM_RAYS = 5000;
+
+    // The occlusion-only test must agree with the full intersection test.
+    @Test
+    public void testIntersectPMatchesIntersect()
+    {
+        Transformation transform = Transformation.getTranslation(0.5, -0.25, 0.1)
+                                                 .compose(Transformation.getUniformScale(2));
+        List<Shape> shapes = new ArrayList<>();
+        shapes.add(new Sphere(transform, transform.inverse(), false, 1));
+        shapes.add(new Sphere(transform, transform.inverse(), false, 1, -0.5, 0.75, 270));
+        shapes.addAll(Triangle.getTriangles(MeshUtilities.createCube(transform, false),
+                                            transform, transform.inverse(), false));
+
+        Random random = new Random(4);
+        int hits = 0;
+        for (Shape shape : shapes)
+        {
+            for (int i = 0; i < NUM_RAYS; i++)
+            {
+                Point3 origin = new Point3(random.nextDouble() * 8 - 4,
+                                           random.nextDouble() * 8 - 4,
+                                           random.nextDouble() * 8 - 4);
+                Direction3 direction = new Direction3(random.nextGaussian(),
+                                                      random.nextGaussian(),
+                                                      random.nextGaussian()).normalize();
+                double tMax = random.nextDouble() * 6;
+                boolean hit = shape.intersect(new Ray(origin, direction, tMax, 0, null)) != null;
+                assertEquals(hit, shape.intersectP(new Ray(origin, direction, tMax, 0, null)));
+                hits += hit ? 1 : 0;
+            }
+        }
+        assertTrue(hits > 0);
+    }
+}
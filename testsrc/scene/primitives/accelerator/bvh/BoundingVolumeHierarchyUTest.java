@@ -0,0 +1,318 @@
+package scene.primitives.accelerator.bvh;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import core.Ray;
+import core.math.Direction3;
+import core.math.Point3;
+import core.math.Transformation;
+import core.space.BoundingBox3;
+import scene.geometry.Shape;
+import scene.geometry.impl.Sphere;
+import scene.geometry.impl.Triangle;
+import scene.geometry.impl.TriangleMesh;
+import scene.interactions.impl.SurfaceInteraction;
+import scene.lights.AreaLight;
+import scene.materials.Material;
+import scene.materials.TransportMode;
+import scene.primitives.Aggregate;
+import scene.primitives.Primitive;
+import scene.primitives.accelerator.bvh.BoundingVolumeHierarchy.SplitMethod;
+import scene.primitives.impl.GeometricPrimitive;
+import scene.primitives.impl.SimpleAggregate;
+
+public class BoundingVolumeHierarchyUTest
+{
+    private static final int NUM_SPHERES = 300;
+    private static final int NUM_RAYS = 2000;
+
+    // After the primitives move, a refit tree must find exactly the same hits as a brute force
+    // search.
+    @Test
+    public void testRefit()
+    {
+        Random random = new Random(1);
+        List<Primitive> spheres = new ArrayList<>();
+        for (int i = 0; i < NUM_SPHERES; i++)
+        {
+            spheres.add(new MovableSphere(randomPosition(random)));
+        }
+        BoundingVolumeHierarchy bvh = new BoundingVolumeHierarchy(spheres, 4, SplitMethod.SURFACE_AREA_HEURISTIC);
+
+        for (Primitive sphere : spheres)
+        {
+            ((MovableSphere) sphere).moveTo(randomPosition(random));
+        }
+        assertFalse(bvh.refit(Double.POSITIVE_INFINITY));
+
+        assertSameHits(bvh, new SimpleAggregate(new LinkedHashSet<>(spheres)), random);
+    }
+
+    // Moving every primitive to a random position destroys the spatial coherence of the tree, so
+    // a refit with a tight cost ratio should rebuild it.
+    @Test
+    public void testRefitRebuildsDegradedTree()
+    {
+        Random random = new Random(2);
+        List<Primitive> spheres = new ArrayList<>();
+        for (int i = 0; i < NUM_SPHERES; i++)
+        {
+            spheres.add(new MovableSphere(randomPosition(random)));
+        }
+        BoundingVolumeHierarchy bvh = new BoundingVolumeHierarchy(spheres, 4, SplitMethod.SURFACE_AREA_HEURISTIC);
+
+        for (Primitive sphere : spheres)
+        {
+            ((MovableSphere) sphere).moveTo(randomPosition(random));
+        }
+        assertTrue(bvh.refit(1.1));
+
+        assertSameHits(bvh, new SimpleAggregate(new LinkedHashSet<>(spheres)), random);
+    }
+
+    // Rebuilding a spatial-split tree must start from the original primitives, so repeated
+    // rebuilds do not split the references duplicated by earlier ones again.
+    @Test
+    public void testSpatialSplitRebuildDoesNotGrowReferences()
+    {
+        Random random = new Random(3);
+        List<Primitive> primitives = createMixedScene(random);
+        BoundingVolumeHierarchy bvh = new BoundingVolumeHierarchy(primitives, 4, SplitMethod.SPATIAL_SPLIT);
+        int numReferences = bvh.getNumReferences();
+        assertTrue(numReferences > primitives.size());
+
+        for (int i = 0; i < 3; i++)
+        {
+            assertTrue(bvh.refit(0));
+            assertEquals(numReferences, bvh.getNumReferences());
+        }
+
+        assertSameHits(bvh, new SimpleAggregate(new LinkedHashSet<>(primitives)), random);
+    }
+
+    // Tracing coherent rays as packets must find the same hits as tracing them one at a time,
+    // including packets that span several sub-packets and ones whose direction signs differ.
+    @Test
+    public void testPacketIntersectMatchesSingleRays()
+    {
+        Random random = new Random(3);
+        List<Primitive> spheres = new ArrayList<>();
+        for (int i = 0; i < NUM_SPHERES; i++)
+        {
+            spheres.add(new MovableSphere(randomPosition(random)));
+        }
+        BoundingVolumeHierarchy bvh = new BoundingVolumeHierarchy(spheres, 4, SplitMethod.SURFACE_AREA_HEURISTIC);
+
+        int numRays = BoundingVolumeHierarchy.MAX_PACKET_SIZE + 36;
+        Ray[] rays = new Ray[numRays];
+        SurfaceInteraction[] interactions = new SurfaceInteraction[numRays];
+        int hits = 0;
+        for (int packet = 0; packet < 50; packet++)
+        {
+            Point3 origin = randomPosition(random).times(1.5);
+            Direction3 direction = new Direction3(random.nextGaussian(),
+                                                  random.nextGaussian(),
+                                                  random.nextGaussian()).normalize();
+            double spread = packet % 10 == 0 ? 2 : 0.05;
+            for (int i = 0; i < numRays; i++)
+            {
+                Direction3 jittered = direction.plus(new Direction3(random.nextGaussian() * spread,
+                                                                    random.nextGaussian() * spread,
+                                                                    random.nextGaussian() * spread));
+                rays[i] = new Ray(origin, jittered.normalize(), Double.POSITIVE_INFINITY, 0, null);
+            }
+            bvh.intersect(rays, interactions, numRays);
+
+            for (int i = 0; i < numRays; i++)
+            {
+                Ray ray = new Ray(rays[i].getOrigin(), rays[i].getDirection(), Double.POSITIVE_INFINITY, 0, null);
+                SurfaceInteraction hit = bvh.intersect(ray);
+                assertEquals(hit == null, interactions[i] == null);
+                if (hit != null)
+                {
+                    assertSame(hit.getPrimitive(), interactions[i].getPrimitive());
+                    assertEquals(ray.getTMax(), rays[i].getTMax(), 0);
+                    hits++;
+                }
+            }
+        }
+        assertTrue(hits > 0);
+    }
+
+    @Test
+    public void testSurfaceAreaHeuristicMatchesBruteForce()
+    {
+        assertMatchesBruteForce(SplitMethod.SURFACE_AREA_HEURISTIC);
+    }
+
+    @Test
+    public void testParallelSurfaceAreaHeuristicMatchesBruteForce()
+    {
+        assertMatchesBruteForce(SplitMethod.PARALLEL_SURFACE_AREA_HEURISTIC);
+    }
+
+    @Test
+    public void testSpatialSplitMatchesBruteForce()
+    {
+        assertMatchesBruteForce(SplitMethod.SPATIAL_SPLIT);
+    }
+
+    @Test
+    public void testHierarchicalLinearMatchesBruteForce()
+    {
+        assertMatchesBruteForce(SplitMethod.HLBVH);
+    }
+
+    @Test
+    public void testMiddleMatchesBruteForce()
+    {
+        assertMatchesBruteForce(SplitMethod.MIDDLE);
+    }
+
+    @Test
+    public void testEqualCountsMatchesBruteForce()
+    {
+        assertMatchesBruteForce(SplitMethod.EQUAL_COUNTS);
+    }
+
+    // A tree built by the split method must find exactly the same hits as a brute force search.
+    private static void assertMatchesBruteForce(SplitMethod splitMethod)
+    {
+        Random random = new Random(4);
+        List<Primitive> primitives = createMixedScene(random);
+        BoundingVolumeHierarchy bvh = new BoundingVolumeHierarchy(primitives, 4, splitMethod);
+        assertSameHits(bvh, new SimpleAggregate(new LinkedHashSet<>(primitives)), random);
+    }
+
+    /**
+     * @return spheres of all sizes and long, thin triangles, which spatial splits clip.
+     */
+    static List<Primitive> createMixedScene(Random random)
+    {
+        List<Primitive> primitives = new ArrayList<>();
+        for (int i = 0; i < NUM_SPHERES; i++)
+        {
+            Point3 position = randomPosition(random);
+            Transformation transform = Transformation.getTranslation(position.x(), position.y(), position.z());
+            double radius = 0.1 + 3 * random.nextDouble() * random.nextDouble();
+            primitives.add(new GeometricPrimitive(new Sphere(transform, transform.inverse(), false, radius), null));
+        }
+        int numTriangles = NUM_SPHERES / 2;
+        Point3[] vertices = new Point3[3 * numTriangles];
+        int[] vertexIndices = new int[3 * numTriangles];
+        for (int i = 0; i < vertices.length; i++)
+        {
+            vertices[i] = randomPosition(random);
+            vertexIndices[i] = i;
+        }
+        Transformation identity = Transformation.IDENTITY;
+        TriangleMesh mesh = Triangle.createTriangleMesh(identity, identity, false, numTriangles, vertexIndices,
+                                                        vertices, null, null, null);
+        for (Triangle triangle : Triangle.getTriangles(mesh, identity, identity, false))
+        {
+            primitives.add(new GeometricPrimitive(triangle, null));
+        }
+        return primitives;
+    }
+
+    static void assertSameHits(Aggregate bvh, Aggregate reference, Random random)
+    {
+        for (int i = 0; i < NUM_RAYS; i++)
+        {
+            Point3 origin = randomPosition(random).times(1.5);
+            Direction3 direction = new Direction3(random.nextGaussian(),
+                                                  random.nextGaussian(),
+                                                  random.nextGaussian()).normalize();
+            Ray bvhRay = new Ray(origin, direction, Double.POSITIVE_INFINITY, 0, null);
+            Ray referenceRay = new Ray(origin, direction, Double.POSITIVE_INFINITY, 0, null);
+
+            SurfaceInteraction bvhHit = bvh.intersect(bvhRay);
+            SurfaceInteraction referenceHit = reference.intersect(referenceRay);
+            assertEquals(referenceHit == null, bvhHit == null);
+            if (referenceHit != null)
+            {
+                assertSame(referenceHit.getPrimitive(), bvhHit.getPrimitive());
+                assertEquals(referenceRay.getTMax(), bvhRay.getTMax(), 1e-9);
+            }
+            assertEquals(reference.intersectP(new Ray(origin, direction, 10, 0, null)),
+                         bvh.intersectP(new Ray(origin, direction, 10, 0, null)));
+        }
+    }
+
+    static Point3 randomPosition(Random random)
+    {
+        return new Point3(random.nextDouble() * 40 - 20,
+                          random.nextDouble() * 40 - 20,
+                          random.nextDouble() * 40 - 20);
+    }
+
+    static class MovableSphere implements Primitive
+    {
+        private GeometricPrimitive sphere;
+
+        MovableSphere(Point3 position)
+        {
+            moveTo(position);
+        }
+
+        void moveTo(Point3 position)
+        {
+            Transformation transform = Transformation.getTranslation(position.x(), position.y(), position.z());
+            sphere = new GeometricPrimitive(new Sphere(transform, transform.inverse(), false, 1), null);
+        }
+
+        @Override
+        public BoundingBox3 worldBound()
+        {
+            return sphere.worldBound();
+        }
+
+        @Override
+        public SurfaceInteraction intersect(Ray ray)
+        {
+            SurfaceInteraction intersection = sphere.intersect(ray);
+            if (intersection != null)
+            {
+                intersection.setPrimitive(this);
+            }
+            return intersection;
+        }
+
+        @Override
+        public boolean intersectP(Ray ray)
+        {
+            return sphere.intersectP(ray);
+        }
+
+        @Override
+        public AreaLight getAreaLight()
+        {
+            return null;
+        }
+
+        @Override
+        public Material getMaterial()
+        {
+            return null;
+        }
+
+        @Override
+        public Shape getShape()
+        {
+            return sphere.getShape();
+        }
+
+        @Override
+        public void computeScatteringFunctions(SurfaceInteraction surfaceInteraction,
+                TransportMode mode, boolean allowMultipleLobes)
+        {
+        }
+    }
+}
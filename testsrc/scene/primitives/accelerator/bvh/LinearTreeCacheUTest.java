@@ -0,0 +1,180 @@
+package scene.primitives.accelerator.bvh;
+
+import static org.junit.Assert.*;
+import static scene.primitives.accelerator.bvh.BoundingVolumeHierarchyUTest.assertSameHits;
+import static scene.primitives.accelerator.bvh.BoundingVolumeHierarchyUTest.createMixedScene;
+import static scene.primitives.accelerator.bvh.BoundingVolumeHierarchyUTest.randomPosition;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import core.math.Point3;
+import core.math.Transformation;
+import scene.geometry.impl.Triangle;
+import scene.geometry.impl.TriangleMesh;
+import scene.primitives.Primitive;
+import scene.primitives.accelerator.bvh.BoundingVolumeHierarchy.SplitMethod;
+import scene.primitives.accelerator.bvh.BoundingVolumeHierarchyUTest.MovableSphere;
+import scene.primitives.accelerator.bvh.tree.SpatialSplitTreeBuilder;
+import scene.primitives.impl.GeometricPrimitive;
+import scene.primitives.impl.SimpleAggregate;
+
+public class LinearTreeCacheUTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip()
+    {
+        assertRoundTrip(SplitMethod.SURFACE_AREA_HEURISTIC);
+    }
+
+    // Spatial splits reference some primitives more than once.
+    @Test
+    public void testSpatialSplitRoundTrip()
+    {
+        assertRoundTrip(SplitMethod.SPATIAL_SPLIT);
+    }
+
+    // Spatial splits clip triangles, so triangles with the same bounds but different vertices
+    // build different trees; the other methods only see the bounds.
+    @Test
+    public void testSpatialSplitKeyCoversVertices()
+    {
+        LinearTreeCache cache = new LinearTreeCache(folder.getRoot().getPath());
+        List<Primitive> triangle = createTriangle(new Point3(0, 0, 0));
+        List<Primitive> flippedTriangle = createTriangle(new Point3(1, 1, 0));
+        List<PrimitiveInfo> primitiveInfos = new ArrayList<>();
+        primitiveInfos.add(new PrimitiveInfo(0, triangle.get(0).worldBound()));
+        List<PrimitiveInfo> flippedPrimitiveInfos = new ArrayList<>();
+        flippedPrimitiveInfos.add(new PrimitiveInfo(0, flippedTriangle.get(0).worldBound()));
+        double budget = SpatialSplitTreeBuilder.DEFAULT_SPLIT_BUDGET;
+
+        assertArrayEquals(cache.computeKey(triangle, primitiveInfos, SplitMethod.SURFACE_AREA_HEURISTIC, 4, budget),
+                          cache.computeKey(flippedTriangle, flippedPrimitiveInfos,
+                                           SplitMethod.SURFACE_AREA_HEURISTIC, 4, budget));
+        assertFalse(Arrays.equals(cache.computeKey(triangle, primitiveInfos, SplitMethod.SPATIAL_SPLIT, 4, budget),
+                                  cache.computeKey(flippedTriangle, flippedPrimitiveInfos,
+                                                   SplitMethod.SPATIAL_SPLIT, 4, budget)));
+    }
+
+    // A cache entry whose nodes point outside the tree or the primitive order must be rebuilt
+    // rather than traversed.
+    @Test
+    public void testCorruptNodesAreRebuilt() throws IOException
+    {
+        LinearTreeCache cache = new LinearTreeCache(folder.getRoot().getPath());
+        Random random = new Random(8);
+        List<Primitive> primitives = createMixedScene(random);
+        BoundingVolumeHierarchy built = new BoundingVolumeHierarchy(primitives, 4, SplitMethod.SURFACE_AREA_HEURISTIC,
+                                                                    cache);
+        int numReferences = built.getNumReferences();
+
+        // the node info precedes the primitive order at the end of the file; point the root's
+        // second child past the last node
+        File cacheFile = folder.getRoot().listFiles()[0];
+        try (RandomAccessFile file = new RandomAccessFile(cacheFile, "rw"))
+        {
+            int numNodes = (int) ((file.length() - 56 - 4L * numReferences) / (6 * 8 + 2 * 4));
+            file.seek(file.length() - 4L * numReferences - 2 * 4 * numNodes);
+            file.writeInt(numNodes);
+        }
+
+        BoundingVolumeHierarchy bvh = new BoundingVolumeHierarchy(primitives, 4, SplitMethod.SURFACE_AREA_HEURISTIC,
+                                                                  cache);
+        assertSameHits(bvh, new SimpleAggregate(new LinkedHashSet<>(primitives)), random);
+    }
+
+    // Refitting moving primitives must not add a cache entry for every rebuild.
+    @Test
+    public void testRefitRebuildIsNotStored()
+    {
+        LinearTreeCache cache = new LinearTreeCache(folder.getRoot().getPath());
+        Random random = new Random(7);
+        List<Primitive> spheres = new ArrayList<>();
+        for (int i = 0; i < 300; i++)
+        {
+            spheres.add(new MovableSphere(randomPosition(random)));
+        }
+        BoundingVolumeHierarchy bvh = new BoundingVolumeHierarchy(spheres, 4, SplitMethod.SURFACE_AREA_HEURISTIC, cache);
+        assertEquals(1, folder.getRoot().listFiles().length);
+
+        for (int frame = 0; frame < 3; frame++)
+        {
+            for (Primitive sphere : spheres)
+            {
+                ((MovableSphere) sphere).moveTo(randomPosition(random));
+            }
+            assertTrue(bvh.refit(1.1));
+        }
+        assertEquals(1, folder.getRoot().listFiles().length);
+        assertSameHits(bvh, new SimpleAggregate(new LinkedHashSet<>(spheres)), random);
+    }
+
+    // A single triangle whose other two vertices are (1, 0, 0) and (0, 1, 0).
+    private static List<Primitive> createTriangle(Point3 vertex)
+    {
+        Transformation identity = Transformation.IDENTITY;
+        TriangleMesh mesh = Triangle.createTriangleMesh(identity, identity, false, 1, new int[] { 0, 1, 2 },
+                                                        new Point3[] { vertex, new Point3(1, 0, 0),
+                                                                       new Point3(0, 1, 0) },
+                                                        null, null, null);
+        List<Primitive> primitives = new ArrayList<>();
+        for (Triangle triangle : Triangle.getTriangles(mesh, identity, identity, false))
+        {
+            primitives.add(new GeometricPrimitive(triangle, null));
+        }
+        return primitives;
+    }
+
+    // A stored tree must load back with the same nodes and primitive order, and a BVH built from it
+    // must find the same hits as a brute force search.
+    private void assertRoundTrip(SplitMethod splitMethod)
+    {
+        LinearTreeCache cache = new LinearTreeCache(folder.getRoot().getPath());
+        Random random = new Random(6);
+        List<Primitive> primitives = createMixedScene(random);
+        List<PrimitiveInfo> primitiveInfos = new ArrayList<>();
+        for (int i = 0; i < primitives.size(); i++)
+        {
+            primitiveInfos.add(new PrimitiveInfo(i, primitives.get(i).worldBound()));
+        }
+        double budget = SpatialSplitTreeBuilder.DEFAULT_SPLIT_BUDGET;
+        List<Primitive> builtOrder = new ArrayList<>();
+        LinearTree built = BoundingVolumeHierarchy.getTreeBuilder(splitMethod, primitives, 4, budget)
+                                                  .build(primitiveInfos, builtOrder);
+
+        byte[] key = cache.computeKey(primitives, primitiveInfos, splitMethod, 4, budget);
+        assertNull(cache.load(key, primitives, new ArrayList<>()));
+        cache.store(key, built, primitives, builtOrder);
+        assertEquals(1, folder.getRoot().listFiles().length);
+
+        List<Primitive> loadedOrder = new ArrayList<>();
+        LinearTree loaded = cache.load(key, primitives, loadedOrder);
+        assertNotNull(loaded);
+        assertEquals(built.getNumNodes(), loaded.getNumNodes());
+        assertArrayEquals(built.getBoundsArray(), loaded.getBoundsArray(), 0);
+        assertArrayEquals(built.getInfoArray(), loaded.getInfoArray());
+        assertEquals(builtOrder.size(), loadedOrder.size());
+        for (int i = 0; i < builtOrder.size(); i++)
+        {
+            assertSame(builtOrder.get(i), loadedOrder.get(i));
+        }
+
+        // a BVH built with the cache uses the entry instead of adding another one
+        BoundingVolumeHierarchy bvh = new BoundingVolumeHierarchy(primitives, 4, splitMethod, cache);
+        assertEquals(1, folder.getRoot().listFiles().length);
+        assertSameHits(bvh, new SimpleAggregate(new LinkedHashSet<>(primitives)), random);
+    }
+}
@@ -0,0 +1,122 @@
+package scene.primitives.accelerator.bvh;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import core.Ray;
+import core.math.Direction3;
+import core.math.Point3;
+import core.math.Transformation;
+import scene.geometry.impl.IndexedTriangle;
+import scene.geometry.impl.IndexedTriangleMesh;
+import scene.geometry.impl.Triangle;
+import scene.geometry.impl.TriangleMesh;
+import scene.interactions.impl.SurfaceInteraction;
+import scene.primitives.Primitive;
+import scene.primitives.accelerator.bvh.BoundingVolumeHierarchy.SplitMethod;
+import scene.primitives.impl.GeometricPrimitive;
+
+public class MeshBoundingVolumeHierarchyUTest
+{
+    private static final int NUM_TRIANGLES = 500;
+    private static final int NUM_RAYS = 2000;
+
+    // A BVH over an indexed mesh must find the same hits as a BVH over one Triangle per mesh
+    // triangle, whether built from flat arrays or from per-triangle stand-ins, and whether traced
+    // directly or deferred through a top-level BVH.
+    @Test
+    public void testSameHitsAsTriangles()
+    {
+        assertSameHitsAsTriangles(SplitMethod.SPATIAL_SPLIT);
+    }
+
+    @Test
+    public void testSameHitsAsTrianglesFromArrays()
+    {
+        assertSameHitsAsTriangles(SplitMethod.SURFACE_AREA_HEURISTIC);
+    }
+
+    private static void assertSameHitsAsTriangles(SplitMethod splitMethod)
+    {
+        Random random = new Random(3);
+        Transformation transform = Transformation.getTranslation(1, 2, 3);
+        double[] positions = new double[9 * NUM_TRIANGLES];
+        int[] vertexIndices = new int[3 * NUM_TRIANGLES];
+        Point3[] points = new Point3[3 * NUM_TRIANGLES];
+        for (int i = 0; i < 3 * NUM_TRIANGLES; i += 3)
+        {
+            Point3 center = randomPosition(random, 20);
+            for (int v = 0; v < 3; v++)
+            {
+                Point3 p = center.plus(new Direction3(randomPosition(random, 2)));
+                positions[3 * (i + v)] = p.x();
+                positions[3 * (i + v) + 1] = p.y();
+                positions[3 * (i + v) + 2] = p.z();
+                points[i + v] = p;
+                vertexIndices[i + v] = i + v;
+            }
+        }
+
+        IndexedTriangleMesh indexedMesh = new IndexedTriangleMesh(transform, false, vertexIndices,
+                                                                  positions, null, null);
+        MeshBoundingVolumeHierarchy meshBvh = new MeshBoundingVolumeHierarchy(indexedMesh, null, 4,
+                                                                              splitMethod);
+        BoundingVolumeHierarchy instancedMeshBvh = new BoundingVolumeHierarchy(List.of(meshBvh), 4,
+                                                                               SplitMethod.SURFACE_AREA_HEURISTIC);
+
+        TriangleMesh mesh = Triangle.createTriangleMesh(transform, transform.inverse(), false,
+                                                        NUM_TRIANGLES, vertexIndices, points,
+                                                        null, null, null);
+        List<Primitive> triangles = new ArrayList<>();
+        for (Triangle triangle : Triangle.getTriangles(mesh, transform, transform.inverse(), false))
+        {
+            triangles.add(new GeometricPrimitive(triangle, null));
+        }
+        BoundingVolumeHierarchy bvh = new BoundingVolumeHierarchy(triangles, 4, SplitMethod.SURFACE_AREA_HEURISTIC);
+
+        int hits = 0;
+        for (int i = 0; i < NUM_RAYS; i++)
+        {
+            Point3 origin = randomPosition(random, 30);
+            Direction3 direction = new Direction3(random.nextGaussian(),
+                                                  random.nextGaussian(),
+                                                  random.nextGaussian()).normalize();
+            Ray meshRay = new Ray(origin, direction, Double.POSITIVE_INFINITY, 0, null);
+            Ray triangleRay = new Ray(origin, direction, Double.POSITIVE_INFINITY, 0, null);
+            Ray deferredRay = new Ray(origin, direction, Double.POSITIVE_INFINITY, 0, null);
+
+            SurfaceInteraction meshHit = meshBvh.intersect(meshRay);
+            SurfaceInteraction triangleHit = bvh.intersect(triangleRay);
+            SurfaceInteraction deferredHit = instancedMeshBvh.intersect(deferredRay);
+            assertEquals(triangleHit == null, meshHit == null);
+            assertEquals(meshHit == null, deferredHit == null);
+            if (triangleHit != null)
+            {
+                hits++;
+                assertSame(meshBvh, meshHit.getPrimitive());
+                assertTrue(meshHit.getShape() instanceof IndexedTriangle);
+                assertEquals(triangleRay.getTMax(), meshRay.getTMax(), 1e-9);
+                assertEquals(0, triangleHit.getP().distanceSquared(meshHit.getP()), 1e-9);
+                assertEquals(1, Math.abs(triangleHit.getN().dot(meshHit.getN())), 1e-9);
+                assertSame(meshBvh, deferredHit.getPrimitive());
+                assertEquals(meshRay.getTMax(), deferredRay.getTMax(), 0);
+                assertEquals(0, meshHit.getP().distanceSquared(deferredHit.getP()), 0);
+            }
+            assertEquals(bvh.intersectP(new Ray(origin, direction, 10, 0, null)),
+                         meshBvh.intersectP(new Ray(origin, direction, 10, 0, null)));
+        }
+        assertTrue(hits > 0);
+    }
+
+    private static Point3 randomPosition(Random random, double extent)
+    {
+        return new Point3((random.nextDouble() * 2 - 1) * extent,
+                          (random.nextDouble() * 2 - 1) * extent,
+                          (random.nextDouble() * 2 - 1) * extent);
+    }
+}
@@ -0,0 +1,42 @@
+package scene.primitives.accelerator.bvh;
+
+import static scene.primitives.accelerator.bvh.BoundingVolumeHierarchyUTest.assertSameHits;
+import static scene.primitives.accelerator.bvh.BoundingVolumeHierarchyUTest.createMixedScene;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import scene.primitives.Primitive;
+import scene.primitives.accelerator.bvh.BoundingVolumeHierarchy.SplitMethod;
+import scene.primitives.impl.SimpleAggregate;
+
+public class WideBoundingVolumeHierarchyUTest
+{
+    @Test
+    public void testFourWideMatchesBruteForce()
+    {
+        assertMatchesBruteForce(4);
+    }
+
+    @Test
+    public void testEightWideMatchesBruteForce()
+    {
+        assertMatchesBruteForce(8);
+    }
+
+    // Collapsing the binary tree of every split method must keep exactly the hits of a brute force
+    // search.
+    private static void assertMatchesBruteForce(int width)
+    {
+        for (SplitMethod splitMethod : SplitMethod.values())
+        {
+            Random random = new Random(5);
+            List<Primitive> primitives = createMixedScene(random);
+            WideBoundingVolumeHierarchy bvh = new WideBoundingVolumeHierarchy(primitives, 4, splitMethod, width);
+            assertSameHits(bvh, new SimpleAggregate(new LinkedHashSet<>(primitives)), random);
+        }
+    }
+}
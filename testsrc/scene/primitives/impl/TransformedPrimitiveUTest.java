@@ -0,0 +1,157 @@
+package scene.primitives.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import core.Ray;
+import core.math.Direction3;
+import core.math.Point3;
+import core.math.Transformation;
+import scene.geometry.impl.Sphere;
+import scene.geometry.impl.Triangle;
+import scene.geometry.impl.TriangleMesh;
+import scene.interactions.impl.SurfaceInteraction;
+import scene.primitives.Aggregate;
+import scene.primitives.Primitive;
+import scene.primitives.accelerator.bvh.BoundingVolumeHierarchy;
+import scene.primitives.accelerator.bvh.BoundingVolumeHierarchy.SplitMethod;
+
+public class TransformedPrimitiveUTest
+{
+    private static final int NUM_SPHERES = 20;
+    private static final int NUM_TRIANGLES = 20;
+    private static final int NUM_RAYS = 5000;
+
+    // Instances of one BVH under rotations, non-uniform scales and translations must find the same
+    // hits, at the same t and world space points, as copies of the geometry built in world space.
+    @Test
+    public void testInstancesMatchTransformedCopies()
+    {
+        Random random = new Random(8);
+        Point3[] sphereCenters = new Point3[NUM_SPHERES];
+        double[] sphereRadii = new double[NUM_SPHERES];
+        for (int i = 0; i < NUM_SPHERES; i++)
+        {
+            sphereCenters[i] = randomPosition(random, 3);
+            sphereRadii[i] = 0.1 + 0.5 * random.nextDouble();
+        }
+        Point3[] vertices = new Point3[3 * NUM_TRIANGLES];
+        int[] vertexIndices = new int[3 * NUM_TRIANGLES];
+        for (int i = 0; i < vertices.length; i++)
+        {
+            vertices[i] = randomPosition(random, 3);
+            vertexIndices[i] = i;
+        }
+
+        List<Transformation> instanceTransforms = new ArrayList<>();
+        for (int i = 0; i < 6; i++)
+        {
+            Direction3 axis = new Direction3(random.nextGaussian(), random.nextGaussian(), random.nextGaussian());
+            Point3 position = randomPosition(random, 12);
+            instanceTransforms.add(Transformation.getTranslation(position.x(), position.y(), position.z())
+                                                 .compose(Transformation.getRotation(axis, 360 * random.nextDouble()))
+                                                 .compose(Transformation.getScale(0.5 + random.nextDouble(),
+                                                                                  0.5 + random.nextDouble(),
+                                                                                  0.5 + random.nextDouble())));
+        }
+
+        // the shared object, and the instances of it
+        List<Primitive> objectPrimitives = createGeometry(Transformation.IDENTITY, sphereCenters, sphereRadii,
+                                                          vertices, vertexIndices);
+        Map<Primitive, Integer> objectIndices = new IdentityHashMap<>();
+        for (int i = 0; i < objectPrimitives.size(); i++)
+        {
+            objectIndices.put(objectPrimitives.get(i), i);
+        }
+        Primitive object = new BoundingVolumeHierarchy(objectPrimitives, 4, SplitMethod.SURFACE_AREA_HEURISTIC);
+        List<Primitive> instances = new ArrayList<>();
+        for (Transformation instanceTransform : instanceTransforms)
+        {
+            instances.add(new TransformedPrimitive(object, instanceTransform));
+        }
+        Aggregate instanced = new BoundingVolumeHierarchy(instances, 4, SplitMethod.SURFACE_AREA_HEURISTIC);
+
+        // the geometry transformed into world space, one copy per instance
+        List<Primitive> copies = new ArrayList<>();
+        for (Transformation instanceTransform : instanceTransforms)
+        {
+            List<Primitive> copy = createGeometry(instanceTransform, sphereCenters, sphereRadii, vertices,
+                                                  vertexIndices);
+            for (int i = 0; i < copy.size(); i++)
+            {
+                objectIndices.put(copy.get(i), i);
+            }
+            copies.addAll(copy);
+        }
+        Aggregate reference = new SimpleAggregate(new LinkedHashSet<>(copies));
+
+        int hits = 0;
+        for (int i = 0; i < NUM_RAYS; i++)
+        {
+            Point3 origin = randomPosition(random, 25);
+            Direction3 direction = new Direction3(random.nextGaussian(),
+                                                  random.nextGaussian(),
+                                                  random.nextGaussian()).normalize();
+            Ray instancedRay = new Ray(origin, direction, Double.POSITIVE_INFINITY, 0, null);
+            Ray referenceRay = new Ray(origin, direction, Double.POSITIVE_INFINITY, 0, null);
+
+            SurfaceInteraction instancedHit = instanced.intersect(instancedRay);
+            SurfaceInteraction referenceHit = reference.intersect(referenceRay);
+            assertEquals(referenceHit == null, instancedHit == null);
+            if (referenceHit != null)
+            {
+                assertEquals(objectIndices.get(referenceHit.getPrimitive()),
+                             objectIndices.get(instancedHit.getPrimitive()));
+                assertEquals(referenceRay.getTMax(), instancedRay.getTMax(), 1e-7);
+                Point3 instancedP = instancedHit.getP();
+                Point3 referenceP = referenceHit.getP();
+                for (int axis = 0; axis < 3; axis++)
+                {
+                    assertEquals(referenceP.get(axis), instancedP.get(axis), 1e-7);
+                }
+                hits++;
+            }
+            assertEquals(reference.intersectP(new Ray(origin, direction, 20, 0, null)),
+                         instanced.intersectP(new Ray(origin, direction, 20, 0, null)));
+        }
+        assertTrue(hits > 0);
+    }
+
+    private static List<Primitive> createGeometry(Transformation objectToWorld, Point3[] sphereCenters,
+            double[] sphereRadii, Point3[] vertices, int[] vertexIndices)
+    {
+        List<Primitive> primitives = new ArrayList<>();
+        for (int i = 0; i < sphereCenters.length; i++)
+        {
+            Point3 c = sphereCenters[i];
+            Transformation sphereToWorld = objectToWorld.compose(Transformation.getTranslation(c.x(), c.y(), c.z()));
+            primitives.add(new GeometricPrimitive(new Sphere(sphereToWorld, sphereToWorld.inverse(), false,
+                                                             sphereRadii[i]),
+                                                  null));
+        }
+        Transformation worldToObject = objectToWorld.inverse();
+        TriangleMesh mesh = Triangle.createTriangleMesh(objectToWorld, worldToObject, false,
+                                                        vertexIndices.length / 3, vertexIndices, vertices,
+                                                        null, null, null);
+        for (Triangle triangle : Triangle.getTriangles(mesh, objectToWorld, worldToObject, false))
+        {
+            primitives.add(new GeometricPrimitive(triangle, null));
+        }
+        return primitives;
+    }
+
+    private static Point3 randomPosition(Random random, double extent)
+    {
+        return new Point3((2 * random.nextDouble() - 1) * extent,
+                          (2 * random.nextDouble() - 1) * extent,
+                          (2 * random.nextDouble() - 1) * extent);
+    }
+}